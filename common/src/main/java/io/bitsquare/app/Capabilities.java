@@ -3,8 +3,10 @@ package io.bitsquare.app;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 public class Capabilities {
     private static final Logger log = LoggerFactory.getLogger(Capabilities.class);
@@ -15,7 +17,10 @@ public class Capabilities {
     // We don't use the Enum in any serialized data, as changes in the enum would break backwards compatibility. We use the ordinal integer instead.
     // Sequence in the enum must not be changed (append only).
     public enum Capability {
-        TRADE_STATISTICS
+        TRADE_STATISTICS,
+        FRAMED_WIRE_FORMAT,
+        GET_DATA_KEY_FILTER,
+        GET_DATA_CHUNKED_RESPONSE
     }
 
     public static void setCapabilities(ArrayList<Integer> capabilities) {
@@ -23,7 +28,10 @@ public class Capabilities {
     }
 
     private static ArrayList<Integer> capabilities = new ArrayList<>(Arrays.asList(
-            Capability.TRADE_STATISTICS.ordinal()
+            Capability.TRADE_STATISTICS.ordinal(),
+            Capability.FRAMED_WIRE_FORMAT.ordinal(),
+            Capability.GET_DATA_KEY_FILTER.ordinal(),
+            Capability.GET_DATA_CHUNKED_RESPONSE.ordinal()
     ));
 
     /**
@@ -32,4 +40,14 @@ public class Capabilities {
     public static ArrayList<Integer> getCapabilities() {
         return capabilities;
     }
+
+    /**
+     * @return True if we support the given capability and the peers capabilities (may be null for old peers) 
+     * contain it as well.
+     */
+    public static boolean isSupportedByBoth(Capability capability, @Nullable List<Integer> peersCapabilities) {
+        return peersCapabilities != null &&
+                capabilities.contains(capability.ordinal()) &&
+                peersCapabilities.contains(capability.ordinal());
+    }
 }
@@ -0,0 +1,250 @@
+package io.bitsquare.common;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Hashed timing wheel (see Varghese and Lauck, "Hashed and Hierarchical Timing Wheels").
+ * <p>
+ * The timeouts are kept in a ring of buckets, each covering one tick. Scheduling and cancelling is O(1), the
+ * worker thread only visits the bucket of the current tick. Timeouts further away than one round of the wheel stay
+ * in their bucket with a rounds counter. If no timeout is pending the worker thread waits until one gets scheduled.
+ * <p>
+ * Due timeouts of one tick are handed over as batch to the expiredHandler, so the caller pays one executor
+ * call per tick and not one per timeout.
+ */
+class TimingWheel {
+    private static final Logger log = LoggerFactory.getLogger(TimingWheel.class);
+
+    private final long tickMillis;
+    private final int mask;
+    private final Bucket[] wheel;
+    private final Consumer<List<Timeout>> expiredHandler;
+    private final Queue<Timeout> scheduledTimeouts = new ConcurrentLinkedQueue<>();
+    private final Queue<Timeout> cancelledTimeouts = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger numPendingTimeouts = new AtomicInteger();
+    private final Object lock = new Object();
+    private final long startTime;
+
+    // Only accessed by the worker thread
+    private long tick;
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Constructor
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * @param wheelSize      Number of buckets, must be a power of 2.
+     * @param expiredHandler Called from the worker thread with the timeouts which got due at a tick.
+     */
+    TimingWheel(long tickMillis, int wheelSize, String threadName, Consumer<List<Timeout>> expiredHandler) {
+        if (tickMillis <= 0 || wheelSize <= 0 || Integer.bitCount(wheelSize) != 1)
+            throw new IllegalArgumentException("tickMillis must be positive and wheelSize a power of 2");
+
+        this.tickMillis = tickMillis;
+        this.expiredHandler = expiredHandler;
+        mask = wheelSize - 1;
+        wheel = new Bucket[wheelSize];
+        for (int i = 0; i < wheelSize; i++)
+            wheel[i] = new Bucket();
+
+        startTime = System.currentTimeMillis();
+        Thread worker = new Thread(this::runWorker, threadName);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // API
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Can be called from any thread.
+     */
+    Timeout schedule(long delayMillis, Runnable task) {
+        Timeout timeout = new Timeout(System.currentTimeMillis() + Math.max(0, delayMillis), task);
+        scheduledTimeouts.add(timeout);
+        // Wake up the worker if it waits for the first timeout
+        if (numPendingTimeouts.getAndIncrement() == 0) {
+            synchronized (lock) {
+                lock.notify();
+            }
+        }
+        return timeout;
+    }
+
+    /**
+     * Can be called from any thread. The task is not executed after cancel returns, unless it is already running.
+     */
+    void cancel(Timeout timeout) {
+        if (timeout.cancelled.compareAndSet(false, true))
+            cancelledTimeouts.add(timeout);
+    }
+
+    int getNumPendingTimeouts() {
+        return numPendingTimeouts.get();
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Worker
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    private void runWorker() {
+        //noinspection InfiniteLoopStatement
+        while (true) {
+            try {
+                waitForNextTick();
+                removeCancelledTimeouts();
+                addScheduledTimeouts();
+
+                long tickDeadline = startTime + (tick + 1) * tickMillis;
+                List<Timeout> expired = wheel[(int) (tick & mask)].expire(tickDeadline);
+                tick++;
+                if (!expired.isEmpty()) {
+                    numPendingTimeouts.addAndGet(-expired.size());
+                    expiredHandler.accept(expired);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Throwable t) {
+                log.error("Error at timing wheel worker. " + t.getMessage());
+                t.printStackTrace();
+            }
+        }
+    }
+
+    private void waitForNextTick() throws InterruptedException {
+        synchronized (lock) {
+            if (numPendingTimeouts.get() == 0) {
+                while (numPendingTimeouts.get() == 0)
+                    lock.wait();
+
+                // All buckets are empty, so we can jump to the current tick without visiting the skipped ones
+                tick = Math.max(tick, (System.currentTimeMillis() - startTime) / tickMillis);
+            }
+        }
+
+        long sleepMillis = startTime + (tick + 1) * tickMillis - System.currentTimeMillis();
+        if (sleepMillis > 0)
+            Thread.sleep(sleepMillis);
+    }
+
+    private void addScheduledTimeouts() {
+        Timeout timeout;
+        while ((timeout = scheduledTimeouts.poll()) != null) {
+            if (timeout.cancelled.get()) {
+                numPendingTimeouts.decrementAndGet();
+                continue;
+            }
+
+            long deadlineTick = (timeout.deadline - startTime + tickMillis - 1) / tickMillis;
+            // We subtract one as the bucket of a tick is expired at the end of that tick
+            long targetTick = Math.max(tick, deadlineTick - 1);
+            timeout.remainingRounds = (targetTick - tick) / wheel.length;
+            wheel[(int) (targetTick & mask)].add(timeout);
+        }
+    }
+
+    private void removeCancelledTimeouts() {
+        Timeout timeout;
+        while ((timeout = cancelledTimeouts.poll()) != null) {
+            // Not yet added to a bucket timeouts get dropped in addScheduledTimeouts
+            if (timeout.bucket != null) {
+                timeout.bucket.remove(timeout);
+                numPendingTimeouts.decrementAndGet();
+            }
+        }
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Static classes
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    static final class Timeout {
+        private final long deadline;
+        private final Runnable task;
+        private final AtomicBoolean cancelled = new AtomicBoolean();
+
+        // Only accessed by the worker thread
+        private long remainingRounds;
+        private Bucket bucket;
+        private Timeout prev;
+        private Timeout next;
+
+        private Timeout(long deadline, Runnable task) {
+            this.deadline = deadline;
+            this.task = task;
+        }
+
+        boolean isCancelled() {
+            return cancelled.get();
+        }
+
+        void run() {
+            if (!isCancelled())
+                task.run();
+        }
+    }
+
+    // Doubly linked list, so we can remove a cancelled timeout in O(1)
+    private static final class Bucket {
+        private Timeout head;
+        private Timeout tail;
+
+        void add(Timeout timeout) {
+            timeout.bucket = this;
+            if (head == null) {
+                head = tail = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.prev = tail;
+                tail = timeout;
+            }
+        }
+
+        void remove(Timeout timeout) {
+            if (timeout.prev != null)
+                timeout.prev.next = timeout.next;
+            else
+                head = timeout.next;
+
+            if (timeout.next != null)
+                timeout.next.prev = timeout.prev;
+            else
+                tail = timeout.prev;
+
+            timeout.prev = null;
+            timeout.next = null;
+            timeout.bucket = null;
+        }
+
+        List<Timeout> expire(long tickDeadline) {
+            List<Timeout> expired = new ArrayList<>();
+            Timeout timeout = head;
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                if (timeout.remainingRounds <= 0 && timeout.deadline <= tickDeadline) {
+                    remove(timeout);
+                    expired.add(timeout);
+                } else if (timeout.remainingRounds > 0) {
+                    timeout.remainingRounds--;
+                }
+                timeout = next;
+            }
+            return expired;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package io.bitsquare.common;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Timer based on a shared hashed timing wheel. Compared to the FrameRateTimer starting and stopping a timer is O(1)
+ * and the UserThread is only called if a timer is due, not at each frame interval for all running timers.
+ * Used in headless apps with many timers like the seed node (see UserThread.setTimerClass).
+ */
+public class TimingWheelTimer implements Timer {
+    private static final Logger log = LoggerFactory.getLogger(TimingWheelTimer.class);
+
+    // Same resolution as the FrameRateTimer. With 512 buckets one round of the wheel covers about 51 sec.
+    private static final long TICK_MS = MasterTimer.FRAME_INTERVAL_MS;
+    private static final int WHEEL_SIZE = 512;
+    private static final TimingWheel timingWheel = new TimingWheel(TICK_MS, WHEEL_SIZE, "TimingWheelTimer",
+            TimingWheelTimer::runOnUserThread);
+
+    private Runnable runnable;
+    private long interval;
+    private boolean isPeriodically;
+    private volatile boolean stopped;
+    private volatile TimingWheel.Timeout timeout;
+
+    public TimingWheelTimer() {
+    }
+
+    @Override
+    public Timer runLater(Duration delay, Runnable runnable) {
+        this.runnable = runnable;
+        schedule(delay.toMillis());
+        return this;
+    }
+
+    @Override
+    public Timer runPeriodically(Duration interval, Runnable runnable) {
+        this.runnable = runnable;
+        this.interval = interval.toMillis();
+        isPeriodically = true;
+        schedule(this.interval);
+        return this;
+    }
+
+    @Override
+    public void stop() {
+        stopped = true;
+        TimingWheel.Timeout timeout = this.timeout;
+        if (timeout != null)
+            timingWheel.cancel(timeout);
+    }
+
+    static int getNumPendingTimers() {
+        return timingWheel.getNumPendingTimeouts();
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    private void schedule(long delay) {
+        timeout = timingWheel.schedule(delay, this::run);
+        // stop might have been called in between from another thread
+        if (stopped)
+            timingWheel.cancel(timeout);
+    }
+
+    private void run() {
+        if (!stopped) {
+            try {
+                runnable.run();
+            } catch (Throwable t) {
+                // We don't rethrow as that would skip the other timers which got due at the same tick
+                log.error(t.getMessage());
+                t.printStackTrace();
+                stop();
+            }
+
+            if (isPeriodically && !stopped)
+                schedule(interval);
+        }
+    }
+
+    private static void runOnUserThread(List<TimingWheel.Timeout> expired) {
+        UserThread.execute(() -> expired.stream().forEach(TimingWheel.Timeout::run));
+    }
+}
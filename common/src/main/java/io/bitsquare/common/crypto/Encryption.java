@@ -44,6 +44,19 @@ public class Encryption {
 
     private static final String HMAC = "HmacSHA256";
 
+    // Cipher and Mac are not thread safe, so we keep one instance per thread instead of looking up the provider at
+    // each call. init() resets an instance, so a previous failed call does not leave a state behind.
+    private static final ThreadLocal<Cipher> symCipher = ThreadLocal.withInitial(() -> getCipher(SYM_CIPHER));
+    private static final ThreadLocal<Cipher> asymCipher = ThreadLocal.withInitial(() -> getCipher(ASYM_CIPHER));
+    private static final ThreadLocal<Mac> hmac = ThreadLocal.withInitial(() -> {
+        try {
+            return Mac.getInstance(HMAC, "BC");
+        } catch (NoSuchAlgorithmException | NoSuchProviderException e) {
+            log.error("Could not create Mac. " + e.getMessage());
+            throw new RuntimeException(e);
+        }
+    });
+
     public static KeyPair generateKeyPair() {
         long ts = System.currentTimeMillis();
         try {
@@ -65,7 +78,7 @@ public class Encryption {
 
     private static byte[] encrypt(byte[] payload, SecretKey secretKey) throws CryptoException {
         try {
-            Cipher cipher = Cipher.getInstance(SYM_CIPHER, "BC");
+            Cipher cipher = symCipher.get();
             cipher.init(Cipher.ENCRYPT_MODE, secretKey);
             return cipher.doFinal(payload);
         } catch (Throwable e) {
@@ -76,7 +89,7 @@ public class Encryption {
 
     private static byte[] decrypt(byte[] encryptedPayload, SecretKey secretKey) throws CryptoException {
         try {
-            Cipher cipher = Cipher.getInstance(SYM_CIPHER, "BC");
+            Cipher cipher = symCipher.get();
             cipher.init(Cipher.DECRYPT_MODE, secretKey);
             return cipher.doFinal(encryptedPayload);
         } catch (Throwable e) {
@@ -131,7 +144,7 @@ public class Encryption {
     }
 
     private static byte[] getHmac(byte[] payload, SecretKey secretKey) throws NoSuchAlgorithmException, InvalidKeyException, NoSuchProviderException {
-        Mac mac = Mac.getInstance(HMAC, "BC");
+        Mac mac = hmac.get();
         mac.init(secretKey);
         return mac.doFinal(payload);
     }
@@ -172,7 +185,7 @@ public class Encryption {
 
     private static byte[] encryptSecretKey(SecretKey secretKey, PublicKey publicKey) throws CryptoException {
         try {
-            Cipher cipher = Cipher.getInstance(ASYM_CIPHER, "BC");
+            Cipher cipher = asymCipher.get();
             cipher.init(Cipher.WRAP_MODE, publicKey);
             return cipher.wrap(secretKey);
         } catch (Throwable e) {
@@ -183,7 +196,7 @@ public class Encryption {
 
     private static SecretKey decryptSecretKey(byte[] encryptedSecretKey, PrivateKey privateKey) throws CryptoException {
         try {
-            Cipher cipher = Cipher.getInstance(ASYM_CIPHER, "BC");
+            Cipher cipher = asymCipher.get();
             cipher.init(Cipher.UNWRAP_MODE, privateKey);
             return (SecretKey) cipher.unwrap(encryptedSecretKey, "AES", Cipher.SECRET_KEY);
         } catch (Throwable e) {
@@ -258,5 +271,13 @@ public class Encryption {
             throw new RuntimeException("Couldn't generate key");
         }
     }
-}
 
+    private static Cipher getCipher(String transformation) {
+        try {
+            return Cipher.getInstance(transformation, "BC");
+        } catch (Throwable e) {
+            log.error("Could not create Cipher. " + e.getMessage());
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -32,19 +32,27 @@ import java.security.NoSuchProviderException;
 public class Hash {
     private static final Logger log = LoggerFactory.getLogger(Hash.class);
 
-    /**
-     * @param data Data as byte array
-     * @return Hash of data
-     */
-    public static byte[] getHash(byte[] data) {
+    // MessageDigest is not thread safe, so we keep one instance per thread instead of looking up the provider at
+    // each call.
+    private static final ThreadLocal<MessageDigest> sha256Digest = ThreadLocal.withInitial(() -> {
         try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-256", "BC");
-            digest.update(data, 0, data.length);
-            return digest.digest();
+            return MessageDigest.getInstance("SHA-256", "BC");
         } catch (NoSuchAlgorithmException | NoSuchProviderException e) {
             log.error("Could not create MessageDigest for hash. " + e.getMessage());
             throw new RuntimeException(e);
         }
+    });
+
+    /**
+     * @param data Data as byte array
+     * @return Hash of data
+     */
+    public static byte[] getHash(byte[] data) {
+        MessageDigest digest = sha256Digest.get();
+        // digest() resets the instance, we reset anyway in case a previous call failed in between
+        digest.reset();
+        digest.update(data, 0, data.length);
+        return digest.digest();
     }
 
     /**
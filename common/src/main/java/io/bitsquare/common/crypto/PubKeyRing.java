@@ -24,9 +24,6 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.security.KeyFactory;
-import java.security.NoSuchAlgorithmException;
-import java.security.NoSuchProviderException;
 import java.security.PublicKey;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.X509EncodedKeySpec;
@@ -56,9 +53,9 @@ public final class PubKeyRing implements Payload {
     private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
         try {
             in.defaultReadObject();
-            signaturePubKey = KeyFactory.getInstance(Sig.KEY_ALGO, "BC").generatePublic(new X509EncodedKeySpec(signaturePubKeyBytes));
-            encryptionPubKey = KeyFactory.getInstance(Encryption.ASYM_KEY_ALGO, "BC").generatePublic(new X509EncodedKeySpec(encryptionPubKeyBytes));
-        } catch (InvalidKeySpecException | NoSuchAlgorithmException | NoSuchProviderException e) {
+            signaturePubKey = PublicKeyCache.get(Sig.KEY_ALGO, signaturePubKeyBytes);
+            encryptionPubKey = PublicKeyCache.get(Encryption.ASYM_KEY_ALGO, encryptionPubKeyBytes);
+        } catch (InvalidKeySpecException e) {
             e.printStackTrace();
             log.error(e.getMessage());
         } catch (Throwable t) {
@@ -0,0 +1,103 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.common.crypto;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.security.KeyFactory;
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+import java.security.PublicKey;
+import java.security.spec.InvalidKeySpecException;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Maps X509 encoded public keys to the decoded PublicKey objects.
+ * The same few keys (offer owners, arbitrators, filter and alert keys) are decoded again at each deserialization of
+ * a storage entry or message. Decoded keys are immutable, so all deserialized objects can share the same instance.
+ */
+public class PublicKeyCache {
+    private static final Logger log = LoggerFactory.getLogger(PublicKeyCache.class);
+
+    private static final int MAX_SIZE = 10_000;
+
+    private static final Cache<EncodedKey, PublicKey> cache = CacheBuilder.newBuilder()
+            .maximumSize(MAX_SIZE)
+            .build();
+
+    // KeyFactory is not thread safe, so we keep one instance per thread and algorithm
+    private static final ThreadLocal<Map<String, KeyFactory>> keyFactories = ThreadLocal.withInitial(HashMap::new);
+
+    /**
+     * @param keyAlgo Algorithm of the key, e.g. Sig.KEY_ALGO
+     * @param encoded X509 encoded public key
+     */
+    public static PublicKey get(String keyAlgo, byte[] encoded) throws InvalidKeySpecException {
+        EncodedKey encodedKey = new EncodedKey(keyAlgo, encoded);
+        PublicKey publicKey = cache.getIfPresent(encodedKey);
+        if (publicKey == null) {
+            publicKey = getKeyFactory(keyAlgo).generatePublic(new X509EncodedKeySpec(encoded));
+            // The array might get changed by the caller, so we use a copy as key
+            cache.put(new EncodedKey(keyAlgo, encoded.clone()), publicKey);
+        }
+        return publicKey;
+    }
+
+    private static KeyFactory getKeyFactory(String keyAlgo) {
+        return keyFactories.get().computeIfAbsent(keyAlgo, algo -> {
+            try {
+                return KeyFactory.getInstance(algo, "BC");
+            } catch (NoSuchAlgorithmException | NoSuchProviderException e) {
+                log.error("Could not create KeyFactory. " + e.getMessage());
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    private static final class EncodedKey {
+        private final String keyAlgo;
+        private final byte[] encoded;
+        private final int hashCode;
+
+        EncodedKey(String keyAlgo, byte[] encoded) {
+            this.keyAlgo = keyAlgo;
+            this.encoded = encoded;
+            hashCode = 31 * keyAlgo.hashCode() + Arrays.hashCode(encoded);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof EncodedKey)) return false;
+
+            EncodedKey that = (EncodedKey) o;
+            return keyAlgo.equals(that.keyAlgo) && Arrays.equals(encoded, that.encoded);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
@@ -23,7 +23,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.security.KeyFactory;
 import java.security.PublicKey;
 import java.security.spec.X509EncodedKeySpec;
 import java.util.Arrays;
@@ -50,7 +49,7 @@ public final class SealedAndSigned implements Payload {
     private void readObject(java.io.ObjectInputStream in) throws IOException, ClassNotFoundException {
         try {
             in.defaultReadObject();
-            sigPublicKey = KeyFactory.getInstance(Sig.KEY_ALGO, "BC").generatePublic(new X509EncodedKeySpec(sigPublicKeyBytes));
+            sigPublicKey = PublicKeyCache.get(Sig.KEY_ALGO, sigPublicKeyBytes);
         } catch (Throwable t) {
             log.warn("Exception at readObject: " + t.getMessage());
         }
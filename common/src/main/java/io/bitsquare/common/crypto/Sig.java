@@ -38,6 +38,17 @@ public class Sig {
     public static final String KEY_ALGO = "DSA";
     private static final String ALGO = "SHA256withDSA";
 
+    // Signature is not thread safe, so we keep one instance per thread instead of looking up the provider at
+    // each call. initSign/initVerify reset the instance.
+    private static final ThreadLocal<Signature> signatureInstance = ThreadLocal.withInitial(() -> {
+        try {
+            return Signature.getInstance(ALGO, "BC");
+        } catch (NoSuchAlgorithmException | NoSuchProviderException e) {
+            log.error("Could not create Signature. " + e.getMessage());
+            throw new RuntimeException(e);
+        }
+    });
+
 
     /**
      * @return keyPair
@@ -67,11 +78,11 @@ public class Sig {
      */
     public static byte[] sign(PrivateKey privateKey, byte[] data) throws CryptoException {
         try {
-            Signature sig = Signature.getInstance(ALGO, "BC");
+            Signature sig = signatureInstance.get();
             sig.initSign(privateKey);
             sig.update(data);
             return sig.sign();
-        } catch (SignatureException | NoSuchProviderException | InvalidKeyException | NoSuchAlgorithmException e) {
+        } catch (SignatureException | InvalidKeyException e) {
             throw new CryptoException("Signing failed. " + e.getMessage());
         }
     }
@@ -100,11 +111,11 @@ public class Sig {
      */
     public static boolean verify(PublicKey publicKey, byte[] data, byte[] signature) throws CryptoException {
         try {
-            Signature sig = Signature.getInstance(ALGO, "BC");
+            Signature sig = signatureInstance.get();
             sig.initVerify(publicKey);
             sig.update(data);
             return sig.verify(signature);
-        } catch (SignatureException | NoSuchProviderException | InvalidKeyException | NoSuchAlgorithmException e) {
+        } catch (SignatureException | InvalidKeyException e) {
             throw new CryptoException("Signature verification failed. " + e.getMessage());
         }
     }
@@ -20,6 +20,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 
 /**
@@ -121,6 +123,10 @@ public class LookAheadObjectInputStream extends ObjectInputStream {
 
             Pattern.compile("com\\.sun\\.org\\.apache\\.xalan\\.internal\\.xsltc\\.trax\\.TemplatesImpl$"),
     };
+    // Names of classes which passed the black- and white list checks and could be resolved. As only existing classes
+    // get added the set cannot grow beyond the number of classes on our classpath.
+    private static final Set<String> whiteListedClassNames = ConcurrentHashMap.newKeySet();
+
     private boolean useWhiteList;
 
 
@@ -148,6 +154,10 @@ public class LookAheadObjectInputStream extends ObjectInputStream {
         String name = desc.getName();
         // log.error("resolveClass " + name);
 
+        // We skip the regex checks for classes we have already accepted
+        if (useWhiteList && whiteListedClassNames.contains(name))
+            return super.resolveClass(desc);
+
         for (Pattern pattern : blackList) {
             if (pattern.matcher(name).find()) {
                 String msg = "We received a blacklisted class at Java deserialization: '" + name + "'" + "(regex pattern: " + pattern.toString() + ")";
@@ -169,6 +179,9 @@ public class LookAheadObjectInputStream extends ObjectInputStream {
             }
         }
 
-        return super.resolveClass(desc);
+        Class<?> resolvedClass = super.resolveClass(desc);
+        if (useWhiteList)
+            whiteListedClassNames.add(name);
+        return resolvedClass;
     }
 }
\ No newline at end of file
@@ -80,9 +80,11 @@ public class FileManager<T> {
 
     /**
      * Actually write the wallet file to disk, using an atomic rename when possible. Runs on the current thread.
+     *
+     * @return False if the write failed.
      */
-    public void saveNow(T serializable) {
-        saveNowInternal(serializable);
+    public boolean saveNow(T serializable) {
+        return saveNowInternal(serializable);
     }
 
     /**
@@ -161,14 +163,15 @@ public class FileManager<T> {
     // Private
     ///////////////////////////////////////////////////////////////////////////////////////////
 
-    private void saveNowInternal(T serializable) {
+    private boolean saveNowInternal(T serializable) {
         long now = System.currentTimeMillis();
-        saveToFile(serializable, dir, storageFile);
+        boolean success = saveToFile(serializable, dir, storageFile);
         UserThread.execute(() -> log.trace("Save {} completed in {}msec", storageFile, System.currentTimeMillis() - now));
+        return success;
     }
 
     // TODO Sometimes we get a ConcurrentModificationException here
-    private synchronized void saveToFile(T serializable, File dir, File storageFile) {
+    private synchronized boolean saveToFile(T serializable, File dir, File storageFile) {
         File tempFile = null;
         FileOutputStream fileOutputStream = null;
         ObjectOutputStream objectOutputStream = null;
@@ -203,10 +206,12 @@ public class FileManager<T> {
                 objectOutputStream.close();
             }
             renameTempFileToFile(tempFile, storageFile);
+            return true;
         } catch (Throwable t) {
             log.error("storageFile " + storageFile.toString());
             t.printStackTrace();
             log.error("Error at saveToFile: " + t.getMessage());
+            return false;
         } finally {
             if (tempFile != null && tempFile.exists()) {
                 log.warn("Temp file still exists after failed save. We will delete it now. storageFile=" + storageFile);
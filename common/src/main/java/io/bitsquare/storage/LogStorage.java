@@ -0,0 +1,264 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.storage;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.bitsquare.app.Version;
+import io.bitsquare.io.LookAheadObjectInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.*;
+import java.util.HashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Storage for maps which get changed frequently (e.g. the P2P data maps of a seed node).
+ * Instead of writing the whole map at every change we append the change to a log file. The map itself is written
+ * as snapshot file in the same format as Storage uses, so existing files can still be read.
+ * <p>
+ * At startup we read the snapshot and replay the log on top of it. Once the log has grown larger than the snapshot
+ * we write a new snapshot and truncate the log (compaction). Log writes and compaction run in order on a background
+ * thread. An incomplete entry at the end of the log (e.g. after a crash) is ignored at replay.
+ * <p>
+ * The put and remove calls are expected to be done from the same thread (UserThread).
+ */
+public class LogStorage<K extends Serializable, V extends Serializable> {
+    private static final Logger log = LoggerFactory.getLogger(LogStorage.class);
+
+    private static final String LOG_FILE_SUFFIX = ".log";
+    private static final int MIN_LOG_ENTRIES_FOR_COMPACTION = 1000;
+    // Larger entries can only come from a corrupted file
+    private static final int MAX_LOG_ENTRY_SIZE = 10 * 1024 * 1024;
+
+    private final Storage<HashMap<K, V>> snapshotStorage;
+    private final File dir;
+    private final ThreadPoolExecutor executor;
+    private File logFile;
+    private Supplier<HashMap<K, V>> snapshotSupplier;
+    private int numLogEntries;
+    private int snapshotSize;
+
+    // Only accessed by the executor
+    private FileOutputStream logFileOutputStream;
+    private DataOutputStream logOutputStream;
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Constructor
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    public LogStorage(File dir) {
+        this.dir = dir;
+        snapshotStorage = new Storage<>(dir);
+        executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                new ThreadFactoryBuilder()
+                        .setNameFormat("LogStorage")
+                        .setDaemon(true)
+                        .build());
+    }
+
+    public void setNumMaxBackupFiles(int numMaxBackupFiles) {
+        snapshotStorage.setNumMaxBackupFiles(numMaxBackupFiles);
+    }
+
+    /**
+     * @param snapshotSupplier Delivers a copy of the current map at compaction. Called from the thread calling put
+     *                         or remove.
+     * @return The persisted map or null if nothing was persisted yet.
+     */
+    @Nullable
+    public HashMap<K, V> initAndGetPersistedWithFileName(String fileName, Supplier<HashMap<K, V>> snapshotSupplier) {
+        this.snapshotSupplier = snapshotSupplier;
+        logFile = new File(dir, fileName + LOG_FILE_SUFFIX);
+
+        HashMap<K, V> persisted = snapshotStorage.initAndGetPersistedWithFileName(fileName);
+        snapshotSize = persisted != null ? persisted.size() : 0;
+        if (logFile.exists() && logFile.length() > 0) {
+            if (persisted == null)
+                persisted = new HashMap<>();
+
+            int numReplayed = replay(persisted);
+            log.info("Replayed {} log entries of {}", numReplayed, fileName);
+
+            // We start with a fresh log, so we never append behind an incomplete entry
+            compact(new HashMap<>(persisted));
+        }
+        return persisted;
+    }
+
+    public void put(K key, V value) {
+        append(new LogEntry<>(key, value));
+    }
+
+    public void remove(K key) {
+        append(new LogEntry<>(key, null));
+    }
+
+    public void shutDown() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        closeLog();
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    private void append(LogEntry<K, V> logEntry) {
+        checkNotNull(logFile, "logFile = null. Call initAndGetPersistedWithFileName before using put/remove.");
+
+        // We serialize at the caller thread as the value might get changed later
+        byte[] bytes;
+        try {
+            ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+            ObjectOutputStream objectOutputStream = new ObjectOutputStream(byteArrayOutputStream);
+            objectOutputStream.writeObject(logEntry);
+            objectOutputStream.close();
+            bytes = byteArrayOutputStream.toByteArray();
+        } catch (IOException e) {
+            log.error("Could not serialize log entry. " + e.getMessage());
+            e.printStackTrace();
+            return;
+        }
+
+        executor.execute(() -> writeToLog(bytes));
+
+        // The snapshot copy is O(n), so we do it only after at least n changes
+        if (++numLogEntries >= Math.max(MIN_LOG_ENTRIES_FOR_COMPACTION, snapshotSize))
+            compact(snapshotSupplier.get());
+    }
+
+    private void compact(HashMap<K, V> snapshot) {
+        numLogEntries = 0;
+        snapshotSize = snapshot.size();
+        executor.execute(() -> {
+            long ts = System.currentTimeMillis();
+            // The snapshot contains all entries we have appended so far, so we can truncate the log only if it
+            // is on disk.
+            if (snapshotStorage.saveNow(snapshot)) {
+                closeLog();
+                if (logFile.exists() && !logFile.delete())
+                    log.warn("Could not delete log file " + logFile);
+                log.debug("Compaction of {} with {} entries completed in {} ms", logFile, snapshot.size(),
+                        System.currentTimeMillis() - ts);
+            } else {
+                log.error("Writing snapshot failed. We keep the log file " + logFile);
+            }
+        });
+    }
+
+    // Runs on the executor
+    private void writeToLog(byte[] bytes) {
+        try {
+            if (logOutputStream == null) {
+                logFileOutputStream = new FileOutputStream(logFile, true);
+                logOutputStream = new DataOutputStream(new BufferedOutputStream(logFileOutputStream));
+            }
+            logOutputStream.writeInt(bytes.length);
+            logOutputStream.write(bytes);
+
+            // We sync only when no more writes are queued, so a batch of changes costs only one sync
+            if (executor.getQueue().isEmpty()) {
+                logOutputStream.flush();
+                logFileOutputStream.getFD().sync();
+            }
+        } catch (IOException e) {
+            log.error("Could not write to log file " + logFile + ". " + e.getMessage());
+            e.printStackTrace();
+            closeLog();
+        }
+    }
+
+    private void closeLog() {
+        try {
+            if (logOutputStream != null)
+                logOutputStream.close();
+        } catch (IOException e) {
+            log.error("Cannot close log file." + e.getMessage());
+        } finally {
+            logOutputStream = null;
+            logFileOutputStream = null;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private int replay(HashMap<K, V> map) {
+        int numReplayed = 0;
+        try (DataInputStream dataInputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(logFile)))) {
+            while (true) {
+                int length;
+                try {
+                    length = dataInputStream.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (length <= 0 || length > MAX_LOG_ENTRY_SIZE)
+                    throw new StreamCorruptedException("Invalid log entry length " + length);
+
+                byte[] bytes = new byte[length];
+                dataInputStream.readFully(bytes);
+                try (ObjectInputStream objectInputStream = new LookAheadObjectInputStream(new ByteArrayInputStream(bytes), false)) {
+                    LogEntry<K, V> logEntry = (LogEntry<K, V>) objectInputStream.readObject();
+                    if (logEntry.value != null)
+                        map.put(logEntry.key, logEntry.value);
+                    else
+                        map.remove(logEntry.key);
+                }
+                numReplayed++;
+            }
+        } catch (Throwable t) {
+            log.warn("Could not read the log file {} completely. We ignore the remaining entries. Replayed entries={}. {}",
+                    logFile, numReplayed, t.getMessage());
+        }
+        return numReplayed;
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Static class
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * A put or remove (value is null) of a map entry.
+     */
+    private static final class LogEntry<K extends Serializable, V extends Serializable> implements Serializable {
+        // That object is saved to disc. We need to take care of changes to not break deserialization.
+        private static final long serialVersionUID = Version.LOCAL_DB_VERSION;
+
+        private final K key;
+        @Nullable
+        private final V value;
+
+        LogEntry(K key, @Nullable V value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+}
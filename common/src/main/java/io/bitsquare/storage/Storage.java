@@ -142,6 +142,12 @@ public class Storage<T extends Serializable> {
         }
     }
 
+    // Save on the current thread. Used if the caller needs to know that the data are on disk before it continues.
+    public boolean saveNow(T serializable) {
+        checkNotNull(storageFile, "storageFile = null. Call setupFileStorage before using read/write.");
+        return fileManager.saveNow(serializable);
+    }
+
     public void remove(String fileName) {
         fileManager.removeFile(fileName);
     }
@@ -0,0 +1,56 @@
+package io.bitsquare.common;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class TimingWheelTest {
+
+    @Test
+    public void testOrderAndCancel() throws InterruptedException {
+        List<Integer> executed = new CopyOnWriteArrayList<>();
+        CountDownLatch latch = new CountDownLatch(2);
+        // Small wheel so the 3rd timeout needs more than one round
+        TimingWheel timingWheel = new TimingWheel(10, 8, "TimingWheelTest",
+                expired -> expired.stream().forEach(TimingWheel.Timeout::run));
+
+        long ts = System.currentTimeMillis();
+        timingWheel.schedule(150, () -> {
+            executed.add(3);
+            latch.countDown();
+        });
+        TimingWheel.Timeout cancelled = timingWheel.schedule(50, () -> executed.add(2));
+        timingWheel.schedule(20, () -> {
+            executed.add(1);
+            latch.countDown();
+        });
+        timingWheel.cancel(cancelled);
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertTrue(System.currentTimeMillis() - ts >= 150);
+        assertEquals(2, executed.size());
+        assertEquals(1, (int) executed.get(0));
+        assertEquals(3, (int) executed.get(1));
+        assertTrue(cancelled.isCancelled());
+        assertEquals(0, timingWheel.getNumPendingTimeouts());
+    }
+
+    @Test
+    public void testScheduleAfterIdle() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(1);
+        TimingWheel timingWheel = new TimingWheel(10, 8, "TimingWheelTest",
+                expired -> expired.stream().forEach(TimingWheel.Timeout::run));
+
+        // The worker waits without ticking as long as nothing is scheduled
+        Thread.sleep(100);
+        long ts = System.currentTimeMillis();
+        timingWheel.schedule(30, latch::countDown);
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertTrue(System.currentTimeMillis() - ts >= 30);
+    }
+}
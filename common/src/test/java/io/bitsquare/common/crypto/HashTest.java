@@ -0,0 +1,51 @@
+package io.bitsquare.common.crypto;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class HashTest {
+
+    @Before
+    public void setup() {
+        Security.addProvider(new BouncyCastleProvider());
+    }
+
+    @Test
+    public void testSha256() throws Exception {
+        byte[] data = "test".getBytes(StandardCharsets.UTF_8);
+        assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(data), Hash.getHash(data));
+        // The digest of the thread is reset after each call
+        assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(data), Hash.getHash(data));
+        assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(new byte[0]), Hash.getHash(new byte[0]));
+    }
+
+    @Test
+    public void testConcurrentCalls() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<byte[]>> futures = new ArrayList<>();
+            for (int i = 0; i < 1000; i++) {
+                byte[] data = String.valueOf(i % 10).getBytes(StandardCharsets.UTF_8);
+                futures.add(executor.submit(() -> Hash.getHash(data)));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                byte[] data = String.valueOf(i % 10).getBytes(StandardCharsets.UTF_8);
+                assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(data), futures.get(i).get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package io.bitsquare.storage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+
+import static org.junit.Assert.*;
+
+public class LogStorageTest {
+    private File dir;
+
+    @Before
+    public void setup() throws IOException {
+        dir = File.createTempFile("temp_tests", "");
+        dir.delete();
+        dir.mkdir();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtil.deleteDirectory(dir);
+    }
+
+    @Test
+    public void testReplay() {
+        HashMap<String, Integer> map = new HashMap<>();
+        LogStorage<String, Integer> logStorage = new LogStorage<>(dir);
+        assertNull(logStorage.initAndGetPersistedWithFileName("TestMap", () -> new HashMap<>(map)));
+
+        map.put("a", 1);
+        logStorage.put("a", 1);
+        map.put("b", 2);
+        logStorage.put("b", 2);
+        map.remove("a");
+        logStorage.remove("a");
+        logStorage.shutDown();
+
+        logStorage = new LogStorage<>(dir);
+        assertEquals(map, logStorage.initAndGetPersistedWithFileName("TestMap", HashMap::new));
+        logStorage.shutDown();
+    }
+
+    @Test
+    public void testCompaction() {
+        HashMap<String, Integer> map = new HashMap<>();
+        LogStorage<String, Integer> logStorage = new LogStorage<>(dir);
+        logStorage.initAndGetPersistedWithFileName("TestMap", () -> new HashMap<>(map));
+        for (int i = 0; i < 2500; i++) {
+            map.put("key" + (i % 100), i);
+            logStorage.put("key" + (i % 100), i);
+        }
+        logStorage.shutDown();
+
+        // After 2 compactions only the last 500 changes are in the log
+        assertTrue(new File(dir, "TestMap").exists());
+
+        logStorage = new LogStorage<>(dir);
+        assertEquals(map, logStorage.initAndGetPersistedWithFileName("TestMap", HashMap::new));
+        logStorage.shutDown();
+    }
+
+    @Test
+    public void testIncompleteLogEntryIsIgnored() throws IOException {
+        HashMap<String, Integer> map = new HashMap<>();
+        LogStorage<String, Integer> logStorage = new LogStorage<>(dir);
+        logStorage.initAndGetPersistedWithFileName("TestMap", () -> new HashMap<>(map));
+        map.put("a", 1);
+        logStorage.put("a", 1);
+        logStorage.shutDown();
+
+        // Simulates a crash while writing an entry
+        try (FileOutputStream fileOutputStream = new FileOutputStream(new File(dir, "TestMap.log"), true)) {
+            fileOutputStream.write(new byte[]{0, 0, 1, 0, 42});
+        }
+
+        logStorage = new LogStorage<>(dir);
+        assertEquals(map, logStorage.initAndGetPersistedWithFileName("TestMap", HashMap::new));
+        logStorage.shutDown();
+    }
+}
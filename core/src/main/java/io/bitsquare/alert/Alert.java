@@ -19,13 +19,13 @@ package io.bitsquare.alert;
 
 import com.google.common.annotations.VisibleForTesting;
 import io.bitsquare.app.Version;
+import io.bitsquare.common.crypto.PublicKeyCache;
 import io.bitsquare.common.crypto.Sig;
 import io.bitsquare.p2p.storage.payload.StoragePayload;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.security.KeyFactory;
 import java.security.PublicKey;
 import java.security.spec.X509EncodedKeySpec;
 import java.util.Arrays;
@@ -53,7 +53,7 @@ public final class Alert implements StoragePayload {
     private void readObject(java.io.ObjectInputStream in) throws IOException, ClassNotFoundException {
         try {
             in.defaultReadObject();
-            storagePublicKey = KeyFactory.getInstance(Sig.KEY_ALGO, "BC").generatePublic(new X509EncodedKeySpec(storagePublicKeyBytes));
+            storagePublicKey = PublicKeyCache.get(Sig.KEY_ALGO, storagePublicKeyBytes);
         } catch (Throwable t) {
             log.warn("Exception at readObject: " + t.getMessage());
         }
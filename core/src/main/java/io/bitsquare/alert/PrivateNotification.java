@@ -18,13 +18,13 @@
 package io.bitsquare.alert;
 
 import io.bitsquare.app.Version;
+import io.bitsquare.common.crypto.PublicKeyCache;
 import io.bitsquare.common.crypto.Sig;
 import io.bitsquare.common.wire.Payload;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.security.KeyFactory;
 import java.security.PublicKey;
 import java.security.spec.X509EncodedKeySpec;
 import java.util.Arrays;
@@ -46,7 +46,7 @@ public final class PrivateNotification implements Payload {
     private void readObject(java.io.ObjectInputStream in) throws IOException, ClassNotFoundException {
         try {
             in.defaultReadObject();
-            publicKey = KeyFactory.getInstance(Sig.KEY_ALGO, "BC").generatePublic(new X509EncodedKeySpec(publicKeyBytes));
+            publicKey = PublicKeyCache.get(Sig.KEY_ALGO, publicKeyBytes);
         } catch (Throwable t) {
             log.warn("Exception at readObject: " + t.getMessage());
         }
@@ -22,8 +22,10 @@ import io.bitsquare.btc.BitcoinNetwork;
 import io.bitsquare.btc.BtcOptionKeys;
 import io.bitsquare.btc.RegTestHost;
 import io.bitsquare.common.CommonOptionKeys;
+import io.bitsquare.http.HttpClientPool;
 import io.bitsquare.network.NetworkOptionKeys;
 import io.bitsquare.p2p.P2PService;
+import io.bitsquare.p2p.network.Connection;
 import io.bitsquare.util.joptsimple.EnumValueConverter;
 import joptsimple.OptionException;
 import joptsimple.OptionParser;
@@ -86,9 +88,21 @@ public abstract class BitsquareExecutable {
         parser.accepts(NetworkOptionKeys.USE_LOCALHOST, description("Use localhost network for development", false))
                 .withRequiredArg()
                 .ofType(boolean.class);
+        parser.accepts(NetworkOptionKeys.USE_NIO_SERVER, description("Use non-blocking server for inbound connections (for seed nodes)", false))
+                .withRequiredArg()
+                .ofType(boolean.class);
         parser.accepts(NetworkOptionKeys.MAX_CONNECTIONS, description("Max. connections a peer will try to keep", P2PService.MAX_CONNECTIONS_DEFAULT))
                 .withRequiredArg()
                 .ofType(int.class);
+        parser.accepts(NetworkOptionKeys.SEND_MSG_THROTTLE_PER_SEC, description("Max. messages per second we send to a peer", Connection.SEND_MSG_THROTTLE_PER_SEC_DEFAULT))
+                .withRequiredArg()
+                .ofType(int.class);
+        parser.accepts(NetworkOptionKeys.SEND_BYTES_THROTTLE_PER_SEC, description("Max. bytes per second we send to a peer", Connection.SEND_BYTES_THROTTLE_PER_SEC_DEFAULT))
+                .withRequiredArg()
+                .ofType(int.class);
+        parser.accepts(NetworkOptionKeys.HTTP_MAX_CONNECTIONS_PER_ROUTE, description("Max. concurrent connections per host for http requests (price feed, fee estimation)", HttpClientPool.DEFAULT_MAX_CONNECTIONS_PER_ROUTE))
+                .withRequiredArg()
+                .ofType(int.class);
         parser.accepts(NetworkOptionKeys.SOCKS_5_PROXY_BTC_ADDRESS, description("A proxy address to be used for Bitcoin network. [host:port]", ""))
                 .withRequiredArg();
         parser.accepts(NetworkOptionKeys.SOCKS_5_PROXY_HTTP_ADDRESS, description("A proxy address to be used for Http requests (should be non-Tor). [host:port]", ""))
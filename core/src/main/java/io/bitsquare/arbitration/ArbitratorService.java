@@ -83,8 +83,7 @@ public class ArbitratorService {
     }
 
     public Map<NodeAddress, Arbitrator> getArbitrators() {
-        Set<Arbitrator> arbitratorSet = p2PService.getDataMap().values().stream()
-                .filter(data -> data.getStoragePayload() instanceof Arbitrator)
+        Set<Arbitrator> arbitratorSet = p2PService.getP2PDataStorage().getEntriesOfType(Arbitrator.class).stream()
                 .map(data -> (Arbitrator) data.getStoragePayload())
                 .collect(Collectors.toSet());
 
@@ -1,5 +1,8 @@
 package io.bitsquare.btc.blockchain;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.SettableFuture;
@@ -9,48 +12,204 @@ import io.bitsquare.btc.blockchain.providers.BlockTrailProvider;
 import io.bitsquare.btc.blockchain.providers.BlockrIOProvider;
 import io.bitsquare.btc.blockchain.providers.FeeProvider;
 import io.bitsquare.btc.blockchain.providers.TradeBlockProvider;
+import io.bitsquare.common.Timer;
+import io.bitsquare.common.UserThread;
+import io.bitsquare.http.HttpClient;
+import io.bitsquare.http.HttpClientPool;
 import org.bitcoinj.core.Coin;
 import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
-import java.util.Arrays;
+import javax.annotation.Nullable;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Requests the fee of a transaction from the fee providers.
+ * <p>
+ * The providers get requested one after another, the fastest healthy one first. If it has not answered after its
+ * usual latency (see FeeProviderStats.getHedgeDelayMs) or has failed, we request the next one as well. The first
+ * result wins. Received fees are cached, as the same tx gets requested repeatedly.
+ */
 public class BlockchainService {
     private static final Logger log = LoggerFactory.getLogger(BlockchainService.class);
 
-    private final ArrayList<FeeProvider> feeProviders;
+    // The fee of a tx never changes, the TTL only limits how long we keep the fees of txs we don't need anymore
+    private static final long FEE_CACHE_TTL_MIN = 30;
+    private static final int FEE_CACHE_MAX_SIZE = 1000;
+
+    private final List<FeeProvider> feeProviders;
+    private final Map<FeeProvider, FeeProviderStats> statsByProvider = new HashMap<>();
+    private final Cache<String, Coin> feeCache = CacheBuilder.newBuilder()
+            .expireAfterWrite(FEE_CACHE_TTL_MIN, TimeUnit.MINUTES)
+            .maximumSize(FEE_CACHE_MAX_SIZE)
+            .recordStats()
+            .build();
+    // Concurrent requests for the same tx share one request. Guarded by itself.
+    private final Map<String, SettableFuture<Coin>> pendingRequests = new HashMap<>();
 
     @Inject
     public BlockchainService(BlockrIOProvider blockrIOProvider, BlockTrailProvider blockTrailProvider, TradeBlockProvider tradeBlockProvider) {
         feeProviders = new ArrayList<>(Arrays.asList(blockrIOProvider, blockTrailProvider, tradeBlockProvider));
+        feeProviders.stream().forEach(provider -> statsByProvider.put(provider, new FeeProviderStats()));
     }
 
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // API
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
     public SettableFuture<Coin> requestFee(String transactionId) {
         Log.traceCall(transactionId);
-        long startTime = System.currentTimeMillis();
-        final SettableFuture<Coin> resultFuture = SettableFuture.create();
+        final SettableFuture<Coin> resultFuture;
+        Coin cachedFee = feeCache.getIfPresent(transactionId);
+        if (cachedFee != null) {
+            log.debug("Fee of tx {} taken from cache. Cache hit rate: {}", transactionId, feeCache.stats().hitRate());
+            resultFuture = SettableFuture.create();
+            resultFuture.set(cachedFee);
+            return resultFuture;
+        }
+
+        synchronized (pendingRequests) {
+            SettableFuture<Coin> pendingFuture = pendingRequests.get(transactionId);
+            if (pendingFuture != null)
+                return pendingFuture;
+
+            resultFuture = SettableFuture.create();
+            pendingRequests.put(transactionId, resultFuture);
+        }
+
+        new HedgedFeeRequest(transactionId, getProvidersByScore(), resultFuture).requestNext();
+        return resultFuture;
+    }
+
+    /**
+     * @return Hits, misses and hit rate of the fee cache.
+     */
+    public CacheStats getFeeCacheStats() {
+        return feeCache.stats();
+    }
+
+    /**
+     * @return Number, failures and durations of the http requests per route of the shared http client pool.
+     */
+    public Map<String, HttpClientPool.RequestMetrics> getRequestMetrics() {
+        return HttpClient.getPool().getAllRequestMetrics();
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    private List<FeeProvider> getProvidersByScore() {
+        // We use a snapshot of the scores as they might change while sorting
+        Map<FeeProvider, Long> scores = new HashMap<>();
+        feeProviders.stream().forEach(provider -> scores.put(provider, statsByProvider.get(provider).getScore()));
+        List<FeeProvider> providers = new ArrayList<>(feeProviders);
+        providers.sort(Comparator.comparing(scores::get));
+        return providers;
+    }
+
+    private void removePendingRequest(String transactionId) {
+        synchronized (pendingRequests) {
+            pendingRequests.remove(transactionId);
+        }
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Inner classes
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    private final class HedgedFeeRequest {
+        private final String transactionId;
+        private final List<FeeProvider> providers;
+        private final SettableFuture<Coin> resultFuture;
+        private final List<SettableFuture<Coin>> providerFutures = new ArrayList<>();
+        private final long startTime = System.currentTimeMillis();
+        private int numFailed;
+        @Nullable
+        private Timer hedgeTimer;
+
+        private HedgedFeeRequest(String transactionId, List<FeeProvider> providers, SettableFuture<Coin> resultFuture) {
+            this.transactionId = transactionId;
+            this.providers = providers;
+            this.resultFuture = resultFuture;
+        }
+
+        private synchronized void requestNext() {
+            if (resultFuture.isDone() || providerFutures.size() >= providers.size())
+                return;
+
+            stopHedgeTimer();
+            FeeProvider provider = providers.get(providerFutures.size());
+            FeeProviderStats stats = statsByProvider.get(provider);
+            if (!providerFutures.isEmpty())
+                log.debug("Request fee of tx {} from next provider {} after {} ms.",
+                        transactionId, provider, System.currentTimeMillis() - startTime);
+
+            SettableFuture<Coin> future = new GetFeeRequest().request(transactionId, provider, stats);
+            providerFutures.add(future);
+            if (providerFutures.size() < providers.size())
+                hedgeTimer = UserThread.runAfter(this::requestNext, stats.getHedgeDelayMs(), TimeUnit.MILLISECONDS);
 
-        for (FeeProvider provider : feeProviders) {
-            GetFeeRequest getFeeRequest = new GetFeeRequest();
-            SettableFuture<Coin> future = getFeeRequest.request(transactionId, provider);
             Futures.addCallback(future, new FutureCallback<Coin>() {
                 public void onSuccess(Coin fee) {
-                    if (!resultFuture.isDone()) {
-                        log.debug("Request fee from providers done after {} ms.", (System.currentTimeMillis() - startTime));
-                        resultFuture.set(fee);
-                    }
+                    HedgedFeeRequest.this.onSuccess(provider, fee);
                 }
 
                 public void onFailure(@NotNull Throwable throwable) {
-                    if (!resultFuture.isDone()) {
-                        log.warn("Could not get the fee from any provider after repeated requests.");
-                        resultFuture.setException(throwable);
-                    }
+                    HedgedFeeRequest.this.onFailure(throwable);
                 }
             });
         }
-        return resultFuture;
+
+        private synchronized void onSuccess(FeeProvider provider, Coin fee) {
+            if (resultFuture.isDone())
+                return;
+
+            log.debug("Request fee from providers done after {} ms. Result from {} with {}",
+                    (System.currentTimeMillis() - startTime), provider, statsByProvider.get(provider));
+            feeCache.put(transactionId, fee);
+            complete();
+            resultFuture.set(fee);
+            cancelProviderFutures();
+        }
+
+        private synchronized void onFailure(Throwable throwable) {
+            // Also called for the requests we have cancelled after a result
+            if (resultFuture.isDone())
+                return;
+
+            numFailed++;
+            if (numFailed >= providers.size()) {
+                log.warn("Could not get the fee from any provider after repeated requests. Request metrics: " +
+                        getRequestMetrics());
+                complete();
+                resultFuture.setException(throwable);
+            } else if (numFailed == providerFutures.size()) {
+                // No request is running anymore, so we don't wait for the hedge timer
+                requestNext();
+            }
+        }
+
+        private void complete() {
+            stopHedgeTimer();
+            removePendingRequest(transactionId);
+        }
+
+        private void cancelProviderFutures() {
+            // Stops the retries of the requests which have not delivered yet
+            providerFutures.stream().forEach(future -> future.cancel(false));
+        }
+
+        private void stopHedgeTimer() {
+            if (hedgeTimer != null) {
+                hedgeTimer.stop();
+                hedgeTimer = null;
+            }
+        }
     }
 }
@@ -0,0 +1,96 @@
+package io.bitsquare.btc.blockchain;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Latency and health of the requests to one fee provider. Used to request the fastest healthy provider first and to
+ * decide how long we wait for it before we request the next one as well (hedged request).
+ */
+class FeeProviderStats {
+    // Number of recent latencies we use for the percentiles
+    private static final int MAX_SAMPLES = 20;
+    // Below that we don't trust the percentiles and use DEFAULT_LATENCY_MS
+    private static final int MIN_SAMPLES = 5;
+    private static final long DEFAULT_LATENCY_MS = 2000;
+    private static final long MIN_HEDGE_DELAY_MS = 500;
+    private static final long MAX_HEDGE_DELAY_MS = 5000;
+    // After that many failures in a row the provider is requested only after the healthy ones
+    private static final int MAX_FAILURES_HEALTHY = 3;
+    private static final long UNHEALTHY_PENALTY_MS = 1_000_000;
+
+    private final ArrayDeque<Long> latencies = new ArrayDeque<>();
+    private int numFailuresInRow;
+    private long numRequests;
+    private long numFailures;
+
+    synchronized void onSuccess(long latencyMs) {
+        numRequests++;
+        numFailuresInRow = 0;
+        latencies.addLast(latencyMs);
+        if (latencies.size() > MAX_SAMPLES)
+            latencies.removeFirst();
+    }
+
+    synchronized void onFailure() {
+        numRequests++;
+        numFailures++;
+        numFailuresInRow++;
+    }
+
+    synchronized long getNumFailures() {
+        return numFailures;
+    }
+
+    synchronized boolean isHealthy() {
+        return numFailuresInRow < MAX_FAILURES_HEALTHY;
+    }
+
+    /**
+     * @return Providers with a lower score get requested first. Healthy providers come before unhealthy ones, then
+     * the one with the lower median latency.
+     */
+    synchronized long getScore() {
+        return (isHealthy() ? 0 : UNHEALTHY_PENALTY_MS) + getMedianLatencyMs();
+    }
+
+    synchronized long getMedianLatencyMs() {
+        return getLatencyPercentileMs(0.5);
+    }
+
+    /**
+     * @return The time we wait for a response of that provider before we request the next provider as well. It is
+     * the 90th percentile of its latencies, so we send a second request only for the slowest 10% of the requests.
+     */
+    synchronized long getHedgeDelayMs() {
+        return Math.max(MIN_HEDGE_DELAY_MS, Math.min(MAX_HEDGE_DELAY_MS, getLatencyPercentileMs(0.9)));
+    }
+
+    /**
+     * @param percentile Between 0 and 1
+     * @return The latency below which the given share of the recent successful requests was, DEFAULT_LATENCY_MS if
+     * we have not enough samples.
+     */
+    synchronized long getLatencyPercentileMs(double percentile) {
+        if (latencies.size() < MIN_SAMPLES)
+            return DEFAULT_LATENCY_MS;
+
+        List<Long> sorted = new ArrayList<>(latencies);
+        Collections.sort(sorted);
+        int index = (int) Math.ceil(percentile * sorted.size()) - 1;
+        return sorted.get(Math.max(0, Math.min(sorted.size() - 1, index)));
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "FeeProviderStats{" +
+                "numRequests=" + numRequests +
+                ", numFailures=" + numFailures +
+                ", numFailuresInRow=" + numFailuresInRow +
+                ", medianLatencyMs=" + getMedianLatencyMs() +
+                ", hedgeDelayMs=" + getHedgeDelayMs() +
+                '}';
+    }
+}
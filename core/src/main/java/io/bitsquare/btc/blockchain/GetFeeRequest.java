@@ -22,21 +22,35 @@ class GetFeeRequest {
     public GetFeeRequest() {
     }
 
-    public SettableFuture<Coin> request(String transactionId, FeeProvider provider) {
+    /**
+     * @param stats Gets the latency or failure of each attempt. Cancel the returned future to stop the retries.
+     */
+    public SettableFuture<Coin> request(String transactionId, FeeProvider provider, FeeProviderStats stats) {
         final SettableFuture<Coin> resultFuture = SettableFuture.create();
-        return request(transactionId, provider, resultFuture);
+        return request(transactionId, provider, stats, resultFuture);
     }
 
-    private SettableFuture<Coin> request(String transactionId, FeeProvider provider, SettableFuture<Coin> resultFuture) {
+    private SettableFuture<Coin> request(String transactionId, FeeProvider provider, FeeProviderStats stats,
+                                         SettableFuture<Coin> resultFuture) {
         ListenableFuture<Coin> future = executorService.submit(() -> {
             Thread.currentThread().setName("requestFee-" + provider.toString());
+            long startTime = System.currentTimeMillis();
             try {
-                return provider.getFee(transactionId);
-            } catch (IOException | HttpException e) {
-                log.debug("Fee request failed for tx {} from provider {}\n" +
+                Coin fee = provider.getFee(transactionId);
+                stats.onSuccess(System.currentTimeMillis() - startTime);
+                return fee;
+            } catch (IOException e) {
+                // Only connection errors and timeouts tell us that the provider is not healthy
+                stats.onFailure();
+                log.debug("Fee request failed for tx {} from provider {}\nerror={}",
+                        transactionId, provider, e.getMessage());
+                throw e;
+            } catch (HttpException | RuntimeException e) {
+                // The provider responded but without the fee, e.g. with a 404 or an error json
+                log.debug("Provider {} has no fee for tx {}\n" +
                                 "That is expected if the tx was not propagated yet to the provider.\n" +
                                 "error={}",
-                        transactionId, provider, e.getMessage());
+                        provider, transactionId, e.getMessage());
                 throw e;
             }
         });
@@ -54,7 +68,7 @@ class GetFeeRequest {
                         faults++;
                         if (!resultFuture.isDone()) {
                             if (faults < 4) {
-                                request(transactionId, provider, resultFuture);
+                                request(transactionId, provider, stats, resultFuture);
                             } else {
                                 resultFuture.setException(throwable);
                             }
@@ -10,6 +10,7 @@ import io.bitsquare.common.UserThread;
 import io.bitsquare.common.handlers.FaultHandler;
 import io.bitsquare.common.util.Tuple2;
 import io.bitsquare.http.HttpClient;
+import io.bitsquare.http.HttpClientPool;
 import io.bitsquare.network.NetworkOptionKeys;
 import javafx.beans.property.*;
 import org.slf4j.Logger;
@@ -24,8 +25,6 @@ import java.util.Map;
 import java.util.Random;
 import java.util.function.Consumer;
 
-import static com.google.common.base.Preconditions.checkNotNull;
-
 public class PriceFeedService {
     private static final Logger log = LoggerFactory.getLogger(PriceFeedService.class);
     private HttpClient httpClient;
@@ -50,6 +49,8 @@ public class PriceFeedService {
     private static final long PERIOD_SEC = 60;
 
     private final Map<String, MarketPrice> cache = new HashMap<>();
+    // Incremented for a currency each time we get a changed market price for it
+    private final Map<String, Integer> priceEpochMap = new HashMap<>();
     private PriceProvider priceProvider;
     private Consumer<Double> priceConsumer;
     private FaultHandler faultHandler;
@@ -104,12 +105,15 @@ public class PriceFeedService {
     }
 
     private void request() {
-        requestAllPrices(priceProvider, () -> {
-            applyPriceToConsumer();
+        requestAllPrices(priceProvider, hasChanged -> {
+            // If no price has changed the consumer has already the current price and we don't notify the listeners
+            if (hasChanged)
+                applyPriceToConsumer();
             // after first response we know the providers timestamp and want to request quickly after next expected update
             long delay = Math.max(40, Math.min(90, PERIOD_SEC - (Instant.now().getEpochSecond() - epochInSecondAtLastRequest) + 2 + new Random().nextInt(5)));
             UserThread.runAfter(this::request, delay);
         }, (errorMessage, throwable) -> {
+            log.warn("Price request failed. Request metrics: " + httpClient.getRequestMetrics());
             // Try other provider if more then 1 is available
             if (priceFeedProviderArray.length > 1) {
                 String newBaseUrl;
@@ -138,6 +142,15 @@ public class PriceFeedService {
             return null;
     }
 
+    /**
+     * @return A counter which gets incremented each time the market price of that currency has changed. It is 0 as
+     * long we don't have a market price. Can be used for invalidating values calculated from the market price.
+     */
+    public int getPriceEpoch(String currencyCode) {
+        Integer priceEpoch = priceEpochMap.get(currencyCode);
+        return priceEpoch != null ? priceEpoch : 0;
+    }
+
     ///////////////////////////////////////////////////////////////////////////////////////////
     // Setter
     ///////////////////////////////////////////////////////////////////////////////////////////
@@ -181,6 +194,11 @@ public class PriceFeedService {
         return currenciesUpdateFlag;
     }
 
+    @Nullable
+    public HttpClientPool.RequestMetrics getRequestMetrics() {
+        return httpClient.getRequestMetrics();
+    }
+
     public Date getLastRequestTimeStampBtcAverage() {
         return new Date(epochInSecondAtLastRequest * 1000);
     }
@@ -227,7 +245,8 @@ public class PriceFeedService {
         currenciesUpdateFlag.setValue(currenciesUpdateFlag.get() + 1);
     }
 
-    private void requestAllPrices(PriceProvider provider, Runnable resultHandler, FaultHandler faultHandler) {
+    // The result handler gets called with true if any market price has changed
+    private void requestAllPrices(PriceProvider provider, Consumer<Boolean> resultHandler, FaultHandler faultHandler) {
         Log.traceCall();
         PriceRequest priceRequest = new PriceRequest();
         SettableFuture<Tuple2<Map<String, Long>, Map<String, MarketPrice>>> future = priceRequest.requestAllPrices(provider);
@@ -235,11 +254,23 @@ public class PriceFeedService {
             @Override
             public void onSuccess(@Nullable Tuple2<Map<String, Long>, Map<String, MarketPrice>> result) {
                 UserThread.execute(() -> {
-                    checkNotNull(result, "Result must not be null at requestAllPrices");
+                    // Null if the prices have not changed since our last request
+                    if (result == null) {
+                        resultHandler.accept(false);
+                        return;
+                    }
+
                     timeStampMap = result.first;
                     epochInSecondAtLastRequest = timeStampMap.get("btcAverageTs");
-                    cache.putAll(result.second);
-                    resultHandler.run();
+                    boolean hasChanged = false;
+                    for (Map.Entry<String, MarketPrice> entry : result.second.entrySet()) {
+                        MarketPrice previous = cache.put(entry.getKey(), entry.getValue());
+                        if (!entry.getValue().equals(previous)) {
+                            priceEpochMap.put(entry.getKey(), getPriceEpoch(entry.getKey()) + 1);
+                            hasChanged = true;
+                        }
+                    }
+                    resultHandler.accept(hasChanged);
                 });
             }
 
@@ -1,21 +1,29 @@
 package io.bitsquare.btc.pricefeed;
 
-import com.google.gson.Gson;
-import com.google.gson.internal.LinkedTreeMap;
+import com.google.gson.stream.JsonReader;
 import io.bitsquare.app.Version;
 import io.bitsquare.btc.HttpClientProvider;
 import io.bitsquare.common.util.Tuple2;
 import io.bitsquare.http.HttpClient;
 import io.bitsquare.http.HttpException;
+import io.bitsquare.http.HttpResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import java.io.IOException;
-import java.util.*;
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
 
 public class PriceProvider extends HttpClientProvider {
     private static final Logger log = LoggerFactory.getLogger(PriceProvider.class);
     private final String uid;
+    // Version and ETag of the prices we got with the last request
+    private long version;
+    @Nullable
+    private String eTag;
 
     public PriceProvider(HttpClient httpClient, String baseUrl) {
         super(httpClient, baseUrl, false);
@@ -23,23 +31,102 @@ public class PriceProvider extends HttpClientProvider {
         uid = UUID.randomUUID().toString();
     }
 
+    /**
+     * @return The timestamps of the providers and the market prices, or null if the prices have not changed since our
+     * last request. If the pricefeed server supports it we get only the prices which have changed since our last
+     * request.
+     */
+    @Nullable
     public Tuple2<Map<String, Long>, Map<String, MarketPrice>> getAll() throws IOException, HttpException {
-        Map<String, MarketPrice> marketPriceMap = new HashMap<>();
-        String json = httpClient.requestWithGET("all", "User-Agent", "Bitsquare/" + Version.VERSION + ", uid:" + uid);
-        LinkedTreeMap<String, Object> map = new Gson().fromJson(json, LinkedTreeMap.class);
+        Map<String, String> headers = new HashMap<>();
+        headers.put("User-Agent", "Bitsquare/" + Version.VERSION + ", uid:" + uid);
+        if (eTag != null)
+            headers.put("If-None-Match", eTag);
+        HttpResponse response = httpClient.requestWithGET(version > 0 ? "all?since=" + version : "all", headers);
+
+        if (response.getStatusCode() == 304) {
+            log.debug("Prices have not changed since version {}", version);
+            return null;
+        } else if (response.getStatusCode() != 200) {
+            throw new HttpException(response.getBody());
+        }
+
+        Tuple2<Map<String, Long>, Map<String, MarketPrice>> result = parse(response.getBody());
+        eTag = response.getETag();
+        return result;
+    }
+
+    // We read the values directly from the json without creating an intermediate object tree
+    private Tuple2<Map<String, Long>, Map<String, MarketPrice>> parse(String json) throws IOException {
         Map<String, Long> tsMap = new HashMap<>();
-        tsMap.put("btcAverageTs", ((Double) map.get("btcAverageTs")).longValue());
-        tsMap.put("poloniexTs", ((Double) map.get("poloniexTs")).longValue());
-        tsMap.put("coinmarketcapTs", ((Double) map.get("coinmarketcapTs")).longValue());
-
-        List<LinkedTreeMap<String, Object>> list = (ArrayList<LinkedTreeMap<String, Object>>) map.get("data");
-        list.stream().forEach(treeMap -> {
-            marketPriceMap.put((String) treeMap.get("c"),
-                    new MarketPrice((String) treeMap.get("c"), (double) treeMap.get("a"), (double) treeMap.get("b"), (double) treeMap.get("l")));
-        });
+        Map<String, MarketPrice> marketPriceMap = new HashMap<>();
+        long newVersion = 0;
+        try (JsonReader reader = new JsonReader(new StringReader(json))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                switch (name) {
+                    case "btcAverageTs":
+                    case "poloniexTs":
+                    case "coinmarketcapTs":
+                        tsMap.put(name, reader.nextLong());
+                        break;
+                    case "version":
+                        newVersion = reader.nextLong();
+                        break;
+                    case "data":
+                        reader.beginArray();
+                        while (reader.hasNext()) {
+                            MarketPrice marketPrice = parseMarketPrice(reader);
+                            marketPriceMap.put(marketPrice.currencyCode, marketPrice);
+                        }
+                        reader.endArray();
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (IllegalStateException | NumberFormatException e) {
+            throw new IOException("Invalid price json: " + e.getMessage(), e);
+        }
+
+        if (!tsMap.containsKey("btcAverageTs") || !tsMap.containsKey("poloniexTs") || !tsMap.containsKey("coinmarketcapTs"))
+            throw new IOException("Timestamps missing in price json");
+
+        // An old server does not send a version, then we always request all prices
+        version = newVersion;
         return new Tuple2<>(tsMap, marketPriceMap);
     }
 
+    private MarketPrice parseMarketPrice(JsonReader reader) throws IOException {
+        String currencyCode = null;
+        double ask = 0, bid = 0, last = 0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "c":
+                    currencyCode = reader.nextString();
+                    break;
+                case "a":
+                    ask = reader.nextDouble();
+                    break;
+                case "b":
+                    bid = reader.nextDouble();
+                    break;
+                case "l":
+                    last = reader.nextDouble();
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (currencyCode == null)
+            throw new IOException("Currency code missing in price json");
+        return new MarketPrice(currencyCode, ask, bid, last);
+    }
+
     @Override
     public String toString() {
         return "PriceProvider";
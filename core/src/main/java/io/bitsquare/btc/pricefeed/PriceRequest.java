@@ -7,6 +7,7 @@ import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import java.util.Map;
 
 class PriceRequest {
@@ -25,7 +26,8 @@ class PriceRequest {
         });
 
         Futures.addCallback(future, new FutureCallback<Tuple2<Map<String, Long>, Map<String, MarketPrice>>>() {
-            public void onSuccess(Tuple2<Map<String, Long>, Map<String, MarketPrice>> marketPriceTuple) {
+            // marketPriceTuple is null if the prices have not changed since the last request
+            public void onSuccess(@Nullable Tuple2<Map<String, Long>, Map<String, MarketPrice>> marketPriceTuple) {
                 log.debug("Received marketPriceTuple of {}\nfrom provider {}", marketPriceTuple, provider);
                 resultFuture.set(marketPriceTuple);
             }
@@ -153,6 +153,12 @@ public final class Offer implements StoragePayload, RequiresOwnerIsOnlinePayload
     transient private PriceFeedService priceFeedService;
     @JsonExclude
     transient private DecimalFormat decimalFormat;
+    // Price of a market based offer and the price epoch of our currency it was calculated at (0 if not calculated)
+    @JsonExclude
+    @Nullable
+    transient private Fiat cachedPrice;
+    @JsonExclude
+    transient private int cachedPriceEpoch;
 
 
     ///////////////////////////////////////////////////////////////////////////////////////////
@@ -310,6 +316,7 @@ public final class Offer implements StoragePayload, RequiresOwnerIsOnlinePayload
 
     public void setPriceFeedService(PriceFeedService priceFeedService) {
         this.priceFeedService = priceFeedService;
+        cachedPriceEpoch = 0;
     }
 
     public void setState(State state) {
@@ -364,36 +371,48 @@ public final class Offer implements StoragePayload, RequiresOwnerIsOnlinePayload
     public Fiat getPrice() {
         if (useMarketBasedPrice) {
             checkNotNull(priceFeedService, "priceFeed must not be null");
-            MarketPrice marketPrice = priceFeedService.getMarketPrice(currencyCode);
-            if (marketPrice != null) {
-                PriceFeedService.Type priceFeedType;
-                double factor;
-                if (CurrencyUtil.isCryptoCurrency(currencyCode)) {
-                    priceFeedType = direction == Direction.BUY ? PriceFeedService.Type.ASK : PriceFeedService.Type.BID;
-                    factor = direction == Offer.Direction.SELL ? 1 - marketPriceMargin : 1 + marketPriceMargin;
-                } else {
-                    priceFeedType = direction == Direction.SELL ? PriceFeedService.Type.ASK : PriceFeedService.Type.BID;
-                    factor = direction == Offer.Direction.BUY ? 1 - marketPriceMargin : 1 + marketPriceMargin;
-                }
-                double marketPriceAsDouble = marketPrice.getPrice(priceFeedType);
-                double targetPrice = marketPriceAsDouble * factor;
-                if (CurrencyUtil.isCryptoCurrency(currencyCode))
-                    targetPrice = targetPrice != 0 ? 1d / targetPrice : 0;
-                try {
-                    final double rounded = MathUtils.roundDouble(targetPrice, Fiat.SMALLEST_UNIT_EXPONENT);
-                    return Fiat.parseFiat(currencyCode, decimalFormat.format(rounded).replace(",", "."));
-                } catch (Exception e) {
-                    log.error("Exception at getPrice / parseToFiat: " + e.toString() + "\n" +
-                            "That case should never happen.");
-                    return null;
-                }
+            // The price is used for sorting and filtering the offer book, so we calculate it only once per market price
+            int priceEpoch = priceFeedService.getPriceEpoch(currencyCode);
+            if (priceEpoch != 0 && priceEpoch == cachedPriceEpoch)
+                return cachedPrice;
+
+            cachedPrice = getMarketBasedPrice();
+            cachedPriceEpoch = priceEpoch;
+            return cachedPrice;
+        } else {
+            return Fiat.valueOf(currencyCode, fiatPrice);
+        }
+    }
+
+    @Nullable
+    private Fiat getMarketBasedPrice() {
+        MarketPrice marketPrice = priceFeedService.getMarketPrice(currencyCode);
+        if (marketPrice != null) {
+            PriceFeedService.Type priceFeedType;
+            double factor;
+            if (CurrencyUtil.isCryptoCurrency(currencyCode)) {
+                priceFeedType = direction == Direction.BUY ? PriceFeedService.Type.ASK : PriceFeedService.Type.BID;
+                factor = direction == Offer.Direction.SELL ? 1 - marketPriceMargin : 1 + marketPriceMargin;
             } else {
-                log.debug("We don't have a market price.\n" +
-                        "That case could only happen if you don't have a price feed.");
+                priceFeedType = direction == Direction.SELL ? PriceFeedService.Type.ASK : PriceFeedService.Type.BID;
+                factor = direction == Offer.Direction.BUY ? 1 - marketPriceMargin : 1 + marketPriceMargin;
+            }
+            double marketPriceAsDouble = marketPrice.getPrice(priceFeedType);
+            double targetPrice = marketPriceAsDouble * factor;
+            if (CurrencyUtil.isCryptoCurrency(currencyCode))
+                targetPrice = targetPrice != 0 ? 1d / targetPrice : 0;
+            try {
+                final double rounded = MathUtils.roundDouble(targetPrice, Fiat.SMALLEST_UNIT_EXPONENT);
+                return Fiat.parseFiat(currencyCode, decimalFormat.format(rounded).replace(",", "."));
+            } catch (Exception e) {
+                log.error("Exception at getPrice / parseToFiat: " + e.toString() + "\n" +
+                        "That case should never happen.");
                 return null;
             }
         } else {
-            return Fiat.valueOf(currencyCode, fiatPrice);
+            log.debug("We don't have a market price.\n" +
+                    "That case could only happen if you don't have a price feed.");
+            return null;
         }
     }
 
@@ -152,8 +152,7 @@ public class OfferBookService {
     }
 
     public List<Offer> getOffers() {
-        return p2PService.getDataMap().values().stream()
-                .filter(data -> data.getStoragePayload() instanceof Offer)
+        return p2PService.getP2PDataStorage().getEntriesOfType(Offer.class).stream()
                 .map(data -> {
                     Offer offer = (Offer) data.getStoragePayload();
                     offer.setPriceFeedService(priceFeedService);
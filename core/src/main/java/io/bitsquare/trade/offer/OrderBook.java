@@ -0,0 +1,348 @@
+package io.bitsquare.trade.offer;
+
+import io.bitsquare.btc.pricefeed.PriceFeedService;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.utils.Fiat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import java.util.*;
+
+/**
+ * The offers of the offer book sorted by price per market (currency) and direction.
+ * <p>
+ * The price of an offer is calculated when it gets added and kept with the entry. Market based offers are re-priced
+ * only when the price epoch of their currency has changed, fixed price offers never. So the sorted offers, the best
+ * prices, the spread and the depth are available without sorting and calculating all prices again.
+ * <p>
+ * Offers of which we cannot calculate the price (market based offer without a market price) are counted but not part
+ * of the sorted offers.
+ * <p>
+ * Must be used from the UserThread.
+ */
+public class OrderBook {
+    private static final Logger log = LoggerFactory.getLogger(OrderBook.class);
+
+    public interface Listener {
+        void onChanged(String currencyCode);
+    }
+
+    private final PriceFeedService priceFeedService;
+    // Sorted by currency code
+    private final Map<String, Market> markets = new TreeMap<>();
+    private final Map<String, Entry> entriesByOfferId = new HashMap<>();
+    private final List<Listener> listeners = new ArrayList<>();
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Constructor
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    @Inject
+    public OrderBook(OfferBookService offerBookService, PriceFeedService priceFeedService) {
+        this(priceFeedService);
+
+        offerBookService.getOffers().stream().forEach(this::add);
+        offerBookService.addOfferBookChangedListener(new OfferBookService.OfferBookChangedListener() {
+            @Override
+            public void onAdded(Offer offer) {
+                onOfferAdded(offer);
+            }
+
+            @Override
+            public void onRemoved(Offer offer) {
+                onOfferRemoved(offer);
+            }
+        });
+    }
+
+    // Used in tests
+    OrderBook(PriceFeedService priceFeedService) {
+        this.priceFeedService = priceFeedService;
+
+        // The flag gets incremented after each price request
+        priceFeedService.currenciesUpdateFlagProperty().addListener((observable, oldValue, newValue) -> onMarketPricesUpdated());
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // API
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * @return The codes of the currencies with at least one offer, sorted by code.
+     */
+    public List<String> getCurrencyCodes() {
+        return new ArrayList<>(markets.keySet());
+    }
+
+    /**
+     * @return The entries with a price sorted by price, best price first (highest for buy offers, lowest for sell
+     * offers).
+     */
+    public List<Entry> getEntries(String currencyCode, Offer.Direction direction) {
+        Market market = markets.get(currencyCode);
+        return market != null ? new ArrayList<>(market.getSide(direction).pricedEntries) : new ArrayList<>();
+    }
+
+    /**
+     * @return The number of offers including the ones without a price.
+     */
+    public int getNumOffers(String currencyCode, Offer.Direction direction) {
+        Market market = markets.get(currencyCode);
+        return market != null ? market.getSide(direction).size() : 0;
+    }
+
+    public Coin getTotalAmount(String currencyCode) {
+        Market market = markets.get(currencyCode);
+        return Coin.valueOf(market != null ? market.totalAmount : 0);
+    }
+
+    @Nullable
+    public Fiat getBestPrice(String currencyCode, Offer.Direction direction) {
+        Market market = markets.get(currencyCode);
+        if (market != null) {
+            TreeSet<Entry> pricedEntries = market.getSide(direction).pricedEntries;
+            if (!pricedEntries.isEmpty())
+                return pricedEntries.first().getPrice();
+        }
+        return null;
+    }
+
+    /**
+     * @return Best sell offer price minus best buy offer price or null if one of both is not available.
+     */
+    @Nullable
+    public Fiat getSpread(String currencyCode) {
+        Fiat bestSellOfferPrice = getBestPrice(currencyCode, Offer.Direction.SELL);
+        Fiat bestBuyOfferPrice = getBestPrice(currencyCode, Offer.Direction.BUY);
+        if (bestSellOfferPrice != null && bestBuyOfferPrice != null)
+            return bestSellOfferPrice.subtract(bestBuyOfferPrice);
+        else
+            return null;
+    }
+
+    /**
+     * @return The offered amounts aggregated per price, best price first.
+     */
+    public List<DepthLevel> getDepth(String currencyCode, Offer.Direction direction) {
+        List<DepthLevel> depth = new ArrayList<>();
+        long accumulatedAmount = 0;
+        DepthLevel level = null;
+        for (Entry entry : getEntries(currencyCode, direction)) {
+            long amount = entry.offer.getAmount().value;
+            accumulatedAmount += amount;
+            if (level != null && level.price == entry.price) {
+                level = new DepthLevel(level.price, level.amount + amount, accumulatedAmount);
+                depth.set(depth.size() - 1, level);
+            } else {
+                level = new DepthLevel(entry.price, amount, accumulatedAmount);
+                depth.add(level);
+            }
+        }
+        return depth;
+    }
+
+    // Called by the OfferBookService listener, package private for tests
+    void onOfferAdded(Offer offer) {
+        add(offer);
+        notifyListeners(offer.getCurrencyCode());
+    }
+
+    void onOfferRemoved(Offer offer) {
+        if (remove(offer.getId()))
+            notifyListeners(offer.getCurrencyCode());
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    private void add(Offer offer) {
+        // An offer might get added again (e.g. after a reconnect), we replace the old entry
+        remove(offer.getId());
+
+        String currencyCode = offer.getCurrencyCode();
+        Market market = markets.get(currencyCode);
+        if (market == null) {
+            market = new Market();
+            markets.put(currencyCode, market);
+        }
+        // The new entry gets priced with the current market price
+        if (offer.getUseMarketBasedPrice())
+            market.priceEpoch = priceFeedService.getPriceEpoch(currencyCode);
+
+        Entry entry = new Entry(offer);
+        entriesByOfferId.put(offer.getId(), entry);
+        market.add(entry);
+    }
+
+    private boolean remove(String offerId) {
+        Entry entry = entriesByOfferId.remove(offerId);
+        if (entry != null) {
+            String currencyCode = entry.offer.getCurrencyCode();
+            Market market = markets.get(currencyCode);
+            market.remove(entry);
+            if (market.isEmpty())
+                markets.remove(currencyCode);
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    private void onMarketPricesUpdated() {
+        List<String> changedMarkets = new ArrayList<>();
+        markets.entrySet().stream()
+                .filter(e -> !e.getValue().marketBasedEntries.isEmpty())
+                .forEach(e -> {
+                    int priceEpoch = priceFeedService.getPriceEpoch(e.getKey());
+                    Market market = e.getValue();
+                    if (priceEpoch != market.priceEpoch) {
+                        market.priceEpoch = priceEpoch;
+                        market.reprice();
+                        changedMarkets.add(e.getKey());
+                    }
+                });
+
+        if (!changedMarkets.isEmpty())
+            log.debug("Re-priced market based offers of {}", changedMarkets);
+        changedMarkets.stream().forEach(this::notifyListeners);
+    }
+
+    private void notifyListeners(String currencyCode) {
+        listeners.stream().forEach(listener -> listener.onChanged(currencyCode));
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Static classes
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    public static final class Entry {
+        private final Offer offer;
+        // 0 if we cannot calculate the price
+        private final long price;
+
+        private Entry(Offer offer) {
+            this.offer = offer;
+            Fiat price = null;
+            try {
+                price = offer.getPrice();
+            } catch (Throwable t) {
+                log.warn("Could not calculate price of offer " + offer.getId() + ". " + t.getMessage());
+            }
+            this.price = price != null ? price.value : 0;
+        }
+
+        public Offer getOffer() {
+            return offer;
+        }
+
+        public Fiat getPrice() {
+            return Fiat.valueOf(offer.getCurrencyCode(), price);
+        }
+
+        public long getPriceAsLong() {
+            return price;
+        }
+
+        private boolean hasPrice() {
+            return price != 0;
+        }
+    }
+
+    public static final class DepthLevel {
+        public final long price;
+        public final long amount;
+        public final long accumulatedAmount;
+
+        private DepthLevel(long price, long amount, long accumulatedAmount) {
+            this.price = price;
+            this.amount = amount;
+            this.accumulatedAmount = accumulatedAmount;
+        }
+    }
+
+    private static final class Side {
+        private final TreeSet<Entry> pricedEntries;
+        private final Set<Entry> unpricedEntries = new HashSet<>();
+
+        private Side(Comparator<Long> priceComparator) {
+            // The offer ID makes entries with the same price distinct
+            pricedEntries = new TreeSet<>((o1, o2) -> {
+                int result = priceComparator.compare(o1.price, o2.price);
+                return result != 0 ? result : o1.offer.getId().compareTo(o2.offer.getId());
+            });
+        }
+
+        private void add(Entry entry) {
+            if (entry.hasPrice())
+                pricedEntries.add(entry);
+            else
+                unpricedEntries.add(entry);
+        }
+
+        private void remove(Entry entry) {
+            if (entry.hasPrice())
+                pricedEntries.remove(entry);
+            else
+                unpricedEntries.remove(entry);
+        }
+
+        private int size() {
+            return pricedEntries.size() + unpricedEntries.size();
+        }
+    }
+
+    private final class Market {
+        private final Side buySide = new Side(Comparator.reverseOrder());
+        private final Side sellSide = new Side(Comparator.naturalOrder());
+        private final Map<String, Entry> marketBasedEntries = new HashMap<>();
+        private long totalAmount;
+        // The price epoch of the market price used for the market based entries
+        private int priceEpoch;
+
+        private Side getSide(Offer.Direction direction) {
+            return direction == Offer.Direction.BUY ? buySide : sellSide;
+        }
+
+        private void add(Entry entry) {
+            getSide(entry.offer.getDirection()).add(entry);
+            if (entry.offer.getUseMarketBasedPrice())
+                marketBasedEntries.put(entry.offer.getId(), entry);
+            totalAmount += entry.offer.getAmount().value;
+        }
+
+        private void remove(Entry entry) {
+            getSide(entry.offer.getDirection()).remove(entry);
+            marketBasedEntries.remove(entry.offer.getId());
+            totalAmount -= entry.offer.getAmount().value;
+        }
+
+        private boolean isEmpty() {
+            return buySide.size() == 0 && sellSide.size() == 0;
+        }
+
+        private void reprice() {
+            List<Entry> entries = new ArrayList<>(marketBasedEntries.values());
+            entries.stream().forEach(entry -> {
+                remove(entry);
+                Entry repriced = new Entry(entry.offer);
+                entriesByOfferId.put(entry.offer.getId(), repriced);
+                add(repriced);
+            });
+        }
+    }
+}
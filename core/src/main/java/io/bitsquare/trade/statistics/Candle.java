@@ -0,0 +1,78 @@
+package io.bitsquare.trade.statistics;
+
+import io.bitsquare.common.util.MathUtils;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * Open, high, low, close and volume of the trades of one tick. Prices are the trade prices as stored in
+ * TradeStatistics (for altcoins that is the inverted price).
+ */
+@Immutable
+public final class Candle {
+    public final long tick;
+    public final long open;
+    public final long close;
+    public final long high;
+    public final long low;
+    public final long average;
+    public final long accumulatedAmount;
+    public final long accumulatedVolume;
+    public final long numTrades;
+    public final long openDate;
+    public final long closeDate;
+
+    Candle(long tick, long tradePrice, long tradeAmount, long tradeVolume, long tradeDate) {
+        this(tick, tradePrice, tradePrice, tradePrice, tradePrice, tradeAmount, tradeVolume, 1, tradeDate, tradeDate);
+    }
+
+    private Candle(long tick, long open, long close, long high, long low, long accumulatedAmount, long accumulatedVolume,
+                   long numTrades, long openDate, long closeDate) {
+        this.tick = tick;
+        this.open = open;
+        this.close = close;
+        this.high = high;
+        this.low = low;
+        this.accumulatedAmount = accumulatedAmount;
+        this.accumulatedVolume = accumulatedVolume;
+        this.numTrades = numTrades;
+        this.openDate = openDate;
+        this.closeDate = closeDate;
+
+        // 100000000 -> Coin.COIN.value;
+        final double value = MathUtils.scaleUpByPowerOf10(accumulatedVolume, 8);
+        average = accumulatedAmount != 0 ? MathUtils.roundDoubleToLong(value / (double) accumulatedAmount) : 0;
+    }
+
+    Candle merge(Candle other) {
+        return new Candle(tick,
+                other.openDate < openDate ? other.open : open,
+                other.closeDate >= closeDate ? other.close : close,
+                Math.max(high, other.high),
+                Math.min(low, other.low),
+                accumulatedAmount + other.accumulatedAmount,
+                accumulatedVolume + other.accumulatedVolume,
+                numTrades + other.numTrades,
+                Math.min(openDate, other.openDate),
+                Math.max(closeDate, other.closeDate));
+    }
+
+    public boolean isBullish() {
+        return close > open;
+    }
+
+    @Override
+    public String toString() {
+        return "Candle{" +
+                "tick=" + tick +
+                ", open=" + open +
+                ", close=" + close +
+                ", high=" + high +
+                ", low=" + low +
+                ", average=" + average +
+                ", accumulatedAmount=" + accumulatedAmount +
+                ", accumulatedVolume=" + accumulatedVolume +
+                ", numTrades=" + numTrades +
+                '}';
+    }
+}
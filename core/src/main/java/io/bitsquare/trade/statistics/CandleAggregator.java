@@ -0,0 +1,141 @@
+package io.bitsquare.trade.statistics;
+
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.utils.ExchangeRate;
+import org.bitcoinj.utils.Fiat;
+
+import javax.annotation.Nullable;
+import java.util.*;
+
+/**
+ * Keeps the candles per currency and tick unit up to date, so a new trade only updates the candle of its tick in each
+ * series instead of rebuilding all candles from all trades. There is also a series over all currencies (used for the
+ * "show all" entry in the trade charts).
+ * <p>
+ * The series of a currency are built from a range query of the TradeStatisticsStore when they get requested the first
+ * time. After that the trades passed to add update them. So add must only be called for trades which got appended to
+ * the store before.
+ * <p>
+ * Not thread safe, must be used from the UserThread.
+ */
+public class CandleAggregator {
+    // Key for the series over all currencies
+    private static final String ALL_CURRENCIES = "";
+
+    private final TradeStatisticsStore tradeStatisticsStore;
+    private final Map<String, Map<TickUnit, TreeMap<Long, Candle>>> seriesByCurrency = new HashMap<>();
+    private final Set<String> loadedCurrencies = new HashSet<>();
+    private boolean allCurrenciesLoaded;
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Constructor
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    public CandleAggregator(TradeStatisticsStore tradeStatisticsStore) {
+        this.tradeStatisticsStore = tradeStatisticsStore;
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // API
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Updates the loaded series with a trade which got appended to the store. The series not loaded yet will get it
+     * from the store.
+     */
+    public void add(TradeStatistics tradeStatistics) {
+        String currency = tradeStatistics.currency;
+        if (allCurrenciesLoaded || loadedCurrencies.contains(currency)) {
+            long tradeVolume = getTradeVolume(currency, tradeStatistics.tradePrice, tradeStatistics.tradeAmount);
+            addToSeries(currency, tradeStatistics.tradePrice, tradeStatistics.tradeAmount, tradeVolume, tradeStatistics.tradeDate);
+            if (allCurrenciesLoaded)
+                addToSeries(ALL_CURRENCIES, tradeStatistics.tradePrice, tradeStatistics.tradeAmount, tradeVolume, tradeStatistics.tradeDate);
+        }
+    }
+
+    /**
+     * @param currencyCode If null the candles over all currencies are returned.
+     * @param fromTick     Inclusive.
+     * @param toTick       Inclusive.
+     * @return The candles sorted by tick. Ticks without trades have no candle.
+     */
+    public List<Candle> getCandles(@Nullable String currencyCode, TickUnit tickUnit, long fromTick, long toTick) {
+        if (currencyCode != null)
+            load(currencyCode);
+        else
+            loadAllCurrencies();
+
+        TreeMap<Long, Candle> series = getSeries(currencyCode != null ? currencyCode : ALL_CURRENCIES, tickUnit);
+        if (series == null || fromTick > toTick)
+            return new ArrayList<>();
+
+        return new ArrayList<>(series.subMap(fromTick, true, toTick, true).values());
+    }
+
+    /**
+     * @return The complete series of all currencies (without the series over all currencies) sorted by currency code.
+     */
+    public Map<String, Map<TickUnit, List<Candle>>> getAllSeries(Collection<TickUnit> tickUnits) {
+        loadAllCurrencies();
+        Map<String, Map<TickUnit, List<Candle>>> allSeries = new TreeMap<>();
+        seriesByCurrency.entrySet().stream()
+                .filter(entry -> !entry.getKey().equals(ALL_CURRENCIES))
+                .forEach(entry -> {
+                    Map<TickUnit, List<Candle>> seriesByTickUnit = new EnumMap<>(TickUnit.class);
+                    tickUnits.stream()
+                            .filter(entry.getValue()::containsKey)
+                            .forEach(tickUnit -> seriesByTickUnit.put(tickUnit, new ArrayList<>(entry.getValue().get(tickUnit).values())));
+                    allSeries.put(entry.getKey(), seriesByTickUnit);
+                });
+        return allSeries;
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    private void load(String currencyCode) {
+        if (!allCurrenciesLoaded && loadedCurrencies.add(currencyCode)) {
+            tradeStatisticsStore.forEach(currencyCode, Long.MIN_VALUE, Long.MAX_VALUE,
+                    (currency, direction, tradePrice, tradeAmount, tradeDate) ->
+                            addToSeries(currency, tradePrice, tradeAmount, getTradeVolume(currency, tradePrice, tradeAmount), tradeDate));
+        }
+    }
+
+    private void loadAllCurrencies() {
+        if (!allCurrenciesLoaded) {
+            allCurrenciesLoaded = true;
+            // We build all series again, so we don't need to know which trades the loaded ones contain already
+            seriesByCurrency.clear();
+            loadedCurrencies.clear();
+            tradeStatisticsStore.forEach(null, Long.MIN_VALUE, Long.MAX_VALUE,
+                    (currency, direction, tradePrice, tradeAmount, tradeDate) -> {
+                        long tradeVolume = getTradeVolume(currency, tradePrice, tradeAmount);
+                        addToSeries(currency, tradePrice, tradeAmount, tradeVolume, tradeDate);
+                        addToSeries(ALL_CURRENCIES, tradePrice, tradeAmount, tradeVolume, tradeDate);
+                    });
+        }
+    }
+
+    private static long getTradeVolume(String currency, long tradePrice, long tradeAmount) {
+        return new ExchangeRate(Fiat.valueOf(currency, tradePrice)).coinToFiat(Coin.valueOf(tradeAmount)).value;
+    }
+
+    private void addToSeries(String key, long tradePrice, long tradeAmount, long tradeVolume, long tradeDate) {
+        Map<TickUnit, TreeMap<Long, Candle>> seriesByTickUnit = seriesByCurrency.computeIfAbsent(key, k -> new EnumMap<>(TickUnit.class));
+        for (TickUnit tickUnit : TickUnit.values()) {
+            long tick = tickUnit.getTickFromTime(tradeDate);
+            seriesByTickUnit.computeIfAbsent(tickUnit, k -> new TreeMap<>())
+                    .merge(tick, new Candle(tick, tradePrice, tradeAmount, tradeVolume, tradeDate), Candle::merge);
+        }
+    }
+
+    @Nullable
+    private TreeMap<Long, Candle> getSeries(String key, TickUnit tickUnit) {
+        Map<TickUnit, TreeMap<Long, Candle>> seriesByTickUnit = seriesByCurrency.get(key);
+        return seriesByTickUnit != null ? seriesByTickUnit.get(tickUnit) : null;
+    }
+}
@@ -0,0 +1,60 @@
+package io.bitsquare.trade.statistics;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time interval of the candles of the trade statistics. The ordinal is persisted in the preferences.
+ */
+public enum TickUnit {
+    YEAR,
+    MONTH,
+    WEEK,
+    DAY,
+    HOUR,
+    MINUTE_10,
+    // TODO Can be removed after version 4.9.7
+    // Not used anymore but leave it as it might be used in preferences and could cause an exception if not there.
+    MINUTE;
+
+    public long getTickFromTime(long time) {
+        switch (this) {
+            case YEAR:
+                return TimeUnit.MILLISECONDS.toDays(time) / 365;
+            case MONTH:
+                return TimeUnit.MILLISECONDS.toDays(time) / 31;
+            case WEEK:
+                return TimeUnit.MILLISECONDS.toDays(time) / 7;
+            case DAY:
+                return TimeUnit.MILLISECONDS.toDays(time);
+            case HOUR:
+                return TimeUnit.MILLISECONDS.toHours(time);
+            case MINUTE_10:
+                return TimeUnit.MILLISECONDS.toMinutes(time) / 10;
+            case MINUTE:
+                return TimeUnit.MILLISECONDS.toMinutes(time);
+            default:
+                return time;
+        }
+    }
+
+    public long getTimeFromTick(long tick) {
+        switch (this) {
+            case YEAR:
+                return TimeUnit.DAYS.toMillis(tick) * 365;
+            case MONTH:
+                return TimeUnit.DAYS.toMillis(tick) * 31;
+            case WEEK:
+                return TimeUnit.DAYS.toMillis(tick) * 7;
+            case DAY:
+                return TimeUnit.DAYS.toMillis(tick);
+            case HOUR:
+                return TimeUnit.HOURS.toMillis(tick);
+            case MINUTE_10:
+                return TimeUnit.MINUTES.toMillis(tick) * 10;
+            case MINUTE:
+                return TimeUnit.MINUTES.toMillis(tick);
+            default:
+                return tick;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package io.bitsquare.trade.statistics;
+
+import io.bitsquare.common.util.Utilities;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creates the json dump of the trade statistics (sorted by trade date, newest first) without serializing all
+ * items again for each new item. The items are grouped by the day of the trade date and the json of a day is only
+ * created again if an item of that day got added. The cached json fragments are concatenated to the same output as
+ * the json of the whole sorted array.
+ */
+class TradeStatisticsJsonExporter {
+    private static final long PARTITION_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    // Newest day first
+    private final TreeMap<Long, List<TradeStatisticsForJson>> itemsByDay = new TreeMap<>(Comparator.reverseOrder());
+    private final Map<Long, String> jsonFragmentByDay = new HashMap<>();
+
+    void add(TradeStatistics tradeStatistics) {
+        long day = Math.floorDiv(tradeStatistics.tradeDate, PARTITION_MILLIS);
+        itemsByDay.computeIfAbsent(day, k -> new ArrayList<>()).add(new TradeStatisticsForJson(tradeStatistics));
+        jsonFragmentByDay.remove(day);
+    }
+
+    String toJson() {
+        if (itemsByDay.isEmpty())
+            return Utilities.objectToJson(new TradeStatisticsForJson[0]);
+
+        StringBuilder sb = new StringBuilder("[");
+        itemsByDay.entrySet().stream().forEach(entry -> {
+            if (sb.length() > 1)
+                sb.append(",");
+            sb.append(jsonFragmentByDay.computeIfAbsent(entry.getKey(), k -> getJsonFragment(entry.getValue())));
+        });
+        return sb.append("\n]").toString();
+    }
+
+    // The pretty printed json array without the enclosing brackets: "[\n  {...},\n  {...}\n]" -> "\n  {...},\n  {...}"
+    private static String getJsonFragment(List<TradeStatisticsForJson> list) {
+        list.sort((o1, o2) -> (o1.tradeDate < o2.tradeDate ? 1 : (o1.tradeDate == o2.tradeDate ? 0 : -1)));
+        TradeStatisticsForJson[] array = new TradeStatisticsForJson[list.size()];
+        list.toArray(array);
+        String json = Utilities.objectToJson(array);
+        return json.substring(1, json.length() - 2);
+    }
+}
@@ -3,6 +3,7 @@ package io.bitsquare.trade.statistics;
 import com.google.inject.Inject;
 import com.google.inject.name.Named;
 import io.bitsquare.app.AppOptionKeys;
+import io.bitsquare.common.UserThread;
 import io.bitsquare.common.util.Utilities;
 import io.bitsquare.locale.CurrencyTuple;
 import io.bitsquare.locale.CurrencyUtil;
@@ -13,38 +14,52 @@ import io.bitsquare.p2p.storage.storageentry.ProtectedStorageEntry;
 import io.bitsquare.storage.PlainTextWrapper;
 import io.bitsquare.storage.Storage;
 import javafx.collections.FXCollections;
-import javafx.collections.ObservableSet;
+import javafx.collections.ObservableList;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.List;
+import java.io.File;
+import java.util.*;
 import java.util.stream.Collectors;
 
 public class TradeStatisticsManager {
     private static final Logger log = LoggerFactory.getLogger(TradeStatisticsManager.class);
 
+    // The smaller tick units would create too many candles for the dump
+    private static final List<TickUnit> JSON_DUMP_TICK_UNITS = Arrays.asList(TickUnit.YEAR, TickUnit.MONTH,
+            TickUnit.WEEK, TickUnit.DAY, TickUnit.HOUR);
+
     private final Storage<HashSet<TradeStatistics>> statisticsStorage;
     private Storage<PlainTextWrapper> fiatCurrencyListJsonStorage;
     private Storage<PlainTextWrapper> cryptoCurrencyListJsonStorage;
     private Storage<PlainTextWrapper> statisticsJsonStorage;
+    private Storage<PlainTextWrapper> candlesJsonStorage;
     private boolean dumpStatistics;
-    private ObservableSet<TradeStatistics> observableTradeStatisticsSet = FXCollections.observableSet();
+    private ObservableList<TradeStatistics> observableTradeStatisticsList = FXCollections.observableArrayList();
     private HashSet<TradeStatistics> tradeStatisticsSet = new HashSet<>();
+    private final Map<String, TradeStatistics> tradeStatisticsByOfferId = new HashMap<>();
+    private final TradeStatisticsStore tradeStatisticsStore;
+    private final TradeStatisticsJsonExporter jsonExporter = new TradeStatisticsJsonExporter();
+    private final CandleAggregator candleAggregator;
+    private boolean dumpPending;
 
     @Inject
     public TradeStatisticsManager(Storage<HashSet<TradeStatistics>> statisticsStorage,
                                   Storage<PlainTextWrapper> fiatCurrencyListJsonStorage,
                                   Storage<PlainTextWrapper> cryptoCurrencyListJsonStorage,
                                   Storage<PlainTextWrapper> statisticsJsonStorage,
+                                  Storage<PlainTextWrapper> candlesJsonStorage,
                                   P2PService p2PService,
+                                  @Named(Storage.DIR_KEY) File storageDir,
                                   @Named(AppOptionKeys.DUMP_STATISTICS) boolean dumpStatistics) {
         this.statisticsStorage = statisticsStorage;
         this.fiatCurrencyListJsonStorage = fiatCurrencyListJsonStorage;
         this.cryptoCurrencyListJsonStorage = cryptoCurrencyListJsonStorage;
         this.statisticsJsonStorage = statisticsJsonStorage;
+        this.candlesJsonStorage = candlesJsonStorage;
         this.dumpStatistics = dumpStatistics;
+        this.tradeStatisticsStore = new TradeStatisticsStore(storageDir);
+        this.candleAggregator = new CandleAggregator(tradeStatisticsStore);
 
         statisticsStorage.setNumMaxBackupFiles(1);
 
@@ -54,6 +69,7 @@ public class TradeStatisticsManager {
     private void init(P2PService p2PService) {
         if (dumpStatistics) {
             this.statisticsJsonStorage.initWithFileName("trade_statistics.json");
+            this.candlesJsonStorage.initWithFileName("trade_statistics_candles.json");
 
             this.fiatCurrencyListJsonStorage.initWithFileName("fiat_currency_list.json");
             ArrayList<CurrencyTuple> fiatCurrencyList = new ArrayList<>(CurrencyUtil.getAllSortedFiatCurrencies().stream()
@@ -69,10 +85,6 @@ public class TradeStatisticsManager {
             cryptoCurrencyListJsonStorage.queueUpForSave(new PlainTextWrapper(Utilities.objectToJson(cryptoCurrencyList)), 2000);
         }
 
-        HashSet<TradeStatistics> persisted = statisticsStorage.initAndGetPersistedWithFileName("TradeStatistics");
-        if (persisted != null)
-            persisted.stream().forEach(e -> add(e, false));
-
         p2PService.addHashSetChangedListener(new HashMapChangedListener() {
             @Override
             public void onAdded(ProtectedStorageEntry data) {
@@ -87,48 +99,90 @@ public class TradeStatisticsManager {
             }
         });
 
+        List<TradeStatistics> initialItems = new ArrayList<>();
+        HashSet<TradeStatistics> persisted = statisticsStorage.initAndGetPersistedWithFileName("TradeStatistics");
+        if (persisted != null)
+            initialItems.addAll(persisted);
+
         // At startup the P2PDataStorage inits earlier, otherwise we ge the listener called.
-        p2PService.getP2PDataStorage().getMap().values().forEach(e -> {
-            final StoragePayload storagePayload = e.getStoragePayload();
-            if (storagePayload instanceof TradeStatistics)
-                add((TradeStatistics) storagePayload, false);
-        });
+        p2PService.getP2PDataStorage().getEntriesOfType(TradeStatistics.class)
+                .forEach(e -> initialItems.add((TradeStatistics) e.getStoragePayload()));
+
+        addAll(initialItems);
     }
 
     public void add(TradeStatistics tradeStatistics, boolean storeLocally) {
-        if (!tradeStatisticsSet.contains(tradeStatistics)) {
-            boolean itemAlreadyAdded = tradeStatisticsSet.stream().filter(e -> (e.getOfferId().equals(tradeStatistics.getOfferId()))).findAny().isPresent();
-            if (!itemAlreadyAdded) {
-                tradeStatisticsSet.add(tradeStatistics);
-                observableTradeStatisticsSet.add(tradeStatistics);
+        if (addToSet(tradeStatistics)) {
+            // The store and the candles must be updated before the observers get notified as they might query them.
+            // If the store has the item already (from an earlier session), the candles have it as well.
+            if (tradeStatisticsStore.append(tradeStatistics))
+                candleAggregator.add(tradeStatistics);
+            observableTradeStatisticsList.add(tradeStatistics);
+
+            if (storeLocally)
+                statisticsStorage.queueUpForSave(new HashSet<>(tradeStatisticsSet), 2000);
+
+            if (dumpStatistics) {
+                jsonExporter.add(tradeStatistics);
+                dump();
+            }
+        }
+    }
+
+    public ObservableList<TradeStatistics> getObservableTradeStatisticsList() {
+        return observableTradeStatisticsList;
+    }
 
-                if (storeLocally)
-                    statisticsStorage.queueUpForSave(new HashSet<>(tradeStatisticsSet), 2000);
+    public CandleAggregator getCandleAggregator() {
+        return candleAggregator;
+    }
+
+    // Used for the initial load. The listeners get notified with one change for all new items and each day partition
+    // of the store is written only once. The candles get built from the store when they are requested.
+    private void addAll(Collection<TradeStatistics> collection) {
+        List<TradeStatistics> newItems = new ArrayList<>();
+        for (TradeStatistics tradeStatistics : collection) {
+            if (addToSet(tradeStatistics))
+                newItems.add(tradeStatistics);
+        }
 
+        if (!newItems.isEmpty()) {
+            tradeStatisticsStore.appendAll(newItems);
+            observableTradeStatisticsList.addAll(newItems);
+
+            if (dumpStatistics) {
+                newItems.stream().forEach(jsonExporter::add);
                 dump();
-            } else {
-                log.debug("We have already an item with the same offer ID. That might happen if both the offerer and the taker published the tradeStatistics");
             }
         }
+        log.info("Loaded {} trade statistics", newItems.size());
     }
 
-    public ObservableSet<TradeStatistics> getObservableTradeStatisticsSet() {
-        return observableTradeStatisticsSet;
+    private boolean addToSet(TradeStatistics tradeStatistics) {
+        TradeStatistics existing = tradeStatisticsByOfferId.get(tradeStatistics.getOfferId());
+        if (existing == null) {
+            tradeStatisticsByOfferId.put(tradeStatistics.getOfferId(), tradeStatistics);
+            tradeStatisticsSet.add(tradeStatistics);
+            return true;
+        } else {
+            if (!existing.equals(tradeStatistics))
+                log.debug("We have already an item with the same offer ID. That might happen if both the offerer and the taker published the tradeStatistics");
+            return false;
+        }
     }
 
     private void dump() {
-        if (dumpStatistics) {
-            // We store the statistics as json so it is easy for further processing (e.g. for web based services)
-            // TODO This is just a quick solution for storing to one file. 
-            // 1 statistic entry has 500 bytes as json.
-            // Need a more scalable solution later when we get more volume.
-            // The flag will only be activated by dedicated nodes, so it should not be too critical for the moment, but needs to
-            // get improved. Maybe a LevelDB like DB...? Could be impl. in a headless version only.
-            List<TradeStatisticsForJson> list = tradeStatisticsSet.stream().map(TradeStatisticsForJson::new).collect(Collectors.toList());
-            list.sort((o1, o2) -> (o1.tradeDate < o2.tradeDate ? 1 : (o1.tradeDate == o2.tradeDate ? 0 : -1)));
-            TradeStatisticsForJson[] array = new TradeStatisticsForJson[list.size()];
-            list.toArray(array);
-            statisticsJsonStorage.queueUpForSave(new PlainTextWrapper(Utilities.objectToJson(array)), 5000);
+        // We store the statistics as json so it is easy for further processing (e.g. for web based services)
+        // 1 statistic entry has 500 bytes as json. Only the items of the days with new items get serialized again and
+        // we create the json at most once per save interval, as at startup all persisted items get added.
+        if (!dumpPending) {
+            dumpPending = true;
+            UserThread.runAfter(() -> {
+                dumpPending = false;
+                statisticsJsonStorage.queueUpForSave(new PlainTextWrapper(jsonExporter.toJson()), 0);
+                candlesJsonStorage.queueUpForSave(new PlainTextWrapper(Utilities.objectToJson(
+                        candleAggregator.getAllSeries(JSON_DUMP_TICK_UNITS))), 0);
+            }, 5);
         }
     }
 }
@@ -0,0 +1,461 @@
+package io.bitsquare.trade.statistics;
+
+import com.google.common.hash.Hashing;
+import io.bitsquare.common.util.Utilities;
+import io.bitsquare.trade.offer.Offer;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.utils.ExchangeRate;
+import org.bitcoinj.utils.Fiat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Append-only store for the trade statistics used for the charts and the statistics dump.
+ * <p>
+ * The data are partitioned by the day of the trade date. Each partition is a directory holding one file per column
+ * (see Column) with fixed size values, so a row is addressed by its index. The currency codes are stored in a
+ * dictionary file and referenced by their index. Partitions are read via memory mapped buffers and a range query only
+ * visits the partitions of the requested time window. The currency column is checked first, so rows of other
+ * currencies don't cause reads of the other columns.
+ * <p>
+ * We use a hash of the offer ID for detecting already stored items, as the TradeStatistics get added again at each
+ * startup.
+ * <p>
+ * Appended items are visible to the queries immediately but written in the background after WRITE_DELAY_MS, so a
+ * burst of items (e.g. from the initial data of the P2P network) results in one write per column and day.
+ * <p>
+ * Not all fields of TradeStatistics are stored, so the full objects are still persisted by the TradeStatisticsManager.
+ */
+public class TradeStatisticsStore {
+    private static final Logger log = LoggerFactory.getLogger(TradeStatisticsStore.class);
+
+    private static final String DIR_NAME = "TradeStatisticsStore";
+    private static final String CURRENCIES_FILE_NAME = "currencies";
+    private static final long PARTITION_MILLIS = TimeUnit.DAYS.toMillis(1);
+    private static final long WRITE_DELAY_MS = 1000;
+
+    // The date column is written last, so after a crash in the middle of an append all columns get truncated to the
+    // number of complete rows.
+    private enum Column {
+        ID(8),
+        CURRENCY(4),
+        DIRECTION(1),
+        PRICE(8),
+        AMOUNT(8),
+        DATE(8);
+
+        private final int size;
+
+        Column(int size) {
+            this.size = size;
+        }
+
+        private String getFileName() {
+            return name().toLowerCase() + ".col";
+        }
+    }
+
+    public interface RecordHandler {
+        void handle(String currency, Offer.Direction direction, long tradePrice, long tradeAmount, long tradeDate);
+    }
+
+    private final File dir;
+    private final File currenciesFile;
+    private final List<String> currencies = new ArrayList<>();
+    private final Map<String, Integer> currencyIndices = new HashMap<>();
+    private final TreeMap<Long, Partition> partitions = new TreeMap<>();
+    private final Set<Long> ids = new HashSet<>();
+    // Appended but not written yet, by partition key. The written items of a partition are removed in the same
+    // synchronized block which raises its numRows, so forEach never sees a row twice.
+    private final TreeMap<Long, List<TradeStatistics>> pendingItemsByPartition = new TreeMap<>();
+    private final ScheduledThreadPoolExecutor writeExecutor;
+    private final AtomicBoolean writePending = new AtomicBoolean();
+    // Writes are done from the writeExecutor and at shutdown
+    private final Object writeLock = new Object();
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Constructor
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    public TradeStatisticsStore(File storageDir) {
+        dir = new File(storageDir, DIR_NAME);
+        currenciesFile = new File(dir, CURRENCIES_FILE_NAME);
+
+        if (!dir.exists() && !dir.mkdirs())
+            log.error("Could not create directory " + dir.getAbsolutePath());
+
+        try {
+            readCurrencies();
+            readPartitions();
+            log.info("TradeStatisticsStore loaded with {} records in {} partitions", ids.size(), partitions.size());
+        } catch (IOException e) {
+            log.error("Could not read TradeStatisticsStore. " + e.getMessage());
+            e.printStackTrace();
+        }
+
+        writeExecutor = Utilities.getScheduledThreadPoolExecutor("TradeStatisticsStore", 1, 1, 5);
+        Runtime.getRuntime().addShutdownHook(new Thread(this::write, "TradeStatisticsStore.ShutDownHook"));
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // API
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * @return true if the item was not stored already and got appended.
+     */
+    public boolean append(TradeStatistics tradeStatistics) {
+        return appendAll(Collections.singletonList(tradeStatistics)) == 1;
+    }
+
+    /**
+     * Appends the items which are not stored already. They are written in the background.
+     *
+     * @return The number of appended items.
+     */
+    public synchronized int appendAll(Collection<TradeStatistics> tradeStatisticsCollection) {
+        int numAppended = 0;
+        for (TradeStatistics tradeStatistics : tradeStatisticsCollection) {
+            if (tradeStatistics.getOfferId() != null && tradeStatistics.currency != null && tradeStatistics.direction != null
+                    && ids.add(getId(tradeStatistics.getOfferId()))) {
+                pendingItemsByPartition.computeIfAbsent(getPartitionKey(tradeStatistics.tradeDate), k -> new ArrayList<>())
+                        .add(tradeStatistics);
+                numAppended++;
+            }
+        }
+
+        if (numAppended > 0 && !writePending.getAndSet(true))
+            writeExecutor.schedule(this::write, WRITE_DELAY_MS, TimeUnit.MILLISECONDS);
+        return numAppended;
+    }
+
+    /**
+     * Writes the pending items on the calling thread. Items of the same day are written with one write per column.
+     */
+    public void write() {
+        synchronized (writeLock) {
+            writePending.set(false);
+            // Items appended while we are writing stay pending
+            TreeMap<Long, List<TradeStatistics>> itemsByPartition = new TreeMap<>();
+            synchronized (this) {
+                pendingItemsByPartition.entrySet().stream()
+                        .forEach(e -> itemsByPartition.put(e.getKey(), new ArrayList<>(e.getValue())));
+            }
+
+            for (Map.Entry<Long, List<TradeStatistics>> entry : itemsByPartition.entrySet()) {
+                Partition partition = null;
+                try {
+                    Map<Column, ByteBuffer> columnBuffers;
+                    synchronized (this) {
+                        partition = partitions.get(entry.getKey());
+                        if (partition == null) {
+                            partition = new Partition(new File(dir, String.valueOf(entry.getKey())));
+                            partitions.put(entry.getKey(), partition);
+                        }
+                        columnBuffers = encode(entry.getValue());
+                    }
+                    // Readers only map the rows counted in numRows, so we can write the files without holding the lock
+                    partition.write(columnBuffers);
+                    synchronized (this) {
+                        partition.numRows += entry.getValue().size();
+                        removePendingItems(entry.getKey(), entry.getValue().size());
+                    }
+                } catch (IOException e) {
+                    log.error("Could not write to TradeStatisticsStore. " + e.getMessage());
+                    e.printStackTrace();
+                    synchronized (this) {
+                        if (partition != null)
+                            partition.recover();
+                        // The items get appended again at the next startup
+                        entry.getValue().stream().forEach(item -> ids.remove(getId(item.getOfferId())));
+                        removePendingItems(entry.getKey(), entry.getValue().size());
+                    }
+                }
+            }
+        }
+    }
+
+    public synchronized boolean contains(TradeStatistics tradeStatistics) {
+        return tradeStatistics.getOfferId() != null && ids.contains(getId(tradeStatistics.getOfferId()));
+    }
+
+    public synchronized int getNumRecords() {
+        return ids.size();
+    }
+
+    /**
+     * Passes all records matching the currency and time window to the handler.
+     *
+     * @param currencyCode If null all currencies are matching.
+     * @param fromDate     Inclusive.
+     * @param toDate       Exclusive.
+     */
+    public synchronized void forEach(@Nullable String currencyCode, long fromDate, long toDate, RecordHandler handler) {
+        if (fromDate >= toDate)
+            return;
+
+        // A currency gets its index when its first item is written
+        Integer currencyIndex = currencyCode != null ? currencyIndices.get(currencyCode) : null;
+        if (currencyCode == null || currencyIndex != null) {
+            Offer.Direction[] directions = Offer.Direction.values();
+            for (Partition partition : partitions.subMap(getPartitionKey(fromDate), true, getPartitionKey(toDate - 1), true).values()) {
+                try {
+                    partition.map();
+                    for (int i = 0; i < partition.numMappedRows; i++) {
+                        int currency = partition.getBuffer(Column.CURRENCY).getInt(i * Column.CURRENCY.size);
+                        if (currencyIndex != null && currency != currencyIndex)
+                            continue;
+
+                        long tradeDate = partition.getBuffer(Column.DATE).getLong(i * Column.DATE.size);
+                        if (tradeDate < fromDate || tradeDate >= toDate)
+                            continue;
+
+                        handler.handle(currencies.get(currency),
+                                directions[partition.getBuffer(Column.DIRECTION).get(i * Column.DIRECTION.size)],
+                                partition.getBuffer(Column.PRICE).getLong(i * Column.PRICE.size),
+                                partition.getBuffer(Column.AMOUNT).getLong(i * Column.AMOUNT.size),
+                                tradeDate);
+                    }
+                } catch (IOException e) {
+                    log.error("Could not read partition " + partition.dir.getName() + ". " + e.getMessage());
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        // The items not written yet
+        for (List<TradeStatistics> pendingItems : pendingItemsByPartition.subMap(getPartitionKey(fromDate), true,
+                getPartitionKey(toDate - 1), true).values()) {
+            for (TradeStatistics tradeStatistics : pendingItems) {
+                if ((currencyCode == null || currencyCode.equals(tradeStatistics.currency))
+                        && tradeStatistics.tradeDate >= fromDate && tradeStatistics.tradeDate < toDate)
+                    handler.handle(tradeStatistics.currency, tradeStatistics.direction, tradeStatistics.tradePrice,
+                            tradeStatistics.tradeAmount, tradeStatistics.tradeDate);
+            }
+        }
+    }
+
+    /**
+     * @param currencyCode If null all currencies are matching.
+     * @param fromDate     Inclusive.
+     * @param toDate       Exclusive.
+     */
+    public List<Record> getRecords(@Nullable String currencyCode, long fromDate, long toDate) {
+        List<Record> records = new ArrayList<>();
+        forEach(currencyCode, fromDate, toDate, (currency, direction, tradePrice, tradeAmount, tradeDate) ->
+                records.add(new Record(currency, direction, tradePrice, tradeAmount, tradeDate)));
+        return records;
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    // Removes the first numItems pending items of the partition, which are the ones we have written
+    private void removePendingItems(long partitionKey, int numItems) {
+        List<TradeStatistics> pendingItems = pendingItemsByPartition.get(partitionKey);
+        pendingItems.subList(0, numItems).clear();
+        if (pendingItems.isEmpty())
+            pendingItemsByPartition.remove(partitionKey);
+    }
+
+    private void readCurrencies() throws IOException {
+        if (currenciesFile.exists()) {
+            for (String currency : Files.readAllLines(currenciesFile.toPath(), StandardCharsets.UTF_8)) {
+                if (!currency.isEmpty()) {
+                    currencyIndices.put(currency, currencies.size());
+                    currencies.add(currency);
+                }
+            }
+        }
+    }
+
+    private void readPartitions() throws IOException {
+        File[] files = dir.listFiles(File::isDirectory);
+        if (files != null) {
+            for (File file : files) {
+                try {
+                    long partitionKey = Long.parseLong(file.getName());
+                    Partition partition = new Partition(file);
+                    partitions.put(partitionKey, partition);
+
+                    partition.map();
+                    ByteBuffer idBuffer = partition.getBuffer(Column.ID);
+                    for (int i = 0; i < partition.numMappedRows; i++)
+                        ids.add(idBuffer.getLong(i * Column.ID.size));
+                } catch (NumberFormatException e) {
+                    log.warn("Unexpected directory in TradeStatisticsStore: " + file.getName());
+                }
+            }
+        }
+    }
+
+    private Map<Column, ByteBuffer> encode(List<TradeStatistics> list) throws IOException {
+        Map<Column, ByteBuffer> columnBuffers = new EnumMap<>(Column.class);
+        for (Column column : Column.values())
+            columnBuffers.put(column, ByteBuffer.allocate(list.size() * column.size));
+
+        for (TradeStatistics tradeStatistics : list) {
+            columnBuffers.get(Column.ID).putLong(getId(tradeStatistics.getOfferId()));
+            columnBuffers.get(Column.CURRENCY).putInt(getCurrencyIndex(tradeStatistics.currency));
+            columnBuffers.get(Column.DIRECTION).put((byte) tradeStatistics.direction.ordinal());
+            columnBuffers.get(Column.PRICE).putLong(tradeStatistics.tradePrice);
+            columnBuffers.get(Column.AMOUNT).putLong(tradeStatistics.tradeAmount);
+            columnBuffers.get(Column.DATE).putLong(tradeStatistics.tradeDate);
+        }
+        return columnBuffers;
+    }
+
+    private int getCurrencyIndex(String currency) throws IOException {
+        Integer index = currencyIndices.get(currency);
+        if (index == null) {
+            // The dictionary is written before the rows referencing it
+            Files.write(currenciesFile.toPath(), Collections.singletonList(currency), StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            index = currencies.size();
+            currencyIndices.put(currency, index);
+            currencies.add(currency);
+        }
+        return index;
+    }
+
+    private static long getPartitionKey(long date) {
+        return Math.floorDiv(date, PARTITION_MILLIS);
+    }
+
+    private static long getId(String offerId) {
+        return Hashing.murmur3_128().hashString(offerId, StandardCharsets.UTF_8).asLong();
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Static classes
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    @Immutable
+    public static final class Record {
+        public final String currency;
+        public final Offer.Direction direction;
+        public final long tradePrice;
+        public final long tradeAmount;
+        public final long tradeDate;
+
+        public Record(String currency, Offer.Direction direction, long tradePrice, long tradeAmount, long tradeDate) {
+            this.currency = currency;
+            this.direction = direction;
+            this.tradePrice = tradePrice;
+            this.tradeAmount = tradeAmount;
+            this.tradeDate = tradeDate;
+        }
+
+        public Fiat getTradePrice() {
+            return Fiat.valueOf(currency, tradePrice);
+        }
+
+        public Coin getTradeAmount() {
+            return Coin.valueOf(tradeAmount);
+        }
+
+        public Fiat getTradeVolume() {
+            return new ExchangeRate(getTradePrice()).coinToFiat(getTradeAmount());
+        }
+
+        @Override
+        public String toString() {
+            return "Record{" +
+                    "currency='" + currency + '\'' +
+                    ", direction=" + direction +
+                    ", tradePrice=" + tradePrice +
+                    ", tradeAmount=" + tradeAmount +
+                    ", tradeDate=" + tradeDate +
+                    '}';
+        }
+    }
+
+    private final class Partition {
+        private final File dir;
+        private final MappedByteBuffer[] buffers = new MappedByteBuffer[Column.values().length];
+        private int numRows;
+        private int numMappedRows;
+
+        private Partition(File dir) throws IOException {
+            this.dir = dir;
+            if (!dir.exists() && !dir.mkdirs())
+                throw new IOException("Could not create directory " + dir.getAbsolutePath());
+
+            recover();
+        }
+
+        // Truncates all columns to the number of complete rows
+        private void recover() {
+            long rows = Long.MAX_VALUE;
+            for (Column column : Column.values())
+                rows = Math.min(rows, getFile(column).length() / column.size);
+
+            for (Column column : Column.values()) {
+                File file = getFile(column);
+                if (file.exists() && file.length() > rows * column.size) {
+                    log.warn("Truncating incomplete column " + file.getAbsolutePath());
+                    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+                        channel.truncate(rows * column.size);
+                    } catch (IOException e) {
+                        log.error("Could not truncate " + file.getAbsolutePath() + ". " + e.getMessage());
+                    }
+                }
+            }
+            numRows = (int) rows;
+            numMappedRows = 0;
+        }
+
+        // The caller adds the rows to numRows after the write
+        private void write(Map<Column, ByteBuffer> columnBuffers) throws IOException {
+            for (Column column : Column.values()) {
+                ByteBuffer buffer = columnBuffers.get(column);
+                buffer.flip();
+                try (FileChannel channel = FileChannel.open(getFile(column).toPath(),
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                    while (buffer.hasRemaining())
+                        channel.write(buffer);
+                }
+            }
+        }
+
+        // Maps the columns again if rows got appended since the last mapping
+        private void map() throws IOException {
+            if (numMappedRows != numRows) {
+                for (Column column : Column.values()) {
+                    try (FileChannel channel = FileChannel.open(getFile(column).toPath(), StandardOpenOption.READ)) {
+                        buffers[column.ordinal()] = channel.map(FileChannel.MapMode.READ_ONLY, 0, (long) numRows * column.size);
+                    }
+                }
+                numMappedRows = numRows;
+            }
+        }
+
+        private ByteBuffer getBuffer(Column column) {
+            return buffers[column.ordinal()];
+        }
+
+        private File getFile(Column column) {
+            return new File(dir, column.getFileName());
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package io.bitsquare.btc.blockchain;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FeeProviderStatsTest {
+
+    @Test
+    public void testDefaultsWithoutSamples() {
+        FeeProviderStats stats = new FeeProviderStats();
+        stats.onSuccess(100);
+        assertEquals(2000, stats.getMedianLatencyMs());
+        assertEquals(2000, stats.getHedgeDelayMs());
+        assertTrue(stats.isHealthy());
+    }
+
+    @Test
+    public void testPercentiles() {
+        FeeProviderStats stats = new FeeProviderStats();
+        for (int i = 1; i <= 10; i++)
+            stats.onSuccess(i * 100);
+
+        assertEquals(500, stats.getMedianLatencyMs());
+        assertEquals(900, stats.getLatencyPercentileMs(0.9));
+        assertEquals(900, stats.getHedgeDelayMs());
+
+        // Only the last 20 samples are used
+        for (int i = 0; i < 20; i++)
+            stats.onSuccess(10);
+        assertEquals(10, stats.getMedianLatencyMs());
+        // Not below the min. hedge delay
+        assertEquals(500, stats.getHedgeDelayMs());
+
+        for (int i = 0; i < 20; i++)
+            stats.onSuccess(60_000);
+        // Not above the max. hedge delay
+        assertEquals(5000, stats.getHedgeDelayMs());
+    }
+
+    @Test
+    public void testScore() {
+        FeeProviderStats fast = new FeeProviderStats();
+        FeeProviderStats slow = new FeeProviderStats();
+        for (int i = 0; i < 5; i++) {
+            fast.onSuccess(100);
+            slow.onSuccess(1000);
+        }
+        assertTrue(fast.getScore() < slow.getScore());
+
+        // After 3 failures in a row the fast provider is unhealthy and gets requested after the slow one
+        for (int i = 0; i < 3; i++)
+            fast.onFailure();
+        assertFalse(fast.isHealthy());
+        assertTrue(fast.getScore() > slow.getScore());
+
+        fast.onSuccess(100);
+        assertTrue(fast.isHealthy());
+        assertTrue(fast.getScore() < slow.getScore());
+    }
+}
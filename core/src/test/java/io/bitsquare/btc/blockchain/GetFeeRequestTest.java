@@ -0,0 +1,91 @@
+package io.bitsquare.btc.blockchain;
+
+import com.google.common.util.concurrent.SettableFuture;
+import io.bitsquare.btc.blockchain.providers.FeeProvider;
+import io.bitsquare.http.HttpClient;
+import io.bitsquare.http.HttpException;
+import org.bitcoinj.core.Coin;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class GetFeeRequestTest {
+
+    @Test
+    public void testNotFoundIsNoFailure() throws Exception {
+        FeeProviderStats stats = requestUntilRetry(new HttpException("Transaction not found"));
+        assertEquals(0, stats.getNumFailures());
+        assertTrue(stats.isHealthy());
+    }
+
+    @Test
+    public void testUnexpectedResponseIsNoFailure() throws Exception {
+        FeeProviderStats stats = requestUntilRetry(new IllegalStateException("Not a JSON Object"));
+        assertEquals(0, stats.getNumFailures());
+    }
+
+    @Test
+    public void testTimeoutIsFailure() throws Exception {
+        FeeProviderStats stats = requestUntilRetry(new IOException(new SocketTimeoutException("Read timed out")));
+        assertTrue(stats.getNumFailures() >= 1);
+    }
+
+    @Test
+    public void testSuccess() throws Exception {
+        FeeProviderStats stats = new FeeProviderStats();
+        SettableFuture<Coin> future = new GetFeeRequest().request("tx", new StubFeeProvider(null), stats);
+        assertEquals(Coin.MILLICOIN, future.get(5, TimeUnit.SECONDS));
+        assertEquals(0, stats.getNumFailures());
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    // Returns after the first attempt was handled completely, which is the case once the retry started
+    private static FeeProviderStats requestUntilRetry(Exception exception) throws InterruptedException {
+        FeeProviderStats stats = new FeeProviderStats();
+        StubFeeProvider provider = new StubFeeProvider(exception);
+        SettableFuture<Coin> future = new GetFeeRequest().request("tx", provider, stats);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (provider.numRequests.get() < 2) {
+            assertTrue("No retry", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+        future.cancel(false);
+        return stats;
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Static classes
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    private static class StubFeeProvider extends FeeProvider {
+        private final Exception exception;
+        final AtomicInteger numRequests = new AtomicInteger();
+
+        StubFeeProvider(Exception exception) {
+            super(new HttpClient("http://127.0.0.1/"), "http://127.0.0.1/");
+            this.exception = exception;
+        }
+
+        @Override
+        public Coin getFee(String transactionId) throws IOException, HttpException {
+            numRequests.incrementAndGet();
+            if (exception instanceof IOException)
+                throw (IOException) exception;
+            else if (exception instanceof HttpException)
+                throw (HttpException) exception;
+            else if (exception instanceof RuntimeException)
+                throw (RuntimeException) exception;
+            return Coin.MILLICOIN;
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package io.bitsquare.btc.pricefeed;
+
+import com.sun.net.httpserver.HttpServer;
+import io.bitsquare.common.util.Tuple2;
+import io.bitsquare.http.HttpClient;
+import io.bitsquare.http.HttpException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class PriceProviderTest {
+    private static final String TIME_STAMPS = "\"btcAverageTs\":1,\"poloniexTs\":2,\"coinmarketcapTs\":3";
+    private static final String EUR = "{\"c\":\"EUR\",\"a\":401.0,\"b\":399.0,\"l\":400.0}";
+    private static final String USD = "{\"c\":\"USD\",\"a\":501.0,\"b\":499.0,\"l\":500.0}";
+
+    private HttpServer server;
+    private PriceProvider priceProvider;
+
+    // What the stub server answers with, the ETag is not sent if null
+    private volatile int status;
+    private volatile String eTag;
+    private volatile String body;
+    // The query and If-None-Match header of each request
+    private final List<String> queries = Collections.synchronizedList(new ArrayList<>());
+    private final List<String> ifNoneMatchHeaders = Collections.synchronizedList(new ArrayList<>());
+
+    @Before
+    public void setup() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/all", exchange -> {
+            queries.add(exchange.getRequestURI().getQuery());
+            ifNoneMatchHeaders.add(exchange.getRequestHeaders().getFirst("If-None-Match"));
+            if (eTag != null)
+                exchange.getResponseHeaders().add("ETag", eTag);
+            if (status == 304) {
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+            } else {
+                byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(status, bytes.length);
+                try (OutputStream outputStream = exchange.getResponseBody()) {
+                    outputStream.write(bytes);
+                }
+            }
+        });
+        server.start();
+
+        String baseUrl = "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+        priceProvider = new PriceProvider(new HttpClient(baseUrl), baseUrl);
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testOldFormat() throws Exception {
+        // A server without versions and ETags
+        respond(200, null, "{" + TIME_STAMPS + ",\"data\":[" + EUR + "," + USD + "]}");
+        Tuple2<Map<String, Long>, Map<String, MarketPrice>> result = priceProvider.getAll();
+
+        assertEquals(1, (long) result.first.get("btcAverageTs"));
+        assertEquals(2, (long) result.first.get("poloniexTs"));
+        assertEquals(3, (long) result.first.get("coinmarketcapTs"));
+        assertEquals(2, result.second.size());
+        MarketPrice eur = result.second.get("EUR");
+        assertEquals(401, eur.getPrice(PriceFeedService.Type.ASK), 0);
+        assertEquals(399, eur.getPrice(PriceFeedService.Type.BID), 0);
+        assertEquals(400, eur.getPrice(PriceFeedService.Type.LAST), 0);
+
+        // We keep requesting all prices
+        priceProvider.getAll();
+        assertNull(queries.get(1));
+        assertNull(ifNoneMatchHeaders.get(1));
+    }
+
+    @Test
+    public void testNotModified() throws Exception {
+        respond(200, "\"5\"", "{\"version\":5," + TIME_STAMPS + ",\"data\":[" + EUR + "," + USD + "]}");
+        assertEquals(2, priceProvider.getAll().second.size());
+        assertNull(queries.get(0));
+        assertNull(ifNoneMatchHeaders.get(0));
+
+        respond(304, "\"5\"", null);
+        assertNull(priceProvider.getAll());
+        assertEquals("since=5", queries.get(1));
+        assertEquals("\"5\"", ifNoneMatchHeaders.get(1));
+
+        // Version and ETag stay the same after a 304
+        assertNull(priceProvider.getAll());
+        assertEquals("since=5", queries.get(2));
+        assertEquals("\"5\"", ifNoneMatchHeaders.get(2));
+    }
+
+    @Test
+    public void testDelta() throws Exception {
+        respond(200, "\"5\"", "{\"version\":5," + TIME_STAMPS + ",\"data\":[" + EUR + "," + USD + "]}");
+        priceProvider.getAll();
+
+        // Only the changed price, unknown fields get ignored
+        respond(200, "\"7\"", "{\"version\":7,\"newField\":{\"x\":[1,2]}," + TIME_STAMPS + ",\"data\":[" +
+                "{\"c\":\"USD\",\"a\":511.0,\"b\":509.0,\"l\":510.0,\"newField\":true}]}");
+        Map<String, MarketPrice> prices = priceProvider.getAll().second;
+        assertEquals("since=5", queries.get(1));
+        assertEquals(1, prices.size());
+        assertEquals(510, prices.get("USD").getPrice(PriceFeedService.Type.LAST), 0);
+
+        respond(304, "\"7\"", null);
+        assertNull(priceProvider.getAll());
+        assertEquals("since=7", queries.get(2));
+        assertEquals("\"7\"", ifNoneMatchHeaders.get(2));
+    }
+
+    @Test
+    public void testErrorStatus() throws Exception {
+        respond(503, null, "No prices available yet");
+        try {
+            priceProvider.getAll();
+            fail("Expected HttpException");
+        } catch (HttpException e) {
+            assertEquals("No prices available yet", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testInvalidJson() throws Exception {
+        assertInvalid("{\"version\":5,\"data\":[" + EUR + "]}");
+        assertInvalid("{" + TIME_STAMPS + ",\"data\":[{\"a\":401.0}]}");
+        assertInvalid("{" + TIME_STAMPS + ",\"data\":{}}");
+        assertInvalid("[]");
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    private void respond(int status, String eTag, String body) {
+        this.status = status;
+        this.eTag = eTag;
+        this.body = body;
+    }
+
+    private void assertInvalid(String json) throws HttpException {
+        respond(200, null, json);
+        try {
+            priceProvider.getAll();
+            fail("Expected IOException for " + json);
+        } catch (IOException ignore) {
+        }
+    }
+}
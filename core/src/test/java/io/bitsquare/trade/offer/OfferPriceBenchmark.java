@@ -0,0 +1,120 @@
+package io.bitsquare.trade.offer;
+
+import io.bitsquare.btc.pricefeed.MarketPrice;
+import io.bitsquare.btc.pricefeed.PriceFeedService;
+import io.bitsquare.http.HttpClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+// Compares sorting the offer book by price with and without the price cache of market based offers.
+// Not a unit test, run the main method manually as the durations depend too much on the machine.
+// The behaviour of the price cache is covered by OfferTest.
+public class OfferPriceBenchmark {
+    private static final Logger log = LoggerFactory.getLogger(OfferPriceBenchmark.class);
+
+    private static final int NUM_OFFERS = 5000;
+    private static final int NUM_WARM_UP_ROUNDS = 20;
+    private static final int NUM_ROUNDS = 50;
+
+    public static void main(String[] args) {
+        StubPriceFeedService cachingPriceFeedService = new StubPriceFeedService(true);
+        StubPriceFeedService nonCachingPriceFeedService = new StubPriceFeedService(false);
+        List<Offer> cachedOffers = createOffers(cachingPriceFeedService);
+        List<Offer> uncachedOffers = createOffers(nonCachingPriceFeedService);
+
+        sort(cachedOffers, cachingPriceFeedService, NUM_WARM_UP_ROUNDS);
+        sort(uncachedOffers, nonCachingPriceFeedService, NUM_WARM_UP_ROUNDS);
+
+        long cachedDuration = sort(cachedOffers, cachingPriceFeedService, NUM_ROUNDS);
+        long uncachedDuration = sort(uncachedOffers, nonCachingPriceFeedService, NUM_ROUNDS);
+        log.info("Sorting {} market based offers took {} ms with the price cache and {} ms without it (average of {} rounds)",
+                NUM_OFFERS, cachedDuration / NUM_ROUNDS, uncachedDuration / NUM_ROUNDS, NUM_ROUNDS);
+
+        // Both need to get the same order
+        if (!cachedOffers.stream().map(Offer::getId).collect(Collectors.toList())
+                .equals(uncachedOffers.stream().map(Offer::getId).collect(Collectors.toList())))
+            throw new IllegalStateException("Sorting with the price cache resulted in a different order");
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    // Each round gets a new market price as it happens when the price feed delivers an update
+    private static long sort(List<Offer> offers, StubPriceFeedService priceFeedService, int numRounds) {
+        long duration = 0;
+        for (int i = 0; i < numRounds; i++) {
+            priceFeedService.updateMarketPrice(400 + i);
+            long ts = System.nanoTime();
+            offers.sort(Comparator.comparing((Offer offer) -> offer.getPrice().value).thenComparing(Offer::getId));
+            duration += System.nanoTime() - ts;
+        }
+        return duration / 1_000_000;
+    }
+
+    private static List<Offer> createOffers(PriceFeedService priceFeedService) {
+        // Same seed, so both lists have the same offers
+        Random random = new Random(1);
+        List<Offer> offers = new ArrayList<>();
+        for (int i = 0; i < NUM_OFFERS; i++) {
+            offers.add(new Offer("offer" + i,
+                    null,
+                    null,
+                    random.nextBoolean() ? Offer.Direction.BUY : Offer.Direction.SELL,
+                    0,
+                    (random.nextInt(200) - 100) / 1000d,
+                    true,
+                    100_000_000,
+                    10_000_000,
+                    "EUR",
+                    new ArrayList<>(),
+                    "SEPA",
+                    "accountId",
+                    null,
+                    null,
+                    null,
+                    null,
+                    priceFeedService));
+        }
+        return offers;
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Static classes
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    private static class StubPriceFeedService extends PriceFeedService {
+        private final boolean usePriceEpoch;
+        private MarketPrice marketPrice;
+        private int priceEpoch;
+
+        StubPriceFeedService(boolean usePriceEpoch) {
+            super(new HttpClient("http://127.0.0.1/"), "http://127.0.0.1/", true);
+            this.usePriceEpoch = usePriceEpoch;
+        }
+
+        void updateMarketPrice(double price) {
+            marketPrice = new MarketPrice("EUR", price + 1, price - 1, price);
+            priceEpoch++;
+        }
+
+        @Override
+        public MarketPrice getMarketPrice(String currencyCode) {
+            return marketPrice;
+        }
+
+        // An epoch of 0 means we have no market price version, so the offers calculate the price at each call
+        @Override
+        public int getPriceEpoch(String currencyCode) {
+            return usePriceEpoch ? priceEpoch : 0;
+        }
+    }
+}
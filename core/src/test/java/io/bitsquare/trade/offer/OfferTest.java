@@ -0,0 +1,135 @@
+package io.bitsquare.trade.offer;
+
+import io.bitsquare.btc.pricefeed.MarketPrice;
+import io.bitsquare.btc.pricefeed.PriceFeedService;
+import io.bitsquare.http.HttpClient;
+import org.bitcoinj.utils.Fiat;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class OfferTest {
+    private StubPriceFeedService priceFeedService;
+    private Offer offer;
+
+    @Before
+    public void setup() {
+        priceFeedService = new StubPriceFeedService();
+        // Sell offer 1 % above the market price
+        offer = new Offer("id",
+                null,
+                null,
+                Offer.Direction.SELL,
+                0,
+                0.01,
+                true,
+                1,
+                1,
+                "EUR",
+                new ArrayList<>(),
+                "SEPA",
+                "accountId",
+                null,
+                null,
+                null,
+                null,
+                priceFeedService);
+    }
+
+    @Test
+    public void testFixedPrice() {
+        Offer fixedPriceOffer = new Offer("id", null, null, Offer.Direction.SELL, fiat(400).value, 0, false, 1, 1, "EUR",
+                new ArrayList<>(), "SEPA", "accountId", null, null, null, null, priceFeedService);
+        assertEquals(fiat(400), fixedPriceOffer.getPrice());
+        assertEquals(0, priceFeedService.numGetMarketPriceCalls);
+    }
+
+    @Test
+    public void testPriceRecalculatedAtNewEpoch() {
+        priceFeedService.setMarketPrice(400, 1);
+        assertEquals(fiat(404), offer.getPrice());
+        assertEquals(fiat(404), offer.getPrice());
+        // Calculated only once per epoch
+        assertEquals(1, priceFeedService.numGetMarketPriceCalls);
+
+        priceFeedService.setMarketPrice(500, 2);
+        assertEquals(fiat(505), offer.getPrice());
+        assertEquals(2, priceFeedService.numGetMarketPriceCalls);
+    }
+
+    @Test
+    public void testNoCacheAtEpochZero() {
+        // Epoch 0 means we have no price version, so each call calculates the price
+        priceFeedService.setMarketPrice(400, 0);
+        assertEquals(fiat(404), offer.getPrice());
+        priceFeedService.setMarketPrice(500, 0);
+        assertEquals(fiat(505), offer.getPrice());
+        assertEquals(2, priceFeedService.numGetMarketPriceCalls);
+    }
+
+    @Test
+    public void testSetPriceFeedServiceInvalidatesCache() {
+        priceFeedService.setMarketPrice(400, 1);
+        assertEquals(fiat(404), offer.getPrice());
+
+        // Another service at the same epoch number, e.g. after the offer got deserialized
+        StubPriceFeedService otherPriceFeedService = new StubPriceFeedService();
+        otherPriceFeedService.setMarketPrice(500, 1);
+        offer.setPriceFeedService(otherPriceFeedService);
+        assertEquals(fiat(505), offer.getPrice());
+        assertEquals(1, otherPriceFeedService.numGetMarketPriceCalls);
+    }
+
+    @Test
+    public void testMissingMarketPriceNotCached() {
+        assertNull(offer.getPrice());
+
+        // The first market price starts a new epoch
+        priceFeedService.setMarketPrice(400, 1);
+        assertEquals(fiat(404), offer.getPrice());
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    private static Fiat fiat(long price) {
+        return Fiat.valueOf("EUR", price * 10_000);
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Static classes
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    private static class StubPriceFeedService extends PriceFeedService {
+        private MarketPrice marketPrice;
+        private int priceEpoch;
+        private int numGetMarketPriceCalls;
+
+        StubPriceFeedService() {
+            super(new HttpClient("http://127.0.0.1/"), "http://127.0.0.1/", true);
+        }
+
+        void setMarketPrice(double price, int priceEpoch) {
+            marketPrice = new MarketPrice("EUR", price, price, price);
+            this.priceEpoch = priceEpoch;
+        }
+
+        @Override
+        public MarketPrice getMarketPrice(String currencyCode) {
+            numGetMarketPriceCalls++;
+            return marketPrice;
+        }
+
+        @Override
+        public int getPriceEpoch(String currencyCode) {
+            return priceEpoch;
+        }
+    }
+}
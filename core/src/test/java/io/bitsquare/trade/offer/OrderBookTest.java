@@ -0,0 +1,252 @@
+package io.bitsquare.trade.offer;
+
+import io.bitsquare.btc.pricefeed.MarketPrice;
+import io.bitsquare.btc.pricefeed.PriceFeedService;
+import io.bitsquare.http.HttpClient;
+import javafx.beans.property.IntegerProperty;
+import javafx.beans.property.SimpleIntegerProperty;
+import org.bitcoinj.utils.Fiat;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class OrderBookTest {
+    private StubPriceFeedService priceFeedService;
+    private OrderBook orderBook;
+    private final List<String> changedCurrencyCodes = new ArrayList<>();
+
+    @Before
+    public void setup() {
+        priceFeedService = new StubPriceFeedService();
+        orderBook = new OrderBook(priceFeedService);
+        orderBook.addListener(changedCurrencyCodes::add);
+    }
+
+    @Test
+    public void testBestPricePerDirection() {
+        orderBook.onOfferAdded(fixedPriceOffer("buy1", Offer.Direction.BUY, 400, 1));
+        orderBook.onOfferAdded(fixedPriceOffer("buy2", Offer.Direction.BUY, 410, 1));
+        orderBook.onOfferAdded(fixedPriceOffer("buy3", Offer.Direction.BUY, 390, 1));
+        orderBook.onOfferAdded(fixedPriceOffer("sell1", Offer.Direction.SELL, 420, 1));
+        orderBook.onOfferAdded(fixedPriceOffer("sell2", Offer.Direction.SELL, 415, 1));
+        orderBook.onOfferAdded(fixedPriceOffer("sell3", Offer.Direction.SELL, 430, 1));
+
+        // Highest price first for buy offers, lowest first for sell offers
+        assertEquals(Arrays.asList("buy2", "buy1", "buy3"), getOfferIds(Offer.Direction.BUY));
+        assertEquals(Arrays.asList("sell2", "sell1", "sell3"), getOfferIds(Offer.Direction.SELL));
+        assertEquals(fiat(410), orderBook.getBestPrice("EUR", Offer.Direction.BUY));
+        assertEquals(fiat(415), orderBook.getBestPrice("EUR", Offer.Direction.SELL));
+        assertEquals(fiat(5), orderBook.getSpread("EUR"));
+        assertEquals(6, orderBook.getTotalAmount("EUR").value);
+    }
+
+    @Test
+    public void testNoOffers() {
+        assertTrue(orderBook.getEntries("EUR", Offer.Direction.BUY).isEmpty());
+        assertNull(orderBook.getBestPrice("EUR", Offer.Direction.BUY));
+        assertNull(orderBook.getSpread("EUR"));
+
+        orderBook.onOfferAdded(fixedPriceOffer("sell1", Offer.Direction.SELL, 420, 1));
+        // No buy offer, so no spread
+        assertNull(orderBook.getSpread("EUR"));
+        assertEquals(Arrays.asList("EUR"), orderBook.getCurrencyCodes());
+    }
+
+    @Test
+    public void testSamePrice() {
+        orderBook.onOfferAdded(fixedPriceOffer("b", Offer.Direction.SELL, 400, 1));
+        orderBook.onOfferAdded(fixedPriceOffer("c", Offer.Direction.SELL, 400, 1));
+        orderBook.onOfferAdded(fixedPriceOffer("a", Offer.Direction.SELL, 400, 1));
+
+        // None gets lost and the offer ID decides the order
+        assertEquals(Arrays.asList("a", "b", "c"), getOfferIds(Offer.Direction.SELL));
+        assertEquals(3, orderBook.getNumOffers("EUR", Offer.Direction.SELL));
+    }
+
+    @Test
+    public void testReAddAndRemove() {
+        orderBook.onOfferAdded(fixedPriceOffer("a", Offer.Direction.SELL, 400, 1));
+        orderBook.onOfferAdded(fixedPriceOffer("b", Offer.Direction.SELL, 410, 2));
+        // The same offer again with another price replaces the old entry
+        orderBook.onOfferAdded(fixedPriceOffer("a", Offer.Direction.SELL, 420, 1));
+
+        assertEquals(Arrays.asList("b", "a"), getOfferIds(Offer.Direction.SELL));
+        assertEquals(2, orderBook.getNumOffers("EUR", Offer.Direction.SELL));
+        assertEquals(3, orderBook.getTotalAmount("EUR").value);
+
+        Offer offer = fixedPriceOffer("a", Offer.Direction.SELL, 420, 1);
+        orderBook.onOfferRemoved(offer);
+        assertEquals(Arrays.asList("b"), getOfferIds(Offer.Direction.SELL));
+        assertEquals(2, orderBook.getTotalAmount("EUR").value);
+
+        // Removing an unknown offer does not notify the listeners
+        changedCurrencyCodes.clear();
+        orderBook.onOfferRemoved(offer);
+        assertTrue(changedCurrencyCodes.isEmpty());
+
+        orderBook.onOfferRemoved(fixedPriceOffer("b", Offer.Direction.SELL, 410, 2));
+        assertTrue(orderBook.getCurrencyCodes().isEmpty());
+        assertEquals(0, orderBook.getTotalAmount("EUR").value);
+    }
+
+    @Test
+    public void testRepriceOnEpochChange() {
+        priceFeedService.setMarketPrice(400);
+        orderBook.onOfferAdded(marketBasedOffer("market", Offer.Direction.SELL, 0.01));
+        orderBook.onOfferAdded(fixedPriceOffer("fixed", Offer.Direction.SELL, 420, 1));
+        assertEquals(Arrays.asList("market", "fixed"), getOfferIds(Offer.Direction.SELL));
+        assertEquals(fiat(404), orderBook.getBestPrice("EUR", Offer.Direction.SELL));
+
+        // Same epoch, nothing to do
+        changedCurrencyCodes.clear();
+        priceFeedService.notifyPricesUpdated();
+        assertTrue(changedCurrencyCodes.isEmpty());
+
+        priceFeedService.setMarketPrice(500);
+        priceFeedService.notifyPricesUpdated();
+        assertEquals(Arrays.asList("EUR"), changedCurrencyCodes);
+        assertEquals(Arrays.asList("fixed", "market"), getOfferIds(Offer.Direction.SELL));
+        assertEquals(fiat(420), orderBook.getBestPrice("EUR", Offer.Direction.SELL));
+        assertEquals(fiat(505), orderBook.getEntries("EUR", Offer.Direction.SELL).get(1).getPrice());
+        assertEquals(2, orderBook.getNumOffers("EUR", Offer.Direction.SELL));
+    }
+
+    @Test
+    public void testUnpricedEntries() {
+        // Market based offers without a market price
+        orderBook.onOfferAdded(marketBasedOffer("market1", Offer.Direction.BUY, 0.01));
+        orderBook.onOfferAdded(marketBasedOffer("market2", Offer.Direction.BUY, 0.02));
+        orderBook.onOfferAdded(fixedPriceOffer("fixed", Offer.Direction.BUY, 380, 1));
+
+        assertEquals(3, orderBook.getNumOffers("EUR", Offer.Direction.BUY));
+        assertEquals(Arrays.asList("fixed"), getOfferIds(Offer.Direction.BUY));
+        assertEquals(fiat(380), orderBook.getBestPrice("EUR", Offer.Direction.BUY));
+
+        orderBook.onOfferRemoved(marketBasedOffer("market2", Offer.Direction.BUY, 0.02));
+        assertEquals(2, orderBook.getNumOffers("EUR", Offer.Direction.BUY));
+
+        // With the first market price they get priced
+        priceFeedService.setMarketPrice(400);
+        priceFeedService.notifyPricesUpdated();
+        assertEquals(2, orderBook.getNumOffers("EUR", Offer.Direction.BUY));
+        assertEquals(Arrays.asList("market1", "fixed"), getOfferIds(Offer.Direction.BUY));
+        assertEquals(fiat(396), orderBook.getBestPrice("EUR", Offer.Direction.BUY));
+    }
+
+    @Test
+    public void testDepth() {
+        orderBook.onOfferAdded(fixedPriceOffer("a", Offer.Direction.SELL, 410, 3));
+        orderBook.onOfferAdded(fixedPriceOffer("b", Offer.Direction.SELL, 400, 1));
+        orderBook.onOfferAdded(fixedPriceOffer("c", Offer.Direction.SELL, 400, 2));
+        orderBook.onOfferAdded(fixedPriceOffer("d", Offer.Direction.SELL, 420, 4));
+        orderBook.onOfferAdded(fixedPriceOffer("e", Offer.Direction.BUY, 390, 5));
+
+        List<OrderBook.DepthLevel> depth = orderBook.getDepth("EUR", Offer.Direction.SELL);
+        assertEquals(3, depth.size());
+        assertDepthLevel(depth.get(0), 400, 3, 3);
+        assertDepthLevel(depth.get(1), 410, 3, 6);
+        assertDepthLevel(depth.get(2), 420, 4, 10);
+
+        depth = orderBook.getDepth("EUR", Offer.Direction.BUY);
+        assertEquals(1, depth.size());
+        assertDepthLevel(depth.get(0), 390, 5, 5);
+
+        assertTrue(orderBook.getDepth("USD", Offer.Direction.BUY).isEmpty());
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    private List<String> getOfferIds(Offer.Direction direction) {
+        return orderBook.getEntries("EUR", direction).stream()
+                .map(entry -> entry.getOffer().getId())
+                .collect(Collectors.toList());
+    }
+
+    private static void assertDepthLevel(OrderBook.DepthLevel level, long price, long amount, long accumulatedAmount) {
+        assertEquals(fiat(price).value, level.price);
+        assertEquals(amount, level.amount);
+        assertEquals(accumulatedAmount, level.accumulatedAmount);
+    }
+
+    private static Fiat fiat(long price) {
+        return Fiat.valueOf("EUR", price * 10_000);
+    }
+
+    private Offer fixedPriceOffer(String id, Offer.Direction direction, long price, long amount) {
+        return createOffer(id, direction, fiat(price).value, 0, false, amount);
+    }
+
+    private Offer marketBasedOffer(String id, Offer.Direction direction, double marketPriceMargin) {
+        return createOffer(id, direction, 0, marketPriceMargin, true, 1);
+    }
+
+    private Offer createOffer(String id, Offer.Direction direction, long fiatPrice, double marketPriceMargin,
+                              boolean useMarketBasedPrice, long amount) {
+        return new Offer(id,
+                null,
+                null,
+                direction,
+                fiatPrice,
+                marketPriceMargin,
+                useMarketBasedPrice,
+                amount,
+                amount,
+                "EUR",
+                new ArrayList<>(),
+                "SEPA",
+                "accountId",
+                null,
+                null,
+                null,
+                null,
+                priceFeedService);
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Static classes
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    private static class StubPriceFeedService extends PriceFeedService {
+        private final IntegerProperty currenciesUpdateFlag = new SimpleIntegerProperty(0);
+        private MarketPrice marketPrice;
+        private int priceEpoch;
+
+        StubPriceFeedService() {
+            super(new HttpClient("http://127.0.0.1/"), "http://127.0.0.1/", true);
+        }
+
+        void setMarketPrice(double price) {
+            marketPrice = new MarketPrice("EUR", price, price, price);
+            priceEpoch++;
+        }
+
+        void notifyPricesUpdated() {
+            currenciesUpdateFlag.set(currenciesUpdateFlag.get() + 1);
+        }
+
+        @Override
+        public MarketPrice getMarketPrice(String currencyCode) {
+            return marketPrice;
+        }
+
+        @Override
+        public int getPriceEpoch(String currencyCode) {
+            return priceEpoch;
+        }
+
+        @Override
+        public IntegerProperty currenciesUpdateFlagProperty() {
+            return currenciesUpdateFlag;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package io.bitsquare.trade.statistics;
+
+import io.bitsquare.payment.PaymentMethod;
+import io.bitsquare.storage.FileUtil;
+import io.bitsquare.trade.offer.Offer;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.utils.Fiat;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CandleAggregatorTest {
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+
+    private File storageDir;
+    private TradeStatisticsStore store;
+    private CandleAggregator candleAggregator;
+    private int nextOfferId;
+
+    @Before
+    public void setup() throws IOException {
+        storageDir = Files.createTempDirectory("CandleAggregatorTest").toFile();
+        store = new TradeStatisticsStore(storageDir);
+        candleAggregator = new CandleAggregator(store);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtil.deleteDirectory(storageDir);
+    }
+
+    @Test
+    public void testCandle() {
+        long date = 100 * DAY;
+        // Not added in the order of the trade date
+        add("EUR", "600", "1", date + 200);
+        add("EUR", "520", "1", date);
+        add("EUR", "580", "1", date + 300);
+        add("EUR", "500", "1", date + 100);
+
+        List<Candle> candles = candleAggregator.getCandles("EUR", TickUnit.DAY, 0, Long.MAX_VALUE);
+        assertEquals(1, candles.size());
+        Candle candle = candles.get(0);
+        assertEquals(100, candle.tick);
+        assertEquals(Fiat.parseFiat("EUR", "520").value, candle.open);
+        assertEquals(Fiat.parseFiat("EUR", "580").value, candle.close);
+        assertEquals(Fiat.parseFiat("EUR", "600").value, candle.high);
+        assertEquals(Fiat.parseFiat("EUR", "500").value, candle.low);
+        assertEquals(Fiat.parseFiat("EUR", "550").value, candle.average);
+        assertEquals(Coin.parseCoin("4").value, candle.accumulatedAmount);
+        assertEquals(Fiat.parseFiat("EUR", "2200").value, candle.accumulatedVolume);
+        assertEquals(4, candle.numTrades);
+        assertTrue(candle.isBullish());
+    }
+
+    @Test
+    public void testSeries() {
+        long date = 100 * DAY;
+        add("EUR", "500", "1", date);
+        add("EUR", "510", "1", date + 2 * DAY);
+        add("USD", "600", "2", date + 2 * DAY);
+
+        assertEquals(2, candleAggregator.getCandles("EUR", TickUnit.DAY, 0, Long.MAX_VALUE).size());
+        assertEquals(1, candleAggregator.getCandles("EUR", TickUnit.DAY, 101, 102).size());
+        assertEquals(1, candleAggregator.getCandles("EUR", TickUnit.WEEK, 0, Long.MAX_VALUE).size());
+        assertEquals(0, candleAggregator.getCandles("JPY", TickUnit.DAY, 0, Long.MAX_VALUE).size());
+
+        List<Candle> all = candleAggregator.getCandles(null, TickUnit.DAY, 0, Long.MAX_VALUE);
+        assertEquals(2, all.size());
+        assertEquals(2, all.get(1).numTrades);
+        assertEquals(Coin.parseCoin("3").value, all.get(1).accumulatedAmount);
+
+        Map<String, Map<TickUnit, List<Candle>>> allSeries = candleAggregator.getAllSeries(Arrays.asList(TickUnit.DAY));
+        assertEquals(2, allSeries.size());
+        assertEquals(1, allSeries.get("EUR").size());
+        assertEquals(2, allSeries.get("EUR").get(TickUnit.DAY).size());
+        assertEquals(1, allSeries.get("USD").get(TickUnit.DAY).size());
+    }
+
+    @Test
+    public void testLoadFromStoreAndAdd() {
+        long date = 100 * DAY;
+        add("EUR", "500", "1", date);
+        add("USD", "600", "1", date);
+        // Written to the files, so the series get loaded from the partitions
+        store.write();
+
+        // The EUR series gets loaded with the first request and updated by add afterwards
+        assertEquals(1, candleAggregator.getCandles("EUR", TickUnit.DAY, 0, Long.MAX_VALUE).get(0).numTrades);
+        add("EUR", "510", "1", date + 10);
+        // Not loaded yet, the USD series gets it from the store
+        add("USD", "610", "1", date + 10);
+        assertEquals(2, candleAggregator.getCandles("EUR", TickUnit.DAY, 0, Long.MAX_VALUE).get(0).numTrades);
+        assertEquals(2, candleAggregator.getCandles("USD", TickUnit.DAY, 0, Long.MAX_VALUE).get(0).numTrades);
+
+        // Loading all currencies rebuilds the series, so no trade is counted twice
+        assertEquals(4, candleAggregator.getCandles(null, TickUnit.DAY, 0, Long.MAX_VALUE).get(0).numTrades);
+        add("USD", "620", "1", date + 20);
+        assertEquals(5, candleAggregator.getCandles(null, TickUnit.DAY, 0, Long.MAX_VALUE).get(0).numTrades);
+        assertEquals(3, candleAggregator.getCandles("USD", TickUnit.DAY, 0, Long.MAX_VALUE).get(0).numTrades);
+        assertEquals(2, candleAggregator.getCandles("EUR", TickUnit.DAY, 0, Long.MAX_VALUE).get(0).numTrades);
+
+        // A new aggregator gets the same candles from the store once the items are written
+        CandleAggregator reloaded = new CandleAggregator(new TradeStatisticsStore(storageDir));
+        assertEquals(2, reloaded.getCandles(null, TickUnit.DAY, 0, Long.MAX_VALUE).get(0).numTrades);
+        store.write();
+        reloaded = new CandleAggregator(new TradeStatisticsStore(storageDir));
+        assertEquals(5, reloaded.getCandles(null, TickUnit.DAY, 0, Long.MAX_VALUE).get(0).numTrades);
+    }
+
+    // Like the TradeStatisticsManager we append to the store before we pass the item to the aggregator
+    private void add(String currency, String price, String amount, long date) {
+        Offer offer = new Offer(String.valueOf(nextOfferId++),
+                null,
+                null,
+                Offer.Direction.BUY,
+                0,
+                0,
+                false,
+                0,
+                0,
+                currency,
+                null,
+                PaymentMethod.SEPA_ID,
+                null,
+                null,
+                null,
+                null,
+                null,
+                null);
+        TradeStatistics tradeStatistics = new TradeStatistics(offer, Fiat.parseFiat(currency, price), Coin.parseCoin(amount),
+                new Date(date), null, null);
+        assertTrue(store.append(tradeStatistics));
+        candleAggregator.add(tradeStatistics);
+    }
+}
@@ -0,0 +1,150 @@
+package io.bitsquare.trade.statistics;
+
+import io.bitsquare.payment.PaymentMethod;
+import io.bitsquare.storage.FileUtil;
+import io.bitsquare.trade.offer.Offer;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.utils.Fiat;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class TradeStatisticsStoreTest {
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+
+    private File storageDir;
+
+    @Before
+    public void setup() throws IOException {
+        storageDir = Files.createTempDirectory("TradeStatisticsStoreTest").toFile();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtil.deleteDirectory(storageDir);
+    }
+
+    @Test
+    public void testAppendAndQuery() {
+        TradeStatisticsStore store = new TradeStatisticsStore(storageDir);
+        long date = 100 * DAY;
+        assertTrue(store.append(getTradeStatistics("1", "EUR", Offer.Direction.BUY, "500", date)));
+        assertEquals(3, store.appendAll(Arrays.asList(
+                getTradeStatistics("2", "USD", Offer.Direction.SELL, "600", date + 10),
+                getTradeStatistics("3", "EUR", Offer.Direction.SELL, "510", date + DAY),
+                getTradeStatistics("4", "EUR", Offer.Direction.BUY, "520", date + 3 * DAY))));
+
+        List<TradeStatisticsStore.Record> records = store.getRecords("EUR", date, date + 2 * DAY);
+        assertEquals(2, records.size());
+        assertEquals(Fiat.parseFiat("EUR", "500").value, records.get(0).tradePrice);
+        assertEquals(Offer.Direction.BUY, records.get(0).direction);
+        assertEquals(date + DAY, records.get(1).tradeDate);
+        assertEquals(Offer.Direction.SELL, records.get(1).direction);
+
+        assertEquals(4, store.getRecords(null, 0, Long.MAX_VALUE).size());
+        assertEquals(1, store.getRecords("USD", 0, Long.MAX_VALUE).size());
+        assertEquals(0, store.getRecords("EUR", date + 1, date + DAY).size());
+        assertEquals(0, store.getRecords("JPY", 0, Long.MAX_VALUE).size());
+    }
+
+    @Test
+    public void testPersistenceAndDuplicates() {
+        long date = 100 * DAY;
+        TradeStatisticsStore store = new TradeStatisticsStore(storageDir);
+        store.append(getTradeStatistics("1", "EUR", Offer.Direction.BUY, "500", date));
+        store.append(getTradeStatistics("2", "USD", Offer.Direction.SELL, "600", date + DAY));
+        assertFalse(store.append(getTradeStatistics("1", "EUR", Offer.Direction.BUY, "500", date)));
+        // The items are queried from memory until they are written
+        assertEquals(2, store.getRecords(null, 0, Long.MAX_VALUE).size());
+        store.write();
+        assertEquals(2, store.getRecords(null, 0, Long.MAX_VALUE).size());
+
+        store = new TradeStatisticsStore(storageDir);
+        assertEquals(2, store.getNumRecords());
+        assertFalse(store.append(getTradeStatistics("2", "USD", Offer.Direction.SELL, "600", date + DAY)));
+        assertTrue(store.append(getTradeStatistics("3", "EUR", Offer.Direction.SELL, "510", date + 10)));
+
+        List<TradeStatisticsStore.Record> records = store.getRecords("EUR", 0, Long.MAX_VALUE);
+        assertEquals(2, records.size());
+        assertEquals(Coin.parseCoin("1").value, records.get(1).tradeAmount);
+        assertEquals("USD", store.getRecords(null, date + DAY, date + 2 * DAY).get(0).currency);
+    }
+
+    @Test
+    public void testBackgroundWrite() throws InterruptedException {
+        long date = 100 * DAY;
+        TradeStatisticsStore store = new TradeStatisticsStore(storageDir);
+        store.appendAll(Arrays.asList(
+                getTradeStatistics("1", "EUR", Offer.Direction.BUY, "500", date),
+                getTradeStatistics("2", "JPY", Offer.Direction.SELL, "60000", date + DAY)));
+
+        // Written after the write delay of 1 sec.
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (new TradeStatisticsStore(storageDir).getNumRecords() < 2 && System.currentTimeMillis() < deadline)
+            Thread.sleep(100);
+
+        TradeStatisticsStore reloaded = new TradeStatisticsStore(storageDir);
+        assertEquals(2, reloaded.getNumRecords());
+        assertEquals(1, reloaded.getRecords("JPY", 0, Long.MAX_VALUE).size());
+        assertEquals(date, reloaded.getRecords("EUR", 0, Long.MAX_VALUE).get(0).tradeDate);
+    }
+
+    @Test
+    public void testQueryWhileWriting() throws Exception {
+        TradeStatisticsStore store = new TradeStatisticsStore(storageDir);
+        List<TradeStatistics> items = new ArrayList<>();
+        // Many partitions, so the write takes a while and we query between the partition writes
+        for (int i = 0; i < 200; i++)
+            items.add(getTradeStatistics(String.valueOf(i), "EUR", Offer.Direction.BUY, "500", (100 + i) * DAY));
+        store.appendAll(items);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> write = executor.submit(store::write);
+            // A written row must not be counted again from the pending items
+            while (!write.isDone())
+                assertEquals(items.size(), store.getRecords("EUR", 0, Long.MAX_VALUE).size());
+            write.get();
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(items.size(), store.getRecords("EUR", 0, Long.MAX_VALUE).size());
+        assertEquals(items.size(), new TradeStatisticsStore(storageDir).getRecords("EUR", 0, Long.MAX_VALUE).size());
+    }
+
+    private TradeStatistics getTradeStatistics(String offerId, String currency, Offer.Direction direction, String price, long date) {
+        Offer offer = new Offer(offerId,
+                null,
+                null,
+                direction,
+                0,
+                0,
+                false,
+                0,
+                0,
+                currency,
+                null,
+                PaymentMethod.SEPA_ID,
+                null,
+                null,
+                null,
+                null,
+                null,
+                null);
+        return new TradeStatistics(offer, Fiat.parseFiat(currency, price), Coin.parseCoin("1"), new Date(date), null, null);
+    }
+}
@@ -44,6 +44,7 @@ import io.bitsquare.gui.main.debug.DebugView;
 import io.bitsquare.gui.main.overlays.popups.Popup;
 import io.bitsquare.gui.main.overlays.windows.*;
 import io.bitsquare.gui.util.ImageUtil;
+import io.bitsquare.http.HttpClient;
 import io.bitsquare.p2p.P2PService;
 import io.bitsquare.storage.Storage;
 import io.bitsquare.trade.TradeManager;
@@ -407,6 +408,7 @@ public class BitsquareApp extends Application {
                     injector.getInstance(P2PService.class).shutDown(() -> {
                         injector.getInstance(WalletService.class).shutDownDone.addListener((ov, o, n) -> {
                             bitsquareAppModule.close(injector);
+                            HttpClient.getPool().shutDown();
                             log.debug("Graceful shutdown completed");
                             resultHandler.handleResult();
                         });
@@ -32,6 +32,7 @@ import io.bitsquare.gui.util.GUIUtil;
 import io.bitsquare.locale.CurrencyUtil;
 import io.bitsquare.locale.TradeCurrency;
 import io.bitsquare.trade.offer.Offer;
+import io.bitsquare.trade.offer.OrderBook;
 import io.bitsquare.user.Preferences;
 import javafx.beans.property.ObjectProperty;
 import javafx.beans.property.SimpleObjectProperty;
@@ -56,6 +57,7 @@ class OfferBookChartViewModel extends ActivatableViewModel {
     private static final int TAB_INDEX = 0;
 
     private final OfferBook offerBook;
+    private final OrderBook orderBook;
     final Preferences preferences;
     final PriceFeedService priceFeedService;
     private Navigation navigation;
@@ -65,6 +67,7 @@ class OfferBookChartViewModel extends ActivatableViewModel {
     private final List<XYChart.Data> sellData = new ArrayList<>();
     private final ObservableList<OfferBookListItem> offerBookListItems;
     private final ListChangeListener<OfferBookListItem> offerBookListItemsListener;
+    private final OrderBook.Listener orderBookListener;
     final ObservableList<CurrencyListItem> currencyListItems = FXCollections.observableArrayList();
     private final ObservableList<OfferListItem> topBuyOfferList = FXCollections.observableArrayList();
     private final ObservableList<OfferListItem> topSellOfferList = FXCollections.observableArrayList();
@@ -77,8 +80,9 @@ class OfferBookChartViewModel extends ActivatableViewModel {
     ///////////////////////////////////////////////////////////////////////////////////////////
 
     @Inject
-    public OfferBookChartViewModel(OfferBook offerBook, Preferences preferences, PriceFeedService priceFeedService, Navigation navigation) {
+    public OfferBookChartViewModel(OfferBook offerBook, OrderBook orderBook, Preferences preferences, PriceFeedService priceFeedService, Navigation navigation) {
         this.offerBook = offerBook;
+        this.orderBook = orderBook;
         this.preferences = preferences;
         this.priceFeedService = priceFeedService;
         this.navigation = navigation;
@@ -91,20 +95,12 @@ class OfferBookChartViewModel extends ActivatableViewModel {
         }
 
         offerBookListItems = offerBook.getOfferBookListItems();
-        offerBookListItemsListener = c -> {
-            c.next();
-            if (c.wasAdded() || c.wasRemoved()) {
-                ArrayList<OfferBookListItem> list = new ArrayList<>(c.getRemoved());
-                list.addAll(c.getAddedSubList());
-                if (list.stream()
-                        .map(OfferBookListItem::getOffer)
-                        .filter(e -> e.getCurrencyCode().equals(selectedTradeCurrencyProperty.get().getCode()))
-                        .findAny()
-                        .isPresent())
-                    updateChartData();
-            }
+        offerBookListItemsListener = c -> fillTradeCurrencies();
 
-            fillTradeCurrencies();
+        // Called at added or removed offers and if the market based offers got re-priced
+        orderBookListener = currencyCode -> {
+            if (currencyCode.equals(selectedTradeCurrencyProperty.get().getCode()))
+                updateChartData();
         };
 
         currenciesUpdatedListener = new ChangeListener<Number>() {
@@ -140,6 +136,7 @@ class OfferBookChartViewModel extends ActivatableViewModel {
     protected void activate() {
         priceFeedService.setType(PriceFeedService.Type.LAST);
         offerBookListItems.addListener(offerBookListItemsListener);
+        orderBook.addListener(orderBookListener);
 
         offerBook.fillOfferBookListItems();
         fillTradeCurrencies();
@@ -154,6 +151,7 @@ class OfferBookChartViewModel extends ActivatableViewModel {
     @Override
     protected void deactivate() {
         offerBookListItems.removeListener(offerBookListItemsListener);
+        orderBook.removeListener(orderBookListener);
     }
 
 
@@ -236,83 +234,52 @@ class OfferBookChartViewModel extends ActivatableViewModel {
     }
 
     private void updateChartData() {
-        List<Offer> allBuyOffers = offerBookListItems.stream()
-                .map(OfferBookListItem::getOffer)
-                .filter(e -> e.getCurrencyCode().equals(selectedTradeCurrencyProperty.get().getCode())
-                        && e.getDirection().equals(Offer.Direction.BUY))
-                .sorted((o1, o2) -> {
-                    long a = o1.getPrice() != null ? o1.getPrice().value : 0;
-                    long b = o2.getPrice() != null ? o2.getPrice().value : 0;
-                    if (a != b)
-                        return a < b ? 1 : -1;
-                    return 0;
-                })
-                .collect(Collectors.toList());
-
-        allBuyOffers = filterOffersWithRelevantPrices(allBuyOffers);
+        // The order book keeps the offers sorted by price, best price first
+        String currencyCode = selectedTradeCurrencyProperty.get().getCode();
+        List<OrderBook.Entry> allBuyOffers = filterOffersWithRelevantPrices(orderBook.getEntries(currencyCode, Offer.Direction.BUY));
         buildChartAndTableEntries(allBuyOffers, Offer.Direction.BUY, buyData, topBuyOfferList);
 
-        List<Offer> allSellOffers = offerBookListItems.stream()
-                .map(OfferBookListItem::getOffer)
-                .filter(e -> e.getCurrencyCode().equals(selectedTradeCurrencyProperty.get().getCode())
-                        && e.getDirection().equals(Offer.Direction.SELL))
-                .sorted((o1, o2) -> {
-                    long a = o1.getPrice() != null ? o1.getPrice().value : 0;
-                    long b = o2.getPrice() != null ? o2.getPrice().value : 0;
-                    if (a != b)
-                        return a > b ? 1 : -1;
-                    return 0;
-                })
-                .collect(Collectors.toList());
-
-        allSellOffers = filterOffersWithRelevantPrices(allSellOffers);
+        List<OrderBook.Entry> allSellOffers = filterOffersWithRelevantPrices(orderBook.getEntries(currencyCode, Offer.Direction.SELL));
         buildChartAndTableEntries(allSellOffers, Offer.Direction.SELL, sellData, topSellOfferList);
     }
 
     // If there are more then 3 offers we ignore the offers which are further than 30% from the best price
-    private List<Offer> filterOffersWithRelevantPrices(List<Offer> offers) {
-        if (offers.size() > 3) {
-            Fiat bestPrice = offers.get(0).getPrice();
-            if (bestPrice != null) {
-                long bestPriceAsLong = bestPrice.longValue();
-                return offers.stream()
-                        .filter(e -> {
-                            if (e.getPrice() == null)
-                                return false;
-
-                            double ratio = (double) e.getPrice().longValue() / (double) bestPriceAsLong;
-                            return Math.abs(1 - ratio) < 0.3;
-                        })
-                        .collect(Collectors.toList());
-            }
+    private List<OrderBook.Entry> filterOffersWithRelevantPrices(List<OrderBook.Entry> entries) {
+        if (entries.size() > 3) {
+            long bestPriceAsLong = entries.get(0).getPriceAsLong();
+            return entries.stream()
+                    .filter(e -> {
+                        double ratio = (double) e.getPriceAsLong() / (double) bestPriceAsLong;
+                        return Math.abs(1 - ratio) < 0.3;
+                    })
+                    .collect(Collectors.toList());
         }
-        return offers;
+        return entries;
     }
 
-    private void buildChartAndTableEntries(List<Offer> sortedList, Offer.Direction direction, List<XYChart.Data> data, ObservableList<OfferListItem> offerTableList) {
+    private void buildChartAndTableEntries(List<OrderBook.Entry> sortedList, Offer.Direction direction, List<XYChart.Data> data, ObservableList<OfferListItem> offerTableList) {
         data.clear();
         double accumulatedAmount = 0;
         List<OfferListItem> offerTableListTemp = new ArrayList<>();
-        for (Offer offer : sortedList) {
-            Fiat priceAsFiat = offer.getPrice();
-            if (priceAsFiat != null) {
-                double amount = (double) offer.getAmount().value / LongMath.pow(10, offer.getAmount().smallestUnitExponent());
-                accumulatedAmount += amount;
-                offerTableListTemp.add(new OfferListItem(offer, accumulatedAmount));
-
-                double price = (double) priceAsFiat.value / LongMath.pow(10, priceAsFiat.smallestUnitExponent());
-                if (CurrencyUtil.isCryptoCurrency(getCurrencyCode())) {
-                    price = price != 0 ? 1d / price : 0;
-                    if (direction.equals(Offer.Direction.SELL))
-                        data.add(0, new XYChart.Data<>(price, accumulatedAmount));
-                    else
-                        data.add(new XYChart.Data<>(price, accumulatedAmount));
-                } else {
-                    if (direction.equals(Offer.Direction.BUY))
-                        data.add(0, new XYChart.Data<>(price, accumulatedAmount));
-                    else
-                        data.add(new XYChart.Data<>(price, accumulatedAmount));
-                }
+        for (OrderBook.Entry entry : sortedList) {
+            Offer offer = entry.getOffer();
+            Fiat priceAsFiat = entry.getPrice();
+            double amount = (double) offer.getAmount().value / LongMath.pow(10, offer.getAmount().smallestUnitExponent());
+            accumulatedAmount += amount;
+            offerTableListTemp.add(new OfferListItem(offer, accumulatedAmount));
+
+            double price = (double) priceAsFiat.value / LongMath.pow(10, priceAsFiat.smallestUnitExponent());
+            if (CurrencyUtil.isCryptoCurrency(getCurrencyCode())) {
+                price = price != 0 ? 1d / price : 0;
+                if (direction.equals(Offer.Direction.SELL))
+                    data.add(0, new XYChart.Data<>(price, accumulatedAmount));
+                else
+                    data.add(new XYChart.Data<>(price, accumulatedAmount));
+            } else {
+                if (direction.equals(Offer.Direction.BUY))
+                    data.add(0, new XYChart.Data<>(price, accumulatedAmount));
+                else
+                    data.add(new XYChart.Data<>(price, accumulatedAmount));
             }
         }
         offerTableList.setAll(offerTableListTemp);
@@ -21,31 +21,22 @@ import com.google.inject.Inject;
 import io.bitsquare.btc.pricefeed.MarketPrice;
 import io.bitsquare.btc.pricefeed.PriceFeedService;
 import io.bitsquare.gui.common.model.ActivatableViewModel;
-import io.bitsquare.gui.main.offer.offerbook.OfferBook;
-import io.bitsquare.gui.main.offer.offerbook.OfferBookListItem;
 import io.bitsquare.gui.main.overlays.popups.Popup;
 import io.bitsquare.gui.util.BSFormatter;
 import io.bitsquare.locale.CurrencyUtil;
 import io.bitsquare.trade.offer.Offer;
+import io.bitsquare.trade.offer.OrderBook;
 import javafx.collections.FXCollections;
-import javafx.collections.ListChangeListener;
 import javafx.collections.ObservableList;
 import org.bitcoinj.core.Coin;
 import org.bitcoinj.utils.Fiat;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-import java.util.stream.Collectors;
-
 class SpreadViewModel extends ActivatableViewModel {
 
-    private final OfferBook offerBook;
+    private final OrderBook orderBook;
     private PriceFeedService priceFeedService;
     private BSFormatter formatter;
-    private final ObservableList<OfferBookListItem> offerBookListItems;
-    private final ListChangeListener<OfferBookListItem> listChangeListener;
+    private final OrderBook.Listener orderBookListener;
     final ObservableList<SpreadItem> spreadItems = FXCollections.observableArrayList();
 
 
@@ -54,67 +45,36 @@ class SpreadViewModel extends ActivatableViewModel {
     ///////////////////////////////////////////////////////////////////////////////////////////
 
     @Inject
-    public SpreadViewModel(OfferBook offerBook, PriceFeedService priceFeedService, BSFormatter formatter) {
-        this.offerBook = offerBook;
+    public SpreadViewModel(OrderBook orderBook, PriceFeedService priceFeedService, BSFormatter formatter) {
+        this.orderBook = orderBook;
         this.priceFeedService = priceFeedService;
         this.formatter = formatter;
 
-        offerBookListItems = offerBook.getOfferBookListItems();
-        listChangeListener = c -> update(offerBookListItems);
+        orderBookListener = currencyCode -> update();
     }
 
     @Override
     protected void activate() {
-        offerBookListItems.addListener(listChangeListener);
-        offerBook.fillOfferBookListItems();
-        update(offerBookListItems);
+        orderBook.addListener(orderBookListener);
+        update();
     }
 
     @Override
     protected void deactivate() {
-        offerBookListItems.removeListener(listChangeListener);
+        orderBook.removeListener(orderBookListener);
     }
 
-    private void update(ObservableList<OfferBookListItem> offerBookListItems) {
-        Map<String, List<Offer>> offersByCurrencyMap = new HashMap<>();
-        for (OfferBookListItem offerBookListItem : offerBookListItems) {
-            Offer offer = offerBookListItem.getOffer();
-            String currencyCode = offer.getCurrencyCode();
-            if (!offersByCurrencyMap.containsKey(currencyCode))
-                offersByCurrencyMap.put(currencyCode, new ArrayList<>());
-            offersByCurrencyMap.get(currencyCode).add(offer);
-        }
+    private void update() {
+        // The order book has the offers sorted by price per currency, so we only need to look up the best prices
         spreadItems.clear();
-        for (String currencyCode : offersByCurrencyMap.keySet()) {
-            List<Offer> offers = offersByCurrencyMap.get(currencyCode);
-            List<Offer> buyOffers = offers
-                    .stream()
-                    .filter(e -> e.getDirection().equals(Offer.Direction.BUY))
-                    .sorted((o1, o2) -> {
-                        long a = o1.getPrice() != null ? o1.getPrice().value : 0;
-                        long b = o2.getPrice() != null ? o2.getPrice().value : 0;
-                        if (a != b)
-                            return a < b ? 1 : -1;
-                        return 0;
-                    })
-                    .collect(Collectors.toList());
-
-            List<Offer> sellOffers = offers
-                    .stream()
-                    .filter(e -> e.getDirection().equals(Offer.Direction.SELL))
-                    .sorted((o1, o2) -> {
-                        long a = o1.getPrice() != null ? o1.getPrice().value : 0;
-                        long b = o2.getPrice() != null ? o2.getPrice().value : 0;
-                        if (a != b)
-                            return a > b ? 1 : -1;
-                        return 0;
-                    })
-                    .collect(Collectors.toList());
+        for (String currencyCode : orderBook.getCurrencyCodes()) {
+            int numberOfBuyOffers = orderBook.getNumOffers(currencyCode, Offer.Direction.BUY);
+            int numberOfSellOffers = orderBook.getNumOffers(currencyCode, Offer.Direction.SELL);
 
             Fiat spread = null;
             String percentage = "";
-            Fiat bestSellOfferPrice = sellOffers.isEmpty() ? null : sellOffers.get(0).getPrice();
-            Fiat bestBuyOfferPrice = buyOffers.isEmpty() ? null : buyOffers.get(0).getPrice();
+            Fiat bestSellOfferPrice = orderBook.getBestPrice(currencyCode, Offer.Direction.SELL);
+            Fiat bestBuyOfferPrice = orderBook.getBestPrice(currencyCode, Offer.Direction.BUY);
             if (bestBuyOfferPrice != null && bestSellOfferPrice != null) {
                 MarketPrice marketPrice = priceFeedService.getMarketPrice(currencyCode);
 
@@ -141,8 +101,7 @@ class SpreadViewModel extends ActivatableViewModel {
                                 "Details of offer data: \n" +
                                 "bestSellOfferPrice: " + bestSellOfferPrice.value + "\n" +
                                 "bestBuyOfferPrice: " + bestBuyOfferPrice.value + "\n" +
-                                "sellOffer getCurrencyCode: " + sellOffers.get(0).getCurrencyCode() + "\n" +
-                                "buyOffer getCurrencyCode: " + buyOffers.get(0).getCurrencyCode() + "\n\n" +
+                                "currencyCode: " + currencyCode + "\n\n" +
                                 "Please copy and paste this data and send it to the developers so they can investigate the issue.";
                         new Popup().error(msg).show();
                         log.error(t.toString());
@@ -154,9 +113,9 @@ class SpreadViewModel extends ActivatableViewModel {
                 }
             }
 
-            Coin totalAmount = Coin.valueOf(offers.stream().mapToLong(offer -> offer.getAmount().getValue()).sum());
-            spreadItems.add(new SpreadItem(currencyCode, buyOffers.size(), sellOffers.size(),
-                    offers.size(), spread, percentage, totalAmount));
+            Coin totalAmount = orderBook.getTotalAmount(currencyCode);
+            spreadItems.add(new SpreadItem(currencyCode, numberOfBuyOffers, numberOfSellOffers,
+                    numberOfBuyOffers + numberOfSellOffers, spread, percentage, totalAmount));
         }
     }
 }
@@ -28,6 +28,7 @@ import io.bitsquare.gui.util.CurrencyListItem;
 import io.bitsquare.gui.util.GUIUtil;
 import io.bitsquare.locale.BSResources;
 import io.bitsquare.locale.CurrencyUtil;
+import io.bitsquare.trade.statistics.TickUnit;
 import io.bitsquare.trade.statistics.TradeStatistics;
 import java.util.Date;
 import java.util.concurrent.TimeUnit;
@@ -116,7 +117,7 @@ public class TradesChartsView extends ActivatableViewAndModel<VBox, TradesCharts
 
         timeUnitChangeListener = (observable, oldValue, newValue) -> {
             if (newValue != null) {
-                model.setTickUnit((TradesChartsViewModel.TickUnit) newValue.getUserData());
+                model.setTickUnit((TickUnit) newValue.getUserData());
                 priceAxisX.setTickLabelFormatter(getTimeAxisStringConverter());
                 volumeAxisX.setTickLabelFormatter(getTimeAxisStringConverter());
             }
@@ -359,7 +360,7 @@ public class TradesChartsView extends ActivatableViewAndModel<VBox, TradesCharts
             public String toString(Number object) {
                 long index = MathUtils.doubleToLong((double) object);
                 long time = model.getTimeFromTickIndex(index);
-                if (model.tickUnit.ordinal() <= TradesChartsViewModel.TickUnit.DAY.ordinal())
+                if (model.tickUnit.ordinal() <= TickUnit.DAY.ordinal())
                     return index % 4 == 0 ? formatter.formatDate(new Date(time)) : "";
                 else
                     return index % 3 == 0 ? formatter.formatTime(new Date(time)) : "";
@@ -392,12 +393,12 @@ public class TradesChartsView extends ActivatableViewAndModel<VBox, TradesCharts
         label.setPadding(new Insets(0, 4, 0, 0));
 
         toggleGroup = new ToggleGroup();
-        ToggleButton year = getToggleButton("Year", TradesChartsViewModel.TickUnit.YEAR, toggleGroup, "toggle-left");
-        ToggleButton month = getToggleButton("Month", TradesChartsViewModel.TickUnit.MONTH, toggleGroup, "toggle-left");
-        ToggleButton week = getToggleButton("Week", TradesChartsViewModel.TickUnit.WEEK, toggleGroup, "toggle-center");
-        ToggleButton day = getToggleButton("Day", TradesChartsViewModel.TickUnit.DAY, toggleGroup, "toggle-center");
-        ToggleButton hour = getToggleButton("Hour", TradesChartsViewModel.TickUnit.HOUR, toggleGroup, "toggle-center");
-        ToggleButton minute10 = getToggleButton("10 Minutes", TradesChartsViewModel.TickUnit.MINUTE_10, toggleGroup, "toggle-center");
+        ToggleButton year = getToggleButton("Year", TickUnit.YEAR, toggleGroup, "toggle-left");
+        ToggleButton month = getToggleButton("Month", TickUnit.MONTH, toggleGroup, "toggle-left");
+        ToggleButton week = getToggleButton("Week", TickUnit.WEEK, toggleGroup, "toggle-center");
+        ToggleButton day = getToggleButton("Day", TickUnit.DAY, toggleGroup, "toggle-center");
+        ToggleButton hour = getToggleButton("Hour", TickUnit.HOUR, toggleGroup, "toggle-center");
+        ToggleButton minute10 = getToggleButton("10 Minutes", TickUnit.MINUTE_10, toggleGroup, "toggle-center");
 
         HBox hBox = new HBox();
         hBox.setSpacing(0);
@@ -407,7 +408,7 @@ public class TradesChartsView extends ActivatableViewAndModel<VBox, TradesCharts
         return hBox;
     }
 
-    private ToggleButton getToggleButton(String label, TradesChartsViewModel.TickUnit tickUnit, ToggleGroup toggleGroup, String style) {
+    private ToggleButton getToggleButton(String label, TickUnit tickUnit, ToggleGroup toggleGroup, String style) {
         ToggleButton toggleButton = new ToggleButton(label);
         toggleButton.setPadding(new Insets(0, 5, 0, 5));
         toggleButton.setUserData(tickUnit);
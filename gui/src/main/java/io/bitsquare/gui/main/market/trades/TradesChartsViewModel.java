@@ -33,6 +33,8 @@ import io.bitsquare.gui.util.GUIUtil;
 import io.bitsquare.locale.CryptoCurrency;
 import io.bitsquare.locale.CurrencyUtil;
 import io.bitsquare.locale.TradeCurrency;
+import io.bitsquare.trade.statistics.Candle;
+import io.bitsquare.trade.statistics.TickUnit;
 import io.bitsquare.trade.statistics.TradeStatistics;
 import io.bitsquare.trade.statistics.TradeStatisticsManager;
 import io.bitsquare.user.Preferences;
@@ -41,44 +43,26 @@ import javafx.beans.property.ObjectProperty;
 import javafx.beans.property.SimpleBooleanProperty;
 import javafx.beans.property.SimpleObjectProperty;
 import javafx.collections.FXCollections;
+import javafx.collections.ListChangeListener;
 import javafx.collections.ObservableList;
-import javafx.collections.SetChangeListener;
 import javafx.scene.chart.XYChart;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
-import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 class TradesChartsViewModel extends ActivatableViewModel {
     private static final Logger log = LoggerFactory.getLogger(TradesChartsViewModel.class);
     private static final int TAB_INDEX = 2;
 
-
-    ///////////////////////////////////////////////////////////////////////////////////////////
-    // Enum
-    ///////////////////////////////////////////////////////////////////////////////////////////
-
-    public enum TickUnit {
-        YEAR,
-        MONTH,
-        WEEK,
-        DAY,
-        HOUR,
-        MINUTE_10,
-        // TODO Can be removed after version 4.9.7
-        // Not used anymore but leave it as it might be used in preferences and could cause an exception if not there. 
-        MINUTE
-    }
-
     private final TradeStatisticsManager tradeStatisticsManager;
     final Preferences preferences;
     private PriceFeedService priceFeedService;
     private Navigation navigation;
     private BSFormatter formatter;
 
-    private final SetChangeListener<TradeStatistics> setChangeListener;
+    private final ListChangeListener<TradeStatistics> listChangeListener;
     final ObjectProperty<TradeCurrency> selectedTradeCurrencyProperty = new SimpleObjectProperty<>();
     final BooleanProperty showAllTradeCurrenciesProperty = new SimpleBooleanProperty(false);
     private final ObservableList<CurrencyListItem> currencyListItems = FXCollections.observableArrayList();
@@ -104,7 +88,7 @@ class TradesChartsViewModel extends ActivatableViewModel {
         this.navigation = navigation;
         this.formatter = formatter;
 
-        setChangeListener = change -> {
+        listChangeListener = c -> {
             updateChartData();
             fillTradeCurrencies();
         };
@@ -120,7 +104,7 @@ class TradesChartsViewModel extends ActivatableViewModel {
 
     private void fillTradeCurrencies() {
         // Don't use a set as we need all entries
-        List<TradeCurrency> tradeCurrencyList = tradeStatisticsManager.getObservableTradeStatisticsSet().stream()
+        List<TradeCurrency> tradeCurrencyList = tradeStatisticsManager.getObservableTradeStatisticsList().stream()
                 .map(e -> {
                     Optional<TradeCurrency> tradeCurrencyOptional = CurrencyUtil.getTradeCurrency(e.currency);
                     if (tradeCurrencyOptional.isPresent())
@@ -137,7 +121,7 @@ class TradesChartsViewModel extends ActivatableViewModel {
 
     @VisibleForTesting
     TradesChartsViewModel() {
-        setChangeListener = null;
+        listChangeListener = null;
         preferences = null;
         tradeStatisticsManager = null;
     }
@@ -145,7 +129,7 @@ class TradesChartsViewModel extends ActivatableViewModel {
 
     @Override
     protected void activate() {
-        tradeStatisticsManager.getObservableTradeStatisticsSet().addListener(setChangeListener);
+        tradeStatisticsManager.getObservableTradeStatisticsList().addListener(listChangeListener);
         fillTradeCurrencies();
         updateChartData();
         syncPriceFeedCurrency();
@@ -154,7 +138,7 @@ class TradesChartsViewModel extends ActivatableViewModel {
 
     @Override
     protected void deactivate() {
-        tradeStatisticsManager.getObservableTradeStatisticsSet().removeListener(setChangeListener);
+        tradeStatisticsManager.getObservableTradeStatisticsList().removeListener(listChangeListener);
     }
 
 
@@ -237,33 +221,17 @@ class TradesChartsViewModel extends ActivatableViewModel {
     }
 
     private void updateChartData() {
-        tradeStatisticsByCurrency.setAll(tradeStatisticsManager.getObservableTradeStatisticsSet().stream()
+        tradeStatisticsByCurrency.setAll(tradeStatisticsManager.getObservableTradeStatisticsList().stream()
                 .filter(e -> showAllTradeCurrenciesProperty.get() || e.currency.equals(getCurrencyCode()))
                 .collect(Collectors.toList()));
 
-        // Get all entries for the defined time interval
-        Map<Long, Set<TradeStatistics>> itemsPerInterval = new HashMap<>();
-        final long dateAsTime = new Date().getTime();
-        tradeStatisticsByCurrency.stream().forEach(e -> {
-            Set<TradeStatistics> set;
-            final long time = getTickFromTime(e.tradeDate, tickUnit);
-            final long now = getTickFromTime(dateAsTime, tickUnit);
-            long index = maxTicks - (now - time);
-            if (itemsPerInterval.containsKey(index)) {
-                set = itemsPerInterval.get(index);
-            } else {
-                set = new HashSet<>();
-                itemsPerInterval.put(index, set);
-            }
-            set.add(e);
-        });
-
-        // create CandleData for defined time interval
-        List<CandleData> candleDataList = itemsPerInterval.entrySet().stream()
-                .filter(entry -> entry.getKey() >= 0)
-                .map(entry -> getCandleData(entry.getKey(), entry.getValue()))
+        // The candles are kept up to date in the core, we only pick the ones of the displayed interval
+        final long now = getTickFromTime(new Date().getTime(), tickUnit);
+        final String currencyCode = showAllTradeCurrenciesProperty.get() ? null : getCurrencyCode();
+        List<CandleData> candleDataList = tradeStatisticsManager.getCandleAggregator()
+                .getCandles(currencyCode, tickUnit, now - maxTicks, Long.MAX_VALUE).stream()
+                .map(candle -> getCandleData(maxTicks - (now - candle.tick), candle))
                 .collect(Collectors.toList());
-        candleDataList.sort((o1, o2) -> (o1.tick < o2.tick ? -1 : (o1.tick == o2.tick ? 0 : 1)));
 
         priceItems.setAll(candleDataList.stream()
                 .map(e -> new XYChart.Data<Number, Number>(e.tick, e.open, e))
@@ -275,52 +243,21 @@ class TradesChartsViewModel extends ActivatableViewModel {
     }
 
     @VisibleForTesting
-    CandleData getCandleData(long tick, Set<TradeStatistics> set) {
-        long open = 0;
-        long close = 0;
-        long high = 0;
-        long low = 0;
-        long accumulatedVolume = 0;
-        long accumulatedAmount = 0;
-        long numTrades = set.size();
-
-        for (TradeStatistics item : set) {
-            long tradePriceAsLong = item.tradePrice;
-            if (CurrencyUtil.isCryptoCurrency(getCurrencyCode())) {
-                low = (low != 0) ? Math.max(low, tradePriceAsLong) : tradePriceAsLong;
-                high = (high != 0) ? Math.min(high, tradePriceAsLong) : tradePriceAsLong;
-            } else {
-                low = (low != 0) ? Math.min(low, tradePriceAsLong) : tradePriceAsLong;
-                high = (high != 0) ? Math.max(high, tradePriceAsLong) : tradePriceAsLong;
-            }
-
-            accumulatedVolume += (item.getTradeVolume() != null) ? item.getTradeVolume().value : 0;
-            accumulatedAmount += item.tradeAmount;
-        }
-        // 100000000 -> Coin.COIN.value;
-        final double value = MathUtils.scaleUpByPowerOf10(accumulatedVolume, 8);
-        long averagePrice = MathUtils.roundDoubleToLong(value / (double) accumulatedAmount);
-
-        List<TradeStatistics> list = new ArrayList<>(set);
-        list.sort((o1, o2) -> (o1.tradeDate < o2.tradeDate ? -1 : (o1.tradeDate == o2.tradeDate ? 0 : 1)));
-        if (list.size() > 0) {
-            open = list.get(0).tradePrice;
-            close = list.get(list.size() - 1).tradePrice;
-        }
-        boolean isBullish = close > open;
+    CandleData getCandleData(long tick, Candle candle) {
         final Date dateFrom = new Date(getTimeFromTickIndex(tick));
         final Date dateTo = new Date(getTimeFromTickIndex(tick + 1));
         String dateString = tickUnit.ordinal() > TickUnit.DAY.ordinal() ?
                 formatter.formatDateTimeSpan(dateFrom, dateTo) :
                 formatter.formatDate(dateFrom) + " - " + formatter.formatDate(dateTo);
 
+        // For altcoins the stored price is inverted, so the lowest stored price is the high
         if (CurrencyUtil.isCryptoCurrency(getCurrencyCode())) {
-            return new CandleData(tick, getInvertedPrice(open), getInvertedPrice(close), getInvertedPrice(high),
-                    getInvertedPrice(low), getInvertedPrice(averagePrice), accumulatedAmount, accumulatedVolume,
-                    numTrades, isBullish, dateString);
+            return new CandleData(tick, getInvertedPrice(candle.open), getInvertedPrice(candle.close), getInvertedPrice(candle.low),
+                    getInvertedPrice(candle.high), getInvertedPrice(candle.average), candle.accumulatedAmount, candle.accumulatedVolume,
+                    candle.numTrades, candle.isBullish(), dateString);
         } else {
-            return new CandleData(tick, open, close, high, low, averagePrice, accumulatedAmount, accumulatedVolume,
-                    numTrades, isBullish, dateString);
+            return new CandleData(tick, candle.open, candle.close, candle.high, candle.low, candle.average, candle.accumulatedAmount,
+                    candle.accumulatedVolume, candle.numTrades, candle.isBullish(), dateString);
         }
     }
 
@@ -330,45 +267,11 @@ class TradesChartsViewModel extends ActivatableViewModel {
     }
 
     long getTickFromTime(long tradeDateAsTime, TickUnit tickUnit) {
-        switch (tickUnit) {
-            case YEAR:
-                return TimeUnit.MILLISECONDS.toDays(tradeDateAsTime) / 365;
-            case MONTH:
-                return TimeUnit.MILLISECONDS.toDays(tradeDateAsTime) / 31;
-            case WEEK:
-                return TimeUnit.MILLISECONDS.toDays(tradeDateAsTime) / 7;
-            case DAY:
-                return TimeUnit.MILLISECONDS.toDays(tradeDateAsTime);
-            case HOUR:
-                return TimeUnit.MILLISECONDS.toHours(tradeDateAsTime);
-            case MINUTE_10:
-                return TimeUnit.MILLISECONDS.toMinutes(tradeDateAsTime) / 10;
-            case MINUTE:
-                return TimeUnit.MILLISECONDS.toMinutes(tradeDateAsTime);
-            default:
-                return tradeDateAsTime;
-        }
+        return tickUnit.getTickFromTime(tradeDateAsTime);
     }
 
     long getTimeFromTick(long tick, TickUnit tickUnit) {
-        switch (tickUnit) {
-            case YEAR:
-                return TimeUnit.DAYS.toMillis(tick) * 365;
-            case MONTH:
-                return TimeUnit.DAYS.toMillis(tick) * 31;
-            case WEEK:
-                return TimeUnit.DAYS.toMillis(tick) * 7;
-            case DAY:
-                return TimeUnit.DAYS.toMillis(tick);
-            case HOUR:
-                return TimeUnit.HOURS.toMillis(tick);
-            case MINUTE_10:
-                return TimeUnit.MINUTES.toMillis(tick) * 10;
-            case MINUTE:
-                return TimeUnit.MINUTES.toMillis(tick);
-            default:
-                return tick;
-        }
+        return tickUnit.getTimeFromTick(tick);
     }
 
     long getTimeFromTickIndex(long index) {
@@ -1,8 +1,10 @@
 package io.bitsquare.gui.main.market.trades;
 
 import io.bitsquare.gui.main.market.trades.charts.CandleData;
+import io.bitsquare.payment.PaymentMethod;
+import io.bitsquare.storage.FileUtil;
 import io.bitsquare.trade.offer.Offer;
-import io.bitsquare.trade.statistics.TradeStatistics;
+import io.bitsquare.trade.statistics.*;
 import org.bitcoinj.core.Coin;
 import org.bitcoinj.utils.Fiat;
 import org.junit.Ignore;
@@ -10,9 +12,10 @@ import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.util.Date;
-import java.util.HashSet;
-import java.util.Set;
 
 import static org.junit.Assert.assertEquals;
 
@@ -23,7 +26,7 @@ public class TradesChartsViewModelTest {
     private static final Logger log = LoggerFactory.getLogger(TradesChartsViewModelTest.class);
 
     @Test
-    public void testGetCandleData() {
+    public void testGetCandleData() throws IOException {
         TradesChartsViewModel model = new TradesChartsViewModel();
 
         long low = Fiat.parseFiat("EUR", "500").value;
@@ -35,12 +38,34 @@ public class TradesChartsViewModelTest {
         long volume = Fiat.parseFiat("EUR", "2200").value;
         boolean isBullish = true;
 
-        Set<TradeStatistics> set = new HashSet<>();
         final Date now = new Date();
-        Offer offer = new Offer(null,
-                null,
+        File storageDir = Files.createTempDirectory("TradesChartsViewModelTest").toFile();
+        TradeStatisticsStore store = new TradeStatisticsStore(storageDir);
+        store.append(getTradeStatistics("1", "520", now.getTime()));
+        store.append(getTradeStatistics("2", "500", now.getTime() + 100));
+        store.append(getTradeStatistics("3", "600", now.getTime() + 200));
+        store.append(getTradeStatistics("4", "580", now.getTime() + 300));
+        CandleAggregator candleAggregator = new CandleAggregator(store);
+
+        long tick = model.getTickFromTime(now.getTime(), TickUnit.DAY);
+        Candle candle = candleAggregator.getCandles("EUR", TickUnit.DAY, tick, tick).get(0);
+        CandleData candleData = model.getCandleData(tick, candle);
+        FileUtil.deleteDirectory(storageDir);
+        assertEquals(open, candleData.open);
+        assertEquals(close, candleData.close);
+        assertEquals(high, candleData.high);
+        assertEquals(low, candleData.low);
+        assertEquals(average, candleData.average);
+        assertEquals(amount, candleData.accumulatedAmount);
+        assertEquals(volume, candleData.accumulatedVolume);
+        assertEquals(isBullish, candleData.isBullish);
+    }
+
+    private TradeStatistics getTradeStatistics(String offerId, String price, long date) {
+        Offer offer = new Offer(offerId,
                 null,
                 null,
+                Offer.Direction.BUY,
                 0,
                 0,
                 false,
@@ -48,26 +73,13 @@ public class TradesChartsViewModelTest {
                 0,
                 "EUR",
                 null,
-                null,
+                PaymentMethod.SEPA_ID,
                 null,
                 null,
                 null,
                 null,
                 null,
                 null);
-        set.add(new TradeStatistics(offer, Fiat.parseFiat("EUR", "520"), Coin.parseCoin("1"), new Date(now.getTime()), null, null));
-        set.add(new TradeStatistics(offer, Fiat.parseFiat("EUR", "500"), Coin.parseCoin("1"), new Date(now.getTime() + 100), null, null));
-        set.add(new TradeStatistics(offer, Fiat.parseFiat("EUR", "600"), Coin.parseCoin("1"), new Date(now.getTime() + 200), null, null));
-        set.add(new TradeStatistics(offer, Fiat.parseFiat("EUR", "580"), Coin.parseCoin("1"), new Date(now.getTime() + 300), null, null));
-
-        CandleData candleData = model.getCandleData(model.getTickFromTime(now.getTime(), TradesChartsViewModel.TickUnit.DAY), set);
-        assertEquals(open, candleData.open);
-        assertEquals(close, candleData.close);
-        assertEquals(high, candleData.high);
-        assertEquals(low, candleData.low);
-        assertEquals(average, candleData.average);
-        assertEquals(amount, candleData.accumulatedAmount);
-        assertEquals(volume, candleData.accumulatedVolume);
-        assertEquals(isBullish, candleData.isBullish);
+        return new TradeStatistics(offer, Fiat.parseFiat("EUR", price), Coin.parseCoin("1"), new Date(date), null, null);
     }
 }
@@ -3,28 +3,14 @@ package io.bitsquare.http;
 import com.runjva.sourceforge.jsocks.protocol.Socks5Proxy;
 import io.bitsquare.app.Version;
 import io.bitsquare.network.Socks5ProxyProvider;
-import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
-import org.apache.http.client.protocol.HttpClientContext;
-import org.apache.http.config.Registry;
-import org.apache.http.config.RegistryBuilder;
-import org.apache.http.conn.socket.ConnectionSocketFactory;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
-import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
-import org.apache.http.ssl.SSLContexts;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
 import javax.inject.Inject;
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.InetSocketAddress;
-import java.net.URL;
+import java.util.Map;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
@@ -32,6 +18,9 @@ import static com.google.common.base.Preconditions.checkNotNull;
 public class HttpClient {
     private static final Logger log = LoggerFactory.getLogger(HttpClient.class);
 
+    // Shared by all instances so the connections get reused for all requests to the same host
+    private static final HttpClientPool POOL = new HttpClientPool();
+
     @Nullable
     private Socks5ProxyProvider socks5ProxyProvider;
     private String baseUrl;
@@ -54,19 +43,23 @@ public class HttpClient {
         this.ignoreSocks5Proxy = ignoreSocks5Proxy;
     }
 
+    public static HttpClientPool getPool() {
+        return POOL;
+    }
+
+    /**
+     * @return The metrics of the route this client uses (the proxy or direct), null if there was no request yet.
+     */
+    @Nullable
+    public HttpClientPool.RequestMetrics getRequestMetrics() {
+        return POOL.getRequestMetrics(ignoreSocks5Proxy ? null : getSocks5Proxy());
+    }
+
 
     public String requestWithGET(String param, @Nullable String headerKey, @Nullable String headerValue) throws IOException, HttpException {
         checkNotNull(baseUrl, "baseUrl must be set before calling requestWithGET");
 
-        Socks5Proxy socks5Proxy = null;
-        if (socks5ProxyProvider != null) {
-            // We use the custom socks5ProxyHttp. If not set we request socks5ProxyProvider.getSocks5ProxyBtc()
-            // which delivers the btc proxy if set, otherwise the internal proxy.
-            socks5Proxy = socks5ProxyProvider.getSocks5ProxyHttp();
-            if (socks5Proxy == null)
-                socks5Proxy = socks5ProxyProvider.getSocks5Proxy();
-        }
-
+        Socks5Proxy socks5Proxy = getSocks5Proxy();
         if (ignoreSocks5Proxy) {
             log.debug("Use clear net for HttpClient because ignoreSocks5Proxy is set to true");
             return requestWithGETNoProxy(param, headerKey, headerValue);
@@ -79,37 +72,45 @@ public class HttpClient {
         }
     }
 
+    /**
+     * Make an HTTP Get request with the given request headers. Other than at requestWithGET the status code is not
+     * checked, so the caller can handle responses like 304 (Not Modified).
+     */
+    public HttpResponse requestWithGET(String param, Map<String, String> headers) throws IOException {
+        checkNotNull(baseUrl, "baseUrl must be set before calling requestWithGET");
+
+        Socks5Proxy socks5Proxy = ignoreSocks5Proxy ? null : getSocks5Proxy();
+        HttpGet request = createRequest(param, socks5Proxy);
+        headers.entrySet().stream().forEach(e -> request.setHeader(e.getKey(), e.getValue()));
+        try {
+            return POOL.execute(socks5Proxy, request);
+        } catch (Throwable t) {
+            log.debug("Error at requestWithGET: " + t.getMessage());
+            throw new IOException(t);
+        }
+    }
+
     /**
      * Make an HTTP Get request directly (not routed over socks5 proxy).
      */
     public String requestWithGETNoProxy(String param, @Nullable String headerKey, @Nullable String headerValue) throws IOException, HttpException {
-        HttpURLConnection connection = null;
+        log.debug("Executing HTTP request " + baseUrl + param + " proxy: none.");
+        HttpGet request = createRequest(param, null);
+        if (headerKey != null && headerValue != null)
+            request.setHeader(headerKey, headerValue);
+
+        HttpResponse response;
         try {
-            log.debug("Executing HTTP request " + baseUrl + param + " proxy: none.");
-            URL url = new URL(baseUrl + param);
-            connection = (HttpURLConnection) url.openConnection();
-            connection.setRequestMethod("GET");
-            connection.setConnectTimeout(10_000);
-            connection.setReadTimeout(10_000);
-            connection.setRequestProperty("User-Agent", "Bitsquare/" + Version.VERSION);
-
-            if (headerKey != null && headerValue != null)
-                connection.setRequestProperty(headerKey, headerValue);
-
-            if (connection.getResponseCode() == 200) {
-                return convertInputStreamToString(connection.getInputStream());
-            } else {
-                String error = convertInputStreamToString(connection.getErrorStream());
-                connection.getErrorStream().close();
-                throw new HttpException(error);
-            }
+            response = POOL.execute(null, request);
         } catch (Throwable t) {
             log.debug("Error at requestWithGETNoProxy: " + t.getMessage());
             throw new IOException(t);
-        } finally {
-            if (connection != null)
-                connection.getInputStream().close();
         }
+
+        if (response.getStatusCode() == 200)
+            return response.getBody();
+        else
+            throw new HttpException(response.getBody());
     }
 
     /**
@@ -117,51 +118,37 @@ public class HttpClient {
      */
     private String requestWithGETProxy(String param, Socks5Proxy socks5Proxy, @Nullable String headerKey, @Nullable String headerValue) throws IOException, HttpException {
         log.debug("requestWithGETProxy param=" + param);
-        // This code is adapted from:
-        //  http://stackoverflow.com/a/25203021/5616248
-
-        // Register our own SocketFactories to override createSocket() and connectSocket().
-        // connectSocket does NOT resolve hostname before passing it to proxy.
-        Registry<ConnectionSocketFactory> reg = RegistryBuilder.<ConnectionSocketFactory>create()
-                .register("http", new SocksConnectionSocketFactory())
-                .register("https", new SocksSSLConnectionSocketFactory(SSLContexts.createSystemDefault())).build();
-
-        // Use FakeDNSResolver if not resolving DNS locally.
-        // This prevents a local DNS lookup (which would be ignored anyway)
-        PoolingHttpClientConnectionManager cm = socks5Proxy.resolveAddrLocally() ?
-                new PoolingHttpClientConnectionManager(reg) :
-                new PoolingHttpClientConnectionManager(reg, new FakeDnsResolver());
-        try (CloseableHttpClient httpclient = HttpClients.custom().setConnectionManager(cm).build()) {
-            InetSocketAddress socksaddr = new InetSocketAddress(socks5Proxy.getInetAddress(), socks5Proxy.getPort());
-
-            // remove me: Use this to test with system-wide Tor proxy, or change port for another proxy.
-            // InetSocketAddress socksaddr = new InetSocketAddress("127.0.0.1", 9050);
-
-            HttpClientContext context = HttpClientContext.create();
-            context.setAttribute("socks.address", socksaddr);
-
-            HttpGet request = new HttpGet(baseUrl + param);
-            if (headerKey != null && headerValue != null)
-                request.setHeader(headerKey, headerValue);
-
-            log.debug("Executing request " + request + " proxy: " + socksaddr);
-            try (CloseableHttpResponse response = httpclient.execute(request, context)) {
-                return convertInputStreamToString(response.getEntity().getContent());
-            }
+        HttpGet request = createRequest(param, socks5Proxy);
+        if (headerKey != null && headerValue != null)
+            request.setHeader(headerKey, headerValue);
+
+        try {
+            return POOL.execute(socks5Proxy, request).getBody();
         } catch (Throwable t) {
             log.debug("Error at requestWithGETProxy: " + t.getMessage());
             throw new IOException(t);
         }
     }
 
-    private String convertInputStreamToString(InputStream inputStream) throws IOException {
-        BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(inputStream));
-        StringBuilder stringBuilder = new StringBuilder();
-        String line;
-        while ((line = bufferedReader.readLine()) != null) {
-            stringBuilder.append(line);
+    @Nullable
+    private Socks5Proxy getSocks5Proxy() {
+        Socks5Proxy socks5Proxy = null;
+        if (socks5ProxyProvider != null) {
+            // We use the custom socks5ProxyHttp. If not set we request socks5ProxyProvider.getSocks5ProxyBtc()
+            // which delivers the btc proxy if set, otherwise the internal proxy.
+            socks5Proxy = socks5ProxyProvider.getSocks5ProxyHttp();
+            if (socks5Proxy == null)
+                socks5Proxy = socks5ProxyProvider.getSocks5Proxy();
         }
-        return stringBuilder.toString();
+        return socks5Proxy;
+    }
+
+    private HttpGet createRequest(String param, @Nullable Socks5Proxy socks5Proxy) {
+        HttpGet request = new HttpGet(baseUrl + param);
+        // As before only the direct requests get our user agent by default
+        if (socks5Proxy == null)
+            request.setHeader("User-Agent", "Bitsquare/" + Version.VERSION);
+        return request;
     }
 
     @Override
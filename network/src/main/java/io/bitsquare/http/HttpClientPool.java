@@ -0,0 +1,254 @@
+package io.bitsquare.http;
+
+import com.runjva.sourceforge.jsocks.protocol.Socks5Proxy;
+import org.apache.http.Header;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.ssl.SSLContexts;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Long-lived pooled http clients, one for direct connections and one per socks5 proxy. Connections are kept alive
+ * and reused, so not each request pays a new TCP connection and, over Tor, a new socks handshake and circuit.
+ * Idle connections get closed after MAX_IDLE_SEC.
+ */
+public class HttpClientPool {
+    private static final Logger log = LoggerFactory.getLogger(HttpClientPool.class);
+
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 4;
+    private static final int MAX_CONNECTIONS_TOTAL = 50;
+    // Used if the server does not tell us how long it keeps the connection open
+    private static final long KEEP_ALIVE_MS = 30_000;
+    private static final long MAX_IDLE_SEC = 60;
+    // Tor connections need more time than clear net connections
+    private static final int TIMEOUT_DIRECT_MS = 10_000;
+    private static final int TIMEOUT_PROXY_MS = 30_000;
+
+    private final Map<String, PooledClient> pooledClients = new HashMap<>();
+    private int maxConnectionsPerRoute = DEFAULT_MAX_CONNECTIONS_PER_ROUTE;
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // API
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    public synchronized void setMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+        checkArgument(maxConnectionsPerRoute > 0, "maxConnectionsPerRoute must be positive");
+        this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+        pooledClients.values().stream().forEach(e -> e.connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute));
+    }
+
+    /**
+     * @return The metrics of the requests over the given proxy (or of the direct requests if null), null if there was
+     * no request yet.
+     */
+    @Nullable
+    public synchronized RequestMetrics getRequestMetrics(@Nullable Socks5Proxy socks5Proxy) {
+        PooledClient pooledClient = pooledClients.get(getKey(socks5Proxy));
+        return pooledClient != null ? pooledClient.requestMetrics : null;
+    }
+
+    /**
+     * @return The metrics of all routes which had requests, keyed by "direct" or "socks5:[host]:[port]".
+     */
+    public synchronized Map<String, RequestMetrics> getAllRequestMetrics() {
+        Map<String, RequestMetrics> map = new TreeMap<>();
+        pooledClients.entrySet().stream().forEach(e -> map.put(e.getKey(), e.getValue().requestMetrics));
+        return map;
+    }
+
+    public synchronized void shutDown() {
+        if (!pooledClients.isEmpty())
+            log.info("Shut down http clients. Request metrics: " + getAllRequestMetrics());
+        pooledClients.values().stream().forEach(e -> {
+            try {
+                e.httpClient.close();
+            } catch (IOException e1) {
+                log.warn("Error at closing http client: " + e1.getMessage());
+            }
+        });
+        pooledClients.clear();
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Package scope
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Executes the request with the pooled client of the proxy (direct if null). The response gets read completely,
+     * so the connection can be reused.
+     */
+    HttpResponse execute(@Nullable Socks5Proxy socks5Proxy, HttpGet request) throws IOException {
+        PooledClient pooledClient;
+        synchronized (this) {
+            pooledClient = getPooledClient(socks5Proxy);
+        }
+
+        long ts = System.currentTimeMillis();
+        boolean failed = true;
+        try (CloseableHttpResponse response = pooledClient.httpClient.execute(request, createContext(socks5Proxy))) {
+            Header eTagHeader = response.getFirstHeader("ETag");
+            // A 304 response has no entity
+            String body = response.getEntity() != null ? EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8) : "";
+            failed = false;
+            return new HttpResponse(response.getStatusLine().getStatusCode(),
+                    eTagHeader != null ? eTagHeader.getValue() : null,
+                    body);
+        } finally {
+            long duration = System.currentTimeMillis() - ts;
+            pooledClient.requestMetrics.add(duration, failed);
+            log.debug("Request to {} took {} ms{}", request.getURI(), duration, failed ? " and failed" : "");
+        }
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    private PooledClient getPooledClient(@Nullable Socks5Proxy socks5Proxy) {
+        return pooledClients.computeIfAbsent(getKey(socks5Proxy), key -> {
+            log.info("Create pooled http client for " + key);
+            return new PooledClient(socks5Proxy);
+        });
+    }
+
+    private HttpClientContext createContext(@Nullable Socks5Proxy socks5Proxy) {
+        HttpClientContext context = HttpClientContext.create();
+        if (socks5Proxy != null) {
+            InetSocketAddress socksaddr = new InetSocketAddress(socks5Proxy.getInetAddress(), socks5Proxy.getPort());
+
+            // remove me: Use this to test with system-wide Tor proxy, or change port for another proxy.
+            // InetSocketAddress socksaddr = new InetSocketAddress("127.0.0.1", 9050);
+
+            context.setAttribute("socks.address", socksaddr);
+        }
+        return context;
+    }
+
+    private static String getKey(@Nullable Socks5Proxy socks5Proxy) {
+        if (socks5Proxy == null)
+            return "direct";
+        else
+            return "socks5:" + socks5Proxy.getInetAddress().getHostAddress() + ":" + socks5Proxy.getPort() +
+                    (socks5Proxy.resolveAddrLocally() ? ":resolveLocally" : "");
+    }
+
+    private final class PooledClient {
+        private final PoolingHttpClientConnectionManager connectionManager;
+        private final CloseableHttpClient httpClient;
+        private final RequestMetrics requestMetrics = new RequestMetrics();
+
+        private PooledClient(@Nullable Socks5Proxy socks5Proxy) {
+            int timeout;
+            if (socks5Proxy != null) {
+                // This code is adapted from:
+                //  http://stackoverflow.com/a/25203021/5616248
+
+                // Register our own SocketFactories to override createSocket() and connectSocket().
+                // connectSocket does NOT resolve hostname before passing it to proxy.
+                Registry<ConnectionSocketFactory> reg = RegistryBuilder.<ConnectionSocketFactory>create()
+                        .register("http", new SocksConnectionSocketFactory())
+                        .register("https", new SocksSSLConnectionSocketFactory(SSLContexts.createSystemDefault())).build();
+
+                // Use FakeDNSResolver if not resolving DNS locally.
+                // This prevents a local DNS lookup (which would be ignored anyway)
+                connectionManager = socks5Proxy.resolveAddrLocally() ?
+                        new PoolingHttpClientConnectionManager(reg) :
+                        new PoolingHttpClientConnectionManager(reg, new FakeDnsResolver());
+                timeout = TIMEOUT_PROXY_MS;
+            } else {
+                Registry<ConnectionSocketFactory> reg = RegistryBuilder.<ConnectionSocketFactory>create()
+                        .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                        .register("https", SSLConnectionSocketFactory.getSocketFactory()).build();
+                connectionManager = new PoolingHttpClientConnectionManager(reg);
+                timeout = TIMEOUT_DIRECT_MS;
+            }
+            connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+            connectionManager.setMaxTotal(MAX_CONNECTIONS_TOTAL);
+
+            httpClient = HttpClients.custom()
+                    .setConnectionManager(connectionManager)
+                    .setDefaultRequestConfig(RequestConfig.custom()
+                            .setConnectTimeout(timeout)
+                            .setSocketTimeout(timeout)
+                            .setConnectionRequestTimeout(timeout)
+                            .build())
+                    .setKeepAliveStrategy((response, context) -> {
+                        long keepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+                        return keepAlive > 0 ? keepAlive : KEEP_ALIVE_MS;
+                    })
+                    .evictExpiredConnections()
+                    .evictIdleConnections(MAX_IDLE_SEC, TimeUnit.SECONDS)
+                    .build();
+        }
+    }
+
+    public static final class RequestMetrics {
+        private final AtomicLong numRequests = new AtomicLong();
+        private final AtomicLong numFailedRequests = new AtomicLong();
+        private final AtomicLong totalDurationMs = new AtomicLong();
+        private final AtomicLong maxDurationMs = new AtomicLong();
+
+        void add(long durationMs, boolean failed) {
+            numRequests.incrementAndGet();
+            if (failed)
+                numFailedRequests.incrementAndGet();
+            totalDurationMs.addAndGet(durationMs);
+            maxDurationMs.accumulateAndGet(durationMs, Math::max);
+        }
+
+        public long getNumRequests() {
+            return numRequests.get();
+        }
+
+        public long getNumFailedRequests() {
+            return numFailedRequests.get();
+        }
+
+        public long getAverageDurationMs() {
+            long num = numRequests.get();
+            return num > 0 ? totalDurationMs.get() / num : 0;
+        }
+
+        public long getMaxDurationMs() {
+            return maxDurationMs.get();
+        }
+
+        @Override
+        public String toString() {
+            return "RequestMetrics{" +
+                    "numRequests=" + getNumRequests() +
+                    ", numFailedRequests=" + getNumFailedRequests() +
+                    ", averageDurationMs=" + getAverageDurationMs() +
+                    ", maxDurationMs=" + getMaxDurationMs() +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package io.bitsquare.http;
+
+import javax.annotation.Nullable;
+
+public class HttpResponse {
+    private final int statusCode;
+    @Nullable
+    private final String eTag;
+    private final String body;
+
+    public HttpResponse(int statusCode, @Nullable String eTag, String body) {
+        this.statusCode = statusCode;
+        this.eTag = eTag;
+        this.body = body;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    @Nullable
+    public String getETag() {
+        return eTag;
+    }
+
+    public String getBody() {
+        return body;
+    }
+
+    @Override
+    public String toString() {
+        return "HttpResponse{" +
+                "statusCode=" + statusCode +
+                ", eTag='" + eTag + '\'' +
+                '}';
+    }
+}
@@ -3,7 +3,11 @@ package io.bitsquare.network;
 public class NetworkOptionKeys {
     public static final String TOR_DIR = "torDir";
     public static final String USE_LOCALHOST = "useLocalhost";
+    public static final String USE_NIO_SERVER = "useNioServer";
     public static final String MAX_CONNECTIONS = "maxConnections";
+    public static final String SEND_MSG_THROTTLE_PER_SEC = "sendMsgThrottlePerSec";
+    public static final String SEND_BYTES_THROTTLE_PER_SEC = "sendBytesThrottlePerSec";
+    public static final String HTTP_MAX_CONNECTIONS_PER_ROUTE = "httpMaxConnectionsPerRoute";
     public static final String PORT_KEY = "nodePort";
     public static final String NETWORK_ID = "networkId";
     public static final String SEED_NODES_KEY = "seedNodes";
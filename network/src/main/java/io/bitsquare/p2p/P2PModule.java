@@ -20,8 +20,11 @@ package io.bitsquare.p2p;
 import com.google.inject.Singleton;
 import com.google.inject.name.Names;
 import io.bitsquare.app.AppModule;
+import io.bitsquare.http.HttpClient;
+import io.bitsquare.http.HttpClientPool;
 import io.bitsquare.network.NetworkOptionKeys;
 import io.bitsquare.network.Socks5ProxyProvider;
+import io.bitsquare.p2p.network.Connection;
 import io.bitsquare.p2p.seed.SeedNodesRepository;
 import org.springframework.core.env.Environment;
 
@@ -55,6 +58,15 @@ public class P2PModule extends AppModule {
         Integer maxConnections = env.getProperty(NetworkOptionKeys.MAX_CONNECTIONS, int.class, P2PService.MAX_CONNECTIONS_DEFAULT);
         bind(int.class).annotatedWith(Names.named(NetworkOptionKeys.MAX_CONNECTIONS)).toInstance(maxConnections);
 
+        // Connections are not created by guice, so we apply the send throttle statically
+        Connection.setSendThrottle(
+                env.getProperty(NetworkOptionKeys.SEND_MSG_THROTTLE_PER_SEC, int.class, Connection.SEND_MSG_THROTTLE_PER_SEC_DEFAULT),
+                env.getProperty(NetworkOptionKeys.SEND_BYTES_THROTTLE_PER_SEC, int.class, Connection.SEND_BYTES_THROTTLE_PER_SEC_DEFAULT));
+
+        // The http clients are shared by all HttpClient instances, so we apply the limit statically as well
+        HttpClient.getPool().setMaxConnectionsPerRoute(
+                env.getProperty(NetworkOptionKeys.HTTP_MAX_CONNECTIONS_PER_ROUTE, int.class, HttpClientPool.DEFAULT_MAX_CONNECTIONS_PER_ROUTE));
+
         String socks5DiscoverMode = env.getProperty(NetworkOptionKeys.SOCKS5_DISCOVER_MODE, String.class, "ALL");
         bind(String.class).annotatedWith(Names.named(NetworkOptionKeys.SOCKS5_DISCOVER_MODE)).toInstance(socks5DiscoverMode);
         
@@ -70,6 +70,8 @@ public class P2PService implements SetupListener, MessageListener, ConnectionLis
     //TODO optional can be removed as seednode are created with those objects now
     private final Optional<EncryptionService> optionalEncryptionService;
     private final Optional<KeyRing> optionalKeyRing;
+    @Nullable
+    private final MailboxDecryptionPool mailboxDecryptionPool;
 
     // set in init
     private NetworkNode networkNode;
@@ -159,6 +161,7 @@ public class P2PService implements SetupListener, MessageListener, ConnectionLis
 
         optionalEncryptionService = Optional.ofNullable(encryptionService);
         optionalKeyRing = Optional.ofNullable(keyRing);
+        mailboxDecryptionPool = encryptionService != null ? new MailboxDecryptionPool(encryptionService) : null;
 
         init(useLocalhost,
                 networkId,
@@ -232,14 +235,14 @@ public class P2PService implements SetupListener, MessageListener, ConnectionLis
     public void onAllServicesInitialized() {
         Log.traceCall();
         if (networkNode.getNodeAddress() != null) {
-            p2PDataStorage.getMap().values().stream().forEach(protectedStorageEntry -> {
+            p2PDataStorage.getEntriesOfType(MailboxStoragePayload.class).stream().forEach(protectedStorageEntry -> {
                 if (protectedStorageEntry instanceof ProtectedMailboxStorageEntry)
                     processProtectedMailboxStorageEntry((ProtectedMailboxStorageEntry) protectedStorageEntry);
             });
         } else {
             networkNode.nodeAddressProperty().addListener((observable, oldValue, newValue) -> {
                 if (newValue != null) {
-                    p2PDataStorage.getMap().values().stream().forEach(protectedStorageEntry -> {
+                    p2PDataStorage.getEntriesOfType(MailboxStoragePayload.class).stream().forEach(protectedStorageEntry -> {
                         if (protectedStorageEntry instanceof ProtectedMailboxStorageEntry)
                             processProtectedMailboxStorageEntry((ProtectedMailboxStorageEntry) protectedStorageEntry);
                     });
@@ -273,6 +276,9 @@ public class P2PService implements SetupListener, MessageListener, ConnectionLis
             if (keepAliveManager != null)
                 keepAliveManager.shutDown();
 
+            if (mailboxDecryptionPool != null)
+                mailboxDecryptionPool.shutDown();
+
             if (networkNode != null)
                 networkNode.shutDown(() -> {
                     shutDownResultHandlers.stream().forEach(Runnable::run);
@@ -529,14 +535,14 @@ public class P2PService implements SetupListener, MessageListener, ConnectionLis
         Log.traceCall();
         final NodeAddress nodeAddress = networkNode.getNodeAddress();
         // Seed nodes don't receive mailbox messages
-        if (optionalEncryptionService.isPresent() && nodeAddress != null && !seedNodesRepository.isSeedNode(nodeAddress)) {
+        if (mailboxDecryptionPool != null && nodeAddress != null && !seedNodesRepository.isSeedNode(nodeAddress)) {
             Log.traceCall();
             MailboxStoragePayload mailboxStoragePayload = protectedMailboxStorageEntry.getMailboxStoragePayload();
             PrefixedSealedAndSignedMessage prefixedSealedAndSignedMessage = mailboxStoragePayload.prefixedSealedAndSignedMessage;
             if (verifyAddressPrefixHash(prefixedSealedAndSignedMessage)) {
-                try {
-                    DecryptedMsgWithPubKey decryptedMsgWithPubKey = optionalEncryptionService.get().decryptAndVerify(
-                            prefixedSealedAndSignedMessage.sealedAndSigned);
+                // The trial decryption is expensive, so we do it on the pool. We get called back on the UserThread
+                // only if the decryption succeeded.
+                mailboxDecryptionPool.decrypt(prefixedSealedAndSignedMessage.sealedAndSigned, decryptedMsgWithPubKey -> {
                     if (decryptedMsgWithPubKey.message instanceof MailboxMessage) {
                         MailboxMessage mailboxMessage = (MailboxMessage) decryptedMsgWithPubKey.message;
                         NodeAddress senderNodeAddress = mailboxMessage.getSenderNodeAddress();
@@ -551,11 +557,7 @@ public class P2PService implements SetupListener, MessageListener, ConnectionLis
                         log.warn("tryDecryptMailboxData: Expected MailboxMessage but got other type. " +
                                 "decryptedMsgWithPubKey.message=", decryptedMsgWithPubKey.message);
                     }
-                } catch (CryptoException e) {
-                    log.debug(e.toString());
-                    log.debug("Decryption of prefixedSealedAndSignedMessage.sealedAndSigned failed. " +
-                            "That is expected if the message is not intended for us.");
-                }
+                });
             } else {
                 log.debug("Wrong blurredAddressHash. The message is not intended for us.");
             }
@@ -0,0 +1,131 @@
+package io.bitsquare.p2p.messaging;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.bitsquare.common.UserThread;
+import io.bitsquare.common.crypto.CryptoException;
+import io.bitsquare.common.crypto.SealedAndSigned;
+import io.bitsquare.crypto.DecryptedMsgWithPubKey;
+import io.bitsquare.crypto.EncryptionService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Tries to decrypt mailbox messages on a small thread pool instead of the UserThread. At startup after a longer
+ * offline period there might be hundreds of mailbox entries and each trial decryption costs a RSA and a DSA operation.
+ * <p>
+ * Successfully decrypted messages are passed to the result handler on the UserThread in the order the decrypt
+ * calls have been made. Failed decryptions (messages not intended for us) are dropped.
+ */
+public class MailboxDecryptionPool {
+    private static final Logger log = LoggerFactory.getLogger(MailboxDecryptionPool.class);
+
+    private static final int MAX_THREADS = 4;
+
+    private final EncryptionService encryptionService;
+    private final ExecutorService executor;
+    // Guarded by itself
+    private final Queue<PendingDecryption> pendingDecryptions = new ArrayDeque<>();
+    private final AtomicLong numAttempts = new AtomicLong();
+    private final AtomicLong numHits = new AtomicLong();
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Constructor
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    public MailboxDecryptionPool(EncryptionService encryptionService) {
+        this.encryptionService = encryptionService;
+        int numThreads = Math.max(1, Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors() - 1));
+        ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(numThreads, numThreads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                new ThreadFactoryBuilder()
+                        .setNameFormat("MailboxDecryption-%d")
+                        .setDaemon(true)
+                        .setPriority(Thread.MIN_PRIORITY)
+                        .build());
+        threadPoolExecutor.allowCoreThreadTimeOut(true);
+        executor = threadPoolExecutor;
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // API
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    public void decrypt(SealedAndSigned sealedAndSigned, Consumer<DecryptedMsgWithPubKey> resultHandler) {
+        PendingDecryption pendingDecryption = new PendingDecryption(resultHandler);
+        synchronized (pendingDecryptions) {
+            pendingDecryptions.add(pendingDecryption);
+        }
+
+        executor.execute(() -> {
+            try {
+                pendingDecryption.result = encryptionService.decryptAndVerify(sealedAndSigned);
+                numHits.incrementAndGet();
+            } catch (CryptoException e) {
+                log.debug("Decryption of sealedAndSigned failed. " +
+                        "That is expected if the message is not intended for us. " + e.toString());
+            } catch (Throwable t) {
+                log.error("Decryption of sealedAndSigned failed with an unexpected error. " + t.toString());
+            } finally {
+                numAttempts.incrementAndGet();
+                pendingDecryption.completed = true;
+                UserThread.execute(this::deliverCompletedDecryptions);
+            }
+        });
+    }
+
+    public void shutDown() {
+        executor.shutdownNow();
+        synchronized (pendingDecryptions) {
+            pendingDecryptions.clear();
+        }
+    }
+
+    public long getNumAttempts() {
+        return numAttempts.get();
+    }
+
+    public long getNumHits() {
+        return numHits.get();
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    // We deliver only from the head of the queue, so a fast decryption does not overtake an earlier slow one
+    private void deliverCompletedDecryptions() {
+        synchronized (pendingDecryptions) {
+            while (!pendingDecryptions.isEmpty() && pendingDecryptions.peek().completed) {
+                PendingDecryption pendingDecryption = pendingDecryptions.poll();
+                if (pendingDecryption.result != null)
+                    pendingDecryption.resultHandler.accept(pendingDecryption.result);
+            }
+
+            if (pendingDecryptions.isEmpty())
+                log.debug("Mailbox decryption completed. Decryption attempts={}, hits={}", numAttempts.get(), numHits.get());
+        }
+    }
+
+    private static final class PendingDecryption {
+        private final Consumer<DecryptedMsgWithPubKey> resultHandler;
+        // result is written before the volatile completed flag, so it is visible once completed is set
+        private DecryptedMsgWithPubKey result;
+        private volatile boolean completed;
+
+        PendingDecryption(Consumer<DecryptedMsgWithPubKey> resultHandler) {
+            this.resultHandler = resultHandler;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package io.bitsquare.p2p.network;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Counts the bytes read from the socket and aborts the read as soon as the limit for the current message is exceeded.
+ * That way we don't need to deserialize an oversized message completely before we can reject it.
+ * Only accessed from the InputHandler thread.
+ */
+class ByteCountingInputStream extends FilterInputStream {
+
+    static class LimitExceededException extends IOException {
+        LimitExceededException(String message) {
+            super(message);
+        }
+    }
+
+    private long count;
+    private long maxBytes = Long.MAX_VALUE;
+
+    ByteCountingInputStream(InputStream in) {
+        super(in);
+    }
+
+    /**
+     * Resets the counter before reading the next message.
+     *
+     * @param maxBytes Max. number of bytes we accept until the next call of startMessage.
+     */
+    void startMessage(long maxBytes) {
+        this.count = 0;
+        this.maxBytes = maxBytes;
+    }
+
+    long getCount() {
+        return count;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int result = in.read();
+        if (result != -1)
+            add(1);
+        return result;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int result = in.read(b, off, len);
+        if (result > 0)
+            add(result);
+        return result;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long result = in.skip(n);
+        add(result);
+        return result;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    private void add(long bytes) throws LimitExceededException {
+        count += bytes;
+        if (count > maxBytes)
+            throw new LimitExceededException("Message size limit exceeded. count=" + count + ", maxBytes=" + maxBytes);
+    }
+}
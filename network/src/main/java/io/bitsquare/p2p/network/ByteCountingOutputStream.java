@@ -0,0 +1,38 @@
+package io.bitsquare.p2p.network;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Counts the bytes written to the socket so we get the size of a sent message without serializing it a second time.
+ * Not thread safe, the caller has to guard it with the same lock as the wrapping stream.
+ */
+class ByteCountingOutputStream extends FilterOutputStream {
+    private long count;
+
+    ByteCountingOutputStream(OutputStream out) {
+        super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        // FilterOutputStream would delegate byte by byte
+        out.write(b, off, len);
+        count += len;
+    }
+
+    long getCount() {
+        return count;
+    }
+
+    void resetCount() {
+        count = 0;
+    }
+}
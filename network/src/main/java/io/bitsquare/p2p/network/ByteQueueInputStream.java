@@ -0,0 +1,132 @@
+package io.bitsquare.p2p.network;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Blocking InputStream fed with the chunks a NioSelectorLoop has read from a channel.
+ * Used for the stream based part of a connection before the peer has switched to the framed wire format.
+ * The stream does not limit the buffered bytes itself. The producer stops offering once isFull returns true and
+ * gets called back by the spaceAvailableHandler when the consumer has caught up.
+ */
+class ByteQueueInputStream extends InputStream {
+    private final int maxBufferedBytes;
+    private final Runnable spaceAvailableHandler;
+    private final Deque<byte[]> chunks = new ArrayDeque<>();
+    // read position in the first chunk
+    private int position;
+    private int available;
+    private boolean closed;
+    // Thrown to the consumer after the buffered bytes instead of signalling the end of the stream
+    private IOException failure;
+
+    /**
+     * @param maxBufferedBytes      Number of buffered bytes from which on isFull returns true
+     * @param spaceAvailableHandler Called at the consumer's thread when a read makes a full stream not full anymore
+     */
+    ByteQueueInputStream(int maxBufferedBytes, Runnable spaceAvailableHandler) {
+        this.maxBufferedBytes = maxBufferedBytes;
+        this.spaceAvailableHandler = spaceAvailableHandler;
+    }
+
+    synchronized void offer(byte[] chunk) {
+        if (!closed && chunk.length > 0) {
+            chunks.add(chunk);
+            available += chunk.length;
+            notifyAll();
+        }
+    }
+
+    synchronized boolean isFull() {
+        return available >= maxBufferedBytes;
+    }
+
+    /**
+     * Removes all bytes not consumed yet.
+     */
+    synchronized byte[] drain() {
+        byte[] result = new byte[available];
+        int offset = 0;
+        while (!chunks.isEmpty()) {
+            byte[] chunk = chunks.poll();
+            int length = chunk.length - position;
+            System.arraycopy(chunk, position, result, offset, length);
+            offset += length;
+            position = 0;
+        }
+        available = 0;
+        return result;
+    }
+
+    @Override
+    public synchronized int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public synchronized int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0)
+            return 0;
+
+        while (available == 0 && !closed) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for data");
+            }
+        }
+
+        if (available == 0) {
+            if (failure != null)
+                throw failure;
+            return -1;
+        }
+
+        boolean wasFull = isFull();
+        int read = 0;
+        while (read < len && !chunks.isEmpty()) {
+            byte[] chunk = chunks.peek();
+            int length = Math.min(len - read, chunk.length - position);
+            System.arraycopy(chunk, position, b, off + read, length);
+            read += length;
+            position += length;
+            if (position == chunk.length) {
+                chunks.poll();
+                position = 0;
+            }
+        }
+        available -= read;
+        if (wasFull && !isFull())
+            spaceAvailableHandler.run();
+        return read;
+    }
+
+    @Override
+    public synchronized int available() {
+        return available;
+    }
+
+    /**
+     * Signals the end of the stream. Bytes offered before can still be read.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+
+    /**
+     * Like close, but the consumer gets the given exception after the bytes offered before instead of the end of
+     * the stream.
+     */
+    synchronized void fail(IOException failure) {
+        if (!closed)
+            this.failure = failure;
+        close();
+    }
+}
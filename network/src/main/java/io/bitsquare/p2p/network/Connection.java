@@ -2,12 +2,12 @@ package io.bitsquare.p2p.network;
 
 import com.google.common.util.concurrent.CycleDetectingLockFactory;
 import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.common.util.concurrent.Uninterruptibles;
+import io.bitsquare.app.Capabilities;
 import io.bitsquare.app.Log;
 import io.bitsquare.app.Version;
-import io.bitsquare.common.ByteArrayUtils;
 import io.bitsquare.common.UserThread;
-import io.bitsquare.common.util.Tuple2;
 import io.bitsquare.common.util.Utilities;
 import io.bitsquare.io.LookAheadObjectInputStream;
 import io.bitsquare.p2p.Message;
@@ -15,6 +15,7 @@ import io.bitsquare.p2p.NodeAddress;
 import io.bitsquare.p2p.messaging.PrefixedSealedAndSignedMessage;
 import io.bitsquare.p2p.messaging.SupportedCapabilitiesMessage;
 import io.bitsquare.p2p.network.messages.CloseConnectionMessage;
+import io.bitsquare.p2p.network.messages.FramedWireFormatMessage;
 import io.bitsquare.p2p.network.messages.SendersNodeAddressMessage;
 import io.bitsquare.p2p.peers.BanList;
 import io.bitsquare.p2p.peers.getdata.messages.GetDataRequest;
@@ -37,13 +38,13 @@ import java.io.*;
 import java.net.Socket;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
-import java.util.ArrayList;
+import java.util.ArrayDeque;
 import java.util.List;
 import java.util.Optional;
+import java.util.Queue;
 import java.util.UUID;
 import java.util.concurrent.*;
 import java.util.concurrent.locks.ReentrantLock;
-import java.util.stream.Collectors;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -77,12 +78,30 @@ public class Connection implements MessageListener {
     //TODO decrease limits again after testing
     static final int MSG_THROTTLE_PER_SEC = 200;              // With MAX_MSG_SIZE of 200kb results in bandwidth of 40MB/sec or 5 mbit/sec
     static final int MSG_THROTTLE_PER_10_SEC = 1000;          // With MAX_MSG_SIZE of 200kb results in bandwidth of 20MB/sec or 2.5 mbit/sec
-    private static final int SOCKET_TIMEOUT = (int) TimeUnit.SECONDS.toMillis(60);
+    public static final int SEND_MSG_THROTTLE_PER_SEC_DEFAULT = 50;
+    public static final int SEND_BYTES_THROTTLE_PER_SEC_DEFAULT = 1024 * 1024;   // 1 MB/sec
+    static final int SOCKET_TIMEOUT = (int) TimeUnit.SECONDS.toMillis(60);
 
     public static int getMaxMsgSize() {
         return MAX_MSG_SIZE;
     }
 
+    private static volatile int sendMsgThrottlePerSec = SEND_MSG_THROTTLE_PER_SEC_DEFAULT;
+    private static volatile int sendBytesThrottlePerSec = SEND_BYTES_THROTTLE_PER_SEC_DEFAULT;
+
+    // Applies to connections created after that call
+    public static void setSendThrottle(int msgsPerSec, int bytesPerSec) {
+        checkArgument(msgsPerSec > 0 && bytesPerSec > 0, "Send throttle values must be positive");
+        sendMsgThrottlePerSec = msgsPerSec;
+        sendBytesThrottlePerSec = bytesPerSec;
+    }
+
+    // Throttled messages are sent after a delay instead of blocking the sending thread
+    private static final ScheduledExecutorService throttledSendScheduler = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("Connection-ThrottledSendScheduler").setDaemon(true).build());
+    private static final ExecutorService throttledSendExecutor = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setNameFormat("Connection-ThrottledSend-%d").setDaemon(true).build());
+
     private static final CycleDetectingLockFactory cycleDetectingLockFactory = CycleDetectingLockFactory.newInstance(CycleDetectingLockFactory.Policies.THROW);
 
 
@@ -100,19 +119,42 @@ public class Connection implements MessageListener {
     // holder of state shared between InputHandler and Connection
     private final SharedModel sharedModel;
     private final Statistic statistic;
+    // Only set for connections created by the NioServer
+    @Nullable
+    private final NioChannel nioChannel;
 
     // set in init
     private InputHandler inputHandler;
     private ObjectOutputStream objectOutputStream;
+    private ByteCountingOutputStream countingOutputStream;
+    // Set once we switched to the framed wire format. Guarded by objectOutputStreamLock.
+    @Nullable
+    private DataOutputStream frameOutputStream;
+    // Guarded by objectOutputStreamLock
+    private final FrameCodec.Encoder frameEncoder = new FrameCodec.Encoder();
 
     // mutable data, set from other threads but not changed internally.
     private Optional<NodeAddress> peersNodeAddressOptional = Optional.empty();
     private volatile boolean stopped;
     private PeerType peerType;
     private final ObjectProperty<NodeAddress> peersNodeAddressProperty = new SimpleObjectProperty<>();
-    private final List<Tuple2<Long, Serializable>> messageTimeStamps = new ArrayList<>();
+    // Ring buffer of the time stamps of the last MSG_THROTTLE_PER_10_SEC received messages. Only accessed by the
+    // InputHandler.
+    private final long[] messageTimeStamps = new long[MSG_THROTTLE_PER_10_SEC];
+    private int messageTimeStampsIndex;
+    private int numMessageTimeStamps;
     private final CopyOnWriteArraySet<MessageListener> messageListeners = new CopyOnWriteArraySet<>();
-    private volatile long lastSendTimeStamp = 0;
+
+    // Outbound throttling
+    private final TokenBucket sendMsgBucket = new TokenBucket(sendMsgThrottlePerSec, sendMsgThrottlePerSec);
+    // The capacity allows a GetDataResponse of max. size without getting into debt
+    private final TokenBucket sendBytesBucket = new TokenBucket(Math.max(sendBytesThrottlePerSec, MAX_MSG_SIZE_GET_DATA),
+            sendBytesThrottlePerSec);
+    // guarded by itself
+    private final Queue<EncodedMessage> throttledMessages = new ArrayDeque<>();
+    // Set as long we have throttled messages which are not sent yet, so later messages keep their order.
+    // Guarded by throttledMessages.
+    private boolean sendThrottled;
 
 
     ///////////////////////////////////////////////////////////////////////////////////////////
@@ -121,7 +163,14 @@ public class Connection implements MessageListener {
 
     Connection(Socket socket, MessageListener messageListener, ConnectionListener connectionListener,
                @Nullable NodeAddress peersNodeAddress) {
+        this(socket, messageListener, connectionListener, peersNodeAddress, null);
+    }
+
+    // Used by the NioServer. The socket is the adapter of the non-blocking channel, so we must not use its streams.
+    Connection(Socket socket, MessageListener messageListener, ConnectionListener connectionListener,
+               @Nullable NodeAddress peersNodeAddress, @Nullable NioChannel nioChannel) {
         this.socket = socket;
+        this.nioChannel = nioChannel;
         this.connectionListener = connectionListener;
         uid = UUID.randomUUID().toString();
         statistic = new Statistic();
@@ -140,17 +189,36 @@ public class Connection implements MessageListener {
 
     private void init(@Nullable NodeAddress peersNodeAddress) {
         try {
-            socket.setSoTimeout(SOCKET_TIMEOUT);
+            OutputStream outputStream;
+            InputStream inputStream;
+            if (nioChannel != null) {
+                // Non-blocking channels have no socket timeout. The selector loop closes them after SOCKET_TIMEOUT
+                // without received data.
+                outputStream = nioChannel.getOutputStream();
+                inputStream = nioChannel.getInputStream();
+            } else {
+                socket.setSoTimeout(SOCKET_TIMEOUT);
+                outputStream = socket.getOutputStream();
+                inputStream = socket.getInputStream();
+            }
+
             // Need to access first the ObjectOutputStream otherwise the ObjectInputStream would block
             // See: https://stackoverflow.com/questions/5658089/java-creating-a-new-objectinputstream-blocks/5658109#5658109
             // When you construct an ObjectInputStream, in the constructor the class attempts to read a header that 
             // the associated ObjectOutputStream on the other end of the connection has written.
-            // It will not return until that header has been read. 
-            objectOutputStream = new ObjectOutputStream(socket.getOutputStream());
-            ObjectInputStream objectInputStream = new LookAheadObjectInputStream(socket.getInputStream(), true);
-            // We create a thread for handling inputStream data
-            inputHandler = new InputHandler(sharedModel, objectInputStream, portInfo, this);
-            singleThreadExecutor.submit(inputHandler);
+            // It will not return until that header has been read. The InputHandler creates the ObjectInputStream
+            // in its own thread.
+            countingOutputStream = new ByteCountingOutputStream(outputStream);
+            objectOutputStream = new ObjectOutputStream(countingOutputStream);
+            ByteCountingInputStream countingInputStream = new ByteCountingInputStream(inputStream);
+            inputHandler = new InputHandler(sharedModel, countingInputStream, portInfo, this, nioChannel);
+            if (nioChannel != null) {
+                // The NioChannel runs the stream based InputHandler on a shared pool until the peer switched to frames
+                nioChannel.start(inputHandler);
+            } else {
+                // We create a thread for handling inputStream data
+                singleThreadExecutor.submit(inputHandler);
+            }
 
             // Use Peer as default, in case of other types they will set it as soon as possible.
             peerType = PeerType.PEER;
@@ -174,75 +242,157 @@ public class Connection implements MessageListener {
 
     // Called form various threads
     public void sendMessage(Message message) {
+        sendMessage(new EncodedMessage(message));
+    }
+
+    // Used if the same message is sent to several peers, so it gets serialized only once for all framed connections
+    public void sendMessage(EncodedMessage encodedMessage) {
         if (!stopped) {
+            Message message = encodedMessage.getMessage();
             if (!isCapabilityRequired(message) || isCapabilitySupported(message)) {
-                try {
-                    Log.traceCall();
+                Log.traceCall();
+                // The CloseConnectionMessage is sent right before we stop, so we don't throttle it
+                if (message instanceof CloseConnectionMessage || !throttle(encodedMessage))
+                    writeMessage(encodedMessage);
+            }
+        } else {
+            log.debug("called sendMessage but was already stopped");
+        }
+    }
 
-                    // Throttle outbound messages
-                    long now = System.currentTimeMillis();
-                    long elapsed = now - lastSendTimeStamp;
-                    if (elapsed < 20) {
-                        log.debug("We got 2 sendMessage requests in less than 20 ms. We set the thread to sleep " +
-                                        "for 50 ms to avoid flooding our peer. lastSendTimeStamp={}, now={}, elapsed={}",
-                                lastSendTimeStamp, now, elapsed);
-                        Thread.sleep(50);
-                    }
+    // Returns true if the message got queued because we exceeded the send throttle. It gets sent by
+    // sendThrottledMessages once the token buckets are refilled.
+    private boolean throttle(EncodedMessage encodedMessage) {
+        synchronized (throttledMessages) {
+            if (!sendThrottled) {
+                long delay = getSendDelay();
+                if (delay == 0) {
+                    sendMsgBucket.consume(1, System.currentTimeMillis());
+                    return false;
+                }
 
-                    lastSendTimeStamp = now;
-                    String peersNodeAddress = peersNodeAddressOptional.isPresent() ? peersNodeAddressOptional.get().toString() : "null";
-                    int size = ByteArrayUtils.objectToByteArray(message).length;
-
-                    if (message instanceof Ping || message instanceof RefreshTTLMessage) {
-                        // pings and offer refresh msg we dont want to log in production
-                        log.trace("\n\n>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>\n" +
-                                        "Sending direct message to peer" +
-                                        "Write object to outputStream to peer: {} (uid={})\ntruncated message={} / size={}" +
-                                        "\n>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>\n",
-                                peersNodeAddress, uid, Utilities.toTruncatedString(message), size);
-                    } else if (message instanceof PrefixedSealedAndSignedMessage && peersNodeAddressOptional.isPresent()) {
-                        setPeerType(Connection.PeerType.DIRECT_MSG_PEER);
-
-                        log.debug("\n\n>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>\n" +
-                                        "Sending direct message to peer" +
-                                        "Write object to outputStream to peer: {} (uid={})\ntruncated message={} / size={}" +
-                                        "\n>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>\n",
-                                peersNodeAddress, uid, Utilities.toTruncatedString(message), size);
-                    } else if (message instanceof GetDataResponse && ((GetDataResponse) message).isGetUpdatedDataResponse) {
-                        setPeerType(Connection.PeerType.PEER);
-                    } else {
-                        log.debug("\n\n>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>\n" +
-                                        "Write object to outputStream to peer: {} (uid={})\ntruncated message={} / size={}" +
-                                        "\n>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>\n",
-                                peersNodeAddress, uid, Utilities.toTruncatedString(message), size);
-                    }
+                log.debug("We exceeded the send throttle. We delay sending for {} ms to avoid flooding our peer. " +
+                        "connection={}", delay, this);
+                sendThrottled = true;
+                scheduleThrottledMessages(delay);
+            }
+            throttledMessages.add(encodedMessage);
+            return true;
+        }
+    }
 
-                    if (!stopped) {
-                        objectOutputStreamLock.lock();
+    private long getSendDelay() {
+        long now = System.currentTimeMillis();
+        return Math.max(sendMsgBucket.getDelayMillis(1, now), sendBytesBucket.getDelayMillis(0, now));
+    }
+
+    private void scheduleThrottledMessages(long delay) {
+        throttledSendScheduler.schedule(() -> throttledSendExecutor.execute(this::sendThrottledMessages),
+                delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void sendThrottledMessages() {
+        while (!stopped) {
+            EncodedMessage encodedMessage;
+            synchronized (throttledMessages) {
+                long delay = getSendDelay();
+                if (delay > 0) {
+                    scheduleThrottledMessages(delay);
+                    return;
+                }
+
+                encodedMessage = throttledMessages.poll();
+                if (encodedMessage == null) {
+                    sendThrottled = false;
+                    return;
+                }
+                sendMsgBucket.consume(1, System.currentTimeMillis());
+            }
+            writeMessage(encodedMessage);
+        }
+    }
+
+    private void writeMessage(EncodedMessage encodedMessage) {
+        if (!stopped) {
+            Message message = encodedMessage.getMessage();
+            try {
+                if (message instanceof PrefixedSealedAndSignedMessage && peersNodeAddressOptional.isPresent())
+                    setPeerType(Connection.PeerType.DIRECT_MSG_PEER);
+                else if (message instanceof GetDataResponse && ((GetDataResponse) message).isGetUpdatedDataResponse)
+                    setPeerType(Connection.PeerType.PEER);
+
+                if (!stopped) {
+                    objectOutputStreamLock.lock();
+                    // We measure the size by counting the bytes we write to the socket, so we don't need to 
+                    // serialize the message a second time.
+                    countingOutputStream.resetCount();
+                    // Once the peer has told us that it supports frames we stay with frames for that connection
+                    if (sharedModel.isFramedWireFormatSupported()) {
+                        byte[] frame = frameEncoder.encode(encodedMessage);
+                        if (frameOutputStream == null) {
+                            // The FramedWireFormatMessage is the last object we write with the objectOutputStream
+                            objectOutputStream.writeObject(new FramedWireFormatMessage());
+                            objectOutputStream.flush();
+                            frameOutputStream = new DataOutputStream(new BufferedOutputStream(countingOutputStream));
+                            log.debug("We switched to the framed wire format. connection={}", this);
+                        }
+                        frameOutputStream.write(frame);
+                        frameOutputStream.flush();
+                    } else {
                         objectOutputStream.writeObject(message);
                         objectOutputStream.flush();
+                    }
+                    int size = (int) countingOutputStream.getCount();
+                    objectOutputStreamLock.unlock();
 
-                        statistic.addSentBytes(size);
-                        statistic.addSentMessage(message);
+                    logSentMessage(message, size);
 
-                        // We don't want to get the activity ts updated by ping/pong msg
-                        if (!(message instanceof KeepAliveMessage))
-                            statistic.updateLastActivityTimestamp();
-                    }
-                } catch (IOException e) {
-                    // an exception lead to a shutdown
-                    sharedModel.handleConnectionException(e);
-                } catch (Throwable t) {
-                    log.error(t.getMessage());
-                    t.printStackTrace();
-                    sharedModel.handleConnectionException(t);
-                } finally {
-                    if (objectOutputStreamLock.isLocked())
-                        objectOutputStreamLock.unlock();
+                    long now = System.currentTimeMillis();
+                    sendBytesBucket.consume(size, now);
+                    statistic.updateSendThrottleFill(sendMsgBucket.getFillRatio(now), sendBytesBucket.getFillRatio(now));
+                    statistic.addSentBytes(size);
+                    statistic.addSentMessage(message);
+
+                    // We don't want to get the activity ts updated by ping/pong msg
+                    if (!(message instanceof KeepAliveMessage))
+                        statistic.updateLastActivityTimestamp();
                 }
+            } catch (IOException e) {
+                // an exception lead to a shutdown
+                sharedModel.handleConnectionException(e);
+            } catch (Throwable t) {
+                log.error(t.getMessage());
+                t.printStackTrace();
+                sharedModel.handleConnectionException(t);
+            } finally {
+                if (objectOutputStreamLock.isHeldByCurrentThread())
+                    objectOutputStreamLock.unlock();
             }
         } else {
-            log.debug("called sendMessage but was already stopped");
+            log.debug("called writeMessage but was already stopped");
+        }
+    }
+
+    private void logSentMessage(Message message, int size) {
+        String peersNodeAddress = peersNodeAddressOptional.isPresent() ? peersNodeAddressOptional.get().toString() : "null";
+        if (message instanceof Ping || message instanceof RefreshTTLMessage) {
+            // pings and offer refresh msg we dont want to log in production
+            log.trace("\n\n>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>\n" +
+                            "Sending direct message to peer" +
+                            "Write object to outputStream to peer: {} (uid={})\ntruncated message={} / size={}" +
+                            "\n>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>\n",
+                    peersNodeAddress, uid, Utilities.toTruncatedString(message), size);
+        } else if (message instanceof PrefixedSealedAndSignedMessage && peersNodeAddressOptional.isPresent()) {
+            log.debug("\n\n>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>\n" +
+                            "Sending direct message to peer" +
+                            "Write object to outputStream to peer: {} (uid={})\ntruncated message={} / size={}" +
+                            "\n>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>\n",
+                    peersNodeAddress, uid, Utilities.toTruncatedString(message), size);
+        } else if (!(message instanceof GetDataResponse && ((GetDataResponse) message).isGetUpdatedDataResponse)) {
+            log.debug("\n\n>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>\n" +
+                            "Write object to outputStream to peer: {} (uid={})\ntruncated message={} / size={}" +
+                            "\n>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>\n",
+                    peersNodeAddress, uid, Utilities.toTruncatedString(message), size);
         }
     }
 
@@ -309,44 +459,41 @@ public class Connection implements MessageListener {
     private boolean violatesThrottleLimit(Serializable serializable) {
         long now = System.currentTimeMillis();
         boolean violated = false;
-        //TODO remove serializable storage after network is tested stable
-        if (messageTimeStamps.size() >= MSG_THROTTLE_PER_SEC) {
-            // check if we got more than 70 (MSG_THROTTLE_PER_SEC) msg per sec.
-            long compareValue = messageTimeStamps.get(messageTimeStamps.size() - MSG_THROTTLE_PER_SEC).first;
+        if (numMessageTimeStamps >= MSG_THROTTLE_PER_SEC) {
+            // check if we got more than MSG_THROTTLE_PER_SEC msg per sec.
+            long compareValue = getMessageTimeStamp(MSG_THROTTLE_PER_SEC);
             // if duration < 1 sec we received too much messages
             violated = now - compareValue < TimeUnit.SECONDS.toMillis(1);
-            if (violated) {
-                log.error("violatesThrottleLimit MSG_THROTTLE_PER_SEC ");
-                log.error("elapsed " + (now - compareValue));
-                log.error("messageTimeStamps: \n\t" + messageTimeStamps.stream()
-                        .map(e -> "\n\tts=" + e.first.toString() + " message=" + e.second.getClass().getName())
-                        .collect(Collectors.toList()).toString());
-            }
+            if (violated)
+                log.error("violatesThrottleLimit MSG_THROTTLE_PER_SEC. elapsed={}, message={}",
+                        now - compareValue, serializable.getClass().getName());
         }
 
-        if (messageTimeStamps.size() >= MSG_THROTTLE_PER_10_SEC) {
-            if (!violated) {
-                // check if we got more than 50 msg per 10 sec.
-                long compareValue = messageTimeStamps.get(messageTimeStamps.size() - MSG_THROTTLE_PER_10_SEC).first;
-                // if duration < 10 sec we received too much messages
-                violated = now - compareValue < TimeUnit.SECONDS.toMillis(10);
-
-                if (violated) {
-                    log.error("violatesThrottleLimit MSG_THROTTLE_PER_10_SEC ");
-                    log.error("elapsed " + (now - compareValue));
-                    log.error("messageTimeStamps: \n\t" + messageTimeStamps.stream()
-                            .map(e -> "\n\tts=" + e.first.toString() + " message=" + e.second.getClass().getName())
-                            .collect(Collectors.toList()).toString());
-                }
-            }
-            // we limit to max 50 (MSG_THROTTLE_PER_10SEC) entries
-            messageTimeStamps.remove(0);
+        if (!violated && numMessageTimeStamps >= MSG_THROTTLE_PER_10_SEC) {
+            // check if we got more than MSG_THROTTLE_PER_10_SEC msg per 10 sec.
+            long compareValue = getMessageTimeStamp(MSG_THROTTLE_PER_10_SEC);
+            // if duration < 10 sec we received too much messages
+            violated = now - compareValue < TimeUnit.SECONDS.toMillis(10);
+            if (violated)
+                log.error("violatesThrottleLimit MSG_THROTTLE_PER_10_SEC. elapsed={}, message={}",
+                        now - compareValue, serializable.getClass().getName());
         }
 
-        messageTimeStamps.add(new Tuple2<>(now, serializable));
+        // We overwrite the oldest entry once the ring buffer is full
+        messageTimeStamps[messageTimeStampsIndex] = now;
+        messageTimeStampsIndex = (messageTimeStampsIndex + 1) % messageTimeStamps.length;
+        if (numMessageTimeStamps < messageTimeStamps.length)
+            numMessageTimeStamps++;
+
         return violated;
     }
 
+    // Returns the time stamp of the n-th latest received message (1 is the latest)
+    private long getMessageTimeStamp(int n) {
+        int index = (messageTimeStampsIndex - n + messageTimeStamps.length) % messageTimeStamps.length;
+        return messageTimeStamps[index];
+    }
+
     ///////////////////////////////////////////////////////////////////////////////////////////
     // MessageListener implementation
     ///////////////////////////////////////////////////////////////////////////////////////////
@@ -479,6 +626,9 @@ public class Connection implements MessageListener {
 
     private void setStopFlags() {
         stopped = true;
+        synchronized (throttledMessages) {
+            throttledMessages.clear();
+        }
         sharedModel.stop();
         if (inputHandler != null)
             inputHandler.stop();
@@ -612,6 +762,10 @@ public class Connection implements MessageListener {
             this.supportedCapabilities = supportedCapabilities;
         }
 
+        public boolean isFramedWireFormatSupported() {
+            return Capabilities.isSupportedByBoth(Capabilities.Capability.FRAMED_WIRE_FORMAT, supportedCapabilities);
+        }
+
         public void handleConnectionException(Throwable e) {
             Log.traceCall(e.toString());
             if (e instanceof SocketException) {
@@ -677,29 +831,42 @@ public class Connection implements MessageListener {
     // Runs in same thread as Connection, receives a message, performs several checks on it
     // (including throttling limits, validity and statistics)
     // and delivers it to the message listener given in the constructor.
-    private static class InputHandler implements Runnable {
+    // For connections created by the NioServer the stream based loop only runs until the peer has switched to the
+    // framed wire format. After that the NioChannel pushes the frames to onFrameHeader and onFrame.
+    static class InputHandler implements Runnable {
         private static final Logger log = LoggerFactory.getLogger(InputHandler.class);
 
         private final SharedModel sharedModel;
-        private final ObjectInputStream objectInputStream;
+        private final ByteCountingInputStream countingInputStream;
         private final String portInfo;
         private final MessageListener messageListener;
+        @Nullable
+        private final NioChannel nioChannel;
 
         private volatile boolean stopped;
-        private long lastReadTimeStamp;
         private boolean threadNameSet;
+        // Created in run() as the constructor blocks until the peer has sent the stream header
+        private ObjectInputStream objectInputStream;
+        // Set after we received the FramedWireFormatMessage
+        @Nullable
+        private DataInputStream frameInputStream;
+        // Used either by the stream based loop or by the NioChannel, never concurrently
+        private final FrameCodec.Decoder frameDecoder = new FrameCodec.Decoder();
+        private volatile boolean switchedToNioFrames;
 
-        public InputHandler(SharedModel sharedModel, ObjectInputStream objectInputStream, String portInfo, MessageListener messageListener) {
+        public InputHandler(SharedModel sharedModel, ByteCountingInputStream countingInputStream, String portInfo,
+                            MessageListener messageListener, @Nullable NioChannel nioChannel) {
             this.sharedModel = sharedModel;
-            this.objectInputStream = objectInputStream;
+            this.countingInputStream = countingInputStream;
             this.portInfo = portInfo;
             this.messageListener = messageListener;
+            this.nioChannel = nioChannel;
         }
 
         public void stop() {
             if (!stopped) {
                 try {
-                    objectInputStream.close();
+                    countingInputStream.close();
                 } catch (IOException e) {
                     log.error("IOException at InputHandler.stop\n" + e.getMessage());
                     e.printStackTrace();
@@ -713,210 +880,316 @@ public class Connection implements MessageListener {
         public void run() {
             try {
                 Thread.currentThread().setName("InputHandler");
-                while (!stopped && !Thread.currentThread().isInterrupted()) {
+                try {
+                    objectInputStream = new LookAheadObjectInputStream(countingInputStream, true);
+                } catch (IOException e) {
+                    onException(e);
+                    return;
+                }
+
+                while (!stopped && !switchedToNioFrames && !Thread.currentThread().isInterrupted()) {
                     if (!threadNameSet && sharedModel.connection.getPeersNodeAddressOptional().isPresent()) {
                         Thread.currentThread().setName("InputHandler-" + sharedModel.connection.getPeersNodeAddressOptional().get().getFullAddress());
                         threadNameSet = true;
                     }
                     try {
-                        if (sharedModel.getSocket().isClosed() || objectInputStream.available() < 0) {
-                            log.warn("Shutdown because objectInputStream.available() < 0. objectInputStream.available()=" + objectInputStream.available());
+                        // In frame mode we must not call objectInputStream.available(), as it would read the header
+                        // of the next frame from the shared stream.
+                        if (sharedModel.getSocket().isClosed()
+                                || (frameInputStream == null && objectInputStream.available() < 0)) {
+                            log.warn("Shutdown because the socket is closed or objectInputStream.available() < 0.");
                             sharedModel.shutDown(CloseConnectionReason.TERMINATED);
                             return;
                         }
 
-                        Connection connection = sharedModel.connection;
-                        log.trace("InputHandler waiting for incoming messages.\n\tConnection=" + connection);
-
-                        Object rawInputObject = objectInputStream.readObject();
-
-                        // Throttle inbound messages
-                        long now = System.currentTimeMillis();
-                        long elapsed = now - lastReadTimeStamp;
-                        if (elapsed < 10) {
-                            log.debug("We got 2 messages received in less than 10 ms. We set the thread to sleep " +
-                                            "for 20 ms to avoid getting flooded by our peer. lastReadTimeStamp={}, now={}, elapsed={}",
-                                    lastReadTimeStamp, now, elapsed);
-                            Thread.sleep(20);
-                        }
+                        log.trace("InputHandler waiting for incoming messages.\n\tConnection=" + sharedModel.connection);
+
+                        Object rawInputObject;
+                        int size;
+                        if (frameInputStream != null) {
+                            int bodyLength = frameInputStream.readInt();
+                            byte type = frameInputStream.readByte();
+                            if (!onFrameHeader(type, bodyLength)) {
+                                long remaining = bodyLength;
+                                while (remaining > 0) {
+                                    long skipped = frameInputStream.skip(remaining);
+                                    if (skipped <= 0)
+                                        throw new EOFException("Stream ended while skipping an oversized frame");
+                                    remaining -= skipped;
+                                }
+                                continue;
+                            }
 
-                        lastReadTimeStamp = now;
-                        int size = ByteArrayUtils.objectToByteArray(rawInputObject).length;
-
-                        if (rawInputObject instanceof Pong || rawInputObject instanceof RefreshTTLMessage) {
-                            // We only log Pong and RefreshTTLMessage when in dev environment (trace)
-                            log.trace("\n\n<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<\n" +
-                                            "New data arrived at inputHandler of connection {}.\n" +
-                                            "Received object (truncated)={} / size={}"
-                                            + "\n<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<\n",
-                                    connection,
-                                    Utilities.toTruncatedString(rawInputObject),
-                                    size);
-                        } else if (rawInputObject instanceof Message) {
-                            // We want to log all incoming messages (except Pong and RefreshTTLMessage) 
-                            // so we log before the data type checks
-                            //log.info("size={}; object={}", size, Utilities.toTruncatedString(rawInputObject.toString(), 100));
-                            log.debug("\n\n<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<\n" +
-                                            "New data arrived at inputHandler of connection {}.\n" +
-                                            "Received object (truncated)={} / size={}"
-                                            + "\n<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<\n",
-                                    connection,
-                                    Utilities.toTruncatedString(rawInputObject),
-                                    size);
+                            byte[] body = new byte[bodyLength];
+                            frameInputStream.readFully(body);
+                            rawInputObject = frameDecoder.decode(type, body);
+                            size = FrameCodec.HEADER_SIZE + bodyLength;
                         } else {
-                            log.error("Invalid data arrived at inputHandler of connection {} Size={}", connection, size);
-                            try {
-                                // Don't call toString on rawInputObject
-                                log.error("rawInputObject.className=" + rawInputObject.getClass().getName());
-                            } catch (Throwable ignore) {
-                            }
+                            // We don't know the type before we have read it, so we apply the highest limit while 
+                            // reading and check the type specific limit afterwards.
+                            countingInputStream.startMessage(MAX_MSG_SIZE_GET_DATA);
+                            rawInputObject = objectInputStream.readObject();
+                            size = (int) countingInputStream.getCount();
                         }
 
-                        // We want to track the size of each object even if it is invalid data
-                        connection.statistic.addReceivedBytes(size);
+                        if (!handleInput(rawInputObject, size))
+                            return;
+                    } catch (Throwable t) {
+                        onException(t);
+                        return;
+                    }
+                }
+            } catch (Throwable t) {
+                if (!(t instanceof OptionalDataException))
+                    t.printStackTrace();
+                stop();
+                sharedModel.handleConnectionException(new Exception(t));
+            }
+        }
 
-                        // We want to track the messages also before the checks, so do it early...
-                        Message message = null;
-                        if (rawInputObject instanceof Message) {
-                            message = (Message) rawInputObject;
-                            connection.statistic.addReceivedMessage((Message) rawInputObject);
-                        }
+        /**
+         * Checks the frame header before we allocate or decode anything.
+         *
+         * @return True if the body should be decoded, false if it has to be skipped.
+         * @throws StreamCorruptedException If we cannot continue reading from that connection.
+         */
+        boolean onFrameHeader(byte type, int bodyLength) throws StreamCorruptedException {
+            int maxBodySize = FrameCodec.getMaxBodySize(type);
+            if (maxBodySize < 0 || bodyLength < 0) {
+                // We cannot resync the stream if the header is corrupted
+                throw new StreamCorruptedException("Invalid frame header. type=" + type + ", bodyLength=" + bodyLength);
+            } else if (bodyLength > maxBodySize) {
+                log.warn("Frame exceeds max size. type={}, bodyLength={}, maxBodySize={}", type, bodyLength, maxBodySize);
+                sharedModel.connection.statistic.addReceivedBytes(FrameCodec.HEADER_SIZE + bodyLength);
+                if (FrameCodec.isSerialized(type)) {
+                    // The body is part of the object stream of the connection. Skipping it would lose class
+                    // descriptors and back references, so we close the connection even if the rule violation is
+                    // tolerated.
+                    sharedModel.reportInvalidRequest(RuleViolation.MAX_MSG_SIZE_EXCEEDED);
+                    throw new StreamCorruptedException("Serialized frame exceeds max size. type=" + type +
+                            ", bodyLength=" + bodyLength);
+                }
+                reportInvalidRequest(RuleViolation.MAX_MSG_SIZE_EXCEEDED);
+                return false;
+            } else {
+                return true;
+            }
+        }
 
+        /**
+         * @return False if we must not continue reading from that connection.
+         */
+        boolean onFrame(byte type, byte[] body) {
+            if (stopped)
+                return false;
 
-                        // First we check the size
-                        boolean exceeds;
-                        if (rawInputObject instanceof GetDataResponse || rawInputObject instanceof GetDataRequest) {
-                            exceeds = size > MAX_MSG_SIZE_GET_DATA;
-                            log.info("size={}; object={}", size, Utilities.toTruncatedString(rawInputObject.toString(), 100));
-                        } else {
-                            exceeds = size > MAX_MSG_SIZE;
-                        }
-                        if (exceeds)
-                            log.warn("size > MAX_MSG_SIZE. size={}; object={}", size, message);
+            try {
+                return handleInput(frameDecoder.decode(type, body), FrameCodec.HEADER_SIZE + body.length);
+            } catch (Throwable t) {
+                onException(t);
+                return false;
+            }
+        }
 
-                        if (exceeds && reportInvalidRequest(RuleViolation.MAX_MSG_SIZE_EXCEEDED))
-                            return;
+        void onException(Throwable t) {
+            if (t instanceof InvalidClassException) {
+                log.error(t.getMessage());
+                t.printStackTrace();
+                reportInvalidRequest(RuleViolation.INVALID_CLASS);
+            } else if (t instanceof ClassNotFoundException || t instanceof NoClassDefFoundError) {
+                log.warn(t.getMessage());
+                t.printStackTrace();
+                reportInvalidRequest(RuleViolation.INVALID_DATA_TYPE);
+            } else if (t instanceof ByteCountingInputStream.LimitExceededException) {
+                log.warn("size > MAX_MSG_SIZE_GET_DATA. We stopped reading. " + t.getMessage());
+                sharedModel.connection.statistic.addReceivedBytes((int) countingInputStream.getCount());
+                // After an aborted read the stream is in an undefined state, so we need to close the 
+                // connection even if the rule violation is tolerated.
+                stop();
+                if (!sharedModel.reportInvalidRequest(RuleViolation.MAX_MSG_SIZE_EXCEEDED))
+                    sharedModel.handleConnectionException(new StreamCorruptedException(t.getMessage()));
+            } else if (t instanceof IOException) {
+                stop();
+                sharedModel.handleConnectionException(t);
+            } else {
+                t.printStackTrace();
+                stop();
+                sharedModel.handleConnectionException(new Exception(t));
+            }
+        }
 
+        /**
+         * @return False if we must not continue reading from that connection.
+         */
+        private boolean handleInput(Object rawInputObject, int size) {
+            Connection connection = sharedModel.connection;
+
+            if (rawInputObject instanceof Pong || rawInputObject instanceof RefreshTTLMessage) {
+                // We only log Pong and RefreshTTLMessage when in dev environment (trace)
+                log.trace("\n\n<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<\n" +
+                                "New data arrived at inputHandler of connection {}.\n" +
+                                "Received object (truncated)={} / size={}"
+                                + "\n<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<\n",
+                        connection,
+                        Utilities.toTruncatedString(rawInputObject),
+                        size);
+            } else if (rawInputObject instanceof Message) {
+                // We want to log all incoming messages (except Pong and RefreshTTLMessage) 
+                // so we log before the data type checks
+                //log.info("size={}; object={}", size, Utilities.toTruncatedString(rawInputObject.toString(), 100));
+                log.debug("\n\n<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<\n" +
+                                "New data arrived at inputHandler of connection {}.\n" +
+                                "Received object (truncated)={} / size={}"
+                                + "\n<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<\n",
+                        connection,
+                        Utilities.toTruncatedString(rawInputObject),
+                        size);
+            } else {
+                log.error("Invalid data arrived at inputHandler of connection {} Size={}", connection, size);
+                try {
+                    // Don't call toString on rawInputObject
+                    log.error("rawInputObject.className=" + rawInputObject.getClass().getName());
+                } catch (Throwable ignore) {
+                }
+            }
 
-                        // Then we check if data is of type Serializable (objectInputStream supports  
-                        // Externalizable objects as well)
-                        Serializable serializable;
-                        if (rawInputObject instanceof Serializable) {
-                            serializable = (Serializable) rawInputObject;
-                        } else {
-                            reportInvalidRequest(RuleViolation.INVALID_DATA_TYPE);
-                            // We return anyway here independent of the return value of reportInvalidRequest
-                            return;
-                        }
+            // We want to track the size of each object even if it is invalid data
+            connection.statistic.addReceivedBytes(size);
 
-                        // Then check data throttle limit. Do that for non-message type objects as well, 
-                        // so that's why we use serializable here.
-                        if (connection.violatesThrottleLimit(serializable) && reportInvalidRequest(RuleViolation.THROTTLE_LIMIT_EXCEEDED))
-                            return;
+            // We want to track the messages also before the checks, so do it early...
+            Message message = null;
+            if (rawInputObject instanceof Message) {
+                message = (Message) rawInputObject;
+                connection.statistic.addReceivedMessage((Message) rawInputObject);
+            }
 
-                        // We do the message type check after the size/throttle checks. 
-                        // The type check was done already earlier so we only check if message is not null.
-                        if (message == null) {
-                            reportInvalidRequest(RuleViolation.INVALID_DATA_TYPE);
-                            // We return anyway here independent of the return value of reportInvalidRequest
-                            return;
-                        }
 
-                        // Check P2P network ID
-                        int messageVersion = message.getMessageVersion();
-                        int p2PMessageVersion = Version.getP2PMessageVersion();
-                        if (messageVersion != p2PMessageVersion) {
-                            log.warn("message.getMessageVersion()=" + messageVersion);
-                            log.warn("Version.getP2PMessageVersion()=" + p2PMessageVersion);
-                            log.warn("message=" + message);
-                            reportInvalidRequest(RuleViolation.WRONG_NETWORK_ID);
-                            // We return anyway here independent of the return value of reportInvalidRequest
-                            return;
-                        }
+            // First we check the size
+            boolean exceeds;
+            if (rawInputObject instanceof GetDataResponse || rawInputObject instanceof GetDataRequest) {
+                exceeds = size > MAX_MSG_SIZE_GET_DATA;
+                log.info("size={}; object={}", size, Utilities.toTruncatedString(rawInputObject.toString(), 100));
+            } else {
+                exceeds = size > MAX_MSG_SIZE;
+            }
+            if (exceeds)
+                log.warn("size > MAX_MSG_SIZE. size={}; object={}", size, message);
 
-                        if (sharedModel.getSupportedCapabilities() == null && message instanceof SupportedCapabilitiesMessage)
-                            sharedModel.setSupportedCapabilities(((SupportedCapabilitiesMessage) message).getSupportedCapabilities());
-
-                        if (message instanceof CloseConnectionMessage) {
-                            // If we get a CloseConnectionMessage we shut down
-                            log.debug("CloseConnectionMessage received. Reason={}\n\t" +
-                                    "connection={}", ((CloseConnectionMessage) message).reason, connection);
-                            stop();
-                            if (CloseConnectionReason.PEER_BANNED.name().equals(((CloseConnectionMessage) message).reason)) {
-                                log.warn("We got shut down because we are banned by the other peer. (InputHandler.run CloseConnectionMessage)");
-                                sharedModel.shutDown(CloseConnectionReason.PEER_BANNED);
-                            } else {
-                                sharedModel.shutDown(CloseConnectionReason.CLOSE_REQUESTED_BY_PEER);
-                            }
-                        } else if (!stopped) {
-                            // We don't want to get the activity ts updated by ping/pong msg
-                            if (!(message instanceof KeepAliveMessage))
-                                connection.statistic.updateLastActivityTimestamp();
-
-                            if (message instanceof GetDataRequest)
-                                connection.setPeerType(PeerType.INITIAL_DATA_REQUEST);
-
-                            // First a seed node gets a message from a peer (PreliminaryDataRequest using
-                            // AnonymousMessage interface) which does not have its hidden service
-                            // published, so it does not know its address. As the IncomingConnection does not have the
-                            // peersNodeAddress set that connection cannot be used for outgoing messages until we 
-                            // get the address set.
-                            // At the data update message (DataRequest using SendersNodeAddressMessage interface) 
-                            // after the HS is published we get the peer's address set.
-
-                            // There are only those messages used for new connections to a peer:
-                            // 1. PreliminaryDataRequest
-                            // 2. DataRequest (implements SendersNodeAddressMessage)
-                            // 3. GetPeersRequest (implements SendersNodeAddressMessage)
-                            // 4. DirectMessage (implements SendersNodeAddressMessage)
-                            if (message instanceof SendersNodeAddressMessage) {
-                                NodeAddress senderNodeAddress = ((SendersNodeAddressMessage) message).getSenderNodeAddress();
-                                // We must not shut down a banned peer at that moment as it would trigger a connection termination 
-                                // and we could not send the CloseConnectionMessage.
-                                // We shut down a banned peer at the next step at setPeersNodeAddress().
-
-                                Optional<NodeAddress> peersNodeAddressOptional = connection.getPeersNodeAddressOptional();
-                                if (peersNodeAddressOptional.isPresent()) {
-                                    // If we have already the peers address we check again if it matches our stored one
-                                    checkArgument(peersNodeAddressOptional.get().equals(senderNodeAddress),
-                                            "senderNodeAddress not matching connections peer address.\n\t" +
-                                                    "message=" + message);
-                                } else {
-                                    connection.setPeersNodeAddress(senderNodeAddress);
-                                }
-                            }
+            if (exceeds && reportInvalidRequest(RuleViolation.MAX_MSG_SIZE_EXCEEDED))
+                return false;
 
-                            if (message instanceof PrefixedSealedAndSignedMessage)
-                                connection.setPeerType(Connection.PeerType.DIRECT_MSG_PEER);
 
-                            messageListener.onMessage(message, connection);
-                        }
-                    } catch (InvalidClassException e) {
-                        log.error(e.getMessage());
-                        e.printStackTrace();
-                        reportInvalidRequest(RuleViolation.INVALID_CLASS);
-                        return;
-                    } catch (ClassNotFoundException | NoClassDefFoundError e) {
-                        log.warn(e.getMessage());
-                        e.printStackTrace();
-                        reportInvalidRequest(RuleViolation.INVALID_DATA_TYPE);
-                        return;
-                    } catch (IOException e) {
-                        stop();
-                        sharedModel.handleConnectionException(e);
-                    } catch (Throwable t) {
-                        t.printStackTrace();
-                        stop();
-                        if (sharedModel != null)
-                            sharedModel.handleConnectionException(new Exception(t));
+            // Then we check if data is of type Serializable (objectInputStream supports  
+            // Externalizable objects as well)
+            Serializable serializable;
+            if (rawInputObject instanceof Serializable) {
+                serializable = (Serializable) rawInputObject;
+            } else {
+                reportInvalidRequest(RuleViolation.INVALID_DATA_TYPE);
+                // We return anyway here independent of the return value of reportInvalidRequest
+                return false;
+            }
+
+            // Then check data throttle limit. Do that for non-message type objects as well, 
+            // so that's why we use serializable here.
+            if (connection.violatesThrottleLimit(serializable) && reportInvalidRequest(RuleViolation.THROTTLE_LIMIT_EXCEEDED))
+                return false;
+
+            // We do the message type check after the size/throttle checks. 
+            // The type check was done already earlier so we only check if message is not null.
+            if (message == null) {
+                reportInvalidRequest(RuleViolation.INVALID_DATA_TYPE);
+                // We return anyway here independent of the return value of reportInvalidRequest
+                return false;
+            }
+
+            // Check P2P network ID
+            int messageVersion = message.getMessageVersion();
+            int p2PMessageVersion = Version.getP2PMessageVersion();
+            if (messageVersion != p2PMessageVersion) {
+                log.warn("message.getMessageVersion()=" + messageVersion);
+                log.warn("Version.getP2PMessageVersion()=" + p2PMessageVersion);
+                log.warn("message=" + message);
+                reportInvalidRequest(RuleViolation.WRONG_NETWORK_ID);
+                // We return anyway here independent of the return value of reportInvalidRequest
+                return false;
+            }
+
+            if (sharedModel.getSupportedCapabilities() == null && message instanceof SupportedCapabilitiesMessage)
+                sharedModel.setSupportedCapabilities(((SupportedCapabilitiesMessage) message).getSupportedCapabilities());
+
+            if (message instanceof FramedWireFormatMessage) {
+                // The peer will only send frames from now on. The objectInputStream does not read ahead
+                // of the last object so we can continue on the raw stream.
+                if (frameInputStream == null && !switchedToNioFrames) {
+                    log.debug("Peer switched to the framed wire format. connection={}", connection);
+                    // Frames carry their size in the header, so we don't limit the raw stream anymore
+                    countingInputStream.startMessage(Long.MAX_VALUE);
+                    if (nioChannel != null) {
+                        // The NioChannel decodes the frames from now on, so we let the stream based loop end
+                        switchedToNioFrames = true;
+                        nioChannel.switchToFrames();
+                        return false;
+                    } else {
+                        frameInputStream = new DataInputStream(new BufferedInputStream(countingInputStream));
                     }
                 }
-            } catch (Throwable t) {
-                if (!(t instanceof OptionalDataException))
-                    t.printStackTrace();
+            } else if (message instanceof CloseConnectionMessage) {
+                // If we get a CloseConnectionMessage we shut down
+                log.debug("CloseConnectionMessage received. Reason={}\n\t" +
+                        "connection={}", ((CloseConnectionMessage) message).reason, connection);
                 stop();
-                sharedModel.handleConnectionException(new Exception(t));
+                if (CloseConnectionReason.PEER_BANNED.name().equals(((CloseConnectionMessage) message).reason)) {
+                    log.warn("We got shut down because we are banned by the other peer. (InputHandler.run CloseConnectionMessage)");
+                    sharedModel.shutDown(CloseConnectionReason.PEER_BANNED);
+                } else {
+                    sharedModel.shutDown(CloseConnectionReason.CLOSE_REQUESTED_BY_PEER);
+                }
+            } else if (!stopped) {
+                // We don't want to get the activity ts updated by ping/pong msg
+                if (!(message instanceof KeepAliveMessage))
+                    connection.statistic.updateLastActivityTimestamp();
+
+                if (message instanceof GetDataRequest)
+                    connection.setPeerType(PeerType.INITIAL_DATA_REQUEST);
+
+                // First a seed node gets a message from a peer (PreliminaryDataRequest using
+                // AnonymousMessage interface) which does not have its hidden service
+                // published, so it does not know its address. As the IncomingConnection does not have the
+                // peersNodeAddress set that connection cannot be used for outgoing messages until we 
+                // get the address set.
+                // At the data update message (DataRequest using SendersNodeAddressMessage interface) 
+                // after the HS is published we get the peer's address set.
+
+                // There are only those messages used for new connections to a peer:
+                // 1. PreliminaryDataRequest
+                // 2. DataRequest (implements SendersNodeAddressMessage)
+                // 3. GetPeersRequest (implements SendersNodeAddressMessage)
+                // 4. DirectMessage (implements SendersNodeAddressMessage)
+                if (message instanceof SendersNodeAddressMessage) {
+                    NodeAddress senderNodeAddress = ((SendersNodeAddressMessage) message).getSenderNodeAddress();
+                    // We must not shut down a banned peer at that moment as it would trigger a connection termination 
+                    // and we could not send the CloseConnectionMessage.
+                    // We shut down a banned peer at the next step at setPeersNodeAddress().
+
+                    Optional<NodeAddress> peersNodeAddressOptional = connection.getPeersNodeAddressOptional();
+                    if (peersNodeAddressOptional.isPresent()) {
+                        // If we have already the peers address we check again if it matches our stored one
+                        checkArgument(peersNodeAddressOptional.get().equals(senderNodeAddress),
+                                "senderNodeAddress not matching connections peer address.\n\t" +
+                                        "message=" + message);
+                    } else {
+                        connection.setPeersNodeAddress(senderNodeAddress);
+                    }
+                }
+
+                if (message instanceof PrefixedSealedAndSignedMessage)
+                    connection.setPeerType(Connection.PeerType.DIRECT_MSG_PEER);
+
+                messageListener.onMessage(message, connection);
             }
+
+            return true;
         }
 
         private boolean reportInvalidRequest(RuleViolation ruleViolation) {
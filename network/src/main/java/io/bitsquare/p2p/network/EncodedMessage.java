@@ -0,0 +1,48 @@
+package io.bitsquare.p2p.network;
+
+import io.bitsquare.p2p.Message;
+
+import java.io.IOException;
+
+/**
+ * A message together with its frame (see FrameCodec), so a message with a fixed schema sent to many peers gets encoded
+ * only once. That covers all broadcast messages (AddData, RemoveData, RemoveMailboxData and RefreshTTL). The frame is
+ * created at the first send over a framed connection and shared by all connections afterwards. Messages without schema
+ * are serialized by each connection with its own long-lived ObjectOutputStream, as the bytes depend on what was sent on
+ * that connection before. Connections to peers without the framed wire format serialize the message on their own as
+ * well.
+ * <p>
+ * The message must not be changed after the EncodedMessage was created.
+ */
+public final class EncodedMessage {
+    private final Message message;
+    // guarded by this
+    private byte[] frame;
+
+    public EncodedMessage(Message message) {
+        this.message = message;
+    }
+
+    public Message getMessage() {
+        return message;
+    }
+
+    /**
+     * Only for messages with a fixed schema (see FrameCodec.hasSchema).
+     *
+     * @return The complete frame. Must not be modified by the caller.
+     */
+    synchronized byte[] getFrame() throws IOException {
+        if (frame == null)
+            frame = FrameCodec.encode(message);
+        return frame;
+    }
+
+    @Override
+    public String toString() {
+        return "EncodedMessage{" +
+                "message=" + message.getClass().getSimpleName() +
+                ", frameSize=" + (frame != null ? frame.length : "not encoded yet") +
+                '}';
+    }
+}
@@ -0,0 +1,604 @@
+package io.bitsquare.p2p.network;
+
+import io.bitsquare.common.crypto.PublicKeyCache;
+import io.bitsquare.common.crypto.Sig;
+import io.bitsquare.io.LookAheadObjectInputStream;
+import io.bitsquare.p2p.Message;
+import io.bitsquare.p2p.NodeAddress;
+import io.bitsquare.p2p.network.messages.CloseConnectionMessage;
+import io.bitsquare.p2p.peers.getdata.messages.ExcludedKeysFilter;
+import io.bitsquare.p2p.peers.getdata.messages.GetDataRequest;
+import io.bitsquare.p2p.peers.getdata.messages.GetDataResponse;
+import io.bitsquare.p2p.peers.getdata.messages.GetUpdatedDataRequest;
+import io.bitsquare.p2p.peers.getdata.messages.PreliminaryGetDataRequest;
+import io.bitsquare.p2p.peers.keepalive.messages.Ping;
+import io.bitsquare.p2p.peers.keepalive.messages.Pong;
+import io.bitsquare.p2p.storage.messages.AddDataMessage;
+import io.bitsquare.p2p.storage.messages.RefreshTTLMessage;
+import io.bitsquare.p2p.storage.messages.RemoveDataMessage;
+import io.bitsquare.p2p.storage.messages.RemoveMailboxDataMessage;
+import io.bitsquare.p2p.storage.payload.MailboxStoragePayload;
+import io.bitsquare.p2p.storage.payload.StoragePayload;
+import io.bitsquare.p2p.storage.storageentry.ProtectedMailboxStorageEntry;
+import io.bitsquare.p2p.storage.storageentry.ProtectedStorageEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.*;
+import java.security.PublicKey;
+import java.security.spec.InvalidKeySpecException;
+import java.util.*;
+
+/**
+ * Encodes messages into length-prefixed frames used once both peers support the FRAMED_WIRE_FORMAT capability.
+ * <p>
+ * Frame layout: [int bodyLength][byte type][body]
+ * <p>
+ * The header lets the receiver enforce the size limit before it allocates or decodes anything.
+ * <p>
+ * The network messages (keep-alive, close, getdata and the p2p.storage messages) use a fixed schema. Their frames do
+ * not depend on the connection, so a broadcast gets encoded only once (see EncodedMessage). The StoragePayloads of the
+ * storage entries are application classes, so they are still Java serialized, but with one ObjectOutputStream per
+ * frame at the end of the body. The entry fields around them (keys, signature, sequence number) are part of the schema.
+ * <p>
+ * All other messages (e.g. the trade, mailbox and offer messages) are Java serialized with an ObjectOutputStream which
+ * lives as long as the connection (see Encoder and Decoder), like on the stream based wire format. So class
+ * descriptors are only sent once per connection and not with each message. The bytes written for one message are the
+ * body of one frame. A schema for the messages in trade.protocol.trade.messages is not done yet.
+ */
+public class FrameCodec {
+    private static final Logger log = LoggerFactory.getLogger(FrameCodec.class);
+
+    public static final int HEADER_SIZE = 5;
+
+    // Frame types are sent over the wire, so they must never be changed (append only).
+    static final byte TYPE_SERIALIZED = 0;
+    static final byte TYPE_PING = 1;
+    static final byte TYPE_PONG = 2;
+    static final byte TYPE_CLOSE_CONNECTION = 3;
+    static final byte TYPE_REFRESH_TTL = 4;
+    static final byte TYPE_ADD_DATA = 5;
+    static final byte TYPE_REMOVE_DATA = 6;
+    static final byte TYPE_REMOVE_MAILBOX_DATA = 7;
+    static final byte TYPE_PRELIMINARY_GET_DATA_REQUEST = 8;
+    static final byte TYPE_GET_UPDATED_DATA_REQUEST = 9;
+    static final byte TYPE_GET_DATA_RESPONSE = 10;
+
+    // Hashes are 32 bytes, DSA signatures about 46 bytes
+    private static final int MAX_HASH_OR_SIGNATURE_SIZE = 256;
+    // X.509 encoded DSA keys have about 450 bytes
+    private static final int MAX_KEY_SIZE = 2048;
+    private static final int MAX_NUM_CAPABILITIES = 1024;
+
+    // Kind of a storage entry in the schema
+    private static final byte ENTRY_PROTECTED_STORAGE = 0;
+    private static final byte ENTRY_PROTECTED_MAILBOX_STORAGE = 1;
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Encode
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * @return True if the message has a fixed schema, so its frame is the same for all connections.
+     */
+    static boolean hasSchema(Message message) {
+        return !isSerialized(getType(message));
+    }
+
+    /**
+     * Encodes a message with a fixed schema (see hasSchema). Other messages need the Encoder of the connection.
+     *
+     * @return The complete frame including the header.
+     */
+    public static byte[] encode(Message message) throws IOException {
+        byte type = getType(message);
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(128);
+        DataOutputStream dataOutputStream = new DataOutputStream(byteArrayOutputStream);
+        // placeholder for the header, we patch the length once we know it
+        dataOutputStream.writeInt(0);
+        dataOutputStream.writeByte(type);
+        switch (type) {
+            case TYPE_PING:
+                dataOutputStream.writeInt(((Ping) message).nonce);
+                dataOutputStream.writeInt(((Ping) message).lastRoundTripTime);
+                break;
+            case TYPE_PONG:
+                dataOutputStream.writeInt(((Pong) message).requestNonce);
+                break;
+            case TYPE_CLOSE_CONNECTION:
+                String reason = ((CloseConnectionMessage) message).reason;
+                dataOutputStream.writeUTF(reason != null ? reason : "");
+                break;
+            case TYPE_REFRESH_TTL:
+                RefreshTTLMessage refreshTTLMessage = (RefreshTTLMessage) message;
+                writeBytes(dataOutputStream, refreshTTLMessage.hashOfDataAndSeqNr, MAX_HASH_OR_SIGNATURE_SIZE);
+                writeBytes(dataOutputStream, refreshTTLMessage.signature, MAX_HASH_OR_SIGNATURE_SIZE);
+                writeBytes(dataOutputStream, refreshTTLMessage.hashOfPayload, MAX_HASH_OR_SIGNATURE_SIZE);
+                dataOutputStream.writeInt(refreshTTLMessage.sequenceNumber);
+                break;
+            case TYPE_ADD_DATA:
+                writeEntries(dataOutputStream, Collections.singleton(((AddDataMessage) message).protectedStorageEntry));
+                break;
+            case TYPE_REMOVE_DATA:
+                writeEntries(dataOutputStream, Collections.singleton(((RemoveDataMessage) message).protectedStorageEntry));
+                break;
+            case TYPE_REMOVE_MAILBOX_DATA:
+                writeEntries(dataOutputStream,
+                        Collections.singleton(((RemoveMailboxDataMessage) message).protectedMailboxStorageEntry));
+                break;
+            case TYPE_PRELIMINARY_GET_DATA_REQUEST:
+                PreliminaryGetDataRequest preliminaryGetDataRequest = (PreliminaryGetDataRequest) message;
+                writeGetDataRequest(dataOutputStream, preliminaryGetDataRequest);
+                writeCapabilities(dataOutputStream, preliminaryGetDataRequest.getSupportedCapabilities());
+                break;
+            case TYPE_GET_UPDATED_DATA_REQUEST:
+                GetUpdatedDataRequest getUpdatedDataRequest = (GetUpdatedDataRequest) message;
+                writeGetDataRequest(dataOutputStream, getUpdatedDataRequest);
+                dataOutputStream.writeUTF(getUpdatedDataRequest.getSenderNodeAddress().hostName);
+                dataOutputStream.writeInt(getUpdatedDataRequest.getSenderNodeAddress().port);
+                break;
+            case TYPE_GET_DATA_RESPONSE:
+                GetDataResponse getDataResponse = (GetDataResponse) message;
+                dataOutputStream.writeInt(getDataResponse.requestNonce);
+                dataOutputStream.writeBoolean(getDataResponse.isGetUpdatedDataResponse);
+                dataOutputStream.writeBoolean(getDataResponse.hasMoreChunks());
+                writeCapabilities(dataOutputStream, getDataResponse.getSupportedCapabilities());
+                writeEntries(dataOutputStream, getDataResponse.dataSet);
+                break;
+            default:
+                throw new IllegalArgumentException("Message has no fixed schema: " + message.getClass().getName());
+        }
+        dataOutputStream.flush();
+        byte[] frame = byteArrayOutputStream.toByteArray();
+        if (frame.length - HEADER_SIZE > getMaxBodySize(type))
+            throw new IOException("Frame exceeds max size. type=" + type + ", bodyLength=" + (frame.length - HEADER_SIZE));
+        return setBodyLength(frame);
+    }
+
+    static byte getType(Message message) {
+        if (message instanceof Ping)
+            return TYPE_PING;
+        else if (message instanceof Pong)
+            return TYPE_PONG;
+        else if (message instanceof CloseConnectionMessage)
+            return TYPE_CLOSE_CONNECTION;
+        else if (message instanceof RefreshTTLMessage)
+            return TYPE_REFRESH_TTL;
+        else if (message instanceof AddDataMessage)
+            return TYPE_ADD_DATA;
+        else if (message instanceof RemoveDataMessage)
+            return TYPE_REMOVE_DATA;
+        else if (message instanceof RemoveMailboxDataMessage)
+            return TYPE_REMOVE_MAILBOX_DATA;
+        else if (message instanceof PreliminaryGetDataRequest)
+            return TYPE_PRELIMINARY_GET_DATA_REQUEST;
+        else if (message instanceof GetUpdatedDataRequest)
+            return TYPE_GET_UPDATED_DATA_REQUEST;
+        else if (message instanceof GetDataResponse)
+            return TYPE_GET_DATA_RESPONSE;
+        else
+            return TYPE_SERIALIZED;
+    }
+
+    private static void writeGetDataRequest(DataOutputStream dataOutputStream, GetDataRequest getDataRequest)
+            throws IOException {
+        dataOutputStream.writeInt(getDataRequest.getNonce());
+        Set<byte[]> excludedKeys = getDataRequest.getExcludedKeys();
+        dataOutputStream.writeInt(excludedKeys.size());
+        for (byte[] key : excludedKeys)
+            writeBytes(dataOutputStream, key, MAX_HASH_OR_SIGNATURE_SIZE);
+
+        ExcludedKeysFilter excludedKeysFilter = getDataRequest.getExcludedKeysFilter();
+        dataOutputStream.writeBoolean(excludedKeysFilter != null);
+        if (excludedKeysFilter != null) {
+            dataOutputStream.writeInt(excludedKeysFilter.getBits().length);
+            dataOutputStream.write(excludedKeysFilter.getBits());
+            dataOutputStream.writeInt(excludedKeysFilter.getNumHashFunctions());
+            dataOutputStream.writeInt(excludedKeysFilter.getSeed());
+        }
+    }
+
+    private static void writeCapabilities(DataOutputStream dataOutputStream, @Nullable List<Integer> capabilities)
+            throws IOException {
+        // -1 for null, as peers without capabilities send null
+        dataOutputStream.writeInt(capabilities != null ? capabilities.size() : -1);
+        if (capabilities != null) {
+            for (Integer capability : capabilities)
+                dataOutputStream.writeInt(capability);
+        }
+    }
+
+    // The fields of all entries come first, then the StoragePayloads of all entries in the same order, Java
+    // serialized with one ObjectOutputStream for the whole frame.
+    private static void writeEntries(DataOutputStream dataOutputStream, Collection<? extends ProtectedStorageEntry> entries)
+            throws IOException {
+        dataOutputStream.writeInt(entries.size());
+        for (ProtectedStorageEntry entry : entries) {
+            if (entry instanceof ProtectedMailboxStorageEntry) {
+                dataOutputStream.writeByte(ENTRY_PROTECTED_MAILBOX_STORAGE);
+                writeBytes(dataOutputStream, ((ProtectedMailboxStorageEntry) entry).getReceiversPubKeyBytes(), MAX_KEY_SIZE);
+            } else {
+                dataOutputStream.writeByte(ENTRY_PROTECTED_STORAGE);
+            }
+            writeBytes(dataOutputStream, entry.getOwnerPubKeyBytes(), MAX_KEY_SIZE);
+            dataOutputStream.writeInt(entry.sequenceNumber);
+            writeBytes(dataOutputStream, entry.signature, MAX_HASH_OR_SIGNATURE_SIZE);
+            dataOutputStream.writeLong(entry.creationTimeStamp);
+        }
+
+        ObjectOutputStream objectOutputStream = new ObjectOutputStream(dataOutputStream);
+        for (ProtectedStorageEntry entry : entries)
+            objectOutputStream.writeObject(entry.getStoragePayload());
+        objectOutputStream.flush();
+    }
+
+    private static void writeBytes(DataOutputStream dataOutputStream, byte[] bytes, int maxSize) throws IOException {
+        if (bytes.length > maxSize)
+            throw new IOException("Field exceeds " + maxSize + " bytes");
+        dataOutputStream.writeShort(bytes.length);
+        dataOutputStream.write(bytes);
+    }
+
+    private static byte[] setBodyLength(byte[] frame) {
+        int bodyLength = frame.length - HEADER_SIZE;
+        frame[0] = (byte) (bodyLength >>> 24);
+        frame[1] = (byte) (bodyLength >>> 16);
+        frame[2] = (byte) (bodyLength >>> 8);
+        frame[3] = (byte) bodyLength;
+        return frame;
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Decode
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * @return True if the body of that frame type is part of the object stream of the connection.
+     */
+    static boolean isSerialized(byte type) {
+        return type == TYPE_SERIALIZED;
+    }
+
+    /**
+     * @return The max. allowed body length for that frame type or -1 if the type is unknown.
+     */
+    static int getMaxBodySize(byte type) {
+        switch (type) {
+            case TYPE_SERIALIZED:
+            case TYPE_ADD_DATA:
+            case TYPE_REMOVE_DATA:
+            case TYPE_REMOVE_MAILBOX_DATA:
+                return Connection.MAX_MSG_SIZE;
+            case TYPE_PRELIMINARY_GET_DATA_REQUEST:
+            case TYPE_GET_UPDATED_DATA_REQUEST:
+            case TYPE_GET_DATA_RESPONSE:
+                return Connection.MAX_MSG_SIZE_GET_DATA;
+            case TYPE_PING:
+                return 8;
+            case TYPE_PONG:
+                return 4;
+            case TYPE_CLOSE_CONNECTION:
+                return 1024;
+            case TYPE_REFRESH_TTL:
+                return 3 * (2 + MAX_HASH_OR_SIGNATURE_SIZE) + 4;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * Decodes a frame with a fixed schema. Serialized frames need the Decoder of the connection.
+     * <p>
+     * The message version of the decoded messages is our own. That is fine as a peer only sends frames after its
+     * FramedWireFormatMessage, which passed the version check.
+     */
+    static Message decode(byte type, byte[] body) throws IOException, ClassNotFoundException {
+        DataInputStream dataInputStream = new DataInputStream(new ByteArrayInputStream(body));
+        Message message = decode(type, dataInputStream);
+        if (dataInputStream.available() > 0)
+            throw new StreamCorruptedException("Frame has more data than its message. type=" + type);
+        return message;
+    }
+
+    private static Message decode(byte type, DataInputStream dataInputStream) throws IOException, ClassNotFoundException {
+        switch (type) {
+            case TYPE_PING:
+                return new Ping(dataInputStream.readInt(), dataInputStream.readInt());
+            case TYPE_PONG:
+                return new Pong(dataInputStream.readInt());
+            case TYPE_CLOSE_CONNECTION:
+                return new CloseConnectionMessage(dataInputStream.readUTF());
+            case TYPE_REFRESH_TTL:
+                return new RefreshTTLMessage(readBytes(dataInputStream, MAX_HASH_OR_SIGNATURE_SIZE),
+                        readBytes(dataInputStream, MAX_HASH_OR_SIGNATURE_SIZE),
+                        readBytes(dataInputStream, MAX_HASH_OR_SIGNATURE_SIZE),
+                        dataInputStream.readInt());
+            case TYPE_ADD_DATA:
+                return new AddDataMessage(readSingleEntry(dataInputStream, ProtectedStorageEntry.class));
+            case TYPE_REMOVE_DATA:
+                return new RemoveDataMessage(readSingleEntry(dataInputStream, ProtectedStorageEntry.class));
+            case TYPE_REMOVE_MAILBOX_DATA:
+                return new RemoveMailboxDataMessage(readSingleEntry(dataInputStream, ProtectedMailboxStorageEntry.class));
+            case TYPE_PRELIMINARY_GET_DATA_REQUEST: {
+                int nonce = dataInputStream.readInt();
+                Set<byte[]> excludedKeys = readExcludedKeys(dataInputStream);
+                ExcludedKeysFilter excludedKeysFilter = readExcludedKeysFilter(dataInputStream);
+                return new PreliminaryGetDataRequest(nonce, excludedKeys, excludedKeysFilter,
+                        readCapabilities(dataInputStream));
+            }
+            case TYPE_GET_UPDATED_DATA_REQUEST: {
+                int nonce = dataInputStream.readInt();
+                Set<byte[]> excludedKeys = readExcludedKeys(dataInputStream);
+                ExcludedKeysFilter excludedKeysFilter = readExcludedKeysFilter(dataInputStream);
+                NodeAddress senderNodeAddress = new NodeAddress(dataInputStream.readUTF(), dataInputStream.readInt());
+                return new GetUpdatedDataRequest(senderNodeAddress, nonce, excludedKeys, excludedKeysFilter);
+            }
+            case TYPE_GET_DATA_RESPONSE: {
+                int requestNonce = dataInputStream.readInt();
+                boolean isGetUpdatedDataResponse = dataInputStream.readBoolean();
+                boolean hasMoreChunks = dataInputStream.readBoolean();
+                ArrayList<Integer> supportedCapabilities = readCapabilities(dataInputStream);
+                return new GetDataResponse(new HashSet<>(readEntries(dataInputStream)), requestNonce,
+                        isGetUpdatedDataResponse, hasMoreChunks, supportedCapabilities);
+            }
+            case TYPE_SERIALIZED:
+                throw new IllegalArgumentException("Serialized frames need to be decoded by the Decoder of the connection");
+            default:
+                throw new StreamCorruptedException("Unknown frame type: " + type);
+        }
+    }
+
+    private static Set<byte[]> readExcludedKeys(DataInputStream dataInputStream) throws IOException {
+        int numKeys = readCount(dataInputStream);
+        Set<byte[]> excludedKeys = new HashSet<>();
+        for (int i = 0; i < numKeys; i++)
+            excludedKeys.add(readBytes(dataInputStream, MAX_HASH_OR_SIGNATURE_SIZE));
+        return excludedKeys;
+    }
+
+    // The caller checks with ExcludedKeysFilter.isValid if it accepts the size of the filter
+    @Nullable
+    private static ExcludedKeysFilter readExcludedKeysFilter(DataInputStream dataInputStream) throws IOException {
+        if (!dataInputStream.readBoolean())
+            return null;
+
+        byte[] bits = new byte[readCount(dataInputStream)];
+        dataInputStream.readFully(bits);
+        return ExcludedKeysFilter.fromBits(bits, dataInputStream.readInt(), dataInputStream.readInt());
+    }
+
+    @Nullable
+    private static ArrayList<Integer> readCapabilities(DataInputStream dataInputStream) throws IOException {
+        int numCapabilities = dataInputStream.readInt();
+        if (numCapabilities == -1)
+            return null;
+        if (numCapabilities < 0 || numCapabilities > MAX_NUM_CAPABILITIES)
+            throw new StreamCorruptedException("Invalid number of capabilities: " + numCapabilities);
+
+        ArrayList<Integer> capabilities = new ArrayList<>(numCapabilities);
+        for (int i = 0; i < numCapabilities; i++)
+            capabilities.add(dataInputStream.readInt());
+        return capabilities;
+    }
+
+    private static <T extends ProtectedStorageEntry> T readSingleEntry(DataInputStream dataInputStream, Class<T> entryClass)
+            throws IOException, ClassNotFoundException {
+        List<ProtectedStorageEntry> entries = readEntries(dataInputStream);
+        if (entries.size() != 1)
+            throw new StreamCorruptedException("Expected one storage entry but got " + entries.size());
+
+        ProtectedStorageEntry entry = entries.get(0);
+        if (!entryClass.isInstance(entry))
+            throw new InvalidClassException("Expected " + entryClass.getSimpleName() + " but got " +
+                    entry.getClass().getSimpleName());
+        return entryClass.cast(entry);
+    }
+
+    // See writeEntries for the layout
+    private static List<ProtectedStorageEntry> readEntries(DataInputStream dataInputStream)
+            throws IOException, ClassNotFoundException {
+        int numEntries = readCount(dataInputStream);
+        List<EntryFields> entryFieldsList = new ArrayList<>();
+        for (int i = 0; i < numEntries; i++) {
+            EntryFields entryFields = new EntryFields();
+            byte kind = dataInputStream.readByte();
+            if (kind == ENTRY_PROTECTED_MAILBOX_STORAGE)
+                entryFields.receiversPubKey = readPublicKey(dataInputStream);
+            else if (kind != ENTRY_PROTECTED_STORAGE)
+                throw new StreamCorruptedException("Unknown storage entry kind: " + kind);
+            entryFields.ownerPubKey = readPublicKey(dataInputStream);
+            entryFields.sequenceNumber = dataInputStream.readInt();
+            entryFields.signature = readBytes(dataInputStream, MAX_HASH_OR_SIGNATURE_SIZE);
+            entryFields.creationTimeStamp = dataInputStream.readLong();
+            entryFieldsList.add(entryFields);
+        }
+
+        ObjectInputStream objectInputStream = new LookAheadObjectInputStream(dataInputStream, true);
+        List<ProtectedStorageEntry> entries = new ArrayList<>(entryFieldsList.size());
+        for (EntryFields entryFields : entryFieldsList) {
+            Object payload = objectInputStream.readObject();
+            ProtectedStorageEntry entry;
+            if (entryFields.receiversPubKey != null) {
+                if (!(payload instanceof MailboxStoragePayload))
+                    throw new InvalidClassException("Payload of a ProtectedMailboxStorageEntry must be a " +
+                            "MailboxStoragePayload. Received class: " + payload.getClass().getName());
+                entry = new ProtectedMailboxStorageEntry((MailboxStoragePayload) payload, entryFields.ownerPubKey,
+                        entryFields.sequenceNumber, entryFields.signature, entryFields.receiversPubKey);
+            } else {
+                if (!(payload instanceof StoragePayload))
+                    throw new InvalidClassException("Payload of a ProtectedStorageEntry must be a StoragePayload. " +
+                            "Received class: " + payload.getClass().getName());
+                entry = new ProtectedStorageEntry((StoragePayload) payload, entryFields.ownerPubKey,
+                        entryFields.sequenceNumber, entryFields.signature);
+            }
+            // Same as after Java deserialization
+            entry.creationTimeStamp = entryFields.creationTimeStamp;
+            entry.checkCreationTimeStamp();
+            entries.add(entry);
+        }
+        return entries;
+    }
+
+    private static PublicKey readPublicKey(DataInputStream dataInputStream) throws IOException {
+        try {
+            return PublicKeyCache.get(Sig.KEY_ALGO, readBytes(dataInputStream, MAX_KEY_SIZE));
+        } catch (InvalidKeySpecException e) {
+            throw new StreamCorruptedException("Invalid public key: " + e.getMessage());
+        }
+    }
+
+    // We don't allocate more than the remaining body could contain
+    private static int readCount(DataInputStream dataInputStream) throws IOException {
+        int count = dataInputStream.readInt();
+        if (count < 0 || count > dataInputStream.available())
+            throw new StreamCorruptedException("Invalid count: " + count);
+        return count;
+    }
+
+    private static byte[] readBytes(DataInputStream dataInputStream, int maxSize) throws IOException {
+        int length = dataInputStream.readUnsignedShort();
+        if (length > maxSize)
+            throw new StreamCorruptedException("Field exceeds " + maxSize + " bytes");
+        byte[] bytes = new byte[length];
+        dataInputStream.readFully(bytes);
+        return bytes;
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Per connection
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Encodes the messages sent over one connection. Not thread safe, the Connection uses it only while holding its
+     * objectOutputStreamLock.
+     */
+    static final class Encoder {
+        // The ObjectOutputStream keeps a reference to each object it has written. We reset it from time to time, so it
+        // does not keep all sent messages in memory. After a reset the class descriptors are sent again.
+        private static final int RESET_AFTER_BYTES = 1024 * 1024;
+
+        private final FrameBuffer buffer = new FrameBuffer();
+        private final DataOutputStream headerOutputStream = new DataOutputStream(buffer);
+        // Created at the first serialized message, so its stream header is the start of the first serialized frame
+        private ObjectOutputStream objectOutputStream;
+        private int bytesSinceReset;
+
+        /**
+         * @return The complete frame. Must not be modified by the caller.
+         */
+        byte[] encode(EncodedMessage encodedMessage) throws IOException {
+            Message message = encodedMessage.getMessage();
+            if (hasSchema(message))
+                return encodedMessage.getFrame();
+
+            buffer.resetAndShrink();
+            // placeholder for the header, we patch the length once we know it
+            headerOutputStream.writeInt(0);
+            headerOutputStream.writeByte(getType(message));
+            if (objectOutputStream == null) {
+                objectOutputStream = new ObjectOutputStream(buffer);
+            } else if (bytesSinceReset > RESET_AFTER_BYTES) {
+                objectOutputStream.reset();
+                bytesSinceReset = 0;
+            }
+            objectOutputStream.writeObject(message);
+            objectOutputStream.flush();
+
+            byte[] frame = setBodyLength(buffer.toByteArray());
+            bytesSinceReset += frame.length;
+            return frame;
+        }
+    }
+
+    // The decoded fields of a storage entry, which gets created once its payload is read
+    private static final class EntryFields {
+        private PublicKey ownerPubKey;
+        @Nullable
+        private PublicKey receiversPubKey;
+        private int sequenceNumber;
+        private byte[] signature;
+        private long creationTimeStamp;
+    }
+
+    private static final class FrameBuffer extends ByteArrayOutputStream {
+        private static final int INITIAL_CAPACITY = 1024;
+        private static final int MAX_KEPT_CAPACITY = 64 * 1024;
+
+        private FrameBuffer() {
+            super(INITIAL_CAPACITY);
+        }
+
+        // We don't keep the buffer of a large message (e.g. a GetDataResponse) for the lifetime of the connection
+        private void resetAndShrink() {
+            if (buf.length > MAX_KEPT_CAPACITY)
+                buf = new byte[INITIAL_CAPACITY];
+            count = 0;
+        }
+    }
+
+    /**
+     * Decodes the frames received over one connection. The frames must be passed in the order they were received and
+     * not concurrently.
+     */
+    static final class Decoder {
+        private final FrameBodyInputStream bodyInputStream = new FrameBodyInputStream();
+        // Created at the first serialized frame, which starts with the stream header
+        private ObjectInputStream objectInputStream;
+
+        /**
+         * @return The decoded object. For serialized frames that might be any whitelisted type, so the caller has to
+         * apply the same checks as for data read from an ObjectInputStream.
+         */
+        Object decode(byte type, byte[] body) throws IOException, ClassNotFoundException {
+            if (!isSerialized(type))
+                return FrameCodec.decode(type, body);
+
+            bodyInputStream.setBody(body);
+            if (objectInputStream == null)
+                objectInputStream = new LookAheadObjectInputStream(bodyInputStream, true);
+            Object object = objectInputStream.readObject();
+            if (bodyInputStream.available() > 0)
+                throw new StreamCorruptedException("Serialized frame contains more than one object");
+            return object;
+        }
+    }
+
+    // Returns the end of the stream at the end of the current body instead of blocking, so a truncated object
+    // leads to an EOFException.
+    private static final class FrameBodyInputStream extends InputStream {
+        private byte[] body = new byte[0];
+        private int position;
+
+        private void setBody(byte[] body) {
+            this.body = body;
+            position = 0;
+        }
+
+        @Override
+        public int read() {
+            return position < body.length ? body[position++] & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0)
+                return 0;
+            if (position >= body.length)
+                return -1;
+
+            int length = Math.min(len, body.length - position);
+            System.arraycopy(body, position, b, off, length);
+            position += length;
+            return length;
+        }
+
+        @Override
+        public int available() {
+            return body.length - position;
+        }
+    }
+}
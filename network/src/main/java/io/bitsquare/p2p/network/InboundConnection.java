@@ -6,4 +6,8 @@ public class InboundConnection extends Connection {
     public InboundConnection(Socket socket, MessageListener messageListener, ConnectionListener connectionListener) {
         super(socket, messageListener, connectionListener, null);
     }
+
+    InboundConnection(NioChannel nioChannel, MessageListener messageListener, ConnectionListener connectionListener) {
+        super(nioChannel.getSocket(), messageListener, connectionListener, null, nioChannel);
+    }
 }
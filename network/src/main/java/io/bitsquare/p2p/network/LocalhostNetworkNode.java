@@ -18,6 +18,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.util.concurrent.TimeUnit;
@@ -63,7 +64,10 @@ public class LocalhostNetworkNode extends NetworkNode {
             createHiddenService(hiddenServiceDescriptor -> {
                 Log.traceCall("hiddenService created");
                 try {
-                    startServer(new ServerSocket(servicePort));
+                    if (isUseNioServer())
+                        startNioServer(new InetSocketAddress(servicePort));
+                    else
+                        startServer(new ServerSocket(servicePort));
                 } catch (IOException e) {
                     e.printStackTrace();
                     log.error("Exception at startServer: " + e.getMessage());
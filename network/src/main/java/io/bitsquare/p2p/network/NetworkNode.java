@@ -17,6 +17,7 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.net.ConnectException;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.util.HashSet;
@@ -33,6 +34,17 @@ public abstract class NetworkNode implements MessageListener {
     private static final Logger log = LoggerFactory.getLogger(NetworkNode.class);
     private static final int CREATE_SOCKET_TIMEOUT_MILLIS = 10000;
 
+    // Nodes with many inbound connections (seed nodes) can use the NioServer instead of the blocking Server
+    private static boolean useNioServer;
+
+    public static void setUseNioServer(boolean useNioServer) {
+        NetworkNode.useNioServer = useNioServer;
+    }
+
+    static boolean isUseNioServer() {
+        return useNioServer;
+    }
+
     final int servicePort;
 
     private final CopyOnWriteArraySet<InboundConnection> inBoundConnections = new CopyOnWriteArraySet<>();
@@ -41,6 +53,7 @@ public abstract class NetworkNode implements MessageListener {
     final CopyOnWriteArraySet<SetupListener> setupListeners = new CopyOnWriteArraySet<>();
     ListeningExecutorService executorService;
     private Server server;
+    private NioServer nioServer;
 
     private volatile boolean shutDownInProgress;
     // accessed from different threads
@@ -220,11 +233,18 @@ public abstract class NetworkNode implements MessageListener {
 
 
     public SettableFuture<Connection> sendMessage(Connection connection, Message message) {
-        Log.traceCall("\n\tmessage=" + Utilities.toTruncatedString(message) + "\n\tconnection=" + connection);
+        return sendMessage(connection, new EncodedMessage(message));
+    }
+
+    /**
+     * Use that if the same message is sent to several connections, so it gets serialized only once.
+     */
+    public SettableFuture<Connection> sendMessage(Connection connection, EncodedMessage encodedMessage) {
+        Log.traceCall("\n\tmessage=" + Utilities.toTruncatedString(encodedMessage.getMessage()) + "\n\tconnection=" + connection);
         // connection.sendMessage might take a bit (compression, write to stream), so we use a thread to not block
         ListenableFuture<Connection> future = executorService.submit(() -> {
             Thread.currentThread().setName("NetworkNode:SendMessage-to-" + connection.getUid());
-            connection.sendMessage(message);
+            connection.sendMessage(encodedMessage);
             return connection;
         });
         final SettableFuture<Connection> resultFuture = SettableFuture.create();
@@ -276,6 +296,10 @@ public abstract class NetworkNode implements MessageListener {
                 server.shutDown();
                 server = null;
             }
+            if (nioServer != null) {
+                nioServer.shutDown();
+                nioServer = null;
+            }
 
             getAllConnections().stream().forEach(c -> c.shutDown(CloseConnectionReason.APP_SHUT_DOWN));
             log.debug("NetworkNode shutdown complete");
@@ -346,33 +370,40 @@ public abstract class NetworkNode implements MessageListener {
     }
 
     void startServer(ServerSocket serverSocket) {
-        server = new Server(serverSocket,
-                NetworkNode.this,
-                new ConnectionListener() {
-                    @Override
-                    public void onConnection(Connection connection) {
-                        if (!connection.isStopped()) {
-                            inBoundConnections.add((InboundConnection) connection);
-                            printInboundConnections();
-                            connectionListeners.stream().forEach(e -> e.onConnection(connection));
-                        }
-                    }
+        server = new Server(serverSocket, NetworkNode.this, getInboundConnectionListener());
+        executorService.submit(server);
+    }
 
-                    @Override
-                    public void onDisconnect(CloseConnectionReason closeConnectionReason, Connection connection) {
-                        log.trace("onDisconnect at server socket connectionListener\n\tconnection={}" + connection);
-                        inBoundConnections.remove(connection);
-                        printInboundConnections();
-                        connectionListeners.stream().forEach(e -> e.onDisconnect(closeConnectionReason, connection));
-                    }
+    void startNioServer(InetSocketAddress bindAddress) throws IOException {
+        nioServer = new NioServer(bindAddress, NetworkNode.this, getInboundConnectionListener());
+        nioServer.start();
+    }
 
-                    @Override
-                    public void onError(Throwable throwable) {
-                        log.error("server.ConnectionListener.onError " + throwable.getMessage());
-                        connectionListeners.stream().forEach(e -> e.onError(throwable));
-                    }
-                });
-        executorService.submit(server);
+    private ConnectionListener getInboundConnectionListener() {
+        return new ConnectionListener() {
+            @Override
+            public void onConnection(Connection connection) {
+                if (!connection.isStopped()) {
+                    inBoundConnections.add((InboundConnection) connection);
+                    printInboundConnections();
+                    connectionListeners.stream().forEach(e -> e.onConnection(connection));
+                }
+            }
+
+            @Override
+            public void onDisconnect(CloseConnectionReason closeConnectionReason, Connection connection) {
+                log.trace("onDisconnect at server socket connectionListener\n\tconnection={}" + connection);
+                inBoundConnections.remove(connection);
+                printInboundConnections();
+                connectionListeners.stream().forEach(e -> e.onDisconnect(closeConnectionReason, connection));
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                log.error("server.ConnectionListener.onError " + throwable.getMessage());
+                connectionListeners.stream().forEach(e -> e.onError(throwable));
+            }
+        };
     }
 
     private Optional<OutboundConnection> lookupOutBoundConnection(NodeAddress peersNodeAddress) {
@@ -0,0 +1,410 @@
+package io.bitsquare.p2p.network;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Transport of a connection accepted by the NioServer.
+ * <p>
+ * Writes are put into a queue which gets drained by the selector loop when the channel is writable.
+ * Reads are handled in 2 phases:
+ * As long the peer uses Java serialization on a continuous stream the bytes are passed to a ByteQueueInputStream
+ * which is consumed by the InputHandler running on the streamDecoderExecutor.
+ * Once the peer has switched to the framed wire format the frames are cut out directly at the selector loop and
+ * handed in order to the InputHandler on the shared frameDecoderExecutor, so no thread is bound to the connection.
+ * <p>
+ * If the InputHandler does not keep up, the buffered stream bytes or the pending frames reach their limit and we
+ * stop reading (OP_READ is cleared) until it has caught up, so the peer gets throttled by TCP flow control.
+ * As the channel has no socket timeout, the selector loop closes it if nothing was read for idleTimeoutMs.
+ */
+class NioChannel implements NioSelectorLoop.Handler {
+    private static final Logger log = LoggerFactory.getLogger(NioChannel.class);
+
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+    // If the peer does not read our data we close the connection instead of buffering without limit
+    private static final long MAX_QUEUED_WRITE_BYTES = 2L * Connection.MAX_MSG_SIZE_GET_DATA;
+    // The InputHandler consumes the stream while it deserializes, so it does not need a whole message buffered
+    private static final int MAX_BUFFERED_STREAM_BYTES = 256 * 1024;
+    // A single frame can be larger than MAX_PENDING_FRAME_BYTES, we stop reading after it until it is decoded
+    static final int MAX_PENDING_FRAMES = 100;
+    private static final long MAX_PENDING_FRAME_BYTES = 1024 * 1024;
+
+    private final SocketChannel socketChannel;
+    private final NioSelectorLoop selectorLoop;
+    private final ExecutorService streamDecoderExecutor;
+    private final ExecutorService frameDecoderExecutor;
+    private final long idleTimeoutMs;
+    private final ByteQueueInputStream streamInputStream = new ByteQueueInputStream(MAX_BUFFERED_STREAM_BYTES,
+            this::requestResumeReading);
+    private final OutputStream outputStream = new ChannelOutputStream();
+
+    // Write side, accessed from sending threads and the selector loop
+    private final Queue<ByteBuffer> writeQueue = new ConcurrentLinkedQueue<>();
+    private final AtomicLong queuedWriteBytes = new AtomicLong();
+
+    // Frame decoding in order of arrival, the tasks run on the frameDecoderExecutor
+    private final Queue<Runnable> frameTasks = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean frameTasksRunning = new AtomicBoolean();
+    // Frames handed to the frameDecoderExecutor but not decoded yet
+    private final AtomicInteger pendingFrames = new AtomicInteger();
+    private final AtomicLong pendingFrameBytes = new AtomicLong();
+
+    // Read side, guarded by readLock
+    private final Object readLock = new Object();
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    private final ByteBuffer headerBuffer = ByteBuffer.allocate(FrameCodec.HEADER_SIZE);
+    private boolean framed;
+    private byte frameType;
+    private byte[] frameBody;
+    private int frameBodyPosition;
+    private long skipRemaining;
+
+    private volatile Connection.InputHandler inputHandler;
+    private volatile SelectionKey selectionKey;
+    private volatile boolean readingStopped;
+    // Only changed at the selector loop
+    private volatile boolean readPaused;
+    private long lastReadTime;
+    private boolean failed;
+
+
+    NioChannel(SocketChannel socketChannel, NioSelectorLoop selectorLoop, ExecutorService streamDecoderExecutor,
+               ExecutorService frameDecoderExecutor, long idleTimeoutMs) throws IOException {
+        this.socketChannel = socketChannel;
+        this.selectorLoop = selectorLoop;
+        this.streamDecoderExecutor = streamDecoderExecutor;
+        this.frameDecoderExecutor = frameDecoderExecutor;
+        this.idleTimeoutMs = idleTimeoutMs;
+        lastReadTime = System.currentTimeMillis();
+        socketChannel.configureBlocking(false);
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Used by Connection
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    Socket getSocket() {
+        return socketChannel.socket();
+    }
+
+    InputStream getInputStream() {
+        return streamInputStream;
+    }
+
+    OutputStream getOutputStream() {
+        return outputStream;
+    }
+
+    void start(Connection.InputHandler inputHandler) {
+        this.inputHandler = inputHandler;
+        streamDecoderExecutor.submit(inputHandler);
+        selectorLoop.execute(() -> {
+            try {
+                int interestOps = writeQueue.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE;
+                selectionKey = selectorLoop.register(socketChannel, interestOps, this);
+            } catch (IOException e) {
+                inputHandler.onException(e);
+            }
+        });
+    }
+
+    // Called from the InputHandler thread after it has read the FramedWireFormatMessage
+    void switchToFrames() {
+        synchronized (readLock) {
+            framed = true;
+            // Everything behind the FramedWireFormatMessage is already framed data
+            byte[] remaining = streamInputStream.drain();
+            decodeFrames(ByteBuffer.wrap(remaining));
+        }
+        // If we had stopped reading because of a full stream we continue with the frame limits
+        requestResumeReading();
+        log.debug("NioChannel switched to frame decoding. socket={}", getSocket());
+    }
+
+    // Used in tests
+    int getPendingFrames() {
+        return pendingFrames.get();
+    }
+
+    // Used in tests
+    boolean isReadPaused() {
+        return readPaused;
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // NioSelectorLoop.Handler implementation, called on the selector loop
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    @Override
+    public void onSelected(SelectionKey key) {
+        if (key.isReadable())
+            onReadable(key);
+
+        if (key.isValid() && key.isWritable())
+            onWritable(key);
+    }
+
+    @Override
+    public void onIdleCheck(long now) {
+        // While we have stopped reading, the peer waits for us and is not idle
+        if (!readPaused && now - lastReadTime > idleTimeoutMs)
+            onChannelFailed(new SocketTimeoutException("Nothing read for " + (now - lastReadTime) + " ms"));
+    }
+
+    private void onReadable(SelectionKey key) {
+        try {
+            readBuffer.clear();
+            int read = socketChannel.read(readBuffer);
+            if (read < 0) {
+                onChannelFailed(new EOFException("Peer has closed the connection"));
+                return;
+            }
+
+            lastReadTime = System.currentTimeMillis();
+            readBuffer.flip();
+            synchronized (readLock) {
+                if (framed) {
+                    decodeFrames(readBuffer);
+                } else {
+                    byte[] chunk = new byte[readBuffer.remaining()];
+                    readBuffer.get(chunk);
+                    streamInputStream.offer(chunk);
+                }
+            }
+            pauseReadingIfBufferFull(key);
+        } catch (IOException e) {
+            onChannelFailed(e);
+        }
+    }
+
+    private void onWritable(SelectionKey key) {
+        try {
+            ByteBuffer buffer;
+            while ((buffer = writeQueue.peek()) != null) {
+                int written = socketChannel.write(buffer);
+                queuedWriteBytes.addAndGet(-written);
+                if (buffer.hasRemaining())
+                    // The socket buffer is full, we continue at the next OP_WRITE
+                    return;
+
+                writeQueue.poll();
+            }
+            // If a sender adds data after that, requestWrite sets OP_WRITE again on the loop thread
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+        } catch (IOException e) {
+            onChannelFailed(e);
+        }
+    }
+
+    private void onChannelFailed(IOException e) {
+        if (failed)
+            return;
+
+        failed = true;
+        if (selectionKey != null)
+            selectionKey.cancel();
+
+        synchronized (readLock) {
+            if (framed)
+                // We report the exception after the frames received before
+                executeInOrder(() -> inputHandler.onException(e));
+            else if (e instanceof EOFException)
+                // The InputHandler reads the remaining data and gets an EOFException afterwards
+                streamInputStream.close();
+            else
+                // The InputHandler reads the remaining data and gets our exception afterwards
+                streamInputStream.fail(e);
+        }
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Backpressure
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    private boolean isReadBufferFull() {
+        synchronized (readLock) {
+            if (framed)
+                return pendingFrames.get() >= MAX_PENDING_FRAMES || pendingFrameBytes.get() >= MAX_PENDING_FRAME_BYTES;
+            else
+                return streamInputStream.isFull();
+        }
+    }
+
+    // Called on the selector loop
+    private void pauseReadingIfBufferFull(SelectionKey key) {
+        if (!readPaused && key.isValid() && isReadBufferFull()) {
+            readPaused = true;
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            log.debug("InputHandler does not keep up, we stop reading. socket={}", getSocket());
+            // The consumer only requests a resume if it has seen readPaused, so we check again after we have set it
+            resumeReading();
+        }
+    }
+
+    // Called from the consumer's thread after it has taken data from the buffer
+    private void requestResumeReading() {
+        if (readPaused)
+            selectorLoop.execute(this::resumeReading);
+    }
+
+    // Called on the selector loop
+    private void resumeReading() {
+        SelectionKey key = selectionKey;
+        if (readPaused && key != null && key.isValid() && !isReadBufferFull()) {
+            readPaused = false;
+            // The time we were paused does not count as idle time
+            lastReadTime = System.currentTimeMillis();
+            key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+        }
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Frame decoding, guarded by readLock
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    private void decodeFrames(ByteBuffer buffer) {
+        while (!readingStopped) {
+            if (skipRemaining > 0) {
+                int skip = (int) Math.min(skipRemaining, buffer.remaining());
+                buffer.position(buffer.position() + skip);
+                skipRemaining -= skip;
+                if (skipRemaining > 0)
+                    return;
+            }
+
+            if (frameBody == null) {
+                while (headerBuffer.hasRemaining() && buffer.hasRemaining())
+                    headerBuffer.put(buffer.get());
+
+                if (headerBuffer.hasRemaining())
+                    return;
+
+                headerBuffer.flip();
+                int bodyLength = headerBuffer.getInt();
+                byte type = headerBuffer.get();
+                headerBuffer.clear();
+                try {
+                    if (inputHandler.onFrameHeader(type, bodyLength)) {
+                        frameType = type;
+                        frameBody = new byte[bodyLength];
+                        frameBodyPosition = 0;
+                    } else {
+                        // Only oversized frames with a fixed schema get skipped, see InputHandler.onFrameHeader
+                        skipRemaining = bodyLength;
+                        continue;
+                    }
+                } catch (StreamCorruptedException e) {
+                    readingStopped = true;
+                    executeInOrder(() -> inputHandler.onException(e));
+                    return;
+                }
+            }
+
+            int length = Math.min(frameBody.length - frameBodyPosition, buffer.remaining());
+            buffer.get(frameBody, frameBodyPosition, length);
+            frameBodyPosition += length;
+            if (frameBodyPosition < frameBody.length)
+                return;
+
+            final byte type = frameType;
+            final byte[] body = frameBody;
+            frameBody = null;
+            pendingFrames.incrementAndGet();
+            pendingFrameBytes.addAndGet(body.length);
+            executeInOrder(() -> {
+                try {
+                    if (!readingStopped && !inputHandler.onFrame(type, body))
+                        readingStopped = true;
+                } finally {
+                    pendingFrames.decrementAndGet();
+                    pendingFrameBytes.addAndGet(-body.length);
+                    requestResumeReading();
+                }
+            });
+        }
+    }
+
+    private void executeInOrder(Runnable task) {
+        frameTasks.add(task);
+        scheduleFrameTasks();
+    }
+
+    private void scheduleFrameTasks() {
+        if (!frameTasks.isEmpty() && frameTasksRunning.compareAndSet(false, true))
+            frameDecoderExecutor.execute(this::runFrameTasks);
+    }
+
+    private void runFrameTasks() {
+        try {
+            Runnable task;
+            while ((task = frameTasks.poll()) != null)
+                task.run();
+        } finally {
+            frameTasksRunning.set(false);
+            // A task might have been added after our last poll
+            scheduleFrameTasks();
+        }
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Write side
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    private void requestWrite() {
+        selectorLoop.execute(() -> {
+            SelectionKey key = selectionKey;
+            if (key != null && key.isValid())
+                key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+        });
+    }
+
+    // Connection writes only while holding its objectOutputStreamLock, so calls are never concurrent.
+    private class ChannelOutputStream extends OutputStream {
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (!socketChannel.isOpen())
+                throw new IOException("Channel is closed");
+
+            if (queuedWriteBytes.addAndGet(len) > MAX_QUEUED_WRITE_BYTES)
+                throw new IOException("Write queue exceeds " + MAX_QUEUED_WRITE_BYTES + " bytes. The peer does not read our data.");
+
+            ByteBuffer buffer = ByteBuffer.allocate(len);
+            buffer.put(b, off, len);
+            buffer.flip();
+            writeQueue.add(buffer);
+            requestWrite();
+        }
+
+        @Override
+        public void close() throws IOException {
+            socketChannel.close();
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package io.bitsquare.p2p.network;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Runs a selector in its own thread and dispatches the ready keys to their handlers.
+ * Changes of the registrations must be done on the loop thread, so other threads pass them in with execute.
+ * As non-blocking channels have no socket timeout, the loop lets the handlers check their idle time about once per
+ * IDLE_CHECK_INTERVAL_MS.
+ */
+class NioSelectorLoop implements Runnable {
+    private static final Logger log = LoggerFactory.getLogger(NioSelectorLoop.class);
+
+    static final long IDLE_CHECK_INTERVAL_MS = 1000;
+
+    interface Handler {
+        void onSelected(SelectionKey key);
+
+        void onIdleCheck(long now);
+    }
+
+    private final String name;
+    private final Selector selector;
+    private final Queue<Runnable> pendingTasks = new ConcurrentLinkedQueue<>();
+    private volatile boolean stopped;
+    private long lastIdleCheck = System.currentTimeMillis();
+
+
+    NioSelectorLoop(String name) throws IOException {
+        this.name = name;
+        selector = Selector.open();
+    }
+
+    void start() {
+        Thread thread = new Thread(this, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Called from any thread
+    void execute(Runnable task) {
+        pendingTasks.add(task);
+        selector.wakeup();
+    }
+
+    // Must be called on the loop thread (use execute)
+    SelectionKey register(SelectableChannel channel, int interestOps, Handler handler) throws IOException {
+        return channel.register(selector, interestOps, handler);
+    }
+
+    void shutDown() {
+        stopped = true;
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!stopped) {
+                selector.select(IDLE_CHECK_INTERVAL_MS);
+
+                Runnable task;
+                while ((task = pendingTasks.poll()) != null) {
+                    try {
+                        task.run();
+                    } catch (Throwable t) {
+                        log.error("Executing task at selector loop failed. " + t.getMessage());
+                        t.printStackTrace();
+                    }
+                }
+
+                Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                while (iterator.hasNext()) {
+                    SelectionKey key = iterator.next();
+                    iterator.remove();
+                    if (key.isValid()) {
+                        try {
+                            ((Handler) key.attachment()).onSelected(key);
+                        } catch (Throwable t) {
+                            log.error("Handling selected key failed. " + t.getMessage());
+                            t.printStackTrace();
+                            key.cancel();
+                        }
+                    }
+                }
+
+                long now = System.currentTimeMillis();
+                if (now - lastIdleCheck >= IDLE_CHECK_INTERVAL_MS) {
+                    lastIdleCheck = now;
+                    checkIdle(now);
+                }
+            }
+        } catch (IOException e) {
+            if (!stopped) {
+                log.error("Selector loop {} failed. {}", name, e.getMessage());
+                e.printStackTrace();
+            }
+        } finally {
+            try {
+                selector.close();
+            } catch (IOException e) {
+                log.debug("Exception at closing selector. " + e.getMessage());
+            }
+        }
+    }
+
+    private void checkIdle(long now) {
+        for (SelectionKey key : selector.keys()) {
+            if (key.isValid()) {
+                try {
+                    ((Handler) key.attachment()).onIdleCheck(now);
+                } catch (Throwable t) {
+                    log.error("Idle check failed. " + t.getMessage());
+                    t.printStackTrace();
+                }
+            }
+        }
+    }
+}
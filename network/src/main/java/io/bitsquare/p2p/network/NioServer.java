@@ -0,0 +1,181 @@
+package io.bitsquare.p2p.network;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.bitsquare.app.Log;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Alternative to Server for nodes with many inbound connections (seed nodes).
+ * Accepts connections with a non-blocking ServerSocketChannel and distributes them over a small pool of
+ * selector loops instead of using a blocking accept thread and one InputHandler thread per connection.
+ * The created InboundConnections use the same MessageListener and ConnectionListener contract as the ones of Server.
+ */
+class NioServer implements NioSelectorLoop.Handler {
+    private static final Logger log = LoggerFactory.getLogger(NioServer.class);
+
+    private static final int NUM_SELECTOR_LOOPS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    private static final int NUM_FRAME_DECODER_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+    private final InetSocketAddress bindAddress;
+    private final long idleTimeoutMs;
+    private final MessageListener messageListener;
+    private final ConnectionListener connectionListener;
+
+    // accessed from different threads
+    private final Set<Connection> connections = new CopyOnWriteArraySet<>();
+    private final NioSelectorLoop[] selectorLoops = new NioSelectorLoop[NUM_SELECTOR_LOOPS];
+    // Runs the stream based InputHandlers until the peer has switched to the framed wire format.
+    // Peers not supporting frames keep their thread as long the connection is open.
+    private final ExecutorService streamDecoderExecutor;
+    private final ExecutorService frameDecoderExecutor;
+    private ServerSocketChannel serverSocketChannel;
+    private int nextSelectorLoop;
+    private volatile boolean stopped;
+
+
+    public NioServer(InetSocketAddress bindAddress, MessageListener messageListener, ConnectionListener connectionListener) {
+        this(bindAddress, Connection.SOCKET_TIMEOUT, messageListener, connectionListener);
+    }
+
+    // Used in tests
+    NioServer(InetSocketAddress bindAddress, long idleTimeoutMs, MessageListener messageListener,
+              ConnectionListener connectionListener) {
+        Log.traceCall();
+        this.bindAddress = bindAddress;
+        this.idleTimeoutMs = idleTimeoutMs;
+        this.messageListener = messageListener;
+        // We remove closed connections as a seed node accepts a lot of them over its lifetime
+        this.connectionListener = new ConnectionListener() {
+            @Override
+            public void onConnection(Connection connection) {
+                connectionListener.onConnection(connection);
+            }
+
+            @Override
+            public void onDisconnect(CloseConnectionReason closeConnectionReason, Connection connection) {
+                connections.remove(connection);
+                connectionListener.onDisconnect(closeConnectionReason, connection);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                connectionListener.onError(throwable);
+            }
+        };
+
+        streamDecoderExecutor = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+                .setNameFormat("NioServer-StreamDecoder-%d")
+                .setDaemon(true)
+                .build());
+        frameDecoderExecutor = Executors.newFixedThreadPool(NUM_FRAME_DECODER_THREADS, new ThreadFactoryBuilder()
+                .setNameFormat("NioServer-FrameDecoder-%d")
+                .setDaemon(true)
+                .build());
+    }
+
+    public void start() throws IOException {
+        Log.traceCall();
+        for (int i = 0; i < selectorLoops.length; i++) {
+            selectorLoops[i] = new NioSelectorLoop("NioServer-" + bindAddress.getPort() + "-Selector-" + i);
+            selectorLoops[i].start();
+        }
+
+        serverSocketChannel = ServerSocketChannel.open();
+        serverSocketChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        serverSocketChannel.bind(bindAddress);
+        serverSocketChannel.configureBlocking(false);
+
+        // The first loop accepts the connections as well
+        selectorLoops[0].execute(() -> {
+            try {
+                selectorLoops[0].register(serverSocketChannel, SelectionKey.OP_ACCEPT, this);
+                log.debug("Ready to accept new clients on " + bindAddress);
+            } catch (IOException e) {
+                log.error("Registering the server socket channel failed. " + e.getMessage());
+                e.printStackTrace();
+            }
+        });
+    }
+
+    // Called on the selector loop
+    @Override
+    public void onSelected(SelectionKey key) {
+        if (!key.isAcceptable())
+            return;
+
+        SocketChannel socketChannel;
+        try {
+            while (!stopped && (socketChannel = serverSocketChannel.accept()) != null) {
+                NioSelectorLoop selectorLoop = selectorLoops[nextSelectorLoop];
+                nextSelectorLoop = (nextSelectorLoop + 1) % selectorLoops.length;
+
+                NioChannel nioChannel = new NioChannel(socketChannel, selectorLoop, streamDecoderExecutor,
+                        frameDecoderExecutor, idleTimeoutMs);
+                InboundConnection connection = new InboundConnection(nioChannel, messageListener, connectionListener);
+
+                log.debug("\n\n%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%\n" +
+                        "NioServer created new inbound connection:"
+                        + "\nlocalPort/port=" + bindAddress.getPort()
+                        + "/" + socketChannel.socket().getPort()
+                        + "\nconnection.uid=" + connection.getUid()
+                        + "\n%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%\n");
+
+                if (!stopped)
+                    connections.add(connection);
+                else
+                    connection.shutDown(CloseConnectionReason.APP_SHUT_DOWN);
+            }
+        } catch (IOException e) {
+            if (!stopped) {
+                log.error("Accepting a new connection failed. " + e.getMessage());
+                e.printStackTrace();
+            }
+        }
+    }
+
+    // The server socket channel has no idle timeout
+    @Override
+    public void onIdleCheck(long now) {
+    }
+
+    public void shutDown() {
+        Log.traceCall();
+        if (!stopped) {
+            stopped = true;
+
+            connections.stream().forEach(c -> c.shutDown(CloseConnectionReason.APP_SHUT_DOWN));
+
+            try {
+                if (serverSocketChannel != null)
+                    serverSocketChannel.close();
+            } catch (IOException e) {
+                log.error("Exception at shutdown. " + e.getMessage());
+                e.printStackTrace();
+            } finally {
+                for (NioSelectorLoop selectorLoop : selectorLoops) {
+                    if (selectorLoop != null)
+                        selectorLoop.shutDown();
+                }
+                MoreExecutors.shutdownAndAwaitTermination(frameDecoderExecutor, 500, TimeUnit.MILLISECONDS);
+                streamDecoderExecutor.shutdownNow();
+                log.debug("NioServer shutdown complete");
+            }
+        } else {
+            log.warn("stopped already called at shutdown");
+        }
+    }
+}
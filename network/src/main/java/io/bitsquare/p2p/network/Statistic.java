@@ -2,8 +2,10 @@ package io.bitsquare.p2p.network;
 
 import io.bitsquare.common.UserThread;
 import io.bitsquare.p2p.Message;
+import javafx.beans.property.DoubleProperty;
 import javafx.beans.property.IntegerProperty;
 import javafx.beans.property.LongProperty;
+import javafx.beans.property.SimpleDoubleProperty;
 import javafx.beans.property.SimpleIntegerProperty;
 import javafx.beans.property.SimpleLongProperty;
 import org.slf4j.Logger;
@@ -52,6 +54,9 @@ public class Statistic {
     private final Map<String, Integer> receivedMessages = new ConcurrentHashMap<>();
     private final Map<String, Integer> sentMessages = new ConcurrentHashMap<>();
     private final IntegerProperty roundTripTime = new SimpleIntegerProperty(0);
+    // Fill level (0-1) of the send throttle token buckets, 0 means we are delaying messages
+    private final DoubleProperty sendMsgBucketFill = new SimpleDoubleProperty(1);
+    private final DoubleProperty sendBytesBucketFill = new SimpleDoubleProperty(1);
 
 
     ///////////////////////////////////////////////////////////////////////////////////////////
@@ -107,6 +112,13 @@ public class Statistic {
         this.roundTripTime.set(roundTripTime);
     }
 
+    public void updateSendThrottleFill(double msgBucketFill, double bytesBucketFill) {
+        UserThread.execute(() -> {
+            sendMsgBucketFill.set(msgBucketFill);
+            sendBytesBucketFill.set(bytesBucketFill);
+        });
+    }
+
     ///////////////////////////////////////////////////////////////////////////////////////////
     // Getters
     ///////////////////////////////////////////////////////////////////////////////////////////
@@ -143,6 +155,22 @@ public class Statistic {
         return roundTripTime;
     }
 
+    public double getSendMsgBucketFill() {
+        return sendMsgBucketFill.get();
+    }
+
+    public DoubleProperty sendMsgBucketFillProperty() {
+        return sendMsgBucketFill;
+    }
+
+    public double getSendBytesBucketFill() {
+        return sendBytesBucketFill.get();
+    }
+
+    public DoubleProperty sendBytesBucketFillProperty() {
+        return sendBytesBucketFill;
+    }
+
     @Override
     public String toString() {
         return "Statistic{" +
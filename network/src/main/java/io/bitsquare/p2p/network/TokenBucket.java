@@ -0,0 +1,56 @@
+package io.bitsquare.p2p.network;
+
+/**
+ * Token bucket used for throttling the messages and bytes we send to a peer.
+ * The bucket is refilled continuously with refillPerSec tokens up to its capacity. Consuming can put the bucket
+ * into debt (e.g. a large message against the byte bucket), the caller has to wait then until it is refilled.
+ * Instead of blocking the caller we only calculate the delay, so the caller can schedule its work.
+ */
+class TokenBucket {
+    private final long capacity;
+    private final double refillPerMilli;
+
+    // guarded by this
+    private double tokens;
+    private long lastRefillTimeStamp;
+
+
+    TokenBucket(long capacity, long refillPerSec) {
+        if (capacity <= 0 || refillPerSec <= 0)
+            throw new IllegalArgumentException("capacity and refillPerSec must be positive");
+
+        this.capacity = capacity;
+        this.refillPerMilli = refillPerSec / 1000d;
+        this.tokens = capacity;
+    }
+
+    /**
+     * @return Milliseconds to wait until the bucket holds at least the given amount of tokens, 0 if it does already.
+     */
+    synchronized long getDelayMillis(long amount, long now) {
+        refill(now);
+        double missing = Math.min(amount, capacity) - tokens;
+        return missing <= 0 ? 0 : (long) Math.ceil(missing / refillPerMilli);
+    }
+
+    synchronized void consume(long amount, long now) {
+        refill(now);
+        tokens -= amount;
+    }
+
+    /**
+     * @return Fill level between 0 and 1. A bucket in debt is reported as empty.
+     */
+    synchronized double getFillRatio(long now) {
+        refill(now);
+        return Math.max(0, tokens) / capacity;
+    }
+
+    private void refill(long now) {
+        if (lastRefillTimeStamp != 0 && now > lastRefillTimeStamp)
+            tokens = Math.min(capacity, tokens + (now - lastRefillTimeStamp) * refillPerMilli);
+
+        if (now > lastRefillTimeStamp)
+            lastRefillTimeStamp = now;
+    }
+}
@@ -27,6 +27,7 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
@@ -85,7 +86,19 @@ public class TorNetworkNode extends NetworkNode {
                                 Log.traceCall("hiddenService created");
                                 TorNetworkNode.this.hiddenServiceDescriptor = hiddenServiceDescriptor;
                                 nodeAddressProperty.set(new NodeAddress(hiddenServiceDescriptor.getFullAddress()));
-                                startServer(hiddenServiceDescriptor.getServerSocket());
+                                if (isUseNioServer()) {
+                                    try {
+                                        // The hidden service forwards to the local port, so we rebind it with a
+                                        // non-blocking channel.
+                                        hiddenServiceDescriptor.getServerSocket().close();
+                                        startNioServer(new InetSocketAddress("127.0.0.1", hiddenServiceDescriptor.getLocalPort()));
+                                    } catch (IOException e) {
+                                        e.printStackTrace();
+                                        log.error("Exception at startNioServer: " + e.getMessage());
+                                    }
+                                } else {
+                                    startServer(hiddenServiceDescriptor.getServerSocket());
+                                }
                                 setupListeners.stream().forEach(SetupListener::onHiddenServicePublished);
                             });
                 });
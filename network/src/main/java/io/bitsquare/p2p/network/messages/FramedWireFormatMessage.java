@@ -0,0 +1,28 @@
+package io.bitsquare.p2p.network.messages;
+
+import io.bitsquare.app.Version;
+import io.bitsquare.p2p.Message;
+
+/**
+ * Last Java serialized object a peer writes to the socket before it switches to length-prefixed frames
+ * (see FrameCodec). Only sent to peers which announced the FRAMED_WIRE_FORMAT capability.
+ * It is consumed by the InputHandler and never delivered to the message listeners.
+ */
+public final class FramedWireFormatMessage implements Message {
+    // That object is sent over the wire, so we need to take care of version compatibility.
+    private static final long serialVersionUID = Version.P2P_NETWORK_VERSION;
+
+    private final int messageVersion = Version.getP2PMessageVersion();
+
+    @Override
+    public int getMessageVersion() {
+        return messageVersion;
+    }
+
+    @Override
+    public String toString() {
+        return "FramedWireFormatMessage{" +
+                "messageVersion=" + messageVersion +
+                '}';
+    }
+}
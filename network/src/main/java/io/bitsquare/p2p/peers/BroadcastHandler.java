@@ -9,6 +9,7 @@ import io.bitsquare.common.UserThread;
 import io.bitsquare.common.util.Utilities;
 import io.bitsquare.p2p.NodeAddress;
 import io.bitsquare.p2p.network.Connection;
+import io.bitsquare.p2p.network.EncodedMessage;
 import io.bitsquare.p2p.network.NetworkNode;
 import io.bitsquare.p2p.storage.messages.BroadcastMessage;
 import org.jetbrains.annotations.NotNull;
@@ -127,6 +128,9 @@ public class BroadcastHandler implements PeerManager.Listener {
             }, timeoutDelay);
 
             log.debug("Broadcast message to {} peers out of {} total connected peers.", numOfPeers, connectedPeersSet.size());
+            // The broadcast messages have a fixed frame schema, so we encode the message only once for all peers
+            // using the framed wire format
+            EncodedMessage encodedMessage = new EncodedMessage(message);
             for (int i = 0; i < numOfPeers; i++) {
                 if (stopped)
                     break;  // do not continue sending after a timeout or a cancellation
@@ -134,7 +138,7 @@ public class BroadcastHandler implements PeerManager.Listener {
                 final long minDelay = (i + 1) * delay;
                 final long maxDelay = (i + 2) * delay;
                 final Connection connection = connectedPeersList.get(i);
-                UserThread.runAfterRandomDelay(() -> sendToPeer(connection, message), minDelay, maxDelay, TimeUnit.MILLISECONDS);
+                UserThread.runAfterRandomDelay(() -> sendToPeer(connection, encodedMessage), minDelay, maxDelay, TimeUnit.MILLISECONDS);
             }
         } else {
             onFault("Message not broadcasted because we have no available peers yet.\n\t" +
@@ -142,7 +146,7 @@ public class BroadcastHandler implements PeerManager.Listener {
         }
     }
 
-    private void sendToPeer(Connection connection, BroadcastMessage message) {
+    private void sendToPeer(Connection connection, EncodedMessage encodedMessage) {
         String errorMessage = "Message not broadcasted because we have stopped the handler already.\n\t" +
                 "message = " + Utilities.toTruncatedString(message);
         if (!stopped) {
@@ -150,7 +154,7 @@ public class BroadcastHandler implements PeerManager.Listener {
                 if (!connection.isCapabilityRequired(message) || connection.isCapabilitySupported(message)) {
                     NodeAddress nodeAddress = connection.getPeersNodeAddressOptional().get();
                     log.trace("Broadcast message to " + nodeAddress + ".");
-                    SettableFuture<Connection> future = networkNode.sendMessage(connection, message);
+                    SettableFuture<Connection> future = networkNode.sendMessage(connection, encodedMessage);
                     Futures.addCallback(future, new FutureCallback<Connection>() {
                         @Override
                         public void onSuccess(Connection connection) {
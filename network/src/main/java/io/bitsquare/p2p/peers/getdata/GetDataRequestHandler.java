@@ -3,6 +3,7 @@ package io.bitsquare.p2p.peers.getdata;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.SettableFuture;
+import io.bitsquare.app.Capabilities;
 import io.bitsquare.app.Log;
 import io.bitsquare.common.Timer;
 import io.bitsquare.common.UserThread;
@@ -10,6 +11,7 @@ import io.bitsquare.common.util.Utilities;
 import io.bitsquare.p2p.network.CloseConnectionReason;
 import io.bitsquare.p2p.network.Connection;
 import io.bitsquare.p2p.network.NetworkNode;
+import io.bitsquare.p2p.peers.getdata.messages.ExcludedKeysFilter;
 import io.bitsquare.p2p.peers.getdata.messages.GetDataRequest;
 import io.bitsquare.p2p.peers.getdata.messages.GetDataResponse;
 import io.bitsquare.p2p.peers.getdata.messages.GetUpdatedDataRequest;
@@ -21,16 +23,18 @@ import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.HashSet;
-import java.util.List;
-import java.util.Set;
+import javax.annotation.Nullable;
+import java.util.*;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 public class GetDataRequestHandler {
     private static final Logger log = LoggerFactory.getLogger(GetDataRequestHandler.class);
 
     private static final long TIME_OUT_SEC = 40;
+    // Keeps a chunk well below the max. message size even with large entries like TradeStatistics
+    private static final int MAX_ENTRIES_PER_CHUNK = 500;
 
 
     ///////////////////////////////////////////////////////////////////////////////////////////
@@ -73,56 +77,74 @@ public class GetDataRequestHandler {
     public void handle(GetDataRequest getDataRequest, final Connection connection) {
         Log.traceCall(getDataRequest + "\n\tconnection=" + connection);
 
-        final HashSet<ProtectedStorageEntry> filteredDataSet = new HashSet<>();
-        final Set<Integer> lookupSet = new HashSet<>();
+        DataSetChunks dataSetChunks = new DataSetChunks(dataStorage.getMap(), getExcludedKeysPredicate(getDataRequest),
+                connection.getSupportedCapabilities());
+        boolean isGetUpdatedDataResponse = getDataRequest instanceof GetUpdatedDataRequest;
+        if (Capabilities.isSupportedByBoth(Capabilities.Capability.GET_DATA_CHUNKED_RESPONSE,
+                connection.getSupportedCapabilities())) {
+            // We send the data in several responses so neither we nor the peer need to hold the whole serialized
+            // data set in memory and the peer can process the first chunk while the next is on the wire.
+            sendResponse(connection, dataSetChunks, getDataRequest.getNonce(), isGetUpdatedDataResponse);
+        } else {
+            GetDataResponse getDataResponse = new GetDataResponse(dataSetChunks.next(Integer.MAX_VALUE),
+                    getDataRequest.getNonce(), isGetUpdatedDataResponse);
+            sendResponse(connection, getDataResponse, () -> {
+                cleanup();
+                listener.onComplete();
+            });
+        }
+    }
+
+    public void stop() {
+        cleanup();
+    }
+
+    private Predicate<P2PDataStorage.ByteArray> getExcludedKeysPredicate(GetDataRequest getDataRequest) {
+        final ExcludedKeysFilter excludedKeysFilter = getDataRequest.getExcludedKeysFilter();
+        if (excludedKeysFilter != null) {
+            if (excludedKeysFilter.isValid()) {
+                // We might not send an entry the peer is missing in case of a false positive, but the filter is 
+                // seeded with the nonce so the next request will have other false positives.
+                return key -> excludedKeysFilter.mightContain(key.bytes);
+            } else {
+                log.warn("We got an invalid excludedKeysFilter. We ignore it. excludedKeysFilter=" + excludedKeysFilter);
+            }
+        }
 
         Set<P2PDataStorage.ByteArray> excludedItems = getDataRequest.getExcludedKeys() != null ?
                 getDataRequest.getExcludedKeys().stream()
                         .map(P2PDataStorage.ByteArray::new)
                         .collect(Collectors.toSet())
                 : new HashSet<>();
+        return excludedItems::contains;
+    }
 
-        for (ProtectedStorageEntry protectedStorageEntry : dataStorage.getFilteredValues(excludedItems)) {
-            final StoragePayload storagePayload = protectedStorageEntry.getStoragePayload();
-            boolean doAdd = false;
-            if (storagePayload instanceof CapabilityRequiringPayload) {
-                final List<Integer> requiredCapabilities = ((CapabilityRequiringPayload) storagePayload).getRequiredCapabilities();
-                final List<Integer> supportedCapabilities = connection.getSupportedCapabilities();
-                if (supportedCapabilities != null) {
-                    for (int messageCapability : requiredCapabilities) {
-                        for (int connectionCapability : supportedCapabilities) {
-                            if (messageCapability == connectionCapability) {
-                                doAdd = true;
-                                break;
-                            }
-                        }
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    private void sendResponse(Connection connection, DataSetChunks dataSetChunks, int nonce,
+                              boolean isGetUpdatedDataResponse) {
+        HashSet<ProtectedStorageEntry> chunk = dataSetChunks.next(MAX_ENTRIES_PER_CHUNK);
+        boolean hasMoreChunks = dataSetChunks.hasNext();
+        GetDataResponse getDataResponse = new GetDataResponse(chunk, nonce, isGetUpdatedDataResponse, hasMoreChunks);
+        sendResponse(connection, getDataResponse, () -> {
+            if (hasMoreChunks) {
+                UserThread.execute(() -> {
+                    if (!stopped) {
+                        // Each chunk gets its own timeout
+                        stopTimeoutTimer();
+                        sendResponse(connection, dataSetChunks, nonce, isGetUpdatedDataResponse);
                     }
-                    if (!doAdd)
-                        log.debug("We do not send the message to the peer because he does not support the required capability for that message type.\n" +
-                                "Required capabilities is: " + requiredCapabilities.toString() + "\n" +
-                                "Supported capabilities is: " + supportedCapabilities.toString() + "\n" +
-                                "storagePayload is: " + Utilities.toTruncatedString(storagePayload));
-                } else {
-                    log.debug("We do not send the message to the peer because he uses an old version which does not support capabilities.\n" +
-                            "Required capabilities is: " + requiredCapabilities.toString() + "\n" +
-                            "storagePayload is: " + Utilities.toTruncatedString(storagePayload));
-                }
+                });
             } else {
-                doAdd = true;
+                cleanup();
+                listener.onComplete();
             }
-            if (doAdd) {
-                // We have TradeStatistic data of both traders but we only send 1 item, 
-                // so we use lookupSet as for a fast lookup. Using filteredDataSet would require a loop as it stores 
-                // protectedStorageEntry not storagePayload. protectedStorageEntry is different for both traders but storagePayload not, 
-                // as we ignore the pubKey and data there in the hashCode method.
-                boolean notContained = lookupSet.add(storagePayload.hashCode());
-                if (notContained)
-                    filteredDataSet.add(protectedStorageEntry);
-            }
-        }
-
-        GetDataResponse getDataResponse = new GetDataResponse(filteredDataSet, getDataRequest.getNonce(), getDataRequest instanceof GetUpdatedDataRequest);
+        });
+    }
 
+    private void sendResponse(Connection connection, GetDataResponse getDataResponse, Runnable resultHandler) {
         if (timeoutTimer == null) {
             timeoutTimer = UserThread.runAfter(() -> {  // setup before sending to avoid race conditions
                         String errorMessage = "A timeout occurred for getDataResponse:" + getDataResponse +
@@ -139,8 +161,7 @@ public class GetDataRequestHandler {
                 if (!stopped) {
                     log.trace("Send DataResponse to {} succeeded. getDataResponse={}",
                             connection.getPeersNodeAddressOptional(), getDataResponse);
-                    cleanup();
-                    listener.onComplete();
+                    resultHandler.run();
                 } else {
                     log.trace("We have stopped already. We ignore that networkNode.sendMessage.onSuccess call.");
                 }
@@ -160,14 +181,6 @@ public class GetDataRequestHandler {
         });
     }
 
-    public void stop() {
-        cleanup();
-    }
-
-    ///////////////////////////////////////////////////////////////////////////////////////////
-    // Private
-    ///////////////////////////////////////////////////////////////////////////////////////////
-
     private void handleFault(String errorMessage, CloseConnectionReason closeConnectionReason, Connection connection) {
         if (!stopped) {
             log.debug(errorMessage + "\n\tcloseConnectionReason=" + closeConnectionReason);
@@ -180,9 +193,90 @@ public class GetDataRequestHandler {
 
     private void cleanup() {
         stopped = true;
+        stopTimeoutTimer();
+    }
+
+    private void stopTimeoutTimer() {
         if (timeoutTimer != null) {
             timeoutTimer.stop();
             timeoutTimer = null;
         }
     }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Static classes
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * The entries we send, built chunk by chunk from a snapshot of the keys. So we don't hold a copy of all entries
+     * while the chunks are on the wire. Entries removed in the meantime get skipped, entries added in the meantime
+     * are not sent as the peer gets them by broadcast.
+     */
+    static class DataSetChunks {
+        private final Map<P2PDataStorage.ByteArray, ProtectedStorageEntry> map;
+        private final List<P2PDataStorage.ByteArray> keys;
+        private final Predicate<P2PDataStorage.ByteArray> isExcluded;
+        @Nullable
+        private final List<Integer> supportedCapabilities;
+        // We have TradeStatistic data of both traders but we only send 1 item, 
+        // so we use lookupSet as for a fast lookup. protectedStorageEntry is different for both traders but 
+        // storagePayload not, as we ignore the pubKey and data there in the hashCode method.
+        private final Set<Integer> lookupSet = new HashSet<>();
+        private int index;
+
+        DataSetChunks(Map<P2PDataStorage.ByteArray, ProtectedStorageEntry> map,
+                      Predicate<P2PDataStorage.ByteArray> isExcluded,
+                      @Nullable List<Integer> supportedCapabilities) {
+            this.map = map;
+            this.isExcluded = isExcluded;
+            this.supportedCapabilities = supportedCapabilities;
+            keys = new ArrayList<>(map.keySet());
+        }
+
+        boolean hasNext() {
+            return index < keys.size();
+        }
+
+        /**
+         * @return Up to maxEntries of the remaining entries. Can be empty if all remaining entries got filtered.
+         */
+        HashSet<ProtectedStorageEntry> next(int maxEntries) {
+            HashSet<ProtectedStorageEntry> chunk = new HashSet<>();
+            while (chunk.size() < maxEntries && index < keys.size()) {
+                P2PDataStorage.ByteArray key = keys.get(index++);
+                ProtectedStorageEntry protectedStorageEntry = map.get(key);
+                if (protectedStorageEntry != null && !isExcluded.test(key)) {
+                    StoragePayload storagePayload = protectedStorageEntry.getStoragePayload();
+                    if (isSupported(storagePayload) && lookupSet.add(storagePayload.hashCode()))
+                        chunk.add(protectedStorageEntry);
+                }
+            }
+            return chunk;
+        }
+
+        private boolean isSupported(StoragePayload storagePayload) {
+            if (!(storagePayload instanceof CapabilityRequiringPayload))
+                return true;
+
+            final List<Integer> requiredCapabilities = ((CapabilityRequiringPayload) storagePayload).getRequiredCapabilities();
+            if (supportedCapabilities != null) {
+                for (int messageCapability : requiredCapabilities) {
+                    for (int connectionCapability : supportedCapabilities) {
+                        if (messageCapability == connectionCapability)
+                            return true;
+                    }
+                }
+                log.debug("We do not send the message to the peer because he does not support the required capability for that message type.\n" +
+                        "Required capabilities is: " + requiredCapabilities.toString() + "\n" +
+                        "Supported capabilities is: " + supportedCapabilities.toString() + "\n" +
+                        "storagePayload is: " + Utilities.toTruncatedString(storagePayload));
+            } else {
+                log.debug("We do not send the message to the peer because he uses an old version which does not support capabilities.\n" +
+                        "Required capabilities is: " + requiredCapabilities.toString() + "\n" +
+                        "storagePayload is: " + Utilities.toTruncatedString(storagePayload));
+            }
+            return false;
+        }
+    }
 }
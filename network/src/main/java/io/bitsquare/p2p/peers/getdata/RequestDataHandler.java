@@ -3,6 +3,7 @@ package io.bitsquare.p2p.peers.getdata;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.SettableFuture;
+import io.bitsquare.app.Capabilities;
 import io.bitsquare.app.Log;
 import io.bitsquare.common.Timer;
 import io.bitsquare.common.UserThread;
@@ -13,6 +14,7 @@ import io.bitsquare.p2p.network.Connection;
 import io.bitsquare.p2p.network.MessageListener;
 import io.bitsquare.p2p.network.NetworkNode;
 import io.bitsquare.p2p.peers.PeerManager;
+import io.bitsquare.p2p.peers.getdata.messages.ExcludedKeysFilter;
 import io.bitsquare.p2p.peers.getdata.messages.GetDataRequest;
 import io.bitsquare.p2p.peers.getdata.messages.GetDataResponse;
 import io.bitsquare.p2p.peers.getdata.messages.GetUpdatedDataRequest;
@@ -101,10 +103,19 @@ public class RequestDataHandler implements MessageListener {
                     .map(e -> e.getKey().bytes)
                     .collect(Collectors.toSet());
 
+            // If we know that the peer supports it we send a compact bloom filter instead of the keys.
+            ExcludedKeysFilter excludedKeysFilter = null;
+            if (isExcludedKeysFilterSupported(nodeAddress)) {
+                excludedKeysFilter = ExcludedKeysFilter.create(excludedKeys, nonce);
+                log.debug("We use an excludedKeysFilter with {} bytes for {} excluded keys", excludedKeysFilter.getNumBytes(),
+                        excludedKeys.size());
+                excludedKeys = new HashSet<>();
+            }
+
             if (isPreliminaryDataRequest)
-                getDataRequest = new PreliminaryGetDataRequest(nonce, excludedKeys);
+                getDataRequest = new PreliminaryGetDataRequest(nonce, excludedKeys, excludedKeysFilter);
             else
-                getDataRequest = new GetUpdatedDataRequest(networkNode.getNodeAddress(), nonce, excludedKeys);
+                getDataRequest = new GetUpdatedDataRequest(networkNode.getNodeAddress(), nonce, excludedKeys, excludedKeysFilter);
 
             if (timeoutTimer == null) {
                 timeoutTimer = UserThread.runAfter(() -> {  // setup before sending to avoid race conditions
@@ -191,18 +202,18 @@ public class RequestDataHandler implements MessageListener {
                         final NodeAddress sender = connection.getPeersNodeAddressOptional().get();
 
                         List<ProtectedStorageEntry> processDelayedItems = new ArrayList<>();
+                        List<ProtectedStorageEntry> items = new ArrayList<>();
                         dataSet.stream().forEach(e -> {
                             if (e.getStoragePayload() instanceof LazyProcessedStoragePayload)
                                 processDelayedItems.add(e);
-                            else {
-                                // We dont broadcast here (last param) as we are only connected to the seed node and would be pointless
-                                dataStorage.add(e, sender, null, false, false);
-                            }
+                            else
+                                items.add(e);
                         });
 
                         // We process the LazyProcessedStoragePayload items (TradeStatistics) in batches with a delay in between.
                         // We want avoid that the UI get stuck when processing many entries.
-                        // The dataStorage.add call is a bit expensive as sig checks is done there.
+                        // The dataStorage.add call is a bit expensive as sig checks is done there. With addAll the
+                        // sig checks are done on a worker pool, but adding still triggers the listeners on the UserThread.
 
                         // Using a background thread might be an alternative but it would require much more effort and 
                         // it would also decrease user experience if the app gets under heavy load (like at startup with wallet sync).
@@ -221,13 +232,32 @@ public class RequestDataHandler implements MessageListener {
                             long delay = (i + 1) * 200;
                             int endIndex = Math.min(size, startIndex + chunkSize);
                             List<ProtectedStorageEntry> subList = processDelayedItems.subList(startIndex, endIndex);
-                            UserThread.runAfter(() -> {
-                                subList.stream().forEach(protectedStorageEntry -> dataStorage.add(protectedStorageEntry, sender, null, false, false));
-                            }, delay, TimeUnit.MILLISECONDS);
+                            UserThread.runAfter(() -> dataStorage.addAll(subList, sender, null), delay, TimeUnit.MILLISECONDS);
                         }
 
-                        cleanup();
-                        listener.onComplete();
+                        // The signatures are verified in parallel before the items get added. We don't broadcast
+                        // them as we are only connected to the seed node and it would be pointless.
+                        if (getDataResponse.hasMoreChunks()) {
+                            dataStorage.addAll(items, sender, null);
+
+                            // The peer sends the data in several responses. We wait for the next one with a new timeout.
+                            log.debug("We got a chunk of the getDataResponse and wait for the next one from {}", sender);
+                            timeoutTimer = UserThread.runAfter(() -> {
+                                        if (!stopped) {
+                                            String errorMessage = "A timeout occurred at waiting for the next chunk of " +
+                                                    "getDataResponse from nodeAddress:" + sender;
+                                            log.debug(errorMessage + " / RequestDataHandler=" + RequestDataHandler.this);
+                                            handleFault(errorMessage, sender, CloseConnectionReason.SEND_MSG_TIMEOUT);
+                                        } else {
+                                            log.trace("We have stopped already. We ignore that timeoutTimer.run call.");
+                                        }
+                                    },
+                                    TIME_OUT_SEC);
+                        } else {
+                            cleanup();
+                            // Batches are added in order, so all chunks are added once that one is completed
+                            dataStorage.addAll(items, sender, listener::onComplete);
+                        }
                     } else {
                         log.debug("Nonce not matching. That can happen rarely if we get a response after a canceled " +
                                         "handshake (timeout causes connection close but peer might have sent a msg before " +
@@ -253,6 +283,15 @@ public class RequestDataHandler implements MessageListener {
     ///////////////////////////////////////////////////////////////////////////////////////////
 
 
+    // We know the capabilities of the peer only if we have a connection where it has sent them already
+    private boolean isExcludedKeysFilterSupported(NodeAddress nodeAddress) {
+        return networkNode.getAllConnections().stream()
+                .filter(connection -> connection.getPeersNodeAddressOptional().isPresent() &&
+                        connection.getPeersNodeAddressOptional().get().equals(nodeAddress))
+                .anyMatch(connection -> Capabilities.isSupportedByBoth(Capabilities.Capability.GET_DATA_KEY_FILTER,
+                        connection.getSupportedCapabilities()));
+    }
+
     private void handleFault(String errorMessage, NodeAddress nodeAddress, CloseConnectionReason closeConnectionReason) {
         cleanup();
         //peerManager.shutDownConnection(nodeAddress, closeConnectionReason);
@@ -0,0 +1,142 @@
+package io.bitsquare.p2p.peers.getdata.messages;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import io.bitsquare.app.Version;
+import io.bitsquare.common.wire.Payload;
+
+import java.util.Collection;
+
+/**
+ * Bloom filter of the keys a node has already, used in a GetDataRequest instead of the full list of keys.
+ * At 10 000 keys the filter has about 18 kb compared to about 450 kb of the serialized key set.
+ * <p>
+ * A false positive causes that the responder does not send an entry we are missing. To not miss the same entries
+ * at each request the hash functions are seeded with the nonce of the request, so the next request has other
+ * false positives.
+ */
+public final class ExcludedKeysFilter implements Payload {
+    // That object is sent over the wire, so we need to take care of version compatibility.
+    private static final long serialVersionUID = Version.P2P_NETWORK_VERSION;
+
+    static final double FALSE_POSITIVE_RATE = 0.001;
+    // We don't accept filters larger than that (1 million keys at the false positive rate above)
+    private static final int MAX_NUM_BYTES = 2 * 1024 * 1024;
+    private static final int MAX_NUM_HASH_FUNCTIONS = 20;
+
+    private final byte[] bits;
+    private final int numHashFunctions;
+    private final int seed;
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Constructor
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    private ExcludedKeysFilter(byte[] bits, int numHashFunctions, int seed) {
+        this.bits = bits;
+        this.numHashFunctions = numHashFunctions;
+        this.seed = seed;
+    }
+
+    public static ExcludedKeysFilter create(Collection<byte[]> keys, int seed) {
+        int numKeys = Math.max(1, keys.size());
+        long numBits = Math.max(64, (long) Math.ceil(-numKeys * Math.log(FALSE_POSITIVE_RATE) / (Math.log(2) * Math.log(2))));
+        int numBytes = (int) Math.min(MAX_NUM_BYTES, (numBits + 7) / 8);
+        int numHashFunctions = (int) Math.max(1, Math.min(MAX_NUM_HASH_FUNCTIONS,
+                Math.round((double) numBytes * 8 / numKeys * Math.log(2))));
+
+        ExcludedKeysFilter filter = new ExcludedKeysFilter(new byte[numBytes], numHashFunctions, seed);
+        keys.stream().forEach(filter::put);
+        return filter;
+    }
+
+    /**
+     * Used by FrameCodec for received filters. Check isValid before using it.
+     */
+    public static ExcludedKeysFilter fromBits(byte[] bits, int numHashFunctions, int seed) {
+        return new ExcludedKeysFilter(bits, numHashFunctions, seed);
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // API
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    public boolean mightContain(byte[] key) {
+        long numBits = (long) bits.length * 8;
+        long[] hashes = getHashes(key);
+        for (int i = 0; i < numHashFunctions; i++) {
+            long bitIndex = getBitIndex(hashes, i, numBits);
+            if ((bits[(int) (bitIndex >>> 3)] & (1 << (bitIndex & 7))) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return False if the filter was not created by us and its size is outside of the limits we accept.
+     */
+    public boolean isValid() {
+        return bits != null && bits.length > 0 && bits.length <= MAX_NUM_BYTES
+                && numHashFunctions > 0 && numHashFunctions <= MAX_NUM_HASH_FUNCTIONS;
+    }
+
+    public int getNumBytes() {
+        return bits.length;
+    }
+
+    /**
+     * @return The bits of the filter. Must not be modified by the caller.
+     */
+    public byte[] getBits() {
+        return bits;
+    }
+
+    public int getNumHashFunctions() {
+        return numHashFunctions;
+    }
+
+    public int getSeed() {
+        return seed;
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    private void put(byte[] key) {
+        long numBits = (long) bits.length * 8;
+        long[] hashes = getHashes(key);
+        for (int i = 0; i < numHashFunctions; i++) {
+            long bitIndex = getBitIndex(hashes, i, numBits);
+            bits[(int) (bitIndex >>> 3)] |= (1 << (bitIndex & 7));
+        }
+    }
+
+    // We derive all hash functions from the 2 halves of one 128 bit hash (Kirsch-Mitzenmacher)
+    private long[] getHashes(byte[] key) {
+        HashCode hashCode = Hashing.murmur3_128(seed).hashBytes(key);
+        byte[] bytes = hashCode.asBytes();
+        long hash1 = 0;
+        long hash2 = 0;
+        for (int i = 0; i < 8; i++) {
+            hash1 = (hash1 << 8) | (bytes[i] & 0xFF);
+            hash2 = (hash2 << 8) | (bytes[i + 8] & 0xFF);
+        }
+        return new long[]{hash1, hash2};
+    }
+
+    private static long getBitIndex(long[] hashes, int i, long numBits) {
+        return ((hashes[0] + i * hashes[1]) & Long.MAX_VALUE) % numBits;
+    }
+
+    @Override
+    public String toString() {
+        return "ExcludedKeysFilter{" +
+                "numBytes=" + bits.length +
+                ", numHashFunctions=" + numHashFunctions +
+                '}';
+    }
+}
@@ -2,10 +2,15 @@ package io.bitsquare.p2p.peers.getdata.messages;
 
 import io.bitsquare.p2p.Message;
 
+import javax.annotation.Nullable;
 import java.util.Set;
 
 public interface GetDataRequest extends Message {
     int getNonce();
 
     Set<byte[]> getExcludedKeys();
+
+    // Only set if the peer supports the GET_DATA_KEY_FILTER capability. The excludedKeys are empty in that case.
+    @Nullable
+    ExcludedKeysFilter getExcludedKeysFilter();
 }
@@ -17,14 +17,34 @@ public final class GetDataResponse implements SupportedCapabilitiesMessage {
     public final HashSet<ProtectedStorageEntry> dataSet;
     public final int requestNonce;
     public final boolean isGetUpdatedDataResponse;
+    // Set if the data are sent in several responses and more will follow. Responses of peers not supporting
+    // GET_DATA_CHUNKED_RESPONSE don't have that field, so it is false as expected for a single response.
+    private final boolean hasMoreChunks;
 
     @Nullable
     private ArrayList<Integer> supportedCapabilities = Capabilities.getCapabilities();
 
     public GetDataResponse(HashSet<ProtectedStorageEntry> dataSet, int requestNonce, boolean isGetUpdatedDataResponse) {
+        this(dataSet, requestNonce, isGetUpdatedDataResponse, false);
+    }
+
+    public GetDataResponse(HashSet<ProtectedStorageEntry> dataSet, int requestNonce, boolean isGetUpdatedDataResponse,
+                           boolean hasMoreChunks) {
         this.dataSet = dataSet;
         this.requestNonce = requestNonce;
         this.isGetUpdatedDataResponse = isGetUpdatedDataResponse;
+        this.hasMoreChunks = hasMoreChunks;
+    }
+
+    // Used by FrameCodec for received responses, which carry the capabilities of the peer
+    public GetDataResponse(HashSet<ProtectedStorageEntry> dataSet, int requestNonce, boolean isGetUpdatedDataResponse,
+                           boolean hasMoreChunks, @Nullable ArrayList<Integer> supportedCapabilities) {
+        this(dataSet, requestNonce, isGetUpdatedDataResponse, hasMoreChunks);
+        this.supportedCapabilities = supportedCapabilities;
+    }
+
+    public boolean hasMoreChunks() {
+        return hasMoreChunks;
     }
 
     @Override
@@ -43,6 +63,7 @@ public final class GetDataResponse implements SupportedCapabilitiesMessage {
         return "GetDataResponse{" +
                 "dataSet.size()=" + dataSet.size() +
                 ", isGetUpdatedDataResponse=" + isGetUpdatedDataResponse +
+                ", hasMoreChunks=" + hasMoreChunks +
                 ", requestNonce=" + requestNonce +
                 ", supportedCapabilities=" + supportedCapabilities +
                 ", messageVersion=" + messageVersion +
@@ -4,6 +4,7 @@ import io.bitsquare.app.Version;
 import io.bitsquare.p2p.NodeAddress;
 import io.bitsquare.p2p.network.messages.SendersNodeAddressMessage;
 
+import javax.annotation.Nullable;
 import java.util.Set;
 
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -16,12 +17,20 @@ public final class GetUpdatedDataRequest implements SendersNodeAddressMessage, G
     private final NodeAddress senderNodeAddress;
     private final int nonce;
     private final Set<byte[]> excludedKeys;
+    @Nullable
+    private final ExcludedKeysFilter excludedKeysFilter;
 
     public GetUpdatedDataRequest(NodeAddress senderNodeAddress, int nonce, Set<byte[]> excludedKeys) {
+        this(senderNodeAddress, nonce, excludedKeys, null);
+    }
+
+    public GetUpdatedDataRequest(NodeAddress senderNodeAddress, int nonce, Set<byte[]> excludedKeys,
+                                 @Nullable ExcludedKeysFilter excludedKeysFilter) {
         checkNotNull(senderNodeAddress, "senderNodeAddress must not be null at GetUpdatedDataRequest");
         this.senderNodeAddress = senderNodeAddress;
         this.nonce = nonce;
         this.excludedKeys = excludedKeys;
+        this.excludedKeysFilter = excludedKeysFilter;
     }
 
     @Override
@@ -39,6 +48,12 @@ public final class GetUpdatedDataRequest implements SendersNodeAddressMessage, G
         return excludedKeys;
     }
 
+    @Override
+    @Nullable
+    public ExcludedKeysFilter getExcludedKeysFilter() {
+        return excludedKeysFilter;
+    }
+
     @Override
     public int getMessageVersion() {
         return messageVersion;
@@ -49,6 +64,7 @@ public final class GetUpdatedDataRequest implements SendersNodeAddressMessage, G
         return "GetUpdatedDataRequest{" +
                 "senderNodeAddress=" + senderNodeAddress +
                 ", nonce=" + nonce +
+                ", excludedKeysFilter=" + excludedKeysFilter +
                 ", messageVersion=" + messageVersion +
                 '}';
     }
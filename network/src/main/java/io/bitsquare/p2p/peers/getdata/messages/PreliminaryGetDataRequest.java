@@ -18,10 +18,24 @@ public final class PreliminaryGetDataRequest implements AnonymousMessage, GetDat
     private final Set<byte[]> excludedKeys;
     @Nullable
     private ArrayList<Integer> supportedCapabilities = Capabilities.getCapabilities();
+    @Nullable
+    private final ExcludedKeysFilter excludedKeysFilter;
 
     public PreliminaryGetDataRequest(int nonce, Set<byte[]> excludedKeys) {
+        this(nonce, excludedKeys, null);
+    }
+
+    public PreliminaryGetDataRequest(int nonce, Set<byte[]> excludedKeys, @Nullable ExcludedKeysFilter excludedKeysFilter) {
         this.nonce = nonce;
         this.excludedKeys = excludedKeys;
+        this.excludedKeysFilter = excludedKeysFilter;
+    }
+
+    // Used by FrameCodec for received requests, which carry the capabilities of the peer
+    public PreliminaryGetDataRequest(int nonce, Set<byte[]> excludedKeys, @Nullable ExcludedKeysFilter excludedKeysFilter,
+                                     @Nullable ArrayList<Integer> supportedCapabilities) {
+        this(nonce, excludedKeys, excludedKeysFilter);
+        this.supportedCapabilities = supportedCapabilities;
     }
 
     @Override
@@ -40,6 +54,12 @@ public final class PreliminaryGetDataRequest implements AnonymousMessage, GetDat
         return excludedKeys;
     }
 
+    @Override
+    @Nullable
+    public ExcludedKeysFilter getExcludedKeysFilter() {
+        return excludedKeysFilter;
+    }
+
     @Override
     public int getMessageVersion() {
         return messageVersion;
@@ -50,6 +70,7 @@ public final class PreliminaryGetDataRequest implements AnonymousMessage, GetDat
         return "PreliminaryGetDataRequest{" +
                 "nonce=" + nonce +
                 ", supportedCapabilities=" + supportedCapabilities +
+                ", excludedKeysFilter=" + excludedKeysFilter +
                 ", messageVersion=" + messageVersion +
                 '}';
     }
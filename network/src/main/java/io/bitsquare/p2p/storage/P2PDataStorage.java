@@ -1,6 +1,9 @@
 package io.bitsquare.p2p.storage;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.bitsquare.app.Log;
 import io.bitsquare.app.Version;
 import io.bitsquare.common.Timer;
@@ -22,8 +25,8 @@ import io.bitsquare.p2p.storage.payload.*;
 import io.bitsquare.p2p.storage.storageentry.ProtectedMailboxStorageEntry;
 import io.bitsquare.p2p.storage.storageentry.ProtectedStorageEntry;
 import io.bitsquare.storage.FileUtil;
+import io.bitsquare.storage.LogStorage;
 import io.bitsquare.storage.ResourceNotFoundException;
-import io.bitsquare.storage.Storage;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -37,9 +40,8 @@ import java.nio.file.Paths;
 import java.security.KeyPair;
 import java.security.PublicKey;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArraySet;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 // Run in UserThread
@@ -54,14 +56,35 @@ public class P2PDataStorage implements MessageListener, ConnectionListener {
     @VisibleForTesting
     public static int CHECK_TTL_INTERVAL_SEC = 60;
 
+    private static final int MAX_VERIFIED_SIGNATURES = 20_000;
+    private static final int MAX_SIGNATURE_VERIFICATION_THREADS = 4;
+
     private final Broadcaster broadcaster;
     private final Map<ByteArray, ProtectedStorageEntry> map = new ConcurrentHashMap<>();
+    // Secondary indexes of map. They are only changed together with map in putEntry and removeEntry.
+    private final Map<Class<? extends StoragePayload>, Map<ByteArray, ProtectedStorageEntry>> entriesByPayloadType = new ConcurrentHashMap<>();
+    private final Map<NodeAddress, Map<ByteArray, ProtectedStorageEntry>> entriesByOwnerNodeAddress = new ConcurrentHashMap<>();
+    // Entries ordered by expiry time, so the TTL check only visits the due entries. An entry which got replaced,
+    // removed or refreshed leaves a stale record which is dropped or rescheduled once it is due.
+    // Only accessed from the UserThread.
+    private final PriorityQueue<ExpiryRecord> expiryQueue = new PriorityQueue<>();
+    private long numPurgedEntries;
     private final CopyOnWriteArraySet<HashMapChangedListener> hashMapChangedListeners = new CopyOnWriteArraySet<>();
     private Timer removeExpiredEntriesTimer;
     private HashMap<ByteArray, MapValue> sequenceNumberMap = new HashMap<>();
-    private final Storage<HashMap<ByteArray, MapValue>> sequenceNumberMapStorage;
+    // We append only the changes instead of writing the whole map at each change
+    private final LogStorage<ByteArray, MapValue> sequenceNumberMapStorage;
     private HashMap<ByteArray, ProtectedStorageEntry> persistedMap = new HashMap<>();
-    private final Storage<HashMap<ByteArray, ProtectedStorageEntry>> persistedEntryMapStorage;
+    private final LogStorage<ByteArray, ProtectedStorageEntry> persistedEntryMapStorage;
+    private final Cache<ExpirablePayload, byte[]> payloadHashCache = CacheBuilder.newBuilder().weakKeys().build();
+    // We get the same entries from several peers at broadcasts, so we remember the signatures we have verified already.
+    // Only successful verifications are cached. The key is a hash over public key, signed data and signature.
+    private final Cache<ByteArray, Boolean> verifiedSignatures = CacheBuilder.newBuilder()
+            .maximumSize(MAX_VERIFIED_SIGNATURES)
+            .build();
+    private final ThreadPoolExecutor signatureVerificationExecutor;
+    // Batches of addAll in the order of the calls. Guarded by itself.
+    private final Queue<AddBatch> pendingAddBatches = new ArrayDeque<>();
 
 
     ///////////////////////////////////////////////////////////////////////////////////////////
@@ -74,8 +97,18 @@ public class P2PDataStorage implements MessageListener, ConnectionListener {
         networkNode.addMessageListener(this);
         networkNode.addConnectionListener(this);
 
-        sequenceNumberMapStorage = new Storage<>(storageDir);
-        persistedEntryMapStorage = new Storage<>(storageDir);
+        sequenceNumberMapStorage = new LogStorage<>(storageDir);
+        persistedEntryMapStorage = new LogStorage<>(storageDir);
+
+        int numThreads = Math.max(1, Math.min(MAX_SIGNATURE_VERIFICATION_THREADS,
+                Runtime.getRuntime().availableProcessors() - 1));
+        signatureVerificationExecutor = new ThreadPoolExecutor(numThreads, numThreads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                new ThreadFactoryBuilder()
+                        .setNameFormat("SignatureVerification-%d")
+                        .setDaemon(true)
+                        .build());
+        signatureVerificationExecutor.allowCoreThreadTimeOut(true);
 
         init(storageDir);
     }
@@ -84,7 +117,8 @@ public class P2PDataStorage implements MessageListener, ConnectionListener {
         sequenceNumberMapStorage.setNumMaxBackupFiles(5);
         persistedEntryMapStorage.setNumMaxBackupFiles(1);
         
-        HashMap<ByteArray, MapValue> persistedSequenceNumberMap = sequenceNumberMapStorage.<HashMap<ByteArray, MapValue>>initAndGetPersistedWithFileName("SequenceNumberMap");
+        HashMap<ByteArray, MapValue> persistedSequenceNumberMap = sequenceNumberMapStorage.initAndGetPersistedWithFileName("SequenceNumberMap",
+                () -> new HashMap<>(sequenceNumberMap));
         if (persistedSequenceNumberMap != null)
             sequenceNumberMap = getPurgedSequenceNumberMap(persistedSequenceNumberMap);
 
@@ -106,10 +140,11 @@ public class P2PDataStorage implements MessageListener, ConnectionListener {
             log.debug(storageFileName + " file exists already.");
         }
 
-        HashMap<ByteArray, ProtectedStorageEntry> persisted = persistedEntryMapStorage.<HashMap<ByteArray, MapValue>>initAndGetPersistedWithFileName(storageFileName);
+        HashMap<ByteArray, ProtectedStorageEntry> persisted = persistedEntryMapStorage.initAndGetPersistedWithFileName(storageFileName,
+                () -> new HashMap<>(persistedMap));
         if (persisted != null) {
             persistedMap = persisted;
-            map.putAll(persistedMap);
+            persistedMap.entrySet().stream().forEach(e -> putEntry(e.getKey(), e.getValue()));
 
             // In case another object is already listening...
             map.values().stream()
@@ -120,37 +155,53 @@ public class P2PDataStorage implements MessageListener, ConnectionListener {
     public void shutDown() {
         if (removeExpiredEntriesTimer != null)
             removeExpiredEntriesTimer.stop();
+
+        sequenceNumberMapStorage.shutDown();
+        persistedEntryMapStorage.shutDown();
+        signatureVerificationExecutor.shutdownNow();
     }
 
     public void onBootstrapComplete() {
-        removeExpiredEntriesTimer = UserThread.runPeriodically(() -> {
-            log.trace("removeExpiredEntries");
-            // The moment when an object becomes expired will not be synchronous in the network and we could 
-            // get add messages after the object has expired. To avoid repeated additions of already expired 
-            // object when we get it sent from new peers, we don’t remove the sequence number from the map. 
-            // That way an ADD message for an already expired data will fail because the sequence number 
-            // is equal and not larger as expected. 
-            Map<ByteArray, ProtectedStorageEntry> temp = new HashMap<>(map);
-            Set<ProtectedStorageEntry> toRemoveSet = new HashSet<>();
-            temp.entrySet().stream()
-                    .filter(entry -> entry.getValue().isExpired())
-                    .forEach(entry -> {
-                        ByteArray hashOfPayload = entry.getKey();
-                        ProtectedStorageEntry protectedStorageEntry = map.get(hashOfPayload);
-                        if (!(protectedStorageEntry.getStoragePayload() instanceof PersistedStoragePayload)) {
-                            toRemoveSet.add(protectedStorageEntry);
-                            log.debug("We found an expired data entry. We remove the protectedData:\n\t" + Utilities.toTruncatedString(protectedStorageEntry));
-                            map.remove(hashOfPayload);
-                        }
-                    });
+        removeExpiredEntriesTimer = UserThread.runPeriodically(this::removeExpiredEntries, CHECK_TTL_INTERVAL_SEC);
+    }
+
+    // Called by the timer, package private for tests
+    void removeExpiredEntries() {
+        log.trace("removeExpiredEntries");
+        // The moment when an object becomes expired will not be synchronous in the network and we could 
+        // get add messages after the object has expired. To avoid repeated additions of already expired 
+        // object when we get it sent from new peers, we don’t remove the sequence number from the map. 
+        // That way an ADD message for an already expired data will fail because the sequence number 
+        // is equal and not larger as expected. 
+        Set<ProtectedStorageEntry> toRemoveSet = new HashSet<>();
+        long now = System.currentTimeMillis();
+        while (!expiryQueue.isEmpty() && expiryQueue.peek().expiryTimeStamp < now) {
+            ExpiryRecord expiryRecord = expiryQueue.poll();
+            ByteArray hashOfPayload = expiryRecord.hashOfPayload;
+            ProtectedStorageEntry protectedStorageEntry = map.get(hashOfPayload);
+            // If the entry got replaced or removed the record is stale. A new entry has its own record.
+            if (protectedStorageEntry != expiryRecord.protectedStorageEntry)
+                continue;
+
+            if (protectedStorageEntry.isExpired()) {
+                toRemoveSet.add(protectedStorageEntry);
+                log.debug("We found an expired data entry. We remove the protectedData:\n\t" + Utilities.toTruncatedString(protectedStorageEntry));
+                removeEntry(hashOfPayload);
+            } else {
+                // The TTL got refreshed in the meantime
+                expiryQueue.add(new ExpiryRecord(hashOfPayload, protectedStorageEntry));
+            }
+        }
+        numPurgedEntries += toRemoveSet.size();
+        if (!toRemoveSet.isEmpty())
+            log.debug("Removed {} expired entries. Total removed expired entries: {}", toRemoveSet.size(), numPurgedEntries);
 
-            toRemoveSet.stream().forEach(
-                    protectedDataToRemove -> hashMapChangedListeners.stream().forEach(
-                            listener -> listener.onRemoved(protectedDataToRemove)));
+        toRemoveSet.stream().forEach(
+                protectedDataToRemove -> hashMapChangedListeners.stream().forEach(
+                        listener -> listener.onRemoved(protectedDataToRemove)));
 
-            if (sequenceNumberMap.size() > 1000)
-                sequenceNumberMap = getPurgedSequenceNumberMap(sequenceNumberMap);
-        }, CHECK_TTL_INTERVAL_SEC);
+        if (sequenceNumberMap.size() > 1000)
+            sequenceNumberMap = getPurgedSequenceNumberMap(sequenceNumberMap);
     }
 
 
@@ -188,7 +239,7 @@ public class P2PDataStorage implements MessageListener, ConnectionListener {
     @Override
     public void onDisconnect(CloseConnectionReason closeConnectionReason, Connection connection) {
         if (connection.hasPeersNodeAddress() && !closeConnectionReason.isIntended) {
-            map.values().stream()
+            getEntriesByOwnerNodeAddress(connection.getPeersNodeAddressOptional().get()).stream()
                     .forEach(protectedData -> {
                         ExpirablePayload expirablePayload = protectedData.getStoragePayload();
                         if (expirablePayload instanceof RequiresOwnerIsOnlinePayload) {
@@ -199,7 +250,7 @@ public class P2PDataStorage implements MessageListener, ConnectionListener {
                                 // disconnected peer. We remove that data from our map.
 
                                 // Check if we have the data (e.g. Offer)
-                                ByteArray hashOfPayload = getHashAsByteArray(expirablePayload);
+                                ByteArray hashOfPayload = getHashAsByteArray(protectedData);
                                 boolean containsKey = map.containsKey(hashOfPayload);
                                 if (containsKey) {
                                     log.debug("We remove the data as the data owner got disconnected with " +
@@ -222,6 +273,8 @@ public class P2PDataStorage implements MessageListener, ConnectionListener {
                                     protectedData.backDate();
                                     if (protectedData.isExpired())
                                         doRemoveProtectedExpirableData(protectedData, hashOfPayload);
+                                    else if (!(protectedData.getStoragePayload() instanceof PersistedStoragePayload))
+                                        expiryQueue.add(new ExpiryRecord(hashOfPayload, protectedData));
                                 } else {
                                     log.debug("Remove data ignored as we don't have an entry for that data.");
                                 }
@@ -252,7 +305,7 @@ public class P2PDataStorage implements MessageListener, ConnectionListener {
         Log.traceCall("with allowBroadcast=" + allowBroadcast);
 
         final StoragePayload storagePayload = protectedStorageEntry.getStoragePayload();
-        ByteArray hashOfPayload = getHashAsByteArray(storagePayload);
+        ByteArray hashOfPayload = getHashAsByteArray(protectedStorageEntry);
         boolean sequenceNrValid = isSequenceNrValid(protectedStorageEntry.sequenceNumber, hashOfPayload);
         boolean result = checkPublicKeys(protectedStorageEntry, true)
                 && checkSignature(protectedStorageEntry)
@@ -267,12 +320,12 @@ public class P2PDataStorage implements MessageListener, ConnectionListener {
             final boolean hasSequenceNrIncreased = hasSequenceNrIncreased(protectedStorageEntry.sequenceNumber, hashOfPayload);
             if (!containsKey || hasSequenceNrIncreased) {
                 // At startup we don't have the item so we store it. At updates of the seq nr we store as well.
-                map.put(hashOfPayload, protectedStorageEntry);
+                putEntry(hashOfPayload, protectedStorageEntry);
 
                 // If we get a PersistedStoragePayload we save to disc
                 if (storagePayload instanceof PersistedStoragePayload) {
                     persistedMap.put(hashOfPayload, protectedStorageEntry);
-                    persistedEntryMapStorage.queueUpForSave(new HashMap<>(persistedMap), 5000);
+                    persistedEntryMapStorage.put(hashOfPayload, protectedStorageEntry);
                 }
 
                 hashMapChangedListeners.stream().forEach(e -> e.onAdded(protectedStorageEntry));
@@ -282,9 +335,7 @@ public class P2PDataStorage implements MessageListener, ConnectionListener {
             }
 
             if (hasSequenceNrIncreased) {
-                sequenceNumberMap.put(hashOfPayload, new MapValue(protectedStorageEntry.sequenceNumber, System.currentTimeMillis()));
-                // We set the delay higher as we might receive a batch of items
-                sequenceNumberMapStorage.queueUpForSave(new HashMap<>(sequenceNumberMap), 2000);
+                putSequenceNumber(hashOfPayload, new MapValue(protectedStorageEntry.sequenceNumber, System.currentTimeMillis()));
 
                 if (allowBroadcast)
                     broadcast(new AddDataMessage(protectedStorageEntry), sender, listener, isDataOwner);
@@ -297,6 +348,69 @@ public class P2PDataStorage implements MessageListener, ConnectionListener {
         return result;
     }
 
+    /**
+     * Adds many entries (e.g. the data of a GetDataResponse) without broadcasting them. The signatures are verified in
+     * parallel on a worker pool, then the entries are added on the UserThread with the verified signatures taken
+     * from the cache. Batches are added in the order of the addAll calls.
+     *
+     * @param resultHandler Called on the UserThread after all entries have been added.
+     */
+    public void addAll(Collection<ProtectedStorageEntry> protectedStorageEntries, @Nullable NodeAddress sender,
+                       @Nullable Runnable resultHandler) {
+        Log.traceCall("protectedStorageEntries.size()=" + protectedStorageEntries.size());
+        List<ProtectedStorageEntry> entries = new ArrayList<>(protectedStorageEntries);
+        AddBatch addBatch = new AddBatch(entries, sender, resultHandler);
+        synchronized (pendingAddBatches) {
+            pendingAddBatches.add(addBatch);
+        }
+
+        if (entries.isEmpty()) {
+            addBatch.verified = true;
+            addVerifiedBatches();
+            return;
+        }
+
+        // We split into one part per thread
+        int numParts = Math.min(entries.size(), signatureVerificationExecutor.getMaximumPoolSize());
+        int partSize = (entries.size() + numParts - 1) / numParts;
+        AtomicInteger remainingParts = new AtomicInteger((entries.size() + partSize - 1) / partSize);
+        for (int startIndex = 0; startIndex < entries.size(); startIndex += partSize) {
+            List<ProtectedStorageEntry> part = entries.subList(startIndex, Math.min(entries.size(), startIndex + partSize));
+            try {
+                signatureVerificationExecutor.execute(() -> {
+                    try {
+                        // We only fill the cache here, the result is evaluated again at add
+                        part.stream().forEach(this::checkSignature);
+                    } catch (Throwable t) {
+                        log.error("Error at signature verification. " + t.getMessage());
+                    } finally {
+                        if (remainingParts.decrementAndGet() == 0) {
+                            addBatch.verified = true;
+                            UserThread.execute(this::addVerifiedBatches);
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // We are shutting down
+                log.debug("signatureVerificationExecutor rejected the task. " + e.getMessage());
+                return;
+            }
+        }
+    }
+
+    // We add only from the head of the queue, so a later batch does not overtake an earlier one
+    private void addVerifiedBatches() {
+        synchronized (pendingAddBatches) {
+            while (!pendingAddBatches.isEmpty() && pendingAddBatches.peek().verified) {
+                AddBatch addBatch = pendingAddBatches.poll();
+                // We dont broadcast here as we get that data from a seed node or a peer at startup
+                addBatch.entries.stream().forEach(e -> add(e, addBatch.sender, null, false, false));
+                if (addBatch.resultHandler != null)
+                    addBatch.resultHandler.run();
+            }
+        }
+    }
+
     public boolean refreshTTL(RefreshTTLMessage refreshTTLMessage, @Nullable NodeAddress sender, boolean isDataOwner) {
         Log.traceCall();
 
@@ -327,8 +441,7 @@ public class P2PDataStorage implements MessageListener, ConnectionListener {
                     storedData.updateSequenceNumber(sequenceNumber);
                     storedData.updateSignature(signature);
                     printData("after refreshTTL");
-                    sequenceNumberMap.put(hashOfPayload, new MapValue(sequenceNumber, System.currentTimeMillis()));
-                    sequenceNumberMapStorage.queueUpForSave(new HashMap<>(sequenceNumberMap), 1000);
+                    putSequenceNumber(hashOfPayload, new MapValue(sequenceNumber, System.currentTimeMillis()));
 
                     broadcast(refreshTTLMessage, sender, null, isDataOwner);
                 }
@@ -342,7 +455,7 @@ public class P2PDataStorage implements MessageListener, ConnectionListener {
 
     public boolean remove(ProtectedStorageEntry protectedStorageEntry, @Nullable NodeAddress sender, boolean isDataOwner) {
         Log.traceCall();
-        ByteArray hashOfPayload = getHashAsByteArray(protectedStorageEntry.getStoragePayload());
+        ByteArray hashOfPayload = getHashAsByteArray(protectedStorageEntry);
         boolean containsKey = map.containsKey(hashOfPayload);
         if (!containsKey)
             log.debug("Remove data ignored as we don't have an entry for that data.");
@@ -356,8 +469,7 @@ public class P2PDataStorage implements MessageListener, ConnectionListener {
         if (result) {
             doRemoveProtectedExpirableData(protectedStorageEntry, hashOfPayload);
             printData("after remove");
-            sequenceNumberMap.put(hashOfPayload, new MapValue(protectedStorageEntry.sequenceNumber, System.currentTimeMillis()));
-            sequenceNumberMapStorage.queueUpForSave(new HashMap<>(sequenceNumberMap), 300);
+            putSequenceNumber(hashOfPayload, new MapValue(protectedStorageEntry.sequenceNumber, System.currentTimeMillis()));
 
             broadcast(new RemoveDataMessage(protectedStorageEntry), sender, null, isDataOwner);
         } else {
@@ -368,7 +480,7 @@ public class P2PDataStorage implements MessageListener, ConnectionListener {
 
     public boolean removeMailboxData(ProtectedMailboxStorageEntry protectedMailboxStorageEntry, @Nullable NodeAddress sender, boolean isDataOwner) {
         Log.traceCall();
-        ByteArray hashOfData = getHashAsByteArray(protectedMailboxStorageEntry.getStoragePayload());
+        ByteArray hashOfData = getHashAsByteArray(protectedMailboxStorageEntry);
         boolean containsKey = map.containsKey(hashOfData);
         if (!containsKey)
             log.debug("Remove data ignored as we don't have an entry for that data.");
@@ -383,8 +495,7 @@ public class P2PDataStorage implements MessageListener, ConnectionListener {
         if (result) {
             doRemoveProtectedExpirableData(protectedMailboxStorageEntry, hashOfData);
             printData("after removeMailboxData");
-            sequenceNumberMap.put(hashOfData, new MapValue(protectedMailboxStorageEntry.sequenceNumber, System.currentTimeMillis()));
-            sequenceNumberMapStorage.queueUpForSave(new HashMap<>(sequenceNumberMap), 300);
+            putSequenceNumber(hashOfData, new MapValue(protectedMailboxStorageEntry.sequenceNumber, System.currentTimeMillis()));
 
             broadcast(new RemoveMailboxDataMessage(protectedMailboxStorageEntry), sender, null, isDataOwner);
         } else {
@@ -394,8 +505,31 @@ public class P2PDataStorage implements MessageListener, ConnectionListener {
     }
 
 
+    // The indexes have to be in sync with the map, so we don't allow changes from outside
     public Map<ByteArray, ProtectedStorageEntry> getMap() {
-        return map;
+        return Collections.unmodifiableMap(map);
+    }
+
+    /**
+     * @param payloadClass Class of the payload. Can be an interface or super class as well.
+     * @return A copy of all entries with a payload of the given type. Costs O(k) for k matching entries instead
+     * of a scan of the whole map.
+     */
+    public List<ProtectedStorageEntry> getEntriesOfType(Class<? extends StoragePayload> payloadClass) {
+        List<ProtectedStorageEntry> result = new ArrayList<>();
+        // There are only a few payload classes, so we can iterate them to support super types
+        entriesByPayloadType.entrySet().stream()
+                .filter(e -> payloadClass.isAssignableFrom(e.getKey()))
+                .forEach(e -> result.addAll(e.getValue().values()));
+        return result;
+    }
+
+    /**
+     * @return A copy of all entries with a RequiresOwnerIsOnlinePayload of the given owner (e.g. its offers).
+     */
+    public List<ProtectedStorageEntry> getEntriesByOwnerNodeAddress(NodeAddress ownerNodeAddress) {
+        Map<ByteArray, ProtectedStorageEntry> entries = entriesByOwnerNodeAddress.get(ownerNodeAddress);
+        return entries != null ? new ArrayList<>(entries.values()) : new ArrayList<>();
     }
 
     public ProtectedStorageEntry getProtectedData(StoragePayload storagePayload, KeyPair ownerStoragePubKey)
@@ -462,8 +596,60 @@ public class P2PDataStorage implements MessageListener, ConnectionListener {
     // Private
     ///////////////////////////////////////////////////////////////////////////////////////////
 
+    private void putEntry(ByteArray hashOfPayload, ProtectedStorageEntry protectedStorageEntry) {
+        ProtectedStorageEntry previous = map.put(hashOfPayload, protectedStorageEntry);
+        if (previous != null)
+            removeFromIndexes(hashOfPayload, previous);
+
+        StoragePayload storagePayload = protectedStorageEntry.getStoragePayload();
+        entriesByPayloadType.computeIfAbsent(storagePayload.getClass(), k -> new ConcurrentHashMap<>())
+                .put(hashOfPayload, protectedStorageEntry);
+
+        NodeAddress ownerNodeAddress = getOwnerNodeAddress(storagePayload);
+        if (ownerNodeAddress != null)
+            entriesByOwnerNodeAddress.computeIfAbsent(ownerNodeAddress, k -> new ConcurrentHashMap<>())
+                    .put(hashOfPayload, protectedStorageEntry);
+
+        // PersistedStoragePayload entries don't expire
+        if (!(storagePayload instanceof PersistedStoragePayload))
+            expiryQueue.add(new ExpiryRecord(hashOfPayload, protectedStorageEntry));
+    }
+
+    private void removeEntry(ByteArray hashOfPayload) {
+        ProtectedStorageEntry removed = map.remove(hashOfPayload);
+        if (removed != null)
+            removeFromIndexes(hashOfPayload, removed);
+    }
+
+    private void removeFromIndexes(ByteArray hashOfPayload, ProtectedStorageEntry protectedStorageEntry) {
+        StoragePayload storagePayload = protectedStorageEntry.getStoragePayload();
+        // We keep the empty maps of the payload types as there are only a few types
+        Map<ByteArray, ProtectedStorageEntry> entriesOfType = entriesByPayloadType.get(storagePayload.getClass());
+        if (entriesOfType != null)
+            entriesOfType.remove(hashOfPayload);
+
+        // Owners come and go, so we remove their map once it is empty
+        NodeAddress ownerNodeAddress = getOwnerNodeAddress(storagePayload);
+        if (ownerNodeAddress != null)
+            entriesByOwnerNodeAddress.computeIfPresent(ownerNodeAddress, (k, entries) -> {
+                entries.remove(hashOfPayload);
+                return entries.isEmpty() ? null : entries;
+            });
+    }
+
+    @Nullable
+    private NodeAddress getOwnerNodeAddress(StoragePayload storagePayload) {
+        return storagePayload instanceof RequiresOwnerIsOnlinePayload ?
+                ((RequiresOwnerIsOnlinePayload) storagePayload).getOwnerNodeAddress() : null;
+    }
+
+    private void putSequenceNumber(ByteArray hashOfPayload, MapValue mapValue) {
+        sequenceNumberMap.put(hashOfPayload, mapValue);
+        sequenceNumberMapStorage.put(hashOfPayload, mapValue);
+    }
+
     private void doRemoveProtectedExpirableData(ProtectedStorageEntry protectedStorageEntry, ByteArray hashOfPayload) {
-        map.remove(hashOfPayload);
+        removeEntry(hashOfPayload);
         log.trace("Data removed from our map. We broadcast the message to our peers.");
         hashMapChangedListeners.stream().forEach(e -> e.onRemoved(protectedStorageEntry));
     }
@@ -517,10 +703,17 @@ public class P2PDataStorage implements MessageListener, ConnectionListener {
         }
     }
 
+    // Called from the UserThread and the signatureVerificationExecutor
     private boolean checkSignature(PublicKey ownerPubKey, byte[] hashOfDataAndSeqNr, byte[] signature) {
         try {
+            ByteArray cacheKey = getSignatureCacheKey(ownerPubKey, hashOfDataAndSeqNr, signature);
+            if (verifiedSignatures.getIfPresent(cacheKey) != null)
+                return true;
+
             boolean result = Sig.verify(ownerPubKey, hashOfDataAndSeqNr, signature);
-            if (!result)
+            if (result)
+                verifiedSignatures.put(cacheKey, true);
+            else
                 log.warn("Signature verification failed at checkSignature. " +
                         "That should not happen.");
 
@@ -536,6 +729,16 @@ public class P2PDataStorage implements MessageListener, ConnectionListener {
         return checkSignature(protectedStorageEntry.ownerPubKey, hashOfDataAndSeqNr, protectedStorageEntry.signature);
     }
 
+    // We include the public key, otherwise a valid signature could be replayed with another key
+    private ByteArray getSignatureCacheKey(PublicKey publicKey, byte[] hashOfDataAndSeqNr, byte[] signature) {
+        byte[] encodedPublicKey = publicKey.getEncoded();
+        byte[] bytes = new byte[encodedPublicKey.length + hashOfDataAndSeqNr.length + signature.length];
+        System.arraycopy(encodedPublicKey, 0, bytes, 0, encodedPublicKey.length);
+        System.arraycopy(hashOfDataAndSeqNr, 0, bytes, encodedPublicKey.length, hashOfDataAndSeqNr.length);
+        System.arraycopy(signature, 0, bytes, encodedPublicKey.length + hashOfDataAndSeqNr.length, signature.length);
+        return new ByteArray(Hash.getHash(bytes));
+    }
+
     // Check that the pubkey of the storage entry matches the allowed pubkey for the addition or removal operation
     // in the contained mailbox message, or the pubkey of other kinds of messages.
     private boolean checkPublicKeys(ProtectedStorageEntry protectedStorageEntry, boolean isAddOperation) {
@@ -588,7 +791,7 @@ public class P2PDataStorage implements MessageListener, ConnectionListener {
             ProtectedMailboxStorageEntry entry = (ProtectedMailboxStorageEntry) storedData;
             // publicKey is not the same (stored: sender, new: receiver)
             boolean result = entry.receiversPubKey.equals(receiversPubKey)
-                    && getHashAsByteArray(entry.getStoragePayload()).equals(hashOfData);
+                    && getHashAsByteArray(entry).equals(hashOfData);
             if (!result)
                 log.warn("New data entry does not match our stored data. entry.receiversPubKey=" + entry.receiversPubKey
                         + ", receiversPubKey=" + receiversPubKey);
@@ -605,8 +808,18 @@ public class P2PDataStorage implements MessageListener, ConnectionListener {
         broadcaster.broadcast(message, sender, listener, isDataOwner);
     }
 
+    private ByteArray getHashAsByteArray(ProtectedStorageEntry protectedStorageEntry) {
+        return new ByteArray(protectedStorageEntry.getHashOfPayload());
+    }
+
+    // Our own payloads (e.g. offers) are hashed at each refresh, so we cache the hash per payload instance.
+    // The cache uses identity and weak keys, so it does not depend on equals of the payload and does not keep it alive.
     private ByteArray getHashAsByteArray(ExpirablePayload data) {
-        return new ByteArray(Hash.getHash(data));
+        try {
+            return new ByteArray(payloadHashCache.get(data, () -> Hash.getHash(data)));
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
     }
 
     // Get a new map with entries older than PURGE_AGE_DAYS purged from the given map.
@@ -626,13 +839,13 @@ public class P2PDataStorage implements MessageListener, ConnectionListener {
             sb.append("Data set ").append(info).append(" operation");
             // We print the items sorted by hash with the payload class name and id
             List<Tuple2<String, ProtectedStorageEntry>> tempList = map.values().stream()
-                    .map(e -> new Tuple2<>(org.bitcoinj.core.Utils.HEX.encode(getHashAsByteArray(e.getStoragePayload()).bytes), e))
+                    .map(e -> new Tuple2<>(org.bitcoinj.core.Utils.HEX.encode(e.getHashOfPayload()), e))
                     .collect(Collectors.toList());
             tempList.sort((o1, o2) -> o1.first.compareTo(o2.first));
             tempList.stream().forEach(e -> {
                 final ProtectedStorageEntry storageEntry = e.second;
                 final StoragePayload storagePayload = storageEntry.getStoragePayload();
-                final MapValue mapValue = sequenceNumberMap.get(getHashAsByteArray(storagePayload));
+                final MapValue mapValue = sequenceNumberMap.get(getHashAsByteArray(storageEntry));
                 sb.append("\n")
                         .append("Hash=")
                         .append(e.first)
@@ -695,6 +908,8 @@ public class P2PDataStorage implements MessageListener, ConnectionListener {
         private static final long serialVersionUID = Version.LOCAL_DB_VERSION;
 
         public final byte[] bytes;
+        // Used as map key, so we don't want to iterate the bytes at each lookup
+        private transient int hashCode;
 
         public ByteArray(byte[] bytes) {
             this.bytes = bytes;
@@ -712,7 +927,9 @@ public class P2PDataStorage implements MessageListener, ConnectionListener {
 
         @Override
         public int hashCode() {
-            return bytes != null ? Arrays.hashCode(bytes) : 0;
+            if (hashCode == 0 && bytes != null)
+                hashCode = Arrays.hashCode(bytes);
+            return hashCode;
         }
 
         @Override
@@ -766,4 +983,37 @@ public class P2PDataStorage implements MessageListener, ConnectionListener {
                     '}';
         }
     }
+
+    private static final class ExpiryRecord implements Comparable<ExpiryRecord> {
+        private final ByteArray hashOfPayload;
+        private final ProtectedStorageEntry protectedStorageEntry;
+        // We copy the expiry time as the entry might change it, which must not change the order in the queue
+        private final long expiryTimeStamp;
+
+        ExpiryRecord(ByteArray hashOfPayload, ProtectedStorageEntry protectedStorageEntry) {
+            this.hashOfPayload = hashOfPayload;
+            this.protectedStorageEntry = protectedStorageEntry;
+            this.expiryTimeStamp = protectedStorageEntry.getExpiryTimeStamp();
+        }
+
+        @Override
+        public int compareTo(ExpiryRecord other) {
+            return Long.compare(expiryTimeStamp, other.expiryTimeStamp);
+        }
+    }
+
+    private static final class AddBatch {
+        private final List<ProtectedStorageEntry> entries;
+        @Nullable
+        private final NodeAddress sender;
+        @Nullable
+        private final Runnable resultHandler;
+        private volatile boolean verified;
+
+        AddBatch(List<ProtectedStorageEntry> entries, @Nullable NodeAddress sender, @Nullable Runnable resultHandler) {
+            this.entries = entries;
+            this.sender = sender;
+            this.resultHandler = resultHandler;
+        }
+    }
 }
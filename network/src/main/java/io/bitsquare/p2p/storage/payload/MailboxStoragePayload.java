@@ -1,6 +1,7 @@
 package io.bitsquare.p2p.storage.payload;
 
 import io.bitsquare.app.Version;
+import io.bitsquare.common.crypto.PublicKeyCache;
 import io.bitsquare.common.crypto.Sig;
 import io.bitsquare.p2p.NodeAddress;
 import io.bitsquare.p2p.messaging.PrefixedSealedAndSignedMessage;
@@ -10,7 +11,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.security.KeyFactory;
 import java.security.PublicKey;
 import java.security.spec.X509EncodedKeySpec;
 import java.util.concurrent.TimeUnit;
@@ -67,8 +67,8 @@ public final class MailboxStoragePayload implements StoragePayload {
     private void readObject(java.io.ObjectInputStream in) throws IOException, ClassNotFoundException {
         try {
             in.defaultReadObject();
-            senderPubKeyForAddOperation = KeyFactory.getInstance(Sig.KEY_ALGO, "BC").generatePublic(new X509EncodedKeySpec(senderPubKeyForAddOperationBytes));
-            receiverPubKeyForRemoveOperation = KeyFactory.getInstance(Sig.KEY_ALGO, "BC").generatePublic(new X509EncodedKeySpec(receiverPubKeyForRemoveOperationBytes));
+            senderPubKeyForAddOperation = PublicKeyCache.get(Sig.KEY_ALGO, senderPubKeyForAddOperationBytes);
+            receiverPubKeyForRemoveOperation = PublicKeyCache.get(Sig.KEY_ALGO, receiverPubKeyForRemoveOperationBytes);
         } catch (Throwable t) {
             log.warn("Exception at readObject: " + t.getMessage() + "\nThis= " + this.toString());
         }
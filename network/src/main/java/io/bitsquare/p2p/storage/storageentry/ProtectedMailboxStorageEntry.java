@@ -1,6 +1,7 @@
 package io.bitsquare.p2p.storage.storageentry;
 
 import io.bitsquare.app.Version;
+import io.bitsquare.common.crypto.PublicKeyCache;
 import io.bitsquare.common.crypto.Sig;
 import io.bitsquare.p2p.storage.P2PDataStorage;
 import io.bitsquare.p2p.storage.payload.MailboxStoragePayload;
@@ -8,7 +9,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.security.KeyFactory;
 import java.security.PublicKey;
 import java.security.spec.X509EncodedKeySpec;
 
@@ -25,6 +25,13 @@ public class ProtectedMailboxStorageEntry extends ProtectedStorageEntry {
         return (MailboxStoragePayload) storagePayload;
     }
 
+    /**
+     * @return The X.509 encoded receiversPubKey. Must not be modified by the caller.
+     */
+    public byte[] getReceiversPubKeyBytes() {
+        return receiversPubKeyBytes;
+    }
+
     public ProtectedMailboxStorageEntry(MailboxStoragePayload mailboxStoragePayload, PublicKey ownerStoragePubKey, int sequenceNumber, byte[] signature, PublicKey receiversPubKey) {
         super(mailboxStoragePayload, ownerStoragePubKey, sequenceNumber, signature);
 
@@ -35,7 +42,7 @@ public class ProtectedMailboxStorageEntry extends ProtectedStorageEntry {
     private void readObject(java.io.ObjectInputStream in) throws IOException, ClassNotFoundException {
         try {
             in.defaultReadObject();
-            receiversPubKey = KeyFactory.getInstance(Sig.KEY_ALGO, "BC").generatePublic(new X509EncodedKeySpec(receiversPubKeyBytes));
+            receiversPubKey = PublicKeyCache.get(Sig.KEY_ALGO, receiversPubKeyBytes);
             checkCreationTimeStamp();
         } catch (Throwable t) {
             log.warn("Exception at readObject: " + t.getMessage());
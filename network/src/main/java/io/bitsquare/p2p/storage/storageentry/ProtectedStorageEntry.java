@@ -2,6 +2,8 @@ package io.bitsquare.p2p.storage.storageentry;
 
 import com.google.common.annotations.VisibleForTesting;
 import io.bitsquare.app.Version;
+import io.bitsquare.common.crypto.Hash;
+import io.bitsquare.common.crypto.PublicKeyCache;
 import io.bitsquare.common.crypto.Sig;
 import io.bitsquare.common.wire.Payload;
 import io.bitsquare.p2p.storage.payload.StoragePayload;
@@ -9,7 +11,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.security.KeyFactory;
 import java.security.PublicKey;
 import java.security.spec.X509EncodedKeySpec;
 import java.util.Arrays;
@@ -27,6 +28,8 @@ public class ProtectedStorageEntry implements Payload {
     public byte[] signature;
     @VisibleForTesting
     public long creationTimeStamp;
+    // The payload is immutable, so we calculate the hash only once
+    private transient byte[] hashOfPayload;
 
     public ProtectedStorageEntry(StoragePayload storagePayload, PublicKey ownerPubKey, int sequenceNumber, byte[] signature) {
         this.storagePayload = storagePayload;
@@ -40,7 +43,7 @@ public class ProtectedStorageEntry implements Payload {
     private void readObject(java.io.ObjectInputStream in) throws IOException, ClassNotFoundException {
         try {
             in.defaultReadObject();
-            ownerPubKey = KeyFactory.getInstance(Sig.KEY_ALGO, "BC").generatePublic(new X509EncodedKeySpec(ownerPubKeyBytes));
+            ownerPubKey = PublicKeyCache.get(Sig.KEY_ALGO, ownerPubKeyBytes);
             checkCreationTimeStamp();
         } catch (Throwable t) {
             log.warn("Exception at readObject: " + t.getMessage());
@@ -51,6 +54,20 @@ public class ProtectedStorageEntry implements Payload {
         return storagePayload;
     }
 
+    /**
+     * @return The X.509 encoded ownerPubKey. Must not be modified by the caller.
+     */
+    public byte[] getOwnerPubKeyBytes() {
+        return ownerPubKeyBytes;
+    }
+
+    public byte[] getHashOfPayload() {
+        // Concurrent calls would only calculate the same value twice
+        if (hashOfPayload == null)
+            hashOfPayload = Hash.getHash(storagePayload);
+        return hashOfPayload;
+    }
+
     public void checkCreationTimeStamp() {
         // We don't allow creation date in the future, but we cannot be too strict as clocks are not synced
         // The 0 test is needed to be backward compatible as creationTimeStamp (timeStamp) was transient before 0.4.7
@@ -79,6 +96,13 @@ public class ProtectedStorageEntry implements Payload {
         return (System.currentTimeMillis() - creationTimeStamp) > storagePayload.getTTL();
     }
 
+    /**
+     * @return The time after which the entry is expired. Changes with refreshTTL and backDate.
+     */
+    public long getExpiryTimeStamp() {
+        return creationTimeStamp + storagePayload.getTTL();
+    }
+
     @Override
     public String toString() {
         return "ProtectedStorageEntry{" +
@@ -0,0 +1,174 @@
+package io.bitsquare.http;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.http.client.methods.HttpGet;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class HttpClientPoolTest {
+    private HttpServer server;
+    private HttpClientPool pool;
+    private String baseUrl;
+
+    // Remote ports of the connections the server got requests on
+    private final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger numConcurrentRequests = new AtomicInteger();
+    private final AtomicInteger maxConcurrentRequests = new AtomicInteger();
+
+    @Before
+    public void setup() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/ok", exchange -> {
+            clientPorts.add(exchange.getRemoteAddress().getPort());
+            respond(exchange, 200, "ok");
+        });
+        server.createContext("/etag", exchange -> {
+            exchange.getResponseHeaders().add("ETag", "\"1\"");
+            if ("\"1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                // No body at 304
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+            } else {
+                respond(exchange, 200, "prices");
+            }
+        });
+        server.createContext("/missing", exchange -> respond(exchange, 404, "not found"));
+        server.createContext("/slow", exchange -> {
+            maxConcurrentRequests.accumulateAndGet(numConcurrentRequests.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException ignore) {
+            }
+            numConcurrentRequests.decrementAndGet();
+            respond(exchange, 200, "slow");
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+        pool = new HttpClientPool();
+    }
+
+    @After
+    public void tearDown() {
+        pool.shutDown();
+        server.stop(0);
+    }
+
+    @Test
+    public void testConnectionReuse() throws IOException {
+        for (int i = 0; i < 5; i++)
+            assertEquals("ok", pool.execute(null, new HttpGet(baseUrl + "ok")).getBody());
+
+        assertEquals(1, clientPorts.size());
+        HttpClientPool.RequestMetrics requestMetrics = pool.getRequestMetrics(null);
+        assertEquals(5, requestMetrics.getNumRequests());
+        assertEquals(0, requestMetrics.getNumFailedRequests());
+        assertTrue(requestMetrics.getMaxDurationMs() >= requestMetrics.getAverageDurationMs());
+    }
+
+    @Test
+    public void testETag() throws IOException {
+        HttpResponse response = pool.execute(null, new HttpGet(baseUrl + "etag"));
+        assertEquals(200, response.getStatusCode());
+        assertEquals("\"1\"", response.getETag());
+        assertEquals("prices", response.getBody());
+
+        HttpGet request = new HttpGet(baseUrl + "etag");
+        request.setHeader("If-None-Match", response.getETag());
+        response = pool.execute(null, request);
+        assertEquals(304, response.getStatusCode());
+        assertEquals("", response.getBody());
+        assertEquals(0, pool.getRequestMetrics(null).getNumFailedRequests());
+    }
+
+    @Test
+    public void testFailedRequests() throws IOException {
+        // A response with an error status is a response, only requests without a response count as failed
+        HttpResponse response = pool.execute(null, new HttpGet(baseUrl + "missing"));
+        assertEquals(404, response.getStatusCode());
+        assertEquals("not found", response.getBody());
+
+        int closedPort;
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            closedPort = serverSocket.getLocalPort();
+        }
+        try {
+            pool.execute(null, new HttpGet("http://127.0.0.1:" + closedPort + "/ok"));
+            fail("Expected IOException");
+        } catch (IOException ignore) {
+        }
+
+        HttpClientPool.RequestMetrics requestMetrics = pool.getRequestMetrics(null);
+        assertEquals(2, requestMetrics.getNumRequests());
+        assertEquals(1, requestMetrics.getNumFailedRequests());
+    }
+
+    @Test
+    public void testMaxConnectionsPerRoute() throws Exception {
+        pool.setMaxConnectionsPerRoute(2);
+        ExecutorService executor = Executors.newFixedThreadPool(6);
+        try {
+            List<Future<HttpResponse>> futures = new ArrayList<>();
+            for (int i = 0; i < 6; i++)
+                futures.add(executor.submit(() -> pool.execute(null, new HttpGet(baseUrl + "slow"))));
+            for (Future<HttpResponse> future : futures)
+                assertEquals("slow", future.get(10, TimeUnit.SECONDS).getBody());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // The other requests waited for a free connection
+        assertEquals(2, maxConcurrentRequests.get());
+        assertEquals(6, pool.getRequestMetrics(null).getNumRequests());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidMaxConnectionsPerRoute() {
+        pool.setMaxConnectionsPerRoute(0);
+    }
+
+    @Test
+    public void testShutDown() throws IOException {
+        assertNull(pool.getRequestMetrics(null));
+        pool.execute(null, new HttpGet(baseUrl + "ok"));
+        assertEquals(1, pool.getAllRequestMetrics().size());
+        assertEquals(1, pool.getAllRequestMetrics().get("direct").getNumRequests());
+
+        pool.shutDown();
+        assertNull(pool.getRequestMetrics(null));
+        assertTrue(pool.getAllRequestMetrics().isEmpty());
+
+        // The next request creates a new client with a new connection
+        assertEquals("ok", pool.execute(null, new HttpGet(baseUrl + "ok")).getBody());
+        assertEquals(1, pool.getRequestMetrics(null).getNumRequests());
+        assertEquals(2, clientPorts.size());
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream outputStream = exchange.getResponseBody()) {
+            outputStream.write(bytes);
+        }
+    }
+}
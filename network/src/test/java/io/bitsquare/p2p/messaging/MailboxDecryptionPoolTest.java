@@ -0,0 +1,129 @@
+package io.bitsquare.p2p.messaging;
+
+import io.bitsquare.common.crypto.CryptoException;
+import io.bitsquare.common.crypto.SealedAndSigned;
+import io.bitsquare.common.crypto.Sig;
+import io.bitsquare.crypto.DecryptedMsgWithPubKey;
+import io.bitsquare.crypto.EncryptionService;
+import io.bitsquare.p2p.peers.keepalive.messages.Ping;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.security.PublicKey;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MailboxDecryptionPoolTest {
+    // Outcomes of the stub decryption
+    private static final byte DECRYPTED = 0;
+    private static final byte NOT_FOR_US = 1;
+    private static final byte UNEXPECTED_ERROR = 2;
+
+    private PublicKey publicKey;
+    private MailboxDecryptionPool mailboxDecryptionPool;
+    private final List<Integer> deliveredNonces = Collections.synchronizedList(new ArrayList<>());
+
+    @Before
+    public void setup() {
+        Security.addProvider(new BouncyCastleProvider());
+        publicKey = Sig.generateKeyPair().getPublic();
+        mailboxDecryptionPool = new MailboxDecryptionPool(new StubEncryptionService(publicKey));
+    }
+
+    @After
+    public void tearDown() {
+        mailboxDecryptionPool.shutDown();
+    }
+
+    @Test
+    public void testResultsDeliveredInOrder() throws InterruptedException {
+        List<Integer> expectedNonces = new ArrayList<>();
+        CountDownLatch lastDelivered = new CountDownLatch(1);
+        int numEntries = 20;
+        for (int i = 0; i < numEntries; i++) {
+            boolean isLast = i == numEntries - 1;
+            // The earlier entries take longer, so they would be overtaken without the ordering
+            byte outcome = i % 3 == 1 && !isLast ? NOT_FOR_US : DECRYPTED;
+            if (outcome == DECRYPTED)
+                expectedNonces.add(i);
+            mailboxDecryptionPool.decrypt(createSealedAndSigned(i, outcome, (numEntries - i) * 5), result -> {
+                deliveredNonces.add(((Ping) result.message).nonce);
+                if (isLast)
+                    lastDelivered.countDown();
+            });
+        }
+
+        assertTrue(lastDelivered.await(10, TimeUnit.SECONDS));
+        assertEquals(expectedNonces, deliveredNonces);
+        assertEquals(numEntries, mailboxDecryptionPool.getNumAttempts());
+        assertEquals(expectedNonces.size(), mailboxDecryptionPool.getNumHits());
+    }
+
+    @Test
+    public void testUnexpectedErrorDoesNotBlockDelivery() throws InterruptedException {
+        CountDownLatch lastDelivered = new CountDownLatch(1);
+        mailboxDecryptionPool.decrypt(createSealedAndSigned(0, UNEXPECTED_ERROR, 50), result -> deliveredNonces.add(0));
+        mailboxDecryptionPool.decrypt(createSealedAndSigned(1, DECRYPTED, 0), result -> {
+            deliveredNonces.add(((Ping) result.message).nonce);
+            lastDelivered.countDown();
+        });
+
+        assertTrue(lastDelivered.await(10, TimeUnit.SECONDS));
+        assertEquals(Collections.singletonList(1), deliveredNonces);
+        assertEquals(2, mailboxDecryptionPool.getNumAttempts());
+        assertEquals(1, mailboxDecryptionPool.getNumHits());
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    // We use the encryptedSecretKey to tell the stub what to do
+    private SealedAndSigned createSealedAndSigned(int nonce, byte outcome, int delayMillis) {
+        byte[] encryptedSecretKey = {(byte) nonce, outcome, (byte) delayMillis};
+        return new SealedAndSigned(encryptedSecretKey, new byte[0], new byte[0], publicKey);
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Static classes
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    private static class StubEncryptionService extends EncryptionService {
+        private final PublicKey publicKey;
+
+        StubEncryptionService(PublicKey publicKey) {
+            super(null);
+            this.publicKey = publicKey;
+        }
+
+        @Override
+        public DecryptedMsgWithPubKey decryptAndVerify(SealedAndSigned sealedAndSigned) throws CryptoException {
+            byte[] instructions = sealedAndSigned.encryptedSecretKey;
+            try {
+                Thread.sleep(instructions[2] & 0xFF);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            switch (instructions[1]) {
+                case NOT_FOR_US:
+                    throw new CryptoException("Not for us");
+                case UNEXPECTED_ERROR:
+                    throw new IllegalStateException("Unexpected error");
+                default:
+                    return new DecryptedMsgWithPubKey(new Ping(instructions[0], 0), publicKey);
+            }
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package io.bitsquare.p2p.network;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ByteQueueInputStreamTest {
+
+    @Test
+    public void testReadAcrossChunks() throws IOException {
+        ByteQueueInputStream inputStream = new ByteQueueInputStream(100, () -> {
+        });
+        inputStream.offer(new byte[]{1, 2, 3});
+        inputStream.offer(new byte[0]);
+        inputStream.offer(new byte[]{4, 5});
+        assertEquals(5, inputStream.available());
+
+        byte[] b = new byte[4];
+        assertEquals(4, inputStream.read(b, 0, 4));
+        assertArrayEquals(new byte[]{1, 2, 3, 4}, b);
+        assertEquals(5, inputStream.read());
+        assertEquals(0, inputStream.available());
+    }
+
+    @Test
+    public void testDrain() throws IOException {
+        ByteQueueInputStream inputStream = new ByteQueueInputStream(100, () -> {
+        });
+        inputStream.offer(new byte[]{1, 2, 3});
+        inputStream.offer(new byte[]{4, 5});
+        assertEquals(1, inputStream.read());
+
+        assertArrayEquals(new byte[]{2, 3, 4, 5}, inputStream.drain());
+        assertEquals(0, inputStream.available());
+    }
+
+    @Test
+    public void testCloseAfterBufferedBytes() throws IOException {
+        ByteQueueInputStream inputStream = new ByteQueueInputStream(100, () -> {
+        });
+        inputStream.offer(new byte[]{1, 2});
+        inputStream.close();
+        // Ignored after close
+        inputStream.offer(new byte[]{3});
+
+        assertEquals(1, inputStream.read());
+        assertEquals(2, inputStream.read());
+        assertEquals(-1, inputStream.read());
+    }
+
+    @Test
+    public void testFailAfterBufferedBytes() throws IOException {
+        ByteQueueInputStream inputStream = new ByteQueueInputStream(100, () -> {
+        });
+        inputStream.offer(new byte[]{1});
+        inputStream.fail(new SocketTimeoutException("test"));
+
+        assertEquals(1, inputStream.read());
+        try {
+            inputStream.read();
+            fail("Expected SocketTimeoutException");
+        } catch (SocketTimeoutException ignore) {
+        }
+    }
+
+    @Test
+    public void testSpaceAvailableHandler() throws IOException {
+        AtomicInteger numCalls = new AtomicInteger();
+        ByteQueueInputStream inputStream = new ByteQueueInputStream(4, numCalls::incrementAndGet);
+        inputStream.offer(new byte[]{1, 2});
+        assertFalse(inputStream.isFull());
+        inputStream.read();
+        // Not full before, so nobody waits for space
+        assertEquals(0, numCalls.get());
+
+        inputStream.offer(new byte[]{3, 4, 5});
+        assertTrue(inputStream.isFull());
+        inputStream.read();
+        assertFalse(inputStream.isFull());
+        assertEquals(1, numCalls.get());
+
+        inputStream.read();
+        assertEquals(1, numCalls.get());
+    }
+}
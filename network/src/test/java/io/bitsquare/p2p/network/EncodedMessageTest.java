@@ -0,0 +1,112 @@
+package io.bitsquare.p2p.network;
+
+import io.bitsquare.common.crypto.SealedAndSigned;
+import io.bitsquare.common.crypto.Sig;
+import io.bitsquare.p2p.NodeAddress;
+import io.bitsquare.p2p.messaging.PrefixedSealedAndSignedMessage;
+import io.bitsquare.p2p.peers.peerexchange.messages.GetPeersResponse;
+import io.bitsquare.p2p.storage.messages.AddDataMessage;
+import io.bitsquare.p2p.storage.messages.RefreshTTLMessage;
+import io.bitsquare.p2p.storage.payload.MailboxStoragePayload;
+import io.bitsquare.p2p.storage.storageentry.ProtectedStorageEntry;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.security.KeyPair;
+import java.security.Security;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class EncodedMessageTest {
+
+    @Test
+    public void testFrameSharedByConnections() throws IOException, ClassNotFoundException {
+        EncodedMessage encodedMessage = new EncodedMessage(createRefreshTTLMessage(9));
+        assertTrue(encodedMessage.toString().contains("not encoded yet"));
+
+        // Each connection has its own encoder, but all get the same frame
+        byte[] frame = new FrameCodec.Encoder().encode(encodedMessage);
+        assertSame(frame, new FrameCodec.Encoder().encode(encodedMessage));
+        assertSame(frame, encodedMessage.getFrame());
+        assertArrayEquals(FrameCodec.encode(encodedMessage.getMessage()), frame);
+
+        RefreshTTLMessage message = (RefreshTTLMessage) FrameCodec.decode(frame[4],
+                Arrays.copyOfRange(frame, FrameCodec.HEADER_SIZE, frame.length));
+        assertEquals(9, message.sequenceNumber);
+    }
+
+    @Test
+    public void testAddDataFrameSharedByConnections() throws Exception {
+        Security.addProvider(new BouncyCastleProvider());
+        KeyPair keyPair = Sig.generateKeyPair();
+        SealedAndSigned sealedAndSigned = new SealedAndSigned(new byte[16], new byte[100], new byte[46], keyPair.getPublic());
+        MailboxStoragePayload payload = new MailboxStoragePayload(new PrefixedSealedAndSignedMessage(
+                new NodeAddress("localhost", 8000), sealedAndSigned, new byte[]{1}), keyPair.getPublic(), keyPair.getPublic());
+        ProtectedStorageEntry entry = new ProtectedStorageEntry(payload, keyPair.getPublic(), 1, new byte[46]);
+
+        // A broadcast of an AddDataMessage is encoded only once, including its payload
+        EncodedMessage encodedMessage = new EncodedMessage(new AddDataMessage(entry));
+        byte[] frame = new FrameCodec.Encoder().encode(encodedMessage);
+        assertSame(frame, new FrameCodec.Encoder().encode(encodedMessage));
+        assertSame(frame, encodedMessage.getFrame());
+
+        AddDataMessage message = (AddDataMessage) new FrameCodec.Decoder().decode(frame[4],
+                Arrays.copyOfRange(frame, FrameCodec.HEADER_SIZE, frame.length));
+        assertArrayEquals(entry.getHashOfPayload(), message.protectedStorageEntry.getHashOfPayload());
+    }
+
+    @Test
+    public void testConcurrentEncoding() throws Exception {
+        EncodedMessage encodedMessage = new EncodedMessage(createRefreshTTLMessage(1));
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<byte[]>> futures = new ArrayList<>();
+            for (int i = 0; i < 20; i++)
+                futures.add(executor.submit(() -> new FrameCodec.Encoder().encode(encodedMessage)));
+
+            // Encoded only once
+            byte[] frame = futures.get(0).get();
+            for (Future<byte[]> future : futures)
+                assertSame(frame, future.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testMessageWithoutSchemaNotShared() throws IOException, ClassNotFoundException {
+        EncodedMessage encodedMessage = new EncodedMessage(new GetPeersResponse(5, new HashSet<>()));
+        FrameCodec.Encoder encoder1 = new FrameCodec.Encoder();
+        FrameCodec.Encoder encoder2 = new FrameCodec.Encoder();
+
+        // The serialized bytes depend on the stream of the connection, so each connection serializes on its own
+        byte[] frame1 = encoder1.encode(encodedMessage);
+        byte[] frame2 = encoder2.encode(encodedMessage);
+        assertNotSame(frame1, frame2);
+        assertTrue(encodedMessage.toString().contains("not encoded yet"));
+
+        GetPeersResponse response = (GetPeersResponse) new FrameCodec.Decoder().decode(frame2[4],
+                Arrays.copyOfRange(frame2, FrameCodec.HEADER_SIZE, frame2.length));
+        assertEquals(5, response.requestNonce);
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    private static RefreshTTLMessage createRefreshTTLMessage(int sequenceNumber) {
+        byte[] hashOfDataAndSeqNr = new byte[32];
+        byte[] signature = new byte[46];
+        byte[] hashOfPayload = new byte[32];
+        Arrays.fill(hashOfDataAndSeqNr, (byte) 1);
+        Arrays.fill(signature, (byte) 2);
+        Arrays.fill(hashOfPayload, (byte) 3);
+        return new RefreshTTLMessage(hashOfDataAndSeqNr, signature, hashOfPayload, sequenceNumber);
+    }
+}
@@ -0,0 +1,311 @@
+package io.bitsquare.p2p.network;
+
+import io.bitsquare.common.crypto.Sig;
+import io.bitsquare.common.crypto.SealedAndSigned;
+import io.bitsquare.p2p.Message;
+import io.bitsquare.p2p.NodeAddress;
+import io.bitsquare.p2p.messaging.PrefixedSealedAndSignedMessage;
+import io.bitsquare.p2p.network.messages.CloseConnectionMessage;
+import io.bitsquare.p2p.peers.getdata.messages.ExcludedKeysFilter;
+import io.bitsquare.p2p.peers.getdata.messages.GetDataResponse;
+import io.bitsquare.p2p.peers.getdata.messages.GetUpdatedDataRequest;
+import io.bitsquare.p2p.peers.getdata.messages.PreliminaryGetDataRequest;
+import io.bitsquare.p2p.peers.keepalive.messages.Ping;
+import io.bitsquare.p2p.peers.keepalive.messages.Pong;
+import io.bitsquare.p2p.storage.messages.AddDataMessage;
+import io.bitsquare.p2p.storage.messages.RefreshTTLMessage;
+import io.bitsquare.p2p.storage.messages.RemoveMailboxDataMessage;
+import io.bitsquare.p2p.storage.payload.MailboxStoragePayload;
+import io.bitsquare.p2p.storage.storageentry.ProtectedMailboxStorageEntry;
+import io.bitsquare.p2p.storage.storageentry.ProtectedStorageEntry;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.*;
+import java.security.KeyPair;
+import java.security.NoSuchAlgorithmException;
+import java.security.Security;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class FrameCodecTest {
+    private KeyPair ownerKeyPair;
+    private KeyPair receiverKeyPair;
+
+    @Before
+    public void setup() throws NoSuchAlgorithmException {
+        Security.addProvider(new BouncyCastleProvider());
+        ownerKeyPair = Sig.generateKeyPair();
+        receiverKeyPair = Sig.generateKeyPair();
+    }
+
+    @Test
+    public void testPingRoundTrip() throws IOException, ClassNotFoundException {
+        byte[] frame = FrameCodec.encode(new Ping(42, 123));
+        assertEquals(FrameCodec.HEADER_SIZE + 8, frame.length);
+
+        Ping ping = (Ping) decode(frame);
+        assertEquals(42, ping.nonce);
+        assertEquals(123, ping.lastRoundTripTime);
+    }
+
+    @Test
+    public void testPongAndCloseConnectionRoundTrip() throws IOException, ClassNotFoundException {
+        assertEquals(7, ((Pong) decode(FrameCodec.encode(new Pong(7)))).requestNonce);
+        assertEquals("APP_SHUT_DOWN", ((CloseConnectionMessage) decode(FrameCodec.encode(new CloseConnectionMessage("APP_SHUT_DOWN")))).reason);
+    }
+
+    @Test
+    public void testRefreshTTLRoundTrip() throws IOException, ClassNotFoundException {
+        byte[] hashOfDataAndSeqNr = new byte[32];
+        byte[] signature = new byte[46];
+        byte[] hashOfPayload = new byte[32];
+        Arrays.fill(hashOfDataAndSeqNr, (byte) 1);
+        Arrays.fill(signature, (byte) 2);
+        Arrays.fill(hashOfPayload, (byte) 3);
+        byte[] frame = FrameCodec.encode(new RefreshTTLMessage(hashOfDataAndSeqNr, signature, hashOfPayload, 9));
+        // The Java serialized message has about 400 bytes
+        assertEquals(FrameCodec.HEADER_SIZE + 3 * 2 + 32 + 46 + 32 + 4, frame.length);
+
+        RefreshTTLMessage message = (RefreshTTLMessage) decode(frame);
+        assertArrayEquals(hashOfDataAndSeqNr, message.hashOfDataAndSeqNr);
+        assertArrayEquals(signature, message.signature);
+        assertArrayEquals(hashOfPayload, message.hashOfPayload);
+        assertEquals(9, message.sequenceNumber);
+    }
+
+    @Test
+    public void testSerializedFramesShareStream() throws IOException, ClassNotFoundException {
+        FrameCodec.Encoder encoder = new FrameCodec.Encoder();
+        FrameCodec.Decoder decoder = new FrameCodec.Decoder();
+
+        byte[] first = encoder.encode(new EncodedMessage(new TestMessage(new byte[10], 5)));
+        byte[] second = encoder.encode(new EncodedMessage(new TestMessage(new byte[10], 6)));
+        assertEquals(FrameCodec.TYPE_SERIALIZED, first[4]);
+        // The class descriptors are only in the first frame
+        assertTrue(second.length < first.length / 2);
+
+        assertEquals(5, ((TestMessage) decode(decoder, first)).nonce);
+        assertEquals(6, ((TestMessage) decode(decoder, second)).nonce);
+
+        // Messages with schema don't use the stream
+        assertEquals(7, ((Pong) decode(decoder, encoder.encode(new EncodedMessage(new Pong(7))))).requestNonce);
+        assertEquals("test", ((CloseConnectionMessage) decode(decoder,
+                encoder.encode(new EncodedMessage(new CloseConnectionMessage("test"))))).reason);
+    }
+
+    @Test
+    public void testStreamReset() throws IOException, ClassNotFoundException {
+        FrameCodec.Encoder encoder = new FrameCodec.Encoder();
+        FrameCodec.Decoder decoder = new FrameCodec.Decoder();
+        // Each message has 100 kB, so the stream gets reset after about 10 messages
+        int[] frameSizes = new int[30];
+        for (int i = 0; i < frameSizes.length; i++) {
+            byte[] frame = encoder.encode(new EncodedMessage(new TestMessage(new byte[100_000], i)));
+            frameSizes[i] = frame.length;
+            assertEquals(i, ((TestMessage) decode(decoder, frame)).nonce);
+        }
+        // After a reset the class descriptors are sent again
+        assertEquals(2, Arrays.stream(frameSizes).skip(1).filter(size -> size > frameSizes[1]).count());
+    }
+
+    @Test(expected = EOFException.class)
+    public void testTruncatedSerializedFrame() throws IOException, ClassNotFoundException {
+        byte[] frame = new FrameCodec.Encoder().encode(new EncodedMessage(new TestMessage(new byte[100], 5)));
+        new FrameCodec.Decoder().decode(frame[4], Arrays.copyOfRange(frame, FrameCodec.HEADER_SIZE, frame.length - 10));
+    }
+
+    @Test(expected = StreamCorruptedException.class)
+    public void testRejectTwoObjectsInOneFrame() throws IOException, ClassNotFoundException {
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        ObjectOutputStream objectOutputStream = new ObjectOutputStream(byteArrayOutputStream);
+        objectOutputStream.writeObject(new CloseConnectionMessage("1"));
+        objectOutputStream.writeObject(new CloseConnectionMessage("2"));
+        objectOutputStream.flush();
+        new FrameCodec.Decoder().decode(FrameCodec.TYPE_SERIALIZED, byteArrayOutputStream.toByteArray());
+    }
+
+    @Test
+    public void testAddDataRoundTrip() throws IOException, ClassNotFoundException {
+        ProtectedStorageEntry entry = createEntry(7);
+        byte[] frame = FrameCodec.encode(new AddDataMessage(entry));
+        assertEquals(FrameCodec.TYPE_ADD_DATA, frame[4]);
+
+        assertEntryEquals(entry, ((AddDataMessage) decode(frame)).protectedStorageEntry);
+    }
+
+    @Test
+    public void testRemoveMailboxDataRoundTrip() throws IOException, ClassNotFoundException {
+        ProtectedMailboxStorageEntry entry = createMailboxEntry(3);
+        byte[] frame = FrameCodec.encode(new RemoveMailboxDataMessage(entry));
+        assertEquals(FrameCodec.TYPE_REMOVE_MAILBOX_DATA, frame[4]);
+
+        ProtectedMailboxStorageEntry decoded = ((RemoveMailboxDataMessage) decode(frame)).protectedMailboxStorageEntry;
+        assertEntryEquals(entry, decoded);
+        assertEquals(receiverKeyPair.getPublic(), decoded.receiversPubKey);
+        assertArrayEquals(entry.getMailboxStoragePayload().prefixedSealedAndSignedMessage.sealedAndSigned.encryptedSecretKey,
+                decoded.getMailboxStoragePayload().prefixedSealedAndSignedMessage.sealedAndSigned.encryptedSecretKey);
+    }
+
+    @Test
+    public void testGetDataRequestsRoundTrip() throws IOException, ClassNotFoundException {
+        Set<byte[]> excludedKeys = new HashSet<>();
+        excludedKeys.add(new byte[]{1, 2, 3});
+        excludedKeys.add(new byte[]{4, 5});
+        ExcludedKeysFilter excludedKeysFilter = ExcludedKeysFilter.create(excludedKeys, 11);
+
+        PreliminaryGetDataRequest preliminaryGetDataRequest = (PreliminaryGetDataRequest) decode(FrameCodec.encode(
+                new PreliminaryGetDataRequest(11, excludedKeys, excludedKeysFilter)));
+        assertEquals(11, preliminaryGetDataRequest.getNonce());
+        assertEquals(2, preliminaryGetDataRequest.getExcludedKeys().size());
+        assertTrue(preliminaryGetDataRequest.getExcludedKeys().stream().anyMatch(key -> Arrays.equals(new byte[]{4, 5}, key)));
+        assertArrayEquals(excludedKeysFilter.getBits(), preliminaryGetDataRequest.getExcludedKeysFilter().getBits());
+        assertTrue(preliminaryGetDataRequest.getExcludedKeysFilter().mightContain(new byte[]{1, 2, 3}));
+        assertEquals(new PreliminaryGetDataRequest(11, excludedKeys).getSupportedCapabilities(),
+                preliminaryGetDataRequest.getSupportedCapabilities());
+
+        GetUpdatedDataRequest getUpdatedDataRequest = (GetUpdatedDataRequest) decode(FrameCodec.encode(
+                new GetUpdatedDataRequest(new NodeAddress("localhost", 8001), 12, new HashSet<>())));
+        assertEquals(12, getUpdatedDataRequest.getNonce());
+        assertEquals(new NodeAddress("localhost", 8001), getUpdatedDataRequest.getSenderNodeAddress());
+        assertTrue(getUpdatedDataRequest.getExcludedKeys().isEmpty());
+        assertNull(getUpdatedDataRequest.getExcludedKeysFilter());
+    }
+
+    @Test
+    public void testGetDataResponseRoundTrip() throws IOException, ClassNotFoundException {
+        HashSet<ProtectedStorageEntry> dataSet = new HashSet<>();
+        for (int i = 0; i < 10; i++)
+            dataSet.add(i % 2 == 0 ? createEntry(i) : createMailboxEntry(i));
+        byte[] frame = FrameCodec.encode(new GetDataResponse(dataSet, 5, true, true));
+        assertEquals(FrameCodec.TYPE_GET_DATA_RESPONSE, frame[4]);
+
+        GetDataResponse response = (GetDataResponse) decode(frame);
+        assertEquals(5, response.requestNonce);
+        assertTrue(response.isGetUpdatedDataResponse);
+        assertTrue(response.hasMoreChunks());
+        assertEquals(new GetDataResponse(new HashSet<>(), 0, false).getSupportedCapabilities(),
+                response.getSupportedCapabilities());
+        assertEquals(10, response.dataSet.size());
+        Map<Integer, ProtectedStorageEntry> entriesBySequenceNumber = new HashMap<>();
+        response.dataSet.forEach(entry -> entriesBySequenceNumber.put(entry.sequenceNumber, entry));
+        for (ProtectedStorageEntry entry : dataSet) {
+            ProtectedStorageEntry decoded = entriesBySequenceNumber.get(entry.sequenceNumber);
+            assertEntryEquals(entry, decoded);
+            assertEquals(entry instanceof ProtectedMailboxStorageEntry, decoded instanceof ProtectedMailboxStorageEntry);
+        }
+    }
+
+    @Test(expected = InvalidClassException.class)
+    public void testRejectEntryOfOtherType() throws IOException, ClassNotFoundException {
+        // A ProtectedStorageEntry declared as RemoveMailboxData frame
+        byte[] frame = FrameCodec.encode(new AddDataMessage(createEntry(1)));
+        FrameCodec.decode(FrameCodec.TYPE_REMOVE_MAILBOX_DATA, Arrays.copyOfRange(frame, FrameCodec.HEADER_SIZE, frame.length));
+    }
+
+    @Test(expected = InvalidClassException.class)
+    public void testRejectPayloadOfOtherType() throws IOException, ClassNotFoundException {
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        DataOutputStream dataOutputStream = new DataOutputStream(byteArrayOutputStream);
+        // One ProtectedStorageEntry, which has a Pong as payload
+        dataOutputStream.writeInt(1);
+        dataOutputStream.writeByte(0);
+        byte[] ownerPubKeyBytes = ownerKeyPair.getPublic().getEncoded();
+        dataOutputStream.writeShort(ownerPubKeyBytes.length);
+        dataOutputStream.write(ownerPubKeyBytes);
+        dataOutputStream.writeInt(1);
+        dataOutputStream.writeShort(1);
+        dataOutputStream.write(1);
+        dataOutputStream.writeLong(System.currentTimeMillis());
+        ObjectOutputStream objectOutputStream = new ObjectOutputStream(dataOutputStream);
+        objectOutputStream.writeObject(new Pong(1));
+        objectOutputStream.flush();
+        FrameCodec.decode(FrameCodec.TYPE_ADD_DATA, byteArrayOutputStream.toByteArray());
+    }
+
+    @Test(expected = StreamCorruptedException.class)
+    public void testRejectDataAfterMessage() throws IOException, ClassNotFoundException {
+        byte[] frame = FrameCodec.encode(new AddDataMessage(createEntry(1)));
+        FrameCodec.decode(frame[4], Arrays.copyOfRange(frame, FrameCodec.HEADER_SIZE, frame.length + 1));
+    }
+
+    @Test
+    public void testMaxBodySize() {
+        assertEquals(Connection.MAX_MSG_SIZE, FrameCodec.getMaxBodySize(FrameCodec.TYPE_SERIALIZED));
+        assertEquals(Connection.MAX_MSG_SIZE, FrameCodec.getMaxBodySize(FrameCodec.TYPE_ADD_DATA));
+        assertEquals(Connection.MAX_MSG_SIZE_GET_DATA, FrameCodec.getMaxBodySize(FrameCodec.TYPE_GET_DATA_RESPONSE));
+        assertEquals(-1, FrameCodec.getMaxBodySize((byte) 99));
+
+        // Oversized serialized frames cannot be skipped
+        assertTrue(FrameCodec.isSerialized(FrameCodec.TYPE_SERIALIZED));
+        assertFalse(FrameCodec.isSerialized(FrameCodec.TYPE_PING));
+        assertFalse(FrameCodec.isSerialized(FrameCodec.TYPE_REFRESH_TTL));
+        assertFalse(FrameCodec.isSerialized(FrameCodec.TYPE_GET_DATA_RESPONSE));
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    private ProtectedStorageEntry createEntry(int sequenceNumber) {
+        ProtectedStorageEntry entry = new ProtectedStorageEntry(createMailboxPayload(sequenceNumber),
+                ownerKeyPair.getPublic(), sequenceNumber, new byte[]{(byte) sequenceNumber, 2, 3});
+        entry.creationTimeStamp -= 1000;
+        return entry;
+    }
+
+    private ProtectedMailboxStorageEntry createMailboxEntry(int sequenceNumber) {
+        ProtectedMailboxStorageEntry entry = new ProtectedMailboxStorageEntry(createMailboxPayload(sequenceNumber),
+                ownerKeyPair.getPublic(), sequenceNumber, new byte[]{(byte) sequenceNumber, 2, 3}, receiverKeyPair.getPublic());
+        entry.creationTimeStamp -= 1000;
+        return entry;
+    }
+
+    private MailboxStoragePayload createMailboxPayload(int nonce) {
+        SealedAndSigned sealedAndSigned = new SealedAndSigned(new byte[]{(byte) nonce}, new byte[10], new byte[4],
+                ownerKeyPair.getPublic());
+        return new MailboxStoragePayload(new PrefixedSealedAndSignedMessage(new NodeAddress("localhost", 8000),
+                sealedAndSigned, new byte[]{1}), ownerKeyPair.getPublic(), receiverKeyPair.getPublic());
+    }
+
+    private static void assertEntryEquals(ProtectedStorageEntry expected, ProtectedStorageEntry actual) {
+        assertEquals(expected.ownerPubKey, actual.ownerPubKey);
+        assertArrayEquals(expected.getOwnerPubKeyBytes(), actual.getOwnerPubKeyBytes());
+        assertEquals(expected.sequenceNumber, actual.sequenceNumber);
+        assertArrayEquals(expected.signature, actual.signature);
+        assertEquals(expected.creationTimeStamp, actual.creationTimeStamp);
+        // The hash is over the serialized payload
+        assertArrayEquals(expected.getHashOfPayload(), actual.getHashOfPayload());
+    }
+
+    private Object decode(byte[] frame) throws IOException, ClassNotFoundException {
+        return decode(new FrameCodec.Decoder(), frame);
+    }
+
+    private Object decode(FrameCodec.Decoder decoder, byte[] frame) throws IOException, ClassNotFoundException {
+        DataInputStream dataInputStream = new DataInputStream(new ByteArrayInputStream(frame));
+        int bodyLength = dataInputStream.readInt();
+        byte type = dataInputStream.readByte();
+        assertEquals(frame.length - FrameCodec.HEADER_SIZE, bodyLength);
+        assertTrue(bodyLength <= FrameCodec.getMaxBodySize(type));
+        return decoder.decode(type, Arrays.copyOfRange(frame, FrameCodec.HEADER_SIZE, frame.length));
+    }
+
+    private static final class TestMessage implements Message {
+        private final byte[] data;
+        private final int nonce;
+
+        private TestMessage(byte[] data, int nonce) {
+            this.data = data;
+            this.nonce = nonce;
+        }
+
+        @Override
+        public int getMessageVersion() {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package io.bitsquare.p2p.network;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+public class NioChannelTest {
+    private static final byte FRAME_TYPE = 2;
+
+    private ServerSocketChannel serverSocketChannel;
+    private NioSelectorLoop selectorLoop;
+    private ExecutorService streamDecoderExecutor;
+    private ExecutorService frameDecoderExecutor;
+    private TestInputHandler inputHandler;
+    private Socket peer;
+
+    @Before
+    public void setup() throws IOException {
+        serverSocketChannel = ServerSocketChannel.open();
+        serverSocketChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        selectorLoop = new NioSelectorLoop("NioChannelTest-Selector");
+        selectorLoop.start();
+        streamDecoderExecutor = Executors.newCachedThreadPool();
+        frameDecoderExecutor = Executors.newSingleThreadExecutor();
+        inputHandler = new TestInputHandler();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        selectorLoop.shutDown();
+        serverSocketChannel.close();
+        streamDecoderExecutor.shutdownNow();
+        frameDecoderExecutor.shutdownNow();
+        if (peer != null)
+            peer.close();
+    }
+
+    @Test
+    public void testStreamAcrossPartialReads() throws IOException {
+        NioChannel channel = connect(60_000);
+        writeInPieces(new byte[]{1, 2, 3, 4, 5, 6, 7}, 2);
+
+        byte[] b = new byte[7];
+        new DataInputStream(channel.getInputStream()).readFully(b);
+        assertArrayEquals(new byte[]{1, 2, 3, 4, 5, 6, 7}, b);
+    }
+
+    @Test
+    public void testFramesAcrossPartialReads() throws Exception {
+        NioChannel channel = connect(60_000);
+        channel.switchToFrames();
+
+        ByteArrayOutputStream frames = new ByteArrayOutputStream();
+        frames.write(frame(new byte[]{1, 2, 3}));
+        frames.write(frame(new byte[0]));
+        frames.write(frame(new byte[]{4}));
+        // Each byte in its own read, so headers and bodies are split at every position
+        writeInPieces(frames.toByteArray(), 1);
+
+        assertArrayEquals(new byte[]{1, 2, 3}, inputHandler.frames.poll(5, TimeUnit.SECONDS));
+        assertArrayEquals(new byte[0], inputHandler.frames.poll(5, TimeUnit.SECONDS));
+        assertArrayEquals(new byte[]{4}, inputHandler.frames.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testSwitchToFramesWithBufferedStreamData() throws Exception {
+        NioChannel channel = connect(60_000);
+        // The peer sends the end of the stream and the first frames in one write
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        data.write(new byte[]{9, 9});
+        data.write(frame(new byte[]{1}));
+        data.write(frame(new byte[]{2}));
+        peer.getOutputStream().write(data.toByteArray());
+        peer.getOutputStream().flush();
+
+        byte[] b = new byte[2];
+        new DataInputStream(channel.getInputStream()).readFully(b);
+        assertArrayEquals(new byte[]{9, 9}, b);
+        // Wait until the selector loop has put everything into the stream
+        long deadline = System.currentTimeMillis() + 5000;
+        while (channel.getInputStream().available() < 2 * (FrameCodec.HEADER_SIZE + 1) && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        channel.switchToFrames();
+
+        assertArrayEquals(new byte[]{1}, inputHandler.frames.poll(5, TimeUnit.SECONDS));
+        assertArrayEquals(new byte[]{2}, inputHandler.frames.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test(timeout = 10000)
+    public void testPeerCloseInStreamMode() throws IOException {
+        NioChannel channel = connect(60_000);
+        peer.getOutputStream().write(new byte[]{1, 2});
+        peer.close();
+
+        InputStream inputStream = channel.getInputStream();
+        assertEquals(1, inputStream.read());
+        assertEquals(2, inputStream.read());
+        assertEquals(-1, inputStream.read());
+    }
+
+    @Test
+    public void testPeerCloseInFrameMode() throws Exception {
+        NioChannel channel = connect(60_000);
+        channel.switchToFrames();
+        peer.getOutputStream().write(frame(new byte[]{1}));
+        peer.close();
+
+        // The exception is reported after the frame received before
+        assertTrue(inputHandler.exception.poll(5, TimeUnit.SECONDS) instanceof EOFException);
+        assertArrayEquals(new byte[]{1}, inputHandler.frames.poll());
+    }
+
+    @Test(timeout = 10000)
+    public void testIdleTimeoutInStreamMode() throws IOException {
+        NioChannel channel = connect(100);
+        try {
+            channel.getInputStream().read();
+            fail("Expected SocketTimeoutException");
+        } catch (SocketTimeoutException ignore) {
+        }
+    }
+
+    @Test
+    public void testIdleTimeoutInFrameMode() throws Exception {
+        NioChannel channel = connect(100);
+        channel.switchToFrames();
+        assertTrue(inputHandler.exception.poll(5, TimeUnit.SECONDS) instanceof SocketTimeoutException);
+    }
+
+    @Test
+    public void testStreamBackpressure() throws Exception {
+        NioChannel channel = connect(60_000);
+        byte[] data = new byte[2 * 1024 * 1024];
+        for (int i = 0; i < data.length; i++)
+            data[i] = (byte) i;
+        Future<?> writer = writeInBackground(data);
+
+        waitUntilReadPaused(channel);
+        // We buffer only up to the limit (plus one read) and leave the rest in the socket buffers
+        assertTrue(channel.getInputStream().available() < data.length / 4);
+
+        byte[] received = new byte[data.length];
+        new DataInputStream(channel.getInputStream()).readFully(received);
+        assertArrayEquals(data, received);
+        writer.get(5, TimeUnit.SECONDS);
+        assertFalse(channel.isReadPaused());
+    }
+
+    @Test
+    public void testFrameBackpressure() throws Exception {
+        inputHandler.decoderBlocked = new CountDownLatch(1);
+        NioChannel channel = connect(60_000);
+        channel.switchToFrames();
+
+        int numFrames = 2000;
+        ByteArrayOutputStream frames = new ByteArrayOutputStream();
+        for (int i = 0; i < numFrames; i++) {
+            byte[] body = new byte[1000];
+            body[0] = (byte) i;
+            frames.write(frame(body));
+        }
+        Future<?> writer = writeInBackground(frames.toByteArray());
+
+        waitUntilReadPaused(channel);
+        // We might exceed the limit by the frames of one read
+        assertTrue(channel.getPendingFrames() >= NioChannel.MAX_PENDING_FRAMES);
+        assertTrue(channel.getPendingFrames() < 2 * NioChannel.MAX_PENDING_FRAMES);
+
+        inputHandler.decoderBlocked.countDown();
+        for (int i = 0; i < numFrames; i++)
+            assertEquals((byte) i, inputHandler.frames.poll(5, TimeUnit.SECONDS)[0]);
+        writer.get(5, TimeUnit.SECONDS);
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    private NioChannel connect(long idleTimeoutMs) throws IOException {
+        peer = new Socket();
+        peer.setTcpNoDelay(true);
+        peer.connect(serverSocketChannel.getLocalAddress());
+        SocketChannel socketChannel = serverSocketChannel.accept();
+        NioChannel channel = new NioChannel(socketChannel, selectorLoop, streamDecoderExecutor, frameDecoderExecutor,
+                idleTimeoutMs);
+        channel.start(inputHandler);
+        return channel;
+    }
+
+    private static byte[] frame(byte[] body) {
+        ByteBuffer buffer = ByteBuffer.allocate(FrameCodec.HEADER_SIZE + body.length);
+        buffer.putInt(body.length);
+        buffer.put(FRAME_TYPE);
+        buffer.put(body);
+        return buffer.array();
+    }
+
+    private void writeInPieces(byte[] data, int pieceSize) throws IOException {
+        OutputStream outputStream = peer.getOutputStream();
+        for (int i = 0; i < data.length; i += pieceSize) {
+            outputStream.write(data, i, Math.min(pieceSize, data.length - i));
+            outputStream.flush();
+            try {
+                // Gives the selector loop the chance to read each piece separately
+                Thread.sleep(2);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private Future<?> writeInBackground(byte[] data) {
+        return Executors.newSingleThreadExecutor().submit(() -> {
+            peer.getOutputStream().write(data);
+            peer.getOutputStream().flush();
+            return null;
+        });
+    }
+
+    private static void waitUntilReadPaused(NioChannel channel) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!channel.isReadPaused()) {
+            assertTrue("Reading was not paused", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Static classes
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    // Records what the NioChannel delivers. It does not run a stream based loop, the tests read the stream themselves.
+    private static class TestInputHandler extends Connection.InputHandler {
+        final BlockingQueue<byte[]> frames = new LinkedBlockingQueue<>();
+        final BlockingQueue<Throwable> exception = new LinkedBlockingQueue<>();
+        volatile CountDownLatch decoderBlocked = new CountDownLatch(0);
+
+        TestInputHandler() {
+            super(null, null, "", null, null);
+        }
+
+        @Override
+        public void run() {
+        }
+
+        @Override
+        boolean onFrameHeader(byte type, int bodyLength) {
+            return true;
+        }
+
+        @Override
+        boolean onFrame(byte type, byte[] body) {
+            try {
+                decoderBlocked.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            frames.add(body);
+            return true;
+        }
+
+        @Override
+        void onException(Throwable t) {
+            exception.add(t);
+        }
+    }
+}
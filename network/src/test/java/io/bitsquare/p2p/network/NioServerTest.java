@@ -0,0 +1,145 @@
+package io.bitsquare.p2p.network;
+
+import io.bitsquare.p2p.Message;
+import io.bitsquare.p2p.network.messages.FramedWireFormatMessage;
+import io.bitsquare.p2p.peers.keepalive.messages.Ping;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+// Peers connecting to the NioServer the way a Connection does, the server side uses the real Connection
+public class NioServerTest {
+    private final BlockingQueue<Message> receivedMessages = new LinkedBlockingQueue<>();
+    private final BlockingQueue<CloseConnectionReason> closeConnectionReasons = new LinkedBlockingQueue<>();
+    private InetSocketAddress bindAddress;
+    private NioServer nioServer;
+    private Socket peer;
+
+    @Before
+    public void setup() throws IOException {
+        int port;
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            port = serverSocket.getLocalPort();
+        }
+        bindAddress = new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (peer != null)
+            peer.close();
+        if (nioServer != null)
+            nioServer.shutDown();
+    }
+
+    @Test
+    public void testStreamForPeerWithoutFrames() throws Exception {
+        start(60_000);
+        ObjectOutputStream objectOutputStream = new ObjectOutputStream(peer.getOutputStream());
+        objectOutputStream.writeObject(new Ping(1, 0));
+        objectOutputStream.flush();
+        objectOutputStream.writeObject(new Ping(2, 0));
+        objectOutputStream.flush();
+
+        assertEquals(1, ((Ping) receivedMessages.poll(5, TimeUnit.SECONDS)).nonce);
+        assertEquals(2, ((Ping) receivedMessages.poll(5, TimeUnit.SECONDS)).nonce);
+    }
+
+    @Test
+    public void testFramesAcrossPartialReads() throws Exception {
+        start(60_000);
+        ObjectOutputStream objectOutputStream = new ObjectOutputStream(peer.getOutputStream());
+        objectOutputStream.writeObject(new Ping(1, 0));
+        objectOutputStream.writeObject(new FramedWireFormatMessage());
+        objectOutputStream.flush();
+
+        OutputStream outputStream = peer.getOutputStream();
+        for (byte b : FrameCodec.encode(new Ping(2, 0))) {
+            outputStream.write(b);
+            outputStream.flush();
+            Thread.sleep(2);
+        }
+        outputStream.write(FrameCodec.encode(new Ping(3, 0)));
+        outputStream.flush();
+
+        assertEquals(1, ((Ping) receivedMessages.poll(5, TimeUnit.SECONDS)).nonce);
+        assertEquals(2, ((Ping) receivedMessages.poll(5, TimeUnit.SECONDS)).nonce);
+        assertEquals(3, ((Ping) receivedMessages.poll(5, TimeUnit.SECONDS)).nonce);
+    }
+
+    @Test
+    public void testPeerClose() throws Exception {
+        start(60_000);
+        ObjectOutputStream objectOutputStream = new ObjectOutputStream(peer.getOutputStream());
+        objectOutputStream.writeObject(new Ping(1, 0));
+        objectOutputStream.flush();
+        assertNotNull(receivedMessages.poll(5, TimeUnit.SECONDS));
+
+        peer.close();
+        assertEquals(CloseConnectionReason.TERMINATED, closeConnectionReasons.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testPeerCloseAfterFrames() throws Exception {
+        start(60_000);
+        ObjectOutputStream objectOutputStream = new ObjectOutputStream(peer.getOutputStream());
+        objectOutputStream.writeObject(new FramedWireFormatMessage());
+        objectOutputStream.flush();
+        peer.getOutputStream().write(FrameCodec.encode(new Ping(1, 0)));
+        peer.getOutputStream().flush();
+        assertNotNull(receivedMessages.poll(5, TimeUnit.SECONDS));
+
+        peer.close();
+        assertEquals(CloseConnectionReason.TERMINATED, closeConnectionReasons.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testIdleTimeout() throws Exception {
+        start(100);
+        new ObjectOutputStream(peer.getOutputStream()).flush();
+
+        assertEquals(CloseConnectionReason.SOCKET_TIMEOUT, closeConnectionReasons.poll(5, TimeUnit.SECONDS));
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    private void start(long idleTimeoutMs) throws IOException {
+        nioServer = new NioServer(bindAddress, idleTimeoutMs, (message, connection) -> receivedMessages.add(message),
+                new ConnectionListener() {
+                    @Override
+                    public void onConnection(Connection connection) {
+                    }
+
+                    @Override
+                    public void onDisconnect(CloseConnectionReason closeConnectionReason, Connection connection) {
+                        closeConnectionReasons.add(closeConnectionReason);
+                    }
+
+                    @Override
+                    public void onError(Throwable throwable) {
+                    }
+                });
+        nioServer.start();
+
+        peer = new Socket();
+        peer.setTcpNoDelay(true);
+        peer.connect(bindAddress);
+    }
+}
+
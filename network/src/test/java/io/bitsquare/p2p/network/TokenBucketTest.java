@@ -0,0 +1,41 @@
+package io.bitsquare.p2p.network;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class TokenBucketTest {
+
+    @Test
+    public void testDelayAndRefill() {
+        TokenBucket bucket = new TokenBucket(10, 100);
+        long now = 1000;
+        assertEquals(0, bucket.getDelayMillis(1, now));
+
+        bucket.consume(10, now);
+        assertEquals(0, bucket.getFillRatio(now), 0);
+        // 100 tokens per sec -> 10 ms per token
+        assertEquals(10, bucket.getDelayMillis(1, now));
+        assertEquals(0, bucket.getDelayMillis(1, now + 10));
+        // Never refilled above capacity
+        assertEquals(1, bucket.getFillRatio(now + 10000), 0);
+    }
+
+    @Test
+    public void testDebt() {
+        TokenBucket bucket = new TokenBucket(10, 100);
+        long now = 1000;
+        bucket.consume(30, now);
+        assertEquals(0, bucket.getFillRatio(now), 0);
+        // We need to get out of the debt of 20 tokens first
+        assertEquals(200, bucket.getDelayMillis(0, now));
+        assertEquals(0, bucket.getDelayMillis(0, now + 200));
+    }
+
+    @Test
+    public void testAmountLargerThanCapacity() {
+        TokenBucket bucket = new TokenBucket(10, 100);
+        // A full bucket must not block a request larger than its capacity forever
+        assertEquals(0, bucket.getDelayMillis(50, 1000));
+    }
+}
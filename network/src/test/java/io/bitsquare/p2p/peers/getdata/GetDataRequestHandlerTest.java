@@ -0,0 +1,164 @@
+package io.bitsquare.p2p.peers.getdata;
+
+import io.bitsquare.common.crypto.Sig;
+import io.bitsquare.p2p.storage.P2PDataStorage;
+import io.bitsquare.p2p.storage.mocks.MockData;
+import io.bitsquare.p2p.storage.payload.CapabilityRequiringPayload;
+import io.bitsquare.p2p.storage.storageentry.ProtectedStorageEntry;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.security.PublicKey;
+import java.security.Security;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class GetDataRequestHandlerTest {
+    private final Map<P2PDataStorage.ByteArray, ProtectedStorageEntry> map = new LinkedHashMap<>();
+    private PublicKey publicKey;
+
+    @Before
+    public void setup() {
+        Security.addProvider(new BouncyCastleProvider());
+        publicKey = Sig.generateKeyPair().getPublic();
+    }
+
+    @Test
+    public void testChunkSequence() {
+        for (int i = 0; i < 7; i++)
+            put(i, new MockData("msg" + i, publicKey));
+        GetDataRequestHandler.DataSetChunks dataSetChunks = new GetDataRequestHandler.DataSetChunks(map, key -> false, null);
+
+        assertEquals(getMessages(0, 1, 2), getMessages(dataSetChunks.next(3)));
+        assertTrue(dataSetChunks.hasNext());
+        assertEquals(getMessages(3, 4, 5), getMessages(dataSetChunks.next(3)));
+        assertTrue(dataSetChunks.hasNext());
+        assertEquals(getMessages(6), getMessages(dataSetChunks.next(3)));
+        assertFalse(dataSetChunks.hasNext());
+        assertTrue(dataSetChunks.next(3).isEmpty());
+    }
+
+    @Test
+    public void testExactlyFullLastChunk() {
+        for (int i = 0; i < 4; i++)
+            put(i, new MockData("msg" + i, publicKey));
+        GetDataRequestHandler.DataSetChunks dataSetChunks = new GetDataRequestHandler.DataSetChunks(map, key -> false, null);
+
+        assertEquals(2, dataSetChunks.next(2).size());
+        assertTrue(dataSetChunks.hasNext());
+        assertEquals(2, dataSetChunks.next(2).size());
+        // No empty chunk after a full one if all keys are used
+        assertFalse(dataSetChunks.hasNext());
+    }
+
+    @Test
+    public void testNoChunks() {
+        for (int i = 0; i < 3; i++)
+            put(i, new MockData("msg" + i, publicKey));
+        GetDataRequestHandler.DataSetChunks dataSetChunks = new GetDataRequestHandler.DataSetChunks(map, key -> false, null);
+
+        // Peers without chunk support get all in one response
+        assertEquals(getMessages(0, 1, 2), getMessages(dataSetChunks.next(Integer.MAX_VALUE)));
+        assertFalse(dataSetChunks.hasNext());
+    }
+
+    @Test
+    public void testChangesAfterSnapshot() {
+        for (int i = 0; i < 4; i++)
+            put(i, new MockData("msg" + i, publicKey));
+        GetDataRequestHandler.DataSetChunks dataSetChunks = new GetDataRequestHandler.DataSetChunks(map, key -> false, null);
+        assertEquals(getMessages(0, 1), getMessages(dataSetChunks.next(2)));
+
+        // Removed entries get skipped, new entries are not sent
+        map.remove(getKey(2));
+        put(4, new MockData("msg4", publicKey));
+        assertEquals(getMessages(3), getMessages(dataSetChunks.next(2)));
+        assertFalse(dataSetChunks.hasNext());
+    }
+
+    @Test
+    public void testExcludedKeys() {
+        for (int i = 0; i < 5; i++)
+            put(i, new MockData("msg" + i, publicKey));
+        Set<P2PDataStorage.ByteArray> excludedKeys = new HashSet<>(Arrays.asList(getKey(0), getKey(3)));
+        GetDataRequestHandler.DataSetChunks dataSetChunks = new GetDataRequestHandler.DataSetChunks(map,
+                excludedKeys::contains, null);
+
+        // Excluded keys don't take the place of an entry in the chunk
+        assertEquals(getMessages(1, 2), getMessages(dataSetChunks.next(2)));
+        assertEquals(getMessages(4), getMessages(dataSetChunks.next(2)));
+        assertFalse(dataSetChunks.hasNext());
+    }
+
+    @Test
+    public void testDuplicatePayloadsAcrossChunks() {
+        // Both traders publish the same trade statistics, which have the same hashCode but other entries
+        put(0, new MockData("msg0", publicKey));
+        put(1, new MockData("msg1", publicKey));
+        put(2, new MockData("msg0", publicKey));
+        GetDataRequestHandler.DataSetChunks dataSetChunks = new GetDataRequestHandler.DataSetChunks(map, key -> false, null);
+
+        assertEquals(2, dataSetChunks.next(2).size());
+        assertTrue(dataSetChunks.next(2).isEmpty());
+        assertFalse(dataSetChunks.hasNext());
+    }
+
+    @Test
+    public void testRequiredCapabilities() {
+        put(0, new MockData("msg0", publicKey));
+        put(1, new CapabilityRequiringMockData("msg1", publicKey, 1));
+        put(2, new CapabilityRequiringMockData("msg2", publicKey, 2));
+
+        assertEquals(getMessages(0), getMessages(new GetDataRequestHandler.DataSetChunks(map, key -> false, null)
+                .next(10)));
+        assertEquals(getMessages(0, 2), getMessages(new GetDataRequestHandler.DataSetChunks(map, key -> false,
+                Arrays.asList(0, 2)).next(10)));
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    private void put(int index, MockData mockData) {
+        map.put(getKey(index), new ProtectedStorageEntry(mockData, publicKey, 1, new byte[0]));
+    }
+
+    private static P2PDataStorage.ByteArray getKey(int index) {
+        return new P2PDataStorage.ByteArray(new byte[]{(byte) index});
+    }
+
+    private static Set<String> getMessages(int... indices) {
+        Set<String> result = new HashSet<>();
+        for (int index : indices)
+            result.add("msg" + index);
+        return result;
+    }
+
+    private static Set<String> getMessages(Set<ProtectedStorageEntry> entries) {
+        Set<String> result = new HashSet<>();
+        entries.stream().forEach(e -> result.add(((MockData) e.getStoragePayload()).msg));
+        return result;
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Static classes
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    private static class CapabilityRequiringMockData extends MockData implements CapabilityRequiringPayload {
+        private final int requiredCapability;
+
+        CapabilityRequiringMockData(String msg, PublicKey publicKey, int requiredCapability) {
+            super(msg, publicKey);
+            this.requiredCapability = requiredCapability;
+        }
+
+        @Override
+        public List<Integer> getRequiredCapabilities() {
+            return Collections.singletonList(requiredCapability);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package io.bitsquare.p2p.peers.getdata.messages;
+
+import io.bitsquare.common.crypto.Hash;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ExcludedKeysFilterTest {
+
+    @Before
+    public void setup() {
+        Security.addProvider(new BouncyCastleProvider());
+    }
+
+    @Test
+    public void testMightContain() {
+        List<byte[]> keys = new ArrayList<>();
+        for (int i = 0; i < 5000; i++)
+            keys.add(Hash.getHash("key" + i));
+
+        ExcludedKeysFilter filter = ExcludedKeysFilter.create(keys, 1);
+        assertTrue(filter.isValid());
+        // No false negatives
+        keys.stream().forEach(key -> assertTrue(filter.mightContain(key)));
+
+        int falsePositives = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (filter.mightContain(Hash.getHash("other" + i)))
+                falsePositives++;
+        }
+        assertTrue(falsePositives < 10000 * ExcludedKeysFilter.FALSE_POSITIVE_RATE * 3);
+    }
+
+    @Test
+    public void testEmptyFilter() {
+        ExcludedKeysFilter filter = ExcludedKeysFilter.create(new ArrayList<>(), 1);
+        assertTrue(filter.isValid());
+        assertFalse(filter.mightContain(Hash.getHash("key")));
+    }
+}
@@ -0,0 +1,352 @@
+package io.bitsquare.p2p.storage;
+
+import io.bitsquare.common.crypto.CryptoException;
+import io.bitsquare.common.crypto.Hash;
+import io.bitsquare.common.crypto.Sig;
+import io.bitsquare.p2p.NodeAddress;
+import io.bitsquare.p2p.network.LocalhostNetworkNode;
+import io.bitsquare.p2p.network.NetworkNode;
+import io.bitsquare.p2p.peers.BroadcastHandler;
+import io.bitsquare.p2p.peers.Broadcaster;
+import io.bitsquare.p2p.storage.messages.BroadcastMessage;
+import io.bitsquare.p2p.storage.mocks.MockData;
+import io.bitsquare.p2p.storage.payload.RequiresOwnerIsOnlinePayload;
+import io.bitsquare.p2p.storage.storageentry.ProtectedStorageEntry;
+import io.bitsquare.storage.FileUtil;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.security.KeyPair;
+import java.security.PublicKey;
+import java.security.Security;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class P2PDataStorageTest {
+    private static final long TTL = TimeUnit.MINUTES.toMillis(10);
+
+    private File dir;
+    private KeyPair keyPair;
+    private StubBroadcaster broadcaster;
+    private P2PDataStorage dataStorage;
+    private final List<String> addedMessages = Collections.synchronizedList(new ArrayList<>());
+    private final List<String> removedMessages = Collections.synchronizedList(new ArrayList<>());
+
+    @Before
+    public void setup() throws IOException {
+        Security.addProvider(new BouncyCastleProvider());
+        dir = File.createTempFile("temp_tests", "");
+        dir.delete();
+        dir.mkdir();
+
+        keyPair = Sig.generateKeyPair();
+        // The network node is not started, we only need it for registering the listeners
+        NetworkNode networkNode = new LocalhostNetworkNode(9999);
+        broadcaster = new StubBroadcaster(networkNode);
+        dataStorage = new P2PDataStorage(broadcaster, networkNode, dir);
+        dataStorage.addHashMapChangedListener(new HashMapChangedListener() {
+            @Override
+            public void onAdded(ProtectedStorageEntry data) {
+                addedMessages.add(((MockData) data.getStoragePayload()).msg);
+            }
+
+            @Override
+            public void onRemoved(ProtectedStorageEntry data) {
+                removedMessages.add(((MockData) data.getStoragePayload()).msg);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        dataStorage.shutDown();
+        FileUtil.deleteDirectory(dir);
+    }
+
+    @Test
+    public void testAddAllRejectsInvalidSignatures() throws Exception {
+        KeyPair otherKeyPair = Sig.generateKeyPair();
+        List<ProtectedStorageEntry> entries = new ArrayList<>();
+        for (int i = 0; i < 10; i++)
+            entries.add(createEntry(new MockData("valid" + i, keyPair.getPublic()), 0, keyPair));
+        // Signed with another key
+        entries.add(createEntry(new MockData("otherKey", keyPair.getPublic()), 0, otherKeyPair));
+        // Signed for another sequence number
+        ProtectedStorageEntry otherSeqNr = createEntry(new MockData("otherSeqNr", keyPair.getPublic()), 1, keyPair);
+        otherSeqNr.updateSequenceNumber(2);
+        entries.add(otherSeqNr);
+        // Corrupted signature
+        ProtectedStorageEntry corrupted = createEntry(new MockData("corrupted", keyPair.getPublic()), 0, keyPair);
+        corrupted.signature[corrupted.signature.length - 1]++;
+        entries.add(corrupted);
+        Collections.shuffle(entries, new Random(1));
+
+        addAllAndWait(entries);
+
+        Set<String> expected = new HashSet<>();
+        for (int i = 0; i < 10; i++)
+            expected.add("valid" + i);
+        assertEquals(expected, getStoredMessages());
+        // Data from addAll is not broadcast
+        assertTrue(broadcaster.messages.isEmpty());
+    }
+
+    @Test
+    public void testAddAllPreservesOrder() throws Exception {
+        // The first batch takes much longer to verify than the second one
+        List<ProtectedStorageEntry> firstBatch = new ArrayList<>();
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            firstBatch.add(createEntry(new MockData("first" + i, keyPair.getPublic()), 0, keyPair));
+            expected.add("first" + i);
+        }
+        List<ProtectedStorageEntry> secondBatch = Collections.singletonList(
+                createEntry(new MockData("second", keyPair.getPublic()), 0, keyPair));
+        expected.add("second");
+
+        List<String> completedBatches = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch latch = new CountDownLatch(3);
+        dataStorage.addAll(firstBatch, null, () -> {
+            completedBatches.add("first");
+            latch.countDown();
+        });
+        dataStorage.addAll(secondBatch, null, () -> {
+            completedBatches.add("second");
+            latch.countDown();
+        });
+        // An empty batch does not overtake the others either
+        dataStorage.addAll(new ArrayList<>(), null, () -> {
+            completedBatches.add("empty");
+            latch.countDown();
+        });
+
+        assertTrue(latch.await(30, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("first", "second", "empty"), completedBatches);
+        assertEquals(expected, addedMessages);
+    }
+
+    @Test
+    public void testSignatureCacheRejectsOtherSignatureForSameHash() throws Exception {
+        MockData mockData = new MockData("msg", keyPair.getPublic());
+        ProtectedStorageEntry entry = createEntry(mockData, 0, keyPair);
+        assertTrue(dataStorage.add(entry, null, null, true));
+        assertEquals(1, broadcaster.messages.size());
+
+        // Same payload and sequence number, so the same signed hash as the verified entry, but a signature of
+        // another key
+        ProtectedStorageEntry forged = createEntry(mockData, 0, Sig.generateKeyPair());
+        assertFalse(dataStorage.add(forged, null, null, true));
+
+        byte[] corruptedSignature = entry.signature.clone();
+        corruptedSignature[corruptedSignature.length - 1]++;
+        ProtectedStorageEntry corrupted = new ProtectedStorageEntry(mockData, keyPair.getPublic(), 0, corruptedSignature);
+        assertFalse(dataStorage.add(corrupted, null, null, true));
+
+        // The verified signature is still accepted, but we have that version already
+        assertTrue(dataStorage.add(entry, null, null, true));
+        assertSame(entry, dataStorage.getMap().values().iterator().next());
+        assertEquals(1, broadcaster.messages.size());
+        assertEquals(Collections.singletonList("msg"), addedMessages);
+    }
+
+    @Test
+    public void testSignatureCacheRejectsOtherSignatureForSameHashAtAddAll() throws Exception {
+        MockData mockData = new MockData("msg", keyPair.getPublic());
+        addAllAndWait(Collections.singletonList(createEntry(mockData, 0, keyPair)));
+
+        // A forged entry with a higher sequence number would replace the stored one
+        ProtectedStorageEntry valid = createEntry(mockData, 1, keyPair);
+        ProtectedStorageEntry forged = createEntry(mockData, 1, Sig.generateKeyPair());
+        addAllAndWait(Arrays.asList(valid, forged));
+        assertSame(valid, dataStorage.getMap().values().iterator().next());
+
+        addAllAndWait(Collections.singletonList(createEntry(mockData, 2, Sig.generateKeyPair())));
+        assertSame(valid, dataStorage.getMap().values().iterator().next());
+        assertEquals(Arrays.asList("msg", "msg"), addedMessages);
+    }
+
+
+    @Test
+    public void testIndexesAfterAddAndRemove() throws Exception {
+        NodeAddress owner1 = new NodeAddress("localhost", 1001);
+        NodeAddress owner2 = new NodeAddress("localhost", 1002);
+        ProtectedStorageEntry entry1 = createEntry(new OwnedMockData("owned1", keyPair.getPublic(), owner1), 0, keyPair);
+        ProtectedStorageEntry entry2 = createEntry(new OwnedMockData("owned2", keyPair.getPublic(), owner1), 0, keyPair);
+        ProtectedStorageEntry entry3 = createEntry(new OwnedMockData("owned3", keyPair.getPublic(), owner2), 0, keyPair);
+        ProtectedStorageEntry entry4 = createEntry(new MockData("notOwned", keyPair.getPublic()), 0, keyPair);
+        for (ProtectedStorageEntry entry : Arrays.asList(entry1, entry2, entry3, entry4))
+            assertTrue(dataStorage.add(entry, null, null, true));
+
+        assertEquals(toSet(entry1, entry2, entry3), new HashSet<>(dataStorage.getEntriesOfType(OwnedMockData.class)));
+        // Super types get the entries of their sub types as well
+        assertEquals(toSet(entry1, entry2, entry3, entry4), new HashSet<>(dataStorage.getEntriesOfType(MockData.class)));
+        assertEquals(toSet(entry1, entry2), new HashSet<>(dataStorage.getEntriesByOwnerNodeAddress(owner1)));
+        assertEquals(toSet(entry3), new HashSet<>(dataStorage.getEntriesByOwnerNodeAddress(owner2)));
+        assertTrue(dataStorage.getEntriesByOwnerNodeAddress(new NodeAddress("localhost", 1003)).isEmpty());
+
+        assertTrue(dataStorage.remove(createEntry((MockData) entry1.getStoragePayload(), 1, keyPair), null, true));
+        assertTrue(dataStorage.remove(createEntry((MockData) entry3.getStoragePayload(), 1, keyPair), null, true));
+        assertTrue(dataStorage.remove(createEntry((MockData) entry4.getStoragePayload(), 1, keyPair), null, true));
+        assertEquals(toSet(entry2), new HashSet<>(dataStorage.getEntriesOfType(OwnedMockData.class)));
+        assertEquals(toSet(entry2), new HashSet<>(dataStorage.getEntriesOfType(MockData.class)));
+        assertEquals(toSet(entry2), new HashSet<>(dataStorage.getEntriesByOwnerNodeAddress(owner1)));
+        assertTrue(dataStorage.getEntriesByOwnerNodeAddress(owner2).isEmpty());
+        assertEquals(toSet(entry2), new HashSet<>(dataStorage.getMap().values()));
+
+        // A failed remove does not change the indexes
+        assertFalse(dataStorage.remove(createEntry((MockData) entry2.getStoragePayload(), 1, Sig.generateKeyPair()), null, true));
+        assertEquals(toSet(entry2), new HashSet<>(dataStorage.getEntriesByOwnerNodeAddress(owner1)));
+    }
+
+    @Test
+    public void testIndexesAfterReplace() throws Exception {
+        NodeAddress owner = new NodeAddress("localhost", 1001);
+        OwnedMockData ownedMockData = new OwnedMockData("owned", keyPair.getPublic(), owner);
+        assertTrue(dataStorage.add(createEntry(ownedMockData, 0, keyPair), null, null, true));
+
+        // A higher sequence number replaces the entry in the map and in the indexes
+        ProtectedStorageEntry replacement = createEntry(ownedMockData, 1, keyPair);
+        assertTrue(dataStorage.add(replacement, null, null, true));
+        assertEquals(Collections.singletonList(replacement), dataStorage.getEntriesOfType(OwnedMockData.class));
+        assertEquals(Collections.singletonList(replacement), dataStorage.getEntriesByOwnerNodeAddress(owner));
+
+        // The indexes are only changed together with the map
+        try {
+            dataStorage.getMap().clear();
+            fail("Expected UnsupportedOperationException");
+        } catch (UnsupportedOperationException ignore) {
+        }
+    }
+
+
+    @Test
+    public void testRemoveExpiredEntries() throws Exception {
+        NodeAddress owner = new NodeAddress("localhost", 1001);
+        ProtectedStorageEntry expiredOwned = createEntry(new OwnedMockData("expiredOwned", keyPair.getPublic(), owner), 0, keyPair);
+        ProtectedStorageEntry liveOwned = createEntry(new OwnedMockData("liveOwned", keyPair.getPublic(), owner), 0, keyPair);
+        ProtectedStorageEntry expired = createEntry(new MockData("expired", keyPair.getPublic()), 0, keyPair);
+        backDate(expiredOwned);
+        backDate(expired);
+        for (ProtectedStorageEntry entry : Arrays.asList(expiredOwned, liveOwned, expired))
+            assertTrue(dataStorage.add(entry, null, null, true));
+
+        dataStorage.removeExpiredEntries();
+        assertEquals(toSet(liveOwned), new HashSet<>(dataStorage.getMap().values()));
+        assertEquals(toSet(liveOwned), new HashSet<>(dataStorage.getEntriesOfType(MockData.class)));
+        assertEquals(toSet(liveOwned), new HashSet<>(dataStorage.getEntriesByOwnerNodeAddress(owner)));
+        assertEquals(new HashSet<>(Arrays.asList("expiredOwned", "expired")), new HashSet<>(removedMessages));
+
+        // Nothing else is due
+        removedMessages.clear();
+        dataStorage.removeExpiredEntries();
+        assertTrue(removedMessages.isEmpty());
+        assertEquals(toSet(liveOwned), new HashSet<>(dataStorage.getMap().values()));
+    }
+
+    @Test
+    public void testReplacedEntryNotRemovedByStaleRecord() throws Exception {
+        MockData mockData = new MockData("msg", keyPair.getPublic());
+        ProtectedStorageEntry expired = createEntry(mockData, 0, keyPair);
+        backDate(expired);
+        assertTrue(dataStorage.add(expired, null, null, true));
+        ProtectedStorageEntry replacement = createEntry(mockData, 1, keyPair);
+        assertTrue(dataStorage.add(replacement, null, null, true));
+
+        // The record of the replaced entry is due, but the new entry is not expired
+        dataStorage.removeExpiredEntries();
+        assertEquals(toSet(replacement), new HashSet<>(dataStorage.getMap().values()));
+        assertEquals(toSet(replacement), new HashSet<>(dataStorage.getEntriesOfType(MockData.class)));
+        assertTrue(removedMessages.isEmpty());
+    }
+
+    @Test
+    public void testRefreshedEntryNotRemoved() throws Exception {
+        ProtectedStorageEntry entry = createEntry(new MockData("msg", keyPair.getPublic()), 0, keyPair);
+        backDate(entry);
+        assertTrue(dataStorage.add(entry, null, null, true));
+        entry.refreshTTL();
+
+        // The record is due, but the entry got refreshed in the meantime, so it gets rescheduled
+        dataStorage.removeExpiredEntries();
+        dataStorage.removeExpiredEntries();
+        assertEquals(toSet(entry), new HashSet<>(dataStorage.getMap().values()));
+        assertTrue(removedMessages.isEmpty());
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    private static ProtectedStorageEntry createEntry(MockData mockData, int sequenceNumber, KeyPair signingKeyPair)
+            throws CryptoException {
+        // MockData has no TTL by default, so the entries would be expired right away
+        mockData.ttl = TTL;
+        byte[] hashOfDataAndSeqNr = Hash.getHash(new P2PDataStorage.DataAndSeqNrPair(mockData, sequenceNumber));
+        byte[] signature = Sig.sign(signingKeyPair.getPrivate(), hashOfDataAndSeqNr);
+        return new ProtectedStorageEntry(mockData, mockData.publicKey, sequenceNumber, signature);
+    }
+
+    // Must be called before the entry is added, as the expiry queue takes the expiry time at add
+    private static void backDate(ProtectedStorageEntry entry) {
+        entry.creationTimeStamp -= 2 * entry.getStoragePayload().getTTL();
+    }
+
+    private void addAllAndWait(Collection<ProtectedStorageEntry> entries) throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(1);
+        dataStorage.addAll(entries, null, latch::countDown);
+        assertTrue(latch.await(30, TimeUnit.SECONDS));
+    }
+
+    private static Set<ProtectedStorageEntry> toSet(ProtectedStorageEntry... entries) {
+        return new HashSet<>(Arrays.asList(entries));
+    }
+
+    private Set<String> getStoredMessages() {
+        return dataStorage.getMap().values().stream()
+                .map(e -> ((MockData) e.getStoragePayload()).msg)
+                .collect(Collectors.toSet());
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Static classes
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    private static class OwnedMockData extends MockData implements RequiresOwnerIsOnlinePayload {
+        private final NodeAddress ownerNodeAddress;
+
+        OwnedMockData(String msg, PublicKey publicKey, NodeAddress ownerNodeAddress) {
+            super(msg, publicKey);
+            this.ownerNodeAddress = ownerNodeAddress;
+        }
+
+        @Override
+        public NodeAddress getOwnerNodeAddress() {
+            return ownerNodeAddress;
+        }
+    }
+
+    private static class StubBroadcaster extends Broadcaster {
+        private final List<BroadcastMessage> messages = Collections.synchronizedList(new ArrayList<>());
+
+        StubBroadcaster(NetworkNode networkNode) {
+            super(networkNode, null);
+        }
+
+        @Override
+        public void broadcast(BroadcastMessage message, @Nullable NodeAddress sender,
+                              @Nullable BroadcastHandler.Listener listener, boolean isDataOwner) {
+            messages.add(message);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package io.bitsquare.p2p.storage.storageentry;
+
+import io.bitsquare.common.crypto.Hash;
+import io.bitsquare.common.crypto.Sig;
+import io.bitsquare.common.util.Utilities;
+import io.bitsquare.p2p.storage.mocks.MockData;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.security.PublicKey;
+import java.security.Security;
+
+import static org.junit.Assert.*;
+
+public class ProtectedStorageEntryTest {
+    private PublicKey publicKey;
+
+    @Before
+    public void setup() {
+        Security.addProvider(new BouncyCastleProvider());
+        publicKey = Sig.generateKeyPair().getPublic();
+    }
+
+    @Test
+    public void testHashOfPayload() {
+        MockData mockData = new MockData("msg", publicKey);
+        ProtectedStorageEntry entry = new ProtectedStorageEntry(mockData, publicKey, 1, new byte[0]);
+
+        byte[] hashOfPayload = entry.getHashOfPayload();
+        assertArrayEquals(Hash.getHash(mockData), hashOfPayload);
+        // Calculated only once
+        assertSame(hashOfPayload, entry.getHashOfPayload());
+
+        // Sequence number and signature are not part of the payload hash
+        entry.updateSequenceNumber(2);
+        entry.updateSignature(new byte[]{1});
+        assertSame(hashOfPayload, entry.getHashOfPayload());
+    }
+
+    @Test
+    public void testHashOfPayloadAfterDeserialization() throws IOException, ClassNotFoundException {
+        ProtectedStorageEntry entry = new ProtectedStorageEntry(new MockData("msg", publicKey), publicKey, 1, new byte[0]);
+        byte[] hashOfPayload = entry.getHashOfPayload();
+
+        // The hash is transient, so the receiver calculates it from the received payload
+        // We use a plain ObjectInputStream as LookAheadObjectInputStream does not accept the MockData class
+        ProtectedStorageEntry deserialized;
+        try (ObjectInputStream objectInputStream = new ObjectInputStream(new ByteArrayInputStream(Utilities.serialize(entry)))) {
+            deserialized = (ProtectedStorageEntry) objectInputStream.readObject();
+        }
+        assertNotSame(hashOfPayload, deserialized.getHashOfPayload());
+        assertArrayEquals(hashOfPayload, deserialized.getHashOfPayload());
+    }
+}
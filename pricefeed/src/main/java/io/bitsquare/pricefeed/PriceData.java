@@ -30,4 +30,32 @@ public class PriceData {
         this.b = bid;
         this.l = last;
     }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof PriceData)) return false;
+
+        PriceData priceData = (PriceData) o;
+
+        if (Double.compare(priceData.a, a) != 0) return false;
+        if (Double.compare(priceData.b, b) != 0) return false;
+        if (Double.compare(priceData.l, l) != 0) return false;
+        return !(c != null ? !c.equals(priceData.c) : priceData.c != null);
+
+    }
+
+    @Override
+    public int hashCode() {
+        int result;
+        long temp;
+        result = c != null ? c.hashCode() : 0;
+        temp = Double.doubleToLongBits(a);
+        result = 31 * result + (int) (temp ^ (temp >>> 32));
+        temp = Double.doubleToLongBits(b);
+        result = 31 * result + (int) (temp ^ (temp >>> 32));
+        temp = Double.doubleToLongBits(l);
+        result = 31 * result + (int) (temp ^ (temp >>> 32));
+        return result;
+    }
 }
@@ -19,10 +19,14 @@ package io.bitsquare.pricefeed;
 
 import ch.qos.logback.classic.Level;
 import io.bitsquare.app.Log;
+import io.bitsquare.http.HttpClient;
 import io.bitsquare.http.HttpException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import spark.Request;
+import spark.Response;
 
+import javax.servlet.http.HttpServletResponse;
 import java.io.File;
 import java.io.IOException;
 import java.security.InvalidKeyException;
@@ -44,13 +48,60 @@ public class PriceFeedMain {
             String bitcoinAveragePubKey = args[1];
 
             PriceRequestService priceRequestService = new PriceRequestService(bitcoinAveragePrivKey, bitcoinAveragePubKey);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> HttpClient.getPool().shutDown(), "PriceFeedMain.ShutDownHook"));
             port(8080);
             get("/all", (req, res) -> {
                 log.info("Incoming request from: " + req.userAgent());
-                return priceRequestService.getJson();
+                return handleRequest(priceRequestService.getSnapshot(), req, res);
             });
         } else {
             throw new IllegalArgumentException("You need to provide the BitcoinAverage API keys. Private key as first argument, public key as second argument.");
         }
     }
+
+    private static Object handleRequest(PriceSnapshot snapshot, Request req, Response res) throws IOException {
+        if (snapshot == null) {
+            res.status(503);
+            return "No prices available yet";
+        }
+
+        res.header("ETag", snapshot.getETag());
+        res.header("Vary", "Accept-Encoding");
+        if (snapshot.getETag().equals(req.headers("If-None-Match"))) {
+            // Client has already the latest version
+            res.status(304);
+            return "";
+        }
+
+        // The json is compressed once per snapshot and not at each request
+        String acceptEncoding = req.headers("Accept-Encoding");
+        boolean gzip = acceptEncoding != null && acceptEncoding.contains("gzip");
+        res.type("application/json");
+
+        // Clients which send the version they have get only the changed prices
+        String since = req.queryParams("since");
+        if (since != null) {
+            try {
+                long sinceVersion = Long.parseLong(since);
+                byte[] deltaJson = gzip ? snapshot.getGzippedDeltaJson(sinceVersion) : snapshot.getDeltaJson(sinceVersion);
+                if (deltaJson != null)
+                    return gzip ? writeGzipped(res, deltaJson) : deltaJson;
+            } catch (NumberFormatException e) {
+                log.warn("Invalid since parameter: " + since);
+            }
+        }
+
+        return gzip ? writeGzipped(res, snapshot.getGzippedJson()) : snapshot.getJson();
+    }
+
+    // Spark would compress the body again if we set the Content-Encoding header, so we write the already compressed
+    // json directly. Spark does not write the returned body of a committed response.
+    private static Object writeGzipped(Response res, byte[] gzippedJson) throws IOException {
+        HttpServletResponse rawResponse = res.raw();
+        rawResponse.setHeader("Content-Encoding", "gzip");
+        rawResponse.setContentLength(gzippedJson.length);
+        rawResponse.getOutputStream().write(gzippedJson);
+        rawResponse.flushBuffer();
+        return "";
+    }
 }
@@ -0,0 +1,52 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.pricefeed;
+
+import java.util.Map;
+
+/**
+ * A source of market prices which gets requested periodically by the PriceProviderEngine.
+ */
+public interface PriceProvider {
+    String getName();
+
+    /**
+     * @return The key of the timestamp in the price json which gets set at each successful request.
+     */
+    String getTimeStampKey();
+
+    long getIntervalMs();
+
+    /**
+     * @return Max. duration of a request. If it takes longer it gets cancelled and counts as failed.
+     */
+    long getTimeoutMs();
+
+    /**
+     * @return A price of a provider with a higher priority is used instead of the price of the same currency of a
+     * provider with a lower priority, as long it is not stale.
+     */
+    int getPriority();
+
+    /**
+     * Blocking request. Gets called from a worker thread of the PriceProviderEngine.
+     *
+     * @return The prices by currency code.
+     */
+    Map<String, PriceData> request() throws Exception;
+}
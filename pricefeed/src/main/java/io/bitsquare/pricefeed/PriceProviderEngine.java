@@ -0,0 +1,256 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.pricefeed;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Requests the prices of all providers and merges them to one price map.
+ * <p>
+ * The requests are scheduled on a single scheduler thread and executed on worker threads, so a slow provider does not
+ * delay the others. A request which takes longer than the timeout of its provider gets cancelled. After a failed
+ * request we retry with an exponential backoff with jitter, after a successful one we wait the interval of the
+ * provider.
+ * <p>
+ * A price is stale if its provider has not delivered it for STALE_AFTER_INTERVALS intervals. Then the price of a
+ * provider with a lower priority gets used if there is a fresh one.
+ * <p>
+ * The merged prices get published to the listener at most once per publish interval, and only if they have changed.
+ * All state is only accessed from the scheduler thread.
+ */
+public class PriceProviderEngine {
+    private static final Logger log = LoggerFactory.getLogger(PriceProviderEngine.class);
+
+    public interface Listener {
+        /**
+         * Called from the scheduler thread.
+         */
+        void onPricesUpdated(Map<String, Long> timeStamps, Map<String, PriceData> prices);
+    }
+
+    private static final long PUBLISH_INTERVAL_MS = 1000;
+    private static final long MIN_RETRY_DELAY_MS = 10_000;
+    private static final long MAX_RETRY_DELAY_MS = 600_000;
+    private static final int STALE_AFTER_INTERVALS = 3;
+
+    private final List<ProviderState> providerStates = new ArrayList<>();
+    private final Listener listener;
+    private final long publishIntervalMs;
+    private final long minRetryDelayMs;
+    private final long maxRetryDelayMs;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("PriceProviderEngine").setDaemon(true).build());
+    private final ExecutorService workers = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setNameFormat("PriceProviderEngine-Request-%d").setDaemon(true).build());
+    private final Random random = new Random();
+
+    // Set if a provider has delivered prices since the last publish
+    private boolean dirty;
+    private Set<String> staleCurrencyCodes = new HashSet<>();
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Constructor
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    public PriceProviderEngine(Collection<PriceProvider> providers, Listener listener) {
+        this(providers, listener, PUBLISH_INTERVAL_MS, MIN_RETRY_DELAY_MS, MAX_RETRY_DELAY_MS);
+    }
+
+    // Used in tests
+    PriceProviderEngine(Collection<PriceProvider> providers, Listener listener, long publishIntervalMs,
+                        long minRetryDelayMs, long maxRetryDelayMs) {
+        this.listener = listener;
+        this.publishIntervalMs = publishIntervalMs;
+        this.minRetryDelayMs = minRetryDelayMs;
+        this.maxRetryDelayMs = maxRetryDelayMs;
+        providers.stream().forEach(provider -> providerStates.add(new ProviderState(provider)));
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // API
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    public void start() {
+        providerStates.stream().forEach(state -> scheduler.execute(() -> request(state)));
+        scheduler.scheduleWithFixedDelay(this::publishIfChanged, publishIntervalMs, publishIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    public void shutDown() {
+        scheduler.shutdownNow();
+        workers.shutdownNow();
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    private void request(ProviderState state) {
+        PriceProvider provider = state.provider;
+        // Only the first of result, failure and timeout gets handled
+        AtomicBoolean completed = new AtomicBoolean();
+        Future<?> future = workers.submit(() -> {
+            try {
+                Map<String, PriceData> prices = provider.request();
+                if (completed.compareAndSet(false, true))
+                    scheduler.execute(() -> onSuccess(state, prices));
+            } catch (Throwable t) {
+                if (completed.compareAndSet(false, true))
+                    scheduler.execute(() -> onFailure(state, t));
+            }
+        });
+        scheduler.schedule(() -> {
+            if (completed.compareAndSet(false, true)) {
+                future.cancel(true);
+                onFailure(state, new TimeoutException("Request timed out after " + provider.getTimeoutMs() + " ms"));
+            }
+        }, provider.getTimeoutMs(), TimeUnit.MILLISECONDS);
+    }
+
+    private void onSuccess(ProviderState state, Map<String, PriceData> prices) {
+        long now = System.currentTimeMillis();
+        prices.entrySet().stream().forEach(e -> {
+            state.prices.put(e.getKey(), e.getValue());
+            state.receivedAt.put(e.getKey(), now);
+        });
+        state.timeStamp = now / 1000;
+        state.numFailures = 0;
+        dirty = true;
+        log.info("{} delivered {} prices", state.provider.getName(), prices.size());
+
+        scheduleNextRequest(state, state.provider.getIntervalMs());
+    }
+
+    private void onFailure(ProviderState state, Throwable throwable) {
+        state.numFailures++;
+        long delay = getRetryDelay(state.numFailures);
+        log.warn("Request to {} failed ({} failures in a row), we retry in {} ms. Error: {}",
+                state.provider.getName(), state.numFailures, delay, throwable.toString());
+
+        scheduleNextRequest(state, delay);
+    }
+
+    private void scheduleNextRequest(ProviderState state, long delay) {
+        try {
+            scheduler.schedule(() -> request(state), delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            log.debug("We are shut down");
+        }
+    }
+
+    private long getRetryDelay(int numFailures) {
+        long delay = Math.min(maxRetryDelayMs, minRetryDelayMs << Math.min(numFailures - 1, 20));
+        // +/- 20% so providers which failed at the same time don't get requested at the same time again
+        return (long) (delay * (0.8 + 0.4 * random.nextDouble()));
+    }
+
+    private void publishIfChanged() {
+        // An exception would stop the scheduled publishing
+        try {
+            long now = System.currentTimeMillis();
+            Map<String, Candidate> candidates = new HashMap<>();
+            providerStates.stream().forEach(state -> {
+                long maxAge = STALE_AFTER_INTERVALS * state.provider.getIntervalMs();
+                state.prices.entrySet().stream().forEach(e -> {
+                    long receivedAt = state.receivedAt.get(e.getKey());
+                    Candidate candidate = new Candidate(e.getValue(), state.provider.getPriority(), now - receivedAt > maxAge, receivedAt);
+                    candidates.merge(e.getKey(), candidate, (c1, c2) -> c2.isBetterThan(c1) ? c2 : c1);
+                });
+            });
+
+            Set<String> newStaleCurrencyCodes = new HashSet<>();
+            Map<String, PriceData> prices = new HashMap<>();
+            candidates.entrySet().stream().forEach(e -> {
+                prices.put(e.getKey(), e.getValue().priceData);
+                if (e.getValue().stale)
+                    newStaleCurrencyCodes.add(e.getKey());
+            });
+
+            if (!newStaleCurrencyCodes.equals(staleCurrencyCodes)) {
+                if (newStaleCurrencyCodes.isEmpty())
+                    log.info("All prices are fresh again");
+                else
+                    log.warn("No fresh prices for {}", newStaleCurrencyCodes);
+                staleCurrencyCodes = newStaleCurrencyCodes;
+            } else if (!dirty) {
+                return;
+            }
+
+            // Clients expect all timestamps
+            Map<String, Long> timeStamps = new HashMap<>();
+            providerStates.stream().forEach(state ->
+                    timeStamps.merge(state.provider.getTimeStampKey(), state.timeStamp, Math::max));
+
+            dirty = false;
+            listener.onPricesUpdated(timeStamps, prices);
+        } catch (Throwable t) {
+            log.error("Error at publishing the prices: " + t.toString());
+            t.printStackTrace();
+        }
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Static classes
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    private static final class ProviderState {
+        private final PriceProvider provider;
+        private final Map<String, PriceData> prices = new HashMap<>();
+        // Time in ms when the provider has delivered the price of the currency the last time
+        private final Map<String, Long> receivedAt = new HashMap<>();
+        // Time in sec of the last successful request, 0 if there was none
+        private long timeStamp;
+        private int numFailures;
+
+        private ProviderState(PriceProvider provider) {
+            this.provider = provider;
+        }
+    }
+
+    private static final class Candidate {
+        private final PriceData priceData;
+        private final int priority;
+        private final boolean stale;
+        private final long receivedAt;
+
+        private Candidate(PriceData priceData, int priority, boolean stale, long receivedAt) {
+            this.priceData = priceData;
+            this.priority = priority;
+            this.stale = stale;
+            this.receivedAt = receivedAt;
+        }
+
+        private boolean isBetterThan(Candidate other) {
+            if (stale != other.stale)
+                return !stale;
+            else if (priority != other.priority)
+                return priority > other.priority;
+            else
+                return receivedAt > other.receivedAt;
+        }
+    }
+}
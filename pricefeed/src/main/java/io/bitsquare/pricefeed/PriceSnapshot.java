@@ -0,0 +1,128 @@
+/*
+ * This file is part of Bitsquare.
+ *
+ * Bitsquare is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or (at
+ * your option) any later version.
+ *
+ * Bitsquare is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU Affero General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Bitsquare. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.bitsquare.pricefeed;
+
+import io.bitsquare.common.util.Utilities;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The prices of one version of the /all response, encoded once when the prices got updated and not at each request.
+ * Besides the json we keep the gzip compressed json and the json with only the prices changed since one of the
+ * previous versions (delta), so clients which have already a recent version only download what has changed.
+ */
+final class PriceSnapshot {
+    // Clients with an older version get the full json
+    private static final long MAX_DELTA_VERSIONS = 10;
+
+    private final long version;
+    private final String eTag;
+    private final Map<String, Long> timeStamps;
+    private final Map<String, PriceData> prices;
+    // The version at which the price of the currency has changed the last time
+    private final Map<String, Long> versionByCurrency;
+    private final byte[] json;
+    private final byte[] gzippedJson;
+    // Created at the first request as most clients request the delta to the previous version only
+    private final Map<Long, byte[]> deltaJsonBySinceVersion = new ConcurrentHashMap<>();
+    private final Map<Long, byte[]> gzippedDeltaJsonBySinceVersion = new ConcurrentHashMap<>();
+
+    PriceSnapshot(long version, Map<String, Long> timeStamps, Map<String, PriceData> prices,
+                  Map<String, Long> versionByCurrency) {
+        this.version = version;
+        this.eTag = "\"" + version + "\"";
+        this.timeStamps = Collections.unmodifiableMap(new HashMap<>(timeStamps));
+        this.prices = Collections.unmodifiableMap(new HashMap<>(prices));
+        this.versionByCurrency = Collections.unmodifiableMap(new HashMap<>(versionByCurrency));
+
+        json = toJson(this.prices);
+        gzippedJson = gzip(json);
+    }
+
+    long getVersion() {
+        return version;
+    }
+
+    String getETag() {
+        return eTag;
+    }
+
+    byte[] getJson() {
+        return json;
+    }
+
+    byte[] getGzippedJson() {
+        return gzippedJson;
+    }
+
+    /**
+     * @return The json with only the prices which have changed after sinceVersion or null if we cannot provide a delta
+     * for that version (then the full json must be used).
+     */
+    @Nullable
+    byte[] getDeltaJson(long sinceVersion) {
+        if (sinceVersion < version - MAX_DELTA_VERSIONS || sinceVersion > version)
+            return null;
+
+        return deltaJsonBySinceVersion.computeIfAbsent(sinceVersion, k -> {
+            Map<String, PriceData> changedPrices = new HashMap<>();
+            prices.entrySet().stream()
+                    .filter(e -> versionByCurrency.get(e.getKey()) > sinceVersion)
+                    .forEach(e -> changedPrices.put(e.getKey(), e.getValue()));
+            return toJson(changedPrices);
+        });
+    }
+
+    /**
+     * @return The gzip compressed delta json, see getDeltaJson.
+     */
+    @Nullable
+    byte[] getGzippedDeltaJson(long sinceVersion) {
+        byte[] deltaJson = getDeltaJson(sinceVersion);
+        if (deltaJson == null)
+            return null;
+
+        return gzippedDeltaJsonBySinceVersion.computeIfAbsent(sinceVersion, k -> gzip(deltaJson));
+    }
+
+    private byte[] toJson(Map<String, PriceData> prices) {
+        Map<String, Object> map = new HashMap<>(timeStamps);
+        map.put("version", version);
+        map.put("data", prices.values().toArray());
+        return Utilities.objectToJson(map).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] gzip(byte[] bytes) {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(bytes.length / 4);
+        try (GZIPOutputStream gzipOutputStream = new GZIPOutputStream(outputStream)) {
+            gzipOutputStream.write(bytes);
+        } catch (IOException e) {
+            // Cannot happen with a ByteArrayOutputStream
+            throw new RuntimeException(e);
+        }
+        return outputStream.toByteArray();
+    }
+}
@@ -22,6 +22,7 @@ import com.google.gson.internal.LinkedTreeMap;
 import io.bitsquare.http.HttpClient;
 import io.bitsquare.http.HttpException;
 import io.bitsquare.pricefeed.PriceData;
+import io.bitsquare.pricefeed.PriceProvider;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.spongycastle.util.encoders.Hex;
@@ -36,15 +37,33 @@ import java.time.Instant;
 import java.util.HashMap;
 import java.util.Map;
 
-public class BtcAverageProvider {
+public class BtcAverageProvider implements PriceProvider {
     private static final Logger log = LoggerFactory.getLogger(BtcAverageProvider.class);
 
+    public enum Index {
+        // The local index has more accurate prices, it replaces the prices of the global index
+        LOCAL("local", 60_000, 1),          // 60 sec
+        GLOBAL("global", 150_000, 0);       // 2.5 min
+
+        private final String path;
+        private final long intervalMs;
+        private final int priority;
+
+        Index(String path, long intervalMs, int priority) {
+            this.path = path;
+            this.intervalMs = intervalMs;
+            this.priority = priority;
+        }
+    }
+
     private final HttpClient httpClient;
+    private final Index index;
     private final String pubKey;
     private final SecretKey secretKey;
 
-    public BtcAverageProvider(String privKey, String pubKey) {
+    public BtcAverageProvider(Index index, String privKey, String pubKey) {
         this.httpClient = new HttpClient("https://apiv2.bitcoinaverage.com/");
+        this.index = index;
         this.pubKey = pubKey;
         this.secretKey = new SecretKeySpec(privKey.getBytes(), "HmacSHA256");
     }
@@ -56,12 +75,34 @@ public class BtcAverageProvider {
         return payload + "." + Hex.toHexString(mac.doFinal(payload.getBytes()));
     }
 
-    public Map<String, PriceData> getLocal() throws HttpException, NoSuchAlgorithmException, InvalidKeyException, IOException {
-        return getMap(httpClient.requestWithGETNoProxy("indices/local/ticker/all?crypto=BTC", "X-signature", getHeader()));
+    @Override
+    public String getName() {
+        return "BTCAverage " + index.path;
+    }
+
+    @Override
+    public String getTimeStampKey() {
+        return "btcAverageTs";
+    }
+
+    @Override
+    public long getIntervalMs() {
+        return index.intervalMs;
+    }
+
+    @Override
+    public long getTimeoutMs() {
+        return 20_000;
+    }
+
+    @Override
+    public int getPriority() {
+        return index.priority;
     }
 
-    public Map<String, PriceData> getGlobal() throws HttpException, NoSuchAlgorithmException, InvalidKeyException, IOException {
-        return getMap(httpClient.requestWithGETNoProxy("indices/global/ticker/all?crypto=BTC", "X-signature", getHeader()));
+    @Override
+    public Map<String, PriceData> request() throws HttpException, NoSuchAlgorithmException, InvalidKeyException, IOException {
+        return getMap(httpClient.requestWithGETNoProxy("indices/" + index.path + "/ticker/all?crypto=BTC", "X-signature", getHeader()));
     }
 
     private Map<String, PriceData> getMap(String json) {
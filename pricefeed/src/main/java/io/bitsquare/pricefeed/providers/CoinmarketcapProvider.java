@@ -7,6 +7,7 @@ import io.bitsquare.http.HttpException;
 import io.bitsquare.locale.CurrencyUtil;
 import io.bitsquare.locale.TradeCurrency;
 import io.bitsquare.pricefeed.PriceData;
+import io.bitsquare.pricefeed.PriceProvider;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -16,7 +17,7 @@ import java.util.stream.Collectors;
 
 import static java.lang.Double.parseDouble;
 
-public class CoinmarketcapProvider {
+public class CoinmarketcapProvider implements PriceProvider {
     private static final Logger log = LoggerFactory.getLogger(CoinmarketcapProvider.class);
     private final Set<String> supportedAltcoins;
 
@@ -29,6 +30,32 @@ public class CoinmarketcapProvider {
                 .collect(Collectors.toSet());
     }
 
+    @Override
+    public String getName() {
+        return "Coinmarketcap";
+    }
+
+    @Override
+    public String getTimeStampKey() {
+        return "coinmarketcapTs";
+    }
+
+    @Override
+    public long getIntervalMs() {
+        return 300_000; // 5 min
+    }
+
+    @Override
+    public long getTimeoutMs() {
+        return 20_000;
+    }
+
+    @Override
+    public int getPriority() {
+        return 0;
+    }
+
+    @Override
     public Map<String, PriceData> request() throws IOException, HttpException {
         Map<String, PriceData> marketPriceMap = new HashMap<>();
         String response = httpClient.requestWithGET("v1/ticker/?limit=200", "User-Agent", "");
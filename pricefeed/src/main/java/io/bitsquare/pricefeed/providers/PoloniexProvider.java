@@ -7,6 +7,7 @@ import io.bitsquare.http.HttpException;
 import io.bitsquare.locale.CurrencyUtil;
 import io.bitsquare.locale.TradeCurrency;
 import io.bitsquare.pricefeed.PriceData;
+import io.bitsquare.pricefeed.PriceProvider;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -18,7 +19,7 @@ import java.util.stream.Collectors;
 
 import static java.lang.Double.parseDouble;
 
-public class PoloniexProvider {
+public class PoloniexProvider implements PriceProvider {
     private static final Logger log = LoggerFactory.getLogger(PoloniexProvider.class);
 
     private final Set<String> supportedAltcoins;
@@ -32,6 +33,33 @@ public class PoloniexProvider {
                 .collect(Collectors.toSet());
     }
 
+    @Override
+    public String getName() {
+        return "Poloniex";
+    }
+
+    @Override
+    public String getTimeStampKey() {
+        return "poloniexTs";
+    }
+
+    @Override
+    public long getIntervalMs() {
+        return 60_000; // 1 min
+    }
+
+    @Override
+    public long getTimeoutMs() {
+        return 20_000;
+    }
+
+    // Poloniex has more accurate altcoin prices than Coinmarketcap
+    @Override
+    public int getPriority() {
+        return 1;
+    }
+
+    @Override
     public Map<String, PriceData> request() throws IOException, HttpException {
         Map<String, PriceData> marketPriceMap = new HashMap<>();
         String response = httpClient.requestWithGET("?command=returnTicker", "User-Agent", "");
@@ -0,0 +1,175 @@
+package io.bitsquare.pricefeed;
+
+import com.sun.net.httpserver.HttpServer;
+import io.bitsquare.http.HttpClient;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+import static org.junit.Assert.*;
+
+public class PriceProviderEngineTest {
+    private HttpServer server;
+    private PriceProviderEngine engine;
+    private final BlockingQueue<Map<String, PriceData>> publishedPrices = new LinkedBlockingQueue<>();
+    private final Map<String, Long> lastTimeStamps = new ConcurrentHashMap<>();
+
+    // Status codes the stub server answers with per path, 0 means no answer within the timeout
+    private final Map<String, AtomicInteger> statusByPath = new HashMap<>();
+    private final Map<String, AtomicInteger> numRequestsByPath = new HashMap<>();
+
+    @Before
+    public void setup() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        for (String path : Arrays.asList("high", "low")) {
+            statusByPath.put(path, new AtomicInteger(200));
+            numRequestsByPath.put(path, new AtomicInteger());
+            server.createContext("/" + path, exchange -> {
+                numRequestsByPath.get(path).incrementAndGet();
+                int status = statusByPath.get(path).get();
+                if (status == 0) {
+                    try {
+                        Thread.sleep(2000);
+                    } catch (InterruptedException ignore) {
+                    }
+                    status = 200;
+                }
+                // The price is the length of the path, so the prices of both providers differ
+                byte[] body = String.valueOf(path.length()).getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(status, body.length);
+                try (OutputStream outputStream = exchange.getResponseBody()) {
+                    outputStream.write(body);
+                }
+            });
+        }
+        // Requests which don't get answered must not block the other ones
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        if (engine != null)
+            engine.shutDown();
+        server.stop(0);
+    }
+
+    @Test
+    public void testPriority() throws InterruptedException {
+        startEngine(1000);
+
+        Map<String, PriceData> prices = awaitPrices(p -> p.containsKey("EUR") && p.get("EUR").l == 4);
+        assertNotNull(prices);
+        assertEquals(1, prices.size());
+        assertTrue(lastTimeStamps.get("highTs") > 0);
+    }
+
+    @Test
+    public void testRetryAfterFailure() throws InterruptedException {
+        statusByPath.get("high").set(500);
+        startEngine(1000);
+
+        // Only the low priority provider delivers
+        assertNotNull(awaitPrices(p -> p.containsKey("EUR") && p.get("EUR").l == 3));
+        assertEquals(0L, (long) lastTimeStamps.get("highTs"));
+        Thread.sleep(300);
+        // Retried with backoff: 20, 40, 80, 100, 100... ms instead of the interval of 1000 ms
+        assertTrue(numRequestsByPath.get("high").get() >= 3);
+
+        statusByPath.get("high").set(200);
+        assertNotNull(awaitPrices(p -> p.get("EUR").l == 4));
+    }
+
+    @Test
+    public void testTimeoutAndStalePrices() throws InterruptedException {
+        startEngine(100);
+        assertNotNull(awaitPrices(p -> p.containsKey("EUR") && p.get("EUR").l == 4));
+
+        // The high priority provider does not answer anymore, after 3 intervals its price is stale and the price of
+        // the low priority provider gets used
+        statusByPath.get("high").set(0);
+        assertNotNull(awaitPrices(p -> p.get("EUR").l == 3));
+    }
+
+    private void startEngine(long intervalMs) {
+        engine = new PriceProviderEngine(Arrays.asList(new StubProvider("high", 1, intervalMs), new StubProvider("low", 0, intervalMs)),
+                (timeStamps, prices) -> {
+                    lastTimeStamps.putAll(timeStamps);
+                    publishedPrices.add(prices);
+                },
+                10, 20, 100);
+        engine.start();
+    }
+
+    private Map<String, PriceData> awaitPrices(Predicate<Map<String, PriceData>> predicate) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < deadline) {
+            Map<String, PriceData> prices = publishedPrices.poll(100, TimeUnit.MILLISECONDS);
+            if (prices != null && predicate.test(prices))
+                return prices;
+        }
+        return null;
+    }
+
+    private class StubProvider implements PriceProvider {
+        private final String path;
+        private final int priority;
+        private final long intervalMs;
+        private final HttpClient httpClient;
+
+        StubProvider(String path, int priority, long intervalMs) {
+            this.path = path;
+            this.priority = priority;
+            this.intervalMs = intervalMs;
+            httpClient = new HttpClient("http://127.0.0.1:" + server.getAddress().getPort() + "/");
+        }
+
+        @Override
+        public String getName() {
+            return path;
+        }
+
+        @Override
+        public String getTimeStampKey() {
+            return path + "Ts";
+        }
+
+        @Override
+        public long getIntervalMs() {
+            return intervalMs;
+        }
+
+        @Override
+        public long getTimeoutMs() {
+            return 200;
+        }
+
+        @Override
+        public int getPriority() {
+            return priority;
+        }
+
+        @Override
+        public Map<String, PriceData> request() throws Exception {
+            double price = Double.parseDouble(httpClient.requestWithGETNoProxy(path, null, null));
+            Map<String, PriceData> prices = new HashMap<>();
+            prices.put("EUR", new PriceData("EUR", price, price, price));
+            return prices;
+        }
+    }
+}
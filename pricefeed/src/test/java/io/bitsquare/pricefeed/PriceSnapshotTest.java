@@ -0,0 +1,134 @@
+package io.bitsquare.pricefeed;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+
+public class PriceSnapshotTest {
+    private static final long VERSION = 20;
+
+    private PriceSnapshot snapshot;
+
+    @Before
+    public void setup() {
+        Map<String, Long> timeStamps = new HashMap<>();
+        timeStamps.put("btcAverageTs", 1L);
+        timeStamps.put("poloniexTs", 2L);
+        timeStamps.put("coinmarketcapTs", 3L);
+
+        Map<String, PriceData> prices = new HashMap<>();
+        Map<String, Long> versionByCurrency = new HashMap<>();
+        prices.put("EUR", new PriceData("EUR", 401, 399, 400));
+        versionByCurrency.put("EUR", VERSION);
+        prices.put("USD", new PriceData("USD", 501, 499, 500));
+        versionByCurrency.put("USD", VERSION - 5);
+        prices.put("XMR", new PriceData("XMR", 0.02, 0.01, 0.015));
+        versionByCurrency.put("XMR", 1L);
+
+        snapshot = new PriceSnapshot(VERSION, timeStamps, prices, versionByCurrency);
+    }
+
+    @Test
+    public void testJson() throws IOException {
+        assertEquals("\"20\"", snapshot.getETag());
+
+        JsonObject json = parse(snapshot.getJson());
+        assertEquals(VERSION, json.get("version").getAsLong());
+        assertEquals(1, json.get("btcAverageTs").getAsLong());
+        assertEquals(2, json.get("poloniexTs").getAsLong());
+        assertEquals(3, json.get("coinmarketcapTs").getAsLong());
+        assertEquals(toSet("EUR", "USD", "XMR"), getCurrencyCodes(json));
+
+        assertArrayEquals(snapshot.getJson(), gunzip(snapshot.getGzippedJson()));
+    }
+
+    @Test
+    public void testDeltaJson() {
+        JsonObject json = parse(snapshot.getDeltaJson(VERSION - 1));
+        assertEquals(VERSION, json.get("version").getAsLong());
+        assertEquals(3, json.get("coinmarketcapTs").getAsLong());
+        assertEquals(toSet("EUR"), getCurrencyCodes(json));
+
+        // USD has changed at VERSION - 5, so a client with that version has it already
+        assertEquals(toSet("EUR"), getCurrencyCodes(parse(snapshot.getDeltaJson(VERSION - 5))));
+        assertEquals(toSet("EUR", "USD"), getCurrencyCodes(parse(snapshot.getDeltaJson(VERSION - 6))));
+
+        // Same instance at the next request
+        assertSame(snapshot.getDeltaJson(VERSION - 1), snapshot.getDeltaJson(VERSION - 1));
+    }
+
+    @Test
+    public void testDeltaJsonOfCurrentVersion() {
+        JsonObject json = parse(snapshot.getDeltaJson(VERSION));
+        assertEquals(VERSION, json.get("version").getAsLong());
+        assertTrue(getCurrencyCodes(json).isEmpty());
+    }
+
+    @Test
+    public void testGzippedDeltaJson() throws IOException {
+        assertArrayEquals(snapshot.getDeltaJson(VERSION - 1), gunzip(snapshot.getGzippedDeltaJson(VERSION - 1)));
+        assertSame(snapshot.getGzippedDeltaJson(VERSION - 1), snapshot.getGzippedDeltaJson(VERSION - 1));
+        assertNull(snapshot.getGzippedDeltaJson(VERSION - 11));
+    }
+
+    @Test
+    public void testDeltaJsonVersionWindow() {
+        // The oldest version we provide a delta for
+        assertEquals(toSet("EUR", "USD"), getCurrencyCodes(parse(snapshot.getDeltaJson(VERSION - 10))));
+        // Too old, the client needs the full json
+        assertNull(snapshot.getDeltaJson(VERSION - 11));
+        assertNull(snapshot.getDeltaJson(0));
+        // A version we don't have yet, e.g. from another server or after a restart of the server
+        assertNull(snapshot.getDeltaJson(VERSION + 1));
+    }
+
+
+    ///////////////////////////////////////////////////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////////////////////////////////////////////////
+
+    private static JsonObject parse(byte[] json) {
+        assertNotNull(json);
+        return new JsonParser().parse(new String(json, StandardCharsets.UTF_8)).getAsJsonObject();
+    }
+
+    private static Set<String> getCurrencyCodes(JsonObject json) {
+        Set<String> currencyCodes = new HashSet<>();
+        JsonArray data = json.get("data").getAsJsonArray();
+        data.forEach(e -> currencyCodes.add(e.getAsJsonObject().get("c").getAsString()));
+        return currencyCodes;
+    }
+
+    private static Set<String> toSet(String... values) {
+        Set<String> set = new HashSet<>();
+        for (String value : values)
+            set.add(value);
+        return set;
+    }
+
+    private static byte[] gunzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try (InputStream inputStream = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+            byte[] buffer = new byte[1024];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1)
+                outputStream.write(buffer, 0, read);
+        }
+        return outputStream.toByteArray();
+    }
+}
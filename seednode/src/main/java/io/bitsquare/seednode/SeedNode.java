@@ -14,8 +14,11 @@ import io.bitsquare.common.UserThread;
 import io.bitsquare.common.handlers.ResultHandler;
 import io.bitsquare.common.util.LimitedKeyStrengthException;
 import io.bitsquare.common.util.Utilities;
+import io.bitsquare.http.HttpClient;
+import io.bitsquare.network.NetworkOptionKeys;
 import io.bitsquare.p2p.BootstrapListener;
 import io.bitsquare.p2p.P2PService;
+import io.bitsquare.p2p.network.NetworkNode;
 import io.bitsquare.trade.offer.OpenOfferManager;
 import io.bitsquare.trade.statistics.TradeStatisticsManager;
 import org.apache.commons.lang3.exception.ExceptionUtils;
@@ -76,6 +79,8 @@ public class SeedNode {
         Security.addProvider(new BouncyCastleProvider());
 
 
+        NetworkNode.setUseNioServer(env.getProperty(NetworkOptionKeys.USE_NIO_SERVER, boolean.class, false));
+
         seedNodeModule = new SeedNodeModule(env);
         injector = Guice.createInjector(seedNodeModule);
         Version.setBtcNetworkId(injector.getInstance(BitsquareEnvironment.class).getBitcoinNetwork().ordinal());
@@ -106,6 +111,7 @@ public class SeedNode {
                     injector.getInstance(P2PService.class).shutDown(() -> {
                         injector.getInstance(WalletService.class).shutDownDone.addListener((ov, o, n) -> {
                             seedNodeModule.close(injector);
+                            HttpClient.getPool().shutDown();
                             log.debug("Graceful shutdown completed");
                             resultHandler.handleResult();
                         });
@@ -15,6 +15,7 @@ import io.bitsquare.common.UserThread;
 import io.bitsquare.common.handlers.ResultHandler;
 import io.bitsquare.common.util.LimitedKeyStrengthException;
 import io.bitsquare.common.util.Utilities;
+import io.bitsquare.http.HttpClient;
 import io.bitsquare.locale.CurrencyUtil;
 import io.bitsquare.p2p.BootstrapListener;
 import io.bitsquare.p2p.P2PService;
@@ -119,6 +120,7 @@ public class Statistics {
                     injector.getInstance(P2PService.class).shutDown(() -> {
                         injector.getInstance(WalletService.class).shutDownDone.addListener((ov, o, n) -> {
                             statisticsModule.close(injector);
+                            HttpClient.getPool().shutDown();
                             log.debug("Graceful shutdown completed");
                             resultHandler.handleResult();
                         });